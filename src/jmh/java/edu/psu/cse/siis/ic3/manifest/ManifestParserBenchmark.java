@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.manifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time it takes to parse the binary manifests of a set of applications. The
+ * manifests are located in their archives before the measurement, so only parsing is timed.
+ *
+ * Build with mvn clean package -P benchmark, then run
+ * java -jar target/benchmarks.jar -p apks=&lt;directory of .apk files&gt;. To measure the effect of
+ * a parser change, run the benchmark on both sides of the change with the same applications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ManifestParserBenchmark {
+  private static final String APK_EXTENSION = ".apk";
+  private static final String MANIFEST_FILE_NAME = "AndroidManifest.xml";
+
+  /**
+   * A directory which contains the .apk files whose manifests are parsed.
+   */
+  @Param("")
+  public String apks;
+
+  private List<ByteBuffer> manifests;
+
+  @Setup
+  public void readManifests() throws IOException {
+    if (apks.isEmpty()) {
+      throw new IllegalArgumentException("The apks parameter should be set with -p apks=<dir>");
+    }
+
+    List<File> apkFiles = new ArrayList<>();
+    findApks(new File(apks), apkFiles);
+    Collections.sort(apkFiles);
+    manifests = new ArrayList<>(apkFiles.size());
+    for (File apkFile : apkFiles) {
+      ByteBuffer manifest = ZipEntryBuffers.read(apkFile.getPath(), MANIFEST_FILE_NAME);
+      if (manifest != null) {
+        manifests.add(manifest);
+      }
+    }
+    if (manifests.isEmpty()) {
+      throw new IllegalArgumentException("No manifest found in " + apks);
+    }
+  }
+
+  /**
+   * Parses all manifests.
+   *
+   * @return The parsers, so that the parsing is not optimized away.
+   */
+  @Benchmark
+  public List<ManifestPullParser> parseManifests() {
+    List<ManifestPullParser> parsers = new ArrayList<>(manifests.size());
+    for (ByteBuffer manifest : manifests) {
+      ManifestPullParser parser = new ManifestPullParser();
+      parser.loadClassesFromBinaryManifest(manifest.duplicate());
+      parsers.add(parser);
+    }
+
+    return parsers;
+  }
+
+  private void findApks(File directory, List<File> apkFiles) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        findApks(file, apkFiles);
+      } else if (file.getName().endsWith(APK_EXTENSION)) {
+        apkFiles.add(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,613 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.psu.cse.siis.coal.FatalAnalysisException;
+import edu.psu.cse.siis.coal.PropagationTimers;
+import edu.psu.cse.siis.coal.Results;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Status;
+import edu.psu.cse.siis.ic3.db.SQLConnection;
+import edu.psu.cse.siis.ic3.db.SpoolLoader;
+import edu.psu.cse.siis.ic3.manifest.ManifestPullParser;
+
+/**
+ * Batch analysis of a corpus of applications.
+ *
+ * Soot keeps its state in global singletons, so applications cannot be analyzed by concurrent
+ * threads. Instead, the driver splits the corpus into one shard per worker and starts one worker
+ * JVM per shard. Each worker then analyzes the applications of its shard one after the other,
+ * reusing the warm JVM and resetting the global analysis state between applications. A worker
+ * records every application it is done with in a progress file. If a worker dies (e.g., because
+ * it ran out of memory), the driver marks the application that was being processed as failed,
+ * writes the same "-1" output line as for failures in a worker and starts a new worker on the rest
+ * of the shard.
+ *
+ * With a phase timeout or a heap watermark, a worker halts itself when an analysis exceeds its
+ * budget, after recording the reason in a status file (see {@link Watchdog}). The driver then
+ * writes the manifest data of the application with the reason, since the global analysis state of
+ * the worker cannot be trusted anymore. A worker which does not halt itself within twice the phase
+ * timeout is killed by the driver.
+ *
+ * The results of each application are written to the database in a single transaction, and an
+ * application is only marked as complete in the transaction which writes its last rows. Before
+ * starting the workers, the driver deletes the applications which are not complete, for example
+ * because an earlier batch was killed. Applications whose complete results are up to date are
+ * skipped by the workers, so a batch can simply be run again until it is done.
+ *
+ * With -spool, each worker stages the exit points and intents of its applications in its own
+ * spool segment, and the driver bulk loads all segments once the workers are done.
+ */
+public class BatchAnalysis {
+  private static final String APK_EXTENSION = ".apk";
+  private static final String COMMENT_PREFIX = "#";
+  private static final String INPUT_SEPARATOR = "\t";
+  private static final String SHARD_PREFIX = "ic3-batch-";
+  private static final String PROGRESS_SUFFIX = ".progress";
+  private static final String STATUS_SUFFIX = ".status";
+  private static final long WORKER_POLL_INTERVAL = 1000;
+  // A worker is killed when a phase runs for this many phase timeouts.
+  private static final int KILL_TIMEOUT_FACTOR = 2;
+  private static final List<String> DRIVER_OPTIONS = Arrays.asList("batch", "batchworkers",
+      "batchprogress");
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Ic3CommandLineArguments commandLineArguments;
+  private final String[] args;
+
+  /**
+   * Constructor.
+   *
+   * @param commandLineArguments The processed command line arguments.
+   * @param args The raw command line arguments, which are passed on to the workers.
+   */
+  public BatchAnalysis(Ic3CommandLineArguments commandLineArguments, String[] args) {
+    this.commandLineArguments = commandLineArguments;
+    this.args = args;
+  }
+
+  /**
+   * Performs the batch analysis. If this JVM is a batch worker, the applications are analyzed
+   * directly. Otherwise, worker processes are started and this method returns when all of them
+   * are done.
+   */
+  public void run() {
+    List<String[]> applications;
+    try {
+      applications = readApplications(commandLineArguments.getBatch());
+    } catch (IOException e) {
+      logger.error("Could not read application list " + commandLineArguments.getBatch(), e);
+      return;
+    }
+
+    if (commandLineArguments.getBatchProgress() == null && commandLineArguments.getDb() != null) {
+      // Spooled applications are only complete once they are loaded.
+      loadSpool();
+      deleteIncompleteApplications();
+    }
+
+    if (commandLineArguments.manifestOnly()) {
+      // Manifests can be parsed concurrently, so worker processes are not needed.
+      new ManifestScanner(commandLineArguments, commandLineArguments.getBatchWorkers())
+          .scan(applications);
+      if (commandLineArguments.getDb() != null) {
+        SQLConnection.shutdown();
+      }
+    } else if (commandLineArguments.getBatchProgress() != null) {
+      analyzeApplications(applications, commandLineArguments.getBatchProgress());
+      if (commandLineArguments.getDb() != null) {
+        SQLConnection.shutdown();
+      }
+    } else {
+      runWorkers(applications);
+      if (commandLineArguments.getDb() != null) {
+        loadSpool();
+        // Save the component index, to which the manifests of aborted analyses were added.
+        SQLConnection.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Analyzes a single application in a worker process, so that partial results can be written if
+   * the analysis exceeds its budget. Unlike {@link #run()}, the database is not cleaned up first,
+   * since other single application analyses may be writing to it.
+   *
+   * @param manifest The path to the manifest or .apk file.
+   */
+  public void runSingleApplication(String manifest) {
+    try {
+      superviseWorker(Collections.singletonList(new String[] { manifest, null }));
+    } catch (IOException | InterruptedException e) {
+      logger.error("Analysis worker failed", e);
+    }
+    if (commandLineArguments.getDb() != null) {
+      SQLConnection.shutdown();
+    }
+  }
+
+  /**
+   * Gets the status file of the analyses of a worker.
+   *
+   * @param progressPath The path to the progress file of the worker.
+   * @return The status file.
+   */
+  public static File getStatusFile(String progressPath) {
+    return new File(progressPath + STATUS_SUFFIX);
+  }
+
+  /**
+   * Loads the rows staged in the spool directory by the workers, if any.
+   */
+  protected void loadSpool() {
+    if (commandLineArguments.getSpool() == null) {
+      return;
+    }
+    SQLConnection.init(commandLineArguments.getDbName(), commandLineArguments.getDb(),
+        commandLineArguments.getSsh(), commandLineArguments.getDbLocalPort());
+    try {
+      int count = new SpoolLoader(commandLineArguments.getSpool()).load();
+      logger.info("Loaded " + count + " applications from spool "
+          + commandLineArguments.getSpool());
+    } catch (SQLException | IOException e) {
+      logger.error("Could not load spool " + commandLineArguments.getSpool(), e);
+    } finally {
+      SQLConnection.closeConnection();
+    }
+  }
+
+  /**
+   * Deletes the applications whose results were only partially written by an earlier run, so that
+   * they are analyzed again.
+   */
+  protected void deleteIncompleteApplications() {
+    SQLConnection.init(commandLineArguments.getDbName(), commandLineArguments.getDb(),
+        commandLineArguments.getSsh(), commandLineArguments.getDbLocalPort());
+    int count = SQLConnection.deleteIncompleteApplications();
+    SQLConnection.closeConnection();
+    if (count > 0) {
+      logger.warn("Deleted " + count + " incomplete applications from an earlier run");
+    }
+  }
+
+  /**
+   * Analyzes applications in this JVM, skipping the ones that were already processed.
+   *
+   * @param applications The applications to analyze.
+   * @param progressPath The path to the progress file.
+   */
+  protected void analyzeApplications(List<String[]> applications, String progressPath) {
+    File progressFile = new File(progressPath);
+    Set<String> processed;
+    try {
+      processed = readProgress(progressFile);
+    } catch (IOException e) {
+      logger.error("Could not read progress file " + progressPath, e);
+      return;
+    }
+
+    for (String[] application : applications) {
+      if (processed.contains(application[0])) {
+        continue;
+      }
+
+      analyzeApplication(application[0], application[1]);
+
+      try {
+        appendProgress(progressFile, application[0]);
+      } catch (IOException e) {
+        logger.error("Could not write to progress file " + progressPath, e);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Analyzes a single application. Failures are reported the same way as in single application
+   * mode and do not stop the batch.
+   *
+   * @param manifest The path to the manifest or .apk file.
+   * @param input The input directory of the application, or null to use the -input argument.
+   */
+  protected void analyzeApplication(String manifest, String input) {
+    resetAnalysisState();
+    commandLineArguments.setApplication(manifest, input);
+
+    Ic3Analysis analysis = new Ic3Analysis();
+    long startTime = System.currentTimeMillis();
+    try {
+      analysis.performAnalysis(commandLineArguments);
+    } catch (RuntimeException | StackOverflowError e) {
+      logger.error("Unexpected error while analyzing " + manifest, e);
+      analysis.handleFatalAnalysisException(commandLineArguments, new FatalAnalysisException(
+          e.toString()));
+    }
+
+    if (logger.isInfoEnabled()) {
+      logger.info("Processed " + manifest + " in " + (System.currentTimeMillis() - startTime)
+          + " ms");
+    }
+  }
+
+  /**
+   * Resets the global state that is kept between analyses.
+   */
+  protected void resetAnalysisState() {
+    soot.G.reset();
+    Timers.clear();
+    Metrics.clear();
+    PropagationTimers.clear();
+    UnitIndex.clear();
+    Results.reset();
+    SQLConnection.reset();
+  }
+
+  /**
+   * Starts the worker processes and waits for them to finish.
+   *
+   * @param applications The applications to analyze.
+   */
+  protected void runWorkers(List<String[]> applications) {
+    int workerCount =
+        Math.max(1, Math.min(commandLineArguments.getBatchWorkers(), applications.size()));
+    List<List<String[]>> shards = new ArrayList<>(workerCount);
+    for (int i = 0; i < workerCount; ++i) {
+      shards.add(new ArrayList<String[]>());
+    }
+    for (int i = 0; i < applications.size(); ++i) {
+      shards.get(i % workerCount).add(applications.get(i));
+    }
+
+    List<Thread> supervisors = new ArrayList<>(workerCount);
+    for (final List<String[]> shard : shards) {
+      Thread supervisor = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            superviseWorker(shard);
+          } catch (IOException | InterruptedException e) {
+            logger.error("Batch worker failed", e);
+          }
+        }
+      });
+      supervisor.start();
+      supervisors.add(supervisor);
+    }
+
+    for (Thread supervisor : supervisors) {
+      try {
+        supervisor.join();
+      } catch (InterruptedException e) {
+        logger.error("Interrupted while waiting for batch workers", e);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Runs a worker process on a shard, restarting it until all applications have been processed.
+   *
+   * @param shard The applications assigned to the worker.
+   * @throws IOException if the shard or progress files cannot be accessed.
+   * @throws InterruptedException if the thread is interrupted while waiting for the worker.
+   */
+  protected void superviseWorker(List<String[]> shard) throws IOException, InterruptedException {
+    File shardFile = File.createTempFile(SHARD_PREFIX, ".txt");
+    File progressFile = new File(shardFile.getPath() + PROGRESS_SUFFIX);
+    File statusFile = getStatusFile(progressFile.getPath());
+    shardFile.deleteOnExit();
+    progressFile.deleteOnExit();
+    statusFile.deleteOnExit();
+    writeApplications(shardFile, shard);
+
+    while (true) {
+      ProcessBuilder processBuilder =
+          new ProcessBuilder(makeWorkerCommand(shardFile.getPath(), progressFile.getPath()));
+      processBuilder.inheritIO();
+      Process process = processBuilder.start();
+      boolean killed = waitForWorker(process, statusFile);
+      int exitValue = process.exitValue();
+
+      Set<String> processed = readProgress(progressFile);
+      String[] failedApplication = null;
+      for (String[] application : shard) {
+        if (!processed.contains(application[0])) {
+          failedApplication = application;
+          break;
+        }
+      }
+
+      if (failedApplication == null) {
+        return;
+      }
+      // The worker stopped in the middle of its shard. The application it was working on is the
+      // first one that is not in the progress file.
+      Watchdog.Report report = Watchdog.readReport(statusFile);
+      statusFile.delete();
+      if (report != null && !report.getManifest().equals(failedApplication[0])) {
+        report = null;
+      }
+      Status status = report != null ? report.getStatus() : null;
+      // The phase is unknown if the worker was killed without a report for this application.
+      String phase = report != null ? report.getPhase() : null;
+      if (killed && status == null) {
+        status = Status.TIMEOUT;
+      }
+
+      if (status != null) {
+        logger.error("Analysis of " + failedApplication[0] + " aborted: " + status + " in phase "
+            + phase);
+        writeAbortedApplication(failedApplication, status, phase);
+      } else {
+        logger.error("Batch worker exited with status " + exitValue + " while analyzing "
+            + failedApplication[0]);
+        writeFailure(failedApplication, "crashed");
+      }
+      appendProgress(progressFile, failedApplication[0]);
+    }
+  }
+
+  /**
+   * Waits for a worker to exit. If a phase timeout is set and the status file shows that a phase
+   * has been running for much longer, the worker is killed.
+   *
+   * @param process The worker process.
+   * @param statusFile The status file of the worker.
+   * @return True if the worker was killed.
+   * @throws InterruptedException if the thread is interrupted while waiting for the worker.
+   */
+  protected boolean waitForWorker(Process process, File statusFile) throws InterruptedException {
+    long killTimeout = commandLineArguments.getPhaseTimeout() * 1000L * KILL_TIMEOUT_FACTOR;
+    while (true) {
+      try {
+        process.exitValue();
+        return false;
+      } catch (IllegalThreadStateException e) {
+        // The worker is still running.
+      }
+
+      if (killTimeout > 0) {
+        Watchdog.Report report = Watchdog.readReport(statusFile);
+        if (report != null && report.getStatus() == null
+            && System.currentTimeMillis() - report.getTime() > killTimeout) {
+          logger.error("Killing batch worker, which has been in phase " + report.getPhase()
+              + " of " + report.getManifest() + " for more than " + killTimeout + " ms");
+          process.destroy();
+          process.waitFor();
+          return true;
+        }
+      }
+
+      Thread.sleep(WORKER_POLL_INTERVAL);
+    }
+  }
+
+  /**
+   * Records an application whose analysis was aborted. Its manifest data is written to the
+   * protobuf or database output with the reason for the abort, and the output line gets the
+   * reason and the phase.
+   *
+   * @param application The (manifest, input) pair of the application.
+   * @param status The reason for the abort.
+   * @param phase The phase during which the analysis was aborted, or null if it is unknown.
+   */
+  protected synchronized void writeAbortedApplication(String[] application, Status status,
+      String phase) {
+    if (commandLineArguments.protobufOutput() || commandLineArguments.getDb() != null) {
+      ManifestAnalysis manifestAnalysis = new ManifestAnalysis();
+      ManifestPullParser detailedManifest = manifestAnalysis.parseManifest(application[0]);
+      if (detailedManifest != null) {
+        Ic3Data.Application.Builder ic3Builder =
+            commandLineArguments.protobufOutput() ? manifestAnalysis.makeApplication(
+                detailedManifest, commandLineArguments.getSample(),
+                System.currentTimeMillis() / 1000) : null;
+        manifestAnalysis.writeResults(detailedManifest, ic3Builder, status, phase,
+            commandLineArguments);
+      }
+    }
+
+    writeFailure(application, status.name().toLowerCase() + (phase != null ? " " + phase : ""));
+  }
+
+  /**
+   * Records the failure of an application whose worker died, the same way as failures which are
+   * handled in the worker itself.
+   *
+   * @param application The (manifest, input) pair of the application.
+   * @param reason The reason for the failure, which is appended to the output line.
+   */
+  protected void writeFailure(String[] application, String reason) {
+    String outputDir = commandLineArguments.getOutput();
+    if (outputDir == null) {
+      return;
+    }
+    ManifestPullParser manifest = new ManifestAnalysis().parseManifest(application[0]);
+    if (manifest == null || manifest.getPackageName() == null) {
+      return;
+    }
+
+    String input = application[1] != null ? application[1] : commandLineArguments.getInput();
+    String outputFile = String.format("%s/%s.csv", outputDir, manifest.getPackageName());
+    try (Writer writer = new BufferedWriter(new FileWriter(outputFile, false))) {
+      writer.write(input + " -1 " + reason + "\n");
+    } catch (IOException e) {
+      logger.error("Could not write to file after failure to process application", e);
+    }
+  }
+
+  /**
+   * Makes the command line of a worker process. The worker runs in the same kind of JVM as this
+   * one and gets the same arguments, except for the batch options.
+   *
+   * @param shardPath The path to the list of applications for the worker.
+   * @param progressPath The path to the progress file of the worker.
+   * @return The worker command line.
+   */
+  protected List<String> makeWorkerCommand(String shardPath, String progressPath) {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java");
+    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Main.class.getName());
+
+    for (int i = 0; i < args.length; ++i) {
+      String option = args[i].replaceFirst("^--?", "");
+      if (DRIVER_OPTIONS.contains(option)) {
+        // Skip the option value as well.
+        ++i;
+      } else {
+        command.add(args[i]);
+      }
+    }
+
+    command.add("-batch");
+    command.add(shardPath);
+    command.add("-batchprogress");
+    command.add(progressPath);
+
+    return command;
+  }
+
+  /**
+   * Reads the applications to analyze. If the path is a directory, all .apk files it contains are
+   * analyzed. Otherwise, the path is a list file with one application per line. Each line contains
+   * the path to the manifest or .apk file, optionally followed by a tab and the path to the input
+   * directory of the application.
+   *
+   * @param path The path to a list file or to a directory.
+   * @return A list of (manifest, input) pairs, where the input may be null.
+   * @throws IOException if the list cannot be read.
+   */
+  protected List<String[]> readApplications(String path) throws IOException {
+    File file = new File(path);
+    List<String[]> applications = new ArrayList<>();
+
+    if (file.isDirectory()) {
+      List<File> apks = new ArrayList<>();
+      findApks(file, apks);
+      Collections.sort(apks);
+      for (File apk : apks) {
+        applications.add(new String[] { apk.getPath(), findInput(apk) });
+      }
+    } else {
+      try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+            continue;
+          }
+          String[] fields = line.split(INPUT_SEPARATOR, 2);
+          String input = fields.length > 1 ? fields[1].trim() : null;
+          applications.add(new String[] { fields[0].trim(), input });
+        }
+      }
+    }
+
+    return applications;
+  }
+
+  private void findApks(File directory, List<File> apks) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        findApks(file, apks);
+      } else if (file.getName().endsWith(APK_EXTENSION)) {
+        apks.add(file);
+      }
+    }
+  }
+
+  /**
+   * Finds the input directory for an .apk found in a batch directory. If the -input argument is a
+   * directory that contains a subdirectory with the same name as the .apk (minus the extension),
+   * that subdirectory is used. Otherwise, the -input argument is used.
+   *
+   * @param apk The .apk file.
+   * @return The input directory, or null if the -input argument should be used.
+   */
+  private String findInput(File apk) {
+    String baseInput = commandLineArguments.getInput();
+    if (baseInput == null) {
+      return null;
+    }
+    String name = apk.getName();
+    File input =
+        new File(baseInput, name.substring(0, name.length() - APK_EXTENSION.length()));
+
+    return input.isDirectory() ? input.getPath() : null;
+  }
+
+  private void writeApplications(File file, List<String[]> applications) throws IOException {
+    try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+      for (String[] application : applications) {
+        writer.write(application[0]);
+        if (application[1] != null) {
+          writer.write(INPUT_SEPARATOR);
+          writer.write(application[1]);
+        }
+        writer.write("\n");
+      }
+    }
+  }
+
+  private Set<String> readProgress(File progressFile) throws IOException {
+    Set<String> processed = new HashSet<>();
+    if (!progressFile.exists()) {
+      return processed;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(progressFile))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        processed.add(line);
+      }
+    }
+    return processed;
+  }
+
+  private void appendProgress(File progressFile, String application) throws IOException {
+    try (Writer writer = new FileWriter(progressFile, true)) {
+      writer.write(application + "\n");
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An on-disk cache of callback discovery results. Callback discovery only depends on the
+ * application and on the Android class path, so entries are keyed by the SHA-256 digest of the
+ * .apk or manifest, a digest of the application classes and a digest of the class path.
+ *
+ * Each entry is a gzipped file. Strings are stored once in a string table and referred to by index,
+ * since the class names in the callback map are repeated in the callback signatures.
+ */
+public class CallbackCache {
+  private static final int MAGIC = 0x49433343; // "IC3C"
+  private static final int FORMAT_VERSION = 1;
+  private static final String ENTRY_SUFFIX = ".cb";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final File directory;
+
+  /**
+   * Callback discovery results for an application.
+   */
+  public static class Entry {
+    private final Set<String> entryPointClasses;
+    private final Map<String, Set<String>> callbackMethods;
+
+    public Entry(Set<String> entryPointClasses, Map<String, Set<String>> callbackMethods) {
+      this.entryPointClasses = entryPointClasses;
+      this.callbackMethods = callbackMethods;
+    }
+
+    /**
+     * Returns the classes that contain entry points.
+     *
+     * @return The entry point classes.
+     */
+    public Set<String> getEntryPointClasses() {
+      return entryPointClasses;
+    }
+
+    /**
+     * Returns the callback methods, as a map from class name to callback signatures.
+     *
+     * @return The callback methods.
+     */
+    public Map<String, Set<String>> getCallbackMethods() {
+      return callbackMethods;
+    }
+  }
+
+  public CallbackCache(String directory) {
+    this.directory = new File(directory);
+  }
+
+  /**
+   * Computes the cache key of an application. When the manifest is given as an XML file, callback
+   * discovery reads the classes from the input, so the input is part of the key.
+   *
+   * @param apk The path to the .apk or manifest file.
+   * @param input The class path of the application, which is often the .apk itself.
+   * @param classpath The Android class path.
+   * @return The cache key.
+   * @throws IOException if the .apk or the application classes cannot be read.
+   */
+  public String computeKey(String apk, String input, String classpath) throws IOException {
+    StringBuilder key = new StringBuilder(Digests.sha256(apk)).append('-');
+    if (input != null && !new File(apk).equals(new File(input))) {
+      key.append(Digests.inputSha256(input).substring(0, 16)).append('-');
+    }
+
+    return key.append(Digests.classpathSha256(classpath).substring(0, 16)).toString();
+  }
+
+  /**
+   * Loads a cache entry.
+   *
+   * @param key The cache key.
+   * @return The cached results, or null if there is no usable entry for the key.
+   */
+  public Entry load(String key) {
+    File file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+
+    try (DataInputStream inputStream =
+        new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(
+            file))))) {
+      if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+
+      int stringCount = inputStream.readInt();
+      List<String> strings = new ArrayList<>(stringCount);
+      for (int i = 0; i < stringCount; ++i) {
+        strings.add(inputStream.readUTF());
+      }
+
+      int entryPointCount = inputStream.readInt();
+      Set<String> entryPointClasses = new HashSet<>(entryPointCount);
+      for (int i = 0; i < entryPointCount; ++i) {
+        entryPointClasses.add(strings.get(inputStream.readInt()));
+      }
+
+      int classCount = inputStream.readInt();
+      Map<String, Set<String>> callbackMethods = new HashMap<>(classCount);
+      for (int i = 0; i < classCount; ++i) {
+        String className = strings.get(inputStream.readInt());
+        int methodCount = inputStream.readInt();
+        Set<String> methods = new HashSet<>(methodCount);
+        for (int j = 0; j < methodCount; ++j) {
+          methods.add(strings.get(inputStream.readInt()));
+        }
+        callbackMethods.put(className, methods);
+      }
+
+      return new Entry(entryPointClasses, callbackMethods);
+    } catch (IOException | IndexOutOfBoundsException e) {
+      logger.warn("Ignoring corrupted callback cache entry " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores a cache entry. The entry is written to a temporary file which is then moved into
+   * place, so that concurrent analyses never see partially written entries.
+   *
+   * @param key The cache key.
+   * @param entry The results to cache.
+   */
+  public void store(String key, Entry entry) {
+    File file = getFile(key);
+    File parent = file.getParentFile();
+    if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+      logger.warn("Could not create callback cache directory " + parent);
+      return;
+    }
+
+    Map<String, Integer> stringIds = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    for (String entryPointClass : entry.getEntryPointClasses()) {
+      addString(entryPointClass, stringIds, strings);
+    }
+    for (Map.Entry<String, Set<String>> callbacks : entry.getCallbackMethods().entrySet()) {
+      addString(callbacks.getKey(), stringIds, strings);
+      for (String method : callbacks.getValue()) {
+        addString(method, stringIds, strings);
+      }
+    }
+
+    File temporaryFile = null;
+    try {
+      temporaryFile = File.createTempFile(key, ".tmp", parent);
+      try (DataOutputStream outputStream =
+          new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+              new FileOutputStream(temporaryFile))))) {
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(FORMAT_VERSION);
+
+        outputStream.writeInt(strings.size());
+        for (String string : strings) {
+          outputStream.writeUTF(string);
+        }
+
+        outputStream.writeInt(entry.getEntryPointClasses().size());
+        for (String entryPointClass : entry.getEntryPointClasses()) {
+          outputStream.writeInt(stringIds.get(entryPointClass));
+        }
+
+        outputStream.writeInt(entry.getCallbackMethods().size());
+        for (Map.Entry<String, Set<String>> callbacks : entry.getCallbackMethods().entrySet()) {
+          outputStream.writeInt(stringIds.get(callbacks.getKey()));
+          outputStream.writeInt(callbacks.getValue().size());
+          for (String method : callbacks.getValue()) {
+            outputStream.writeInt(stringIds.get(method));
+          }
+        }
+      }
+
+      Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Could not write callback cache entry " + file, e);
+      if (temporaryFile != null) {
+        temporaryFile.delete();
+      }
+    }
+  }
+
+  private void addString(String string, Map<String, Integer> stringIds, List<String> strings) {
+    if (!stringIds.containsKey(string)) {
+      stringIds.put(string, strings.size());
+      strings.add(string);
+    }
+  }
+
+  private File getFile(String key) {
+    // Spread the entries over subdirectories to keep directory sizes reasonable.
+    return new File(new File(directory, key.substring(0, 2)), key + ENTRY_SUFFIX);
+  }
+}
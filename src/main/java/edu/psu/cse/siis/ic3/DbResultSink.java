@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import soot.SootMethod;
+import soot.Unit;
+import edu.psu.cse.siis.coal.arguments.Argument;
+import edu.psu.cse.siis.coal.values.BasePropagationValue;
+import edu.psu.cse.siis.coal.values.BottomPropagationValue;
+import edu.psu.cse.siis.coal.values.PathValue;
+import edu.psu.cse.siis.coal.values.PropagationValue;
+import edu.psu.cse.siis.coal.values.TopPropagationValue;
+import edu.psu.cse.siis.ic3.db.DbConnection;
+import edu.psu.cse.siis.ic3.db.SQLConnection;
+import edu.psu.cse.siis.ic3.manifest.ManifestComponent;
+import edu.psu.cse.siis.ic3.manifest.ManifestIntentFilter;
+
+/**
+ * A result sink that writes exit points, dynamic receivers and component extras to the database.
+ * The transaction in which the manifest was written is committed when the sink is finished, along
+ * with the fingerprint of the analysis, and the application is then marked as complete. When
+ * exit points are staged in a spool, they are committed to the spool after the transaction.
+ */
+public class DbResultSink implements ResultSink {
+  private final Map<String, Integer> componentToIdMap;
+  private final Fingerprint fingerprint;
+
+  /**
+   * Constructor.
+   *
+   * @param componentToIdMap A map from component names to database identifiers.
+   * @param fingerprint The fingerprint of the analysis, or null.
+   */
+  public DbResultSink(Map<String, Integer> componentToIdMap, Fingerprint fingerprint) {
+    this.componentToIdMap = componentToIdMap;
+    this.fingerprint = fingerprint;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void addResult(Ic3Result result, Unit unit, SootMethod method, Argument[] arguments,
+      Map<Integer, Object> argumentValues) throws SQLException {
+    if (arguments == null) {
+      return;
+    }
+
+    Map<SootMethod, Set<String>> entryPointMap = result.getEntryPointMap();
+    int unitId = UnitIndex.v().getId(unit, method);
+    Map<String, Object> valueMap = new HashMap<>(arguments.length);
+    for (Argument argument : arguments) {
+      valueMap.put(argument.getProperty("valueType"),
+          argumentValues.get(argument.getArgnum()[0]));
+    }
+
+    String className = method.getDeclaringClass().getName();
+    String methodSignature = method.getSignature();
+    if (valueMap.containsKey("activity")) {
+      DbConnection.insertIntentAtExitPoint(className, methodSignature, unitId,
+          (BasePropagationValue) valueMap.get("activity"),
+          edu.psu.cse.siis.ic3.db.Constants.ComponentShortType.ACTIVITY, null, null,
+          entryPointMap.get(method), componentToIdMap);
+    } else if (valueMap.containsKey("service")) {
+      DbConnection.insertIntentAtExitPoint(className, methodSignature, unitId,
+          (BasePropagationValue) valueMap.get("service"),
+          edu.psu.cse.siis.ic3.db.Constants.ComponentShortType.SERVICE, null, null,
+          entryPointMap.get(method), componentToIdMap);
+    } else if (valueMap.containsKey("receiver")) {
+      DbConnection.insertIntentAtExitPoint(className, methodSignature, unitId,
+          (BasePropagationValue) valueMap.get("receiver"),
+          edu.psu.cse.siis.ic3.db.Constants.ComponentShortType.RECEIVER,
+          (Set<String>) valueMap.get("permission"), null, entryPointMap.get(method),
+          componentToIdMap);
+    } else if (valueMap.containsKey("intentFilter")) {
+      insertDynamicReceiver((Set<String>) valueMap.get("permission"),
+          (Set<String>) valueMap.get("receiverType"),
+          (BasePropagationValue) valueMap.get("intentFilter"), method, unit);
+    } else if (valueMap.containsKey("provider")) {
+      DbConnection.insertIntentAtExitPoint(className, methodSignature, unitId,
+          (BasePropagationValue) valueMap.get("provider"),
+          edu.psu.cse.siis.ic3.db.Constants.ComponentShortType.PROVIDER, null, null,
+          entryPointMap.get(method), componentToIdMap);
+    } else if (valueMap.containsKey("authority")) {
+      DbConnection.insertIntentAtExitPoint(className, methodSignature, unitId,
+          ResultValues.getUriValueForAuthorities((Set<String>) valueMap.get("authority")),
+          edu.psu.cse.siis.ic3.db.Constants.ComponentShortType.PROVIDER, null, null,
+          entryPointMap.get(method), componentToIdMap);
+    } else if (valueMap.containsKey("pendingIntent")) {
+      BasePropagationValue basePropagationValue =
+          (BasePropagationValue) valueMap.get("pendingIntent");
+      String targetType =
+          basePropagationValue instanceof PropagationValue ? (String) ((PropagationValue) basePropagationValue)
+              .getValuesForField("targetType").iterator().next().getValue()
+              : null;
+      Set<String> permissions = (Set<String>) valueMap.get("permission");
+      if (targetType != null) {
+        DbConnection.insertIntentAtExitPoint(className, methodSignature, unitId,
+            basePropagationValue, targetType, permissions, null, entryPointMap.get(method),
+            componentToIdMap);
+      } else {
+        for (String target : Arrays.asList("a", "r", "s")) {
+          DbConnection.insertIntentAtExitPoint(className, methodSignature, unitId,
+              basePropagationValue, target, permissions, null, entryPointMap.get(method),
+              componentToIdMap);
+        }
+      }
+    } else if (valueMap.containsKey("componentExtra")) {
+      DbConnection.insertComponentExtras(entryPointMap.get(method), componentToIdMap,
+          (Set<String>) valueMap.get("componentExtra"));
+    }
+  }
+
+  @Override
+  public void finishComponent(String component) {
+  }
+
+  @Override
+  public void finish() throws IOException, SQLException {
+    try {
+      if (SQLConnection.isSpooling()) {
+        // The application is marked as complete when its spooled rows are loaded. The spooled
+        // rows are only committed if the other rows were.
+        SQLConnection.commitTransaction();
+        SQLConnection.commitSpool(fingerprint != null ? fingerprint.getDigest() : null);
+      } else {
+        if (fingerprint != null) {
+          SQLConnection.setFingerprint(fingerprint.getDigest());
+        }
+        SQLConnection.markComplete();
+        SQLConnection.commitTransaction();
+      }
+    } catch (SQLException | IOException | RuntimeException e) {
+      SQLConnection.reset();
+      throw e;
+    } finally {
+      SQLConnection.closeConnection();
+    }
+  }
+
+  private void insertDynamicReceiver(Set<String> permissions, Set<String> receiverTypes,
+      BasePropagationValue intentFilters, SootMethod method, Unit unit) throws SQLException {
+    if (permissions == null) {
+      permissions = Collections.singleton(null);
+    }
+
+    for (String receiverType : receiverTypes) {
+      for (String permission : permissions) {
+        insertDynamicReceiverHelper(permission, receiverType, intentFilters, method, unit);
+      }
+    }
+  }
+
+  private void insertDynamicReceiverHelper(String permission, String receiverType,
+      BasePropagationValue intentFilters, SootMethod method, Unit unit) throws SQLException {
+    Integer missingIntentFilters;
+    Set<ManifestIntentFilter> manifestIntentFilters;
+    if (intentFilters == null || intentFilters instanceof TopPropagationValue
+        || intentFilters instanceof BottomPropagationValue) {
+      missingIntentFilters = 0;
+      manifestIntentFilters = null;
+    } else if (intentFilters instanceof PropagationValue) {
+      missingIntentFilters = null;
+      PropagationValue propagationValue = (PropagationValue) intentFilters;
+      manifestIntentFilters = new HashSet<>();
+      for (PathValue branchValue : propagationValue.getPathValues()) {
+        manifestIntentFilters.add(ResultValues.makeIntentFilter(branchValue));
+      }
+    } else {
+      throw new RuntimeException("Unknown intent filter type: " + intentFilters.getClass());
+    }
+
+    ManifestComponent manifestComponent =
+        new ManifestComponent(edu.psu.cse.siis.ic3.db.Constants.ComponentShortType.RECEIVER,
+            receiverType, true, true, permission, null, missingIntentFilters, method, unit);
+    manifestComponent.setIntentFilters(manifestIntentFilters);
+    SQLConnection.insertIntentFilters(Collections.singletonList(manifestComponent));
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SHA-256 digests of the analysis inputs.
+ */
+public class Digests {
+  private static final String ALGORITHM = "SHA-256";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private Digests() {
+  }
+
+  /**
+   * Computes the SHA-256 digest of the contents of a file.
+   *
+   * @param path The path to the file.
+   * @return The digest as a hexadecimal string.
+   * @throws IOException if the file cannot be read.
+   */
+  public static String sha256(String path) throws IOException {
+    try (InputStream inputStream = new FileInputStream(path)) {
+      return sha256(inputStream);
+    }
+  }
+
+  /**
+   * Computes the SHA-256 digest of the contents of a stream. The stream is read to its end but
+   * not closed.
+   *
+   * @param inputStream The stream.
+   * @return The digest as a hexadecimal string.
+   * @throws IOException if the stream cannot be read.
+   */
+  public static String sha256(InputStream inputStream) throws IOException {
+    MessageDigest messageDigest = newMessageDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int count;
+    while ((count = inputStream.read(buffer)) != -1) {
+      messageDigest.update(buffer, 0, count);
+    }
+
+    return toHexString(messageDigest.digest());
+  }
+
+  /**
+   * Computes a digest of the relative names and the contents of all the files in a directory.
+   *
+   * @param directory The path to the directory.
+   * @return The digest as a hexadecimal string.
+   * @throws IOException if a file cannot be read.
+   */
+  public static String directorySha256(String directory) throws IOException {
+    File root = new File(directory);
+    List<File> files = new ArrayList<>();
+    listFiles(root, files);
+    Collections.sort(files);
+
+    // Names are relative to the directory, so that moving it does not change the digest.
+    int rootLength = root.getPath().length();
+    StringBuilder description = new StringBuilder();
+    for (File file : files) {
+      description.append(file.getPath().substring(rootLength)).append(':')
+          .append(sha256(file.getPath())).append('\n');
+    }
+
+    return sha256OfString(description.toString());
+  }
+
+  /**
+   * Computes a digest of the classes of an application. Unlike framework class path entries, the
+   * contents of each entry are hashed, since the application code is what changes between
+   * analyses. Each entry may be a directory or an archive.
+   *
+   * @param input The class path of the application.
+   * @return The digest as a hexadecimal string.
+   * @throws IOException if a file cannot be read.
+   */
+  public static String inputSha256(String input) throws IOException {
+    StringBuilder description = new StringBuilder();
+    if (input != null) {
+      for (String entry : input.split(File.pathSeparator)) {
+        File file = new File(entry);
+        if (file.isDirectory()) {
+          description.append(directorySha256(entry));
+        } else if (file.exists()) {
+          description.append(sha256(entry));
+        }
+        description.append('\n');
+      }
+    }
+
+    return sha256OfString(description.toString());
+  }
+
+  /**
+   * Computes a digest of a class path. Reading whole framework jars for every application would
+   * be wasteful, so each class path entry is identified by its path, size and modification time.
+   *
+   * @param classpath The class path.
+   * @return The digest as a hexadecimal string.
+   */
+  public static String classpathSha256(String classpath) {
+    MessageDigest messageDigest = newMessageDigest();
+    if (classpath != null) {
+      for (String entry : classpath.split(File.pathSeparator)) {
+        File file = new File(entry);
+        String description =
+            file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified() + "\n";
+        messageDigest.update(description.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    return toHexString(messageDigest.digest());
+  }
+
+  /**
+   * Computes the SHA-256 digest of a string.
+   *
+   * @param string The string.
+   * @return The digest as a hexadecimal string.
+   */
+  public static String sha256OfString(String string) {
+    return toHexString(newMessageDigest().digest(string.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static void listFiles(File directory, List<File> files) {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        listFiles(child, files);
+      } else {
+        files.add(child);
+      }
+    }
+  }
+
+  private static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHexString(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; ++i) {
+      chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+      chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+    }
+
+    return new String(chars);
+  }
+}
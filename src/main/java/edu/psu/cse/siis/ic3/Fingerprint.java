@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The inputs which determine the results of an analysis: the application and its classes, the COAL
+ * model, the Android class path, the options which change the results and the version of IC3.
+ * Results with the same fingerprint do not need to be computed again.
+ */
+public class Fingerprint {
+  private static final String UNKNOWN = "unknown";
+  // COAL option which only infers the values of modeled types.
+  private static final String MODELED_TYPES_ONLY = "modeledtypesonly";
+
+  private final String apkSha256;
+  private final String inputSha256;
+  private final String modelSha256;
+  private final String classpathSha256;
+  private final String options;
+  private final String ic3Version;
+  private final String digest;
+
+  public Fingerprint(String apkSha256, String inputSha256, String modelSha256,
+      String classpathSha256, String options, String ic3Version) {
+    this.apkSha256 = apkSha256;
+    this.inputSha256 = inputSha256;
+    this.modelSha256 = modelSha256;
+    this.classpathSha256 = classpathSha256;
+    this.options = options;
+    this.ic3Version = ic3Version;
+    this.digest =
+        Digests.sha256OfString(apkSha256 + "\n" + inputSha256 + "\n" + modelSha256 + "\n"
+            + classpathSha256 + "\n" + options + "\n" + ic3Version);
+  }
+
+  /**
+   * Computes the fingerprint of an analysis.
+   *
+   * @param commandLineArguments The command line arguments of the analysis.
+   * @return The fingerprint.
+   * @throws IOException if the application, its classes or the model cannot be read.
+   */
+  public static Fingerprint compute(Ic3CommandLineArguments commandLineArguments)
+      throws IOException {
+    return new Fingerprint(Digests.sha256(commandLineArguments.getManifest()),
+        Digests.inputSha256(commandLineArguments.getInput()),
+        computeModelSha256(commandLineArguments),
+        Digests.classpathSha256(commandLineArguments.getClasspath()),
+        describeOptions(commandLineArguments), getIc3Version());
+  }
+
+  /**
+   * Gets a digest of all the fields of the fingerprint.
+   *
+   * @return The digest as a hexadecimal string.
+   */
+  public String getDigest() {
+    return digest;
+  }
+
+  /**
+   * Converts the fingerprint to a protobuf message.
+   *
+   * @return The protobuf message.
+   */
+  public Ic3Data.Application.Fingerprint toProtobuf() {
+    return Ic3Data.Application.Fingerprint.newBuilder().setApkSha256(apkSha256)
+        .setInputSha256(inputSha256).setModelSha256(modelSha256)
+        .setClasspathSha256(classpathSha256).setOptions(options).setIc3Version(ic3Version)
+        .setDigest(digest).build();
+  }
+
+  /**
+   * Determines if an application was completely analyzed with the same inputs.
+   *
+   * @param application The application.
+   * @return True if the application has this fingerprint and its analysis completed.
+   */
+  public boolean matches(Ic3Data.Application application) {
+    return application != null && application.getStatus() == Ic3Data.Application.Status.COMPLETE
+        && application.hasFingerprint() && digest.equals(application.getFingerprint().getDigest());
+  }
+
+  @Override
+  public String toString() {
+    return digest;
+  }
+
+  /**
+   * Describes the options which change the results. Whether the model is compiled is included,
+   * since the same model can give different digests in its source and compiled forms.
+   *
+   * @param commandLineArguments The command line arguments of the analysis.
+   * @return The option names, separated by spaces.
+   */
+  private static String describeOptions(Ic3CommandLineArguments commandLineArguments) {
+    List<String> options = new ArrayList<>();
+    options.add(commandLineArguments.getCompiledModel() != null ? "cmodel" : "model");
+    if (commandLineArguments.hasOption(MODELED_TYPES_ONLY)) {
+      options.add(MODELED_TYPES_ONLY);
+    }
+    if (commandLineArguments.computeComponents()) {
+      options.add("computecomponents");
+    }
+
+    StringBuilder result = new StringBuilder();
+    for (String option : options) {
+      if (result.length() > 0) {
+        result.append(' ');
+      }
+      result.append(option);
+    }
+    return result.toString();
+  }
+
+  private static String computeModelSha256(Ic3CommandLineArguments commandLineArguments)
+      throws IOException {
+    String compiledModel = commandLineArguments.getCompiledModel();
+    if (compiledModel != null) {
+      if (new File(compiledModel).isFile()) {
+        return Digests.sha256(compiledModel);
+      }
+      // The default compiled model is a class path resource.
+      try (InputStream inputStream = Fingerprint.class.getResourceAsStream(compiledModel)) {
+        if (inputStream != null) {
+          return Digests.sha256(inputStream);
+        }
+      }
+    } else if (commandLineArguments.getModel() != null) {
+      String model = commandLineArguments.getModel();
+      return new File(model).isDirectory() ? Digests.directorySha256(model) : Digests
+          .sha256(model);
+    }
+
+    return UNKNOWN;
+  }
+
+  private static String getIc3Version() {
+    String version = Fingerprint.class.getPackage().getImplementationVersion();
+    return version != null ? version : UNKNOWN;
+  }
+}
@@ -55,10 +55,12 @@ import edu.psu.cse.siis.coal.AnalysisParameters;
 import edu.psu.cse.siis.coal.FatalAnalysisException;
 import edu.psu.cse.siis.coal.PropagationSceneTransformer;
 import edu.psu.cse.siis.coal.PropagationSceneTransformerFilePrinter;
+import edu.psu.cse.siis.coal.PropagationTimers;
 import edu.psu.cse.siis.coal.SymbolFilter;
 import edu.psu.cse.siis.coal.arguments.ArgumentValueManager;
 import edu.psu.cse.siis.coal.arguments.MethodReturnValueManager;
 import edu.psu.cse.siis.coal.field.transformers.FieldTransformerManager;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Status;
 import edu.psu.cse.siis.ic3.db.SQLConnection;
 import edu.psu.cse.siis.ic3.manifest.ManifestPullParser;
 
@@ -84,10 +86,135 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
   protected Map<String, Integer> componentToIdMap;
   protected SetupApplication setupApplication;
   protected String packageName;
+  protected Fingerprint fingerprint;
+
+  /**
+   * Performs the analysis. If a phase timeout or a heap watermark was given, the analysis is
+   * supervised by a {@link Watchdog}, which halts the JVM when a budget is exceeded. The partial
+   * results are then written by the {@link BatchAnalysis} driver which started this JVM.
+   *
+   * @param commandLineArguments The command line arguments.
+   */
+  @Override
+  public void performAnalysis(final Ic3CommandLineArguments commandLineArguments) {
+    if (commandLineArguments.getPhaseTimeout() <= 0
+        && commandLineArguments.getHeapWatermark() <= 0) {
+      analyzeIfNeeded(commandLineArguments);
+      return;
+    }
+
+    String batchProgress = commandLineArguments.getBatchProgress();
+    Watchdog watchdog =
+        new Watchdog(commandLineArguments.getManifest(), batchProgress != null
+            ? BatchAnalysis.getStatusFile(batchProgress) : null,
+            commandLineArguments.getPhaseTimeout() * 1000L,
+            commandLineArguments.getHeapWatermark() / 100.0) {
+          @Override
+          protected void onAbort(Status status, String phase) {
+            writeMetrics(commandLineArguments, status.name().toLowerCase());
+          }
+        };
+    watchdog.start();
+    try {
+      analyzeIfNeeded(commandLineArguments);
+    } catch (OutOfMemoryError e) {
+      watchdog.abort(Status.OUT_OF_MEMORY, Metrics.v().getCurrentPhase());
+      throw e;
+    } finally {
+      watchdog.finish();
+    }
+  }
+
+  /**
+   * Analyzes the application, unless results with the same fingerprint are already stored.
+   *
+   * @param commandLineArguments The command line arguments.
+   */
+  private void analyzeIfNeeded(Ic3CommandLineArguments commandLineArguments) {
+    try {
+      prepareApplication(commandLineArguments);
+    } catch (FatalAnalysisException e) {
+      handleFatalAnalysisException(commandLineArguments, e);
+      return;
+    }
+
+    if (isUpToDate(commandLineArguments)) {
+      System.out.println("UP TO DATE: " + commandLineArguments.getManifest() + " " + fingerprint);
+      return;
+    }
+    super.performAnalysis(commandLineArguments);
+  }
+
+  /**
+   * Loads the manifest and sets up the database connection, which are needed both to look for
+   * stored results and to analyze the application.
+   *
+   * @param commandLineArguments The command line arguments.
+   * @throws FatalAnalysisException if the manifest cannot be processed.
+   */
+  protected void prepareApplication(Ic3CommandLineArguments commandLineArguments)
+      throws FatalAnalysisException {
+    Metrics.v().startPhase(Metrics.MANIFEST);
+    try {
+      prepareManifestFile(commandLineArguments);
+    } catch (RuntimeException e) {
+      throw new FatalAnalysisException("Could not process manifest file "
+          + commandLineArguments.getManifest(), e);
+    } finally {
+      Metrics.v().endPhase(Metrics.MANIFEST);
+    }
+
+    if (!commandLineArguments.protobufOutput() && commandLineArguments.getDb() != null) {
+      SQLConnection.init(commandLineArguments.getDbName(), commandLineArguments.getDb(),
+          commandLineArguments.getSsh(), commandLineArguments.getDbLocalPort());
+    }
+  }
+
+  /**
+   * Computes the fingerprint of the analysis and determines if results with the same fingerprint
+   * are already stored, in which case the analysis can be skipped. This relies on the manifest and
+   * the database prepared by {@link #prepareApplication(Ic3CommandLineArguments)}.
+   *
+   * @param commandLineArguments The command line arguments.
+   * @return True if the stored results are up to date.
+   */
+  protected boolean isUpToDate(Ic3CommandLineArguments commandLineArguments) {
+    fingerprint = null;
+    if (!commandLineArguments.protobufOutput() && commandLineArguments.getDb() == null) {
+      return false;
+    }
+    try {
+      fingerprint = Fingerprint.compute(commandLineArguments);
+    } catch (IOException e) {
+      logger.warn("Could not compute the fingerprint of " + commandLineArguments.getManifest(), e);
+      return false;
+    }
+    if (commandLineArguments.rerun()) {
+      return false;
+    }
+
+    if (commandLineArguments.protobufOutput()) {
+      try {
+        return fingerprint.matches(new ProtobufResultProcessor().readApplication(
+            detailedManifest.getPackageName(), detailedManifest.getVersion(),
+            commandLineArguments.getSample(), commandLineArguments.getProtobufDestination(),
+            commandLineArguments.binary(), commandLineArguments.streamProtobuf(),
+            commandLineArguments.getResultStore()));
+      } catch (IOException e) {
+        logger.warn("Could not read the stored results of " + detailedManifest.getPackageName(),
+            e);
+        return false;
+      }
+    } else {
+      return SQLConnection.hasFingerprint(fingerprint.getDigest());
+    }
+  }
 
   @Override
   protected void registerFieldTransformerFactories(Ic3CommandLineArguments commandLineArguments) {
     Timers.v().totalTimer.start();
+    Metrics.v().startPhase(Metrics.TOTAL);
+    Metrics.v().startPhase(Metrics.SETUP);
     FieldTransformerManager.v().registerDefaultFieldTransformerFactories();
   }
 
@@ -114,23 +241,38 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
       throws FatalAnalysisException {
     long startTime = System.currentTimeMillis() / 1000;
     outputDir = commandLineArguments.getOutput();
+    Metrics.v().endPhase(Metrics.SETUP);
 
-    prepareManifestFile(commandLineArguments);
-
-    if (commandLineArguments.getProtobufDestination() != null) {
+    // The manifest was loaded by prepareApplication.
+    Metrics.v().startPhase(Metrics.MANIFEST);
+    if (commandLineArguments.protobufOutput()) {
       ic3Builder = Ic3Data.Application.newBuilder();
       ic3Builder.setAnalysisStart(startTime);
+      if (fingerprint != null) {
+        ic3Builder.setFingerprint(fingerprint.toProtobuf());
+      }
       if (commandLineArguments.getSample() != null) {
         ic3Builder.setSample(commandLineArguments.getSample());
       }
       componentNameToBuilderMap = detailedManifest.populateProtobuf(ic3Builder);
     } else if (commandLineArguments.getDb() != null) {
-      SQLConnection.init(commandLineArguments.getDbName(), commandLineArguments.getDb(),
-          commandLineArguments.getSsh(), commandLineArguments.getDbLocalPort());
+      if (commandLineArguments.getComponentIndex() != null) {
+        SQLConnection.openComponentIndex(commandLineArguments.getComponentIndex());
+      }
+      if (commandLineArguments.getSpool() != null) {
+        SQLConnection.openSpool(commandLineArguments.getSpool());
+      }
+      try {
+        SQLConnection.beginTransaction();
+      } catch (SQLException e) {
+        throw new FatalAnalysisException("Could not start database transaction: " + e);
+      }
       componentToIdMap = detailedManifest.writeToDb(false);
     }
+    Metrics.v().endPhase(Metrics.MANIFEST);
 
     Timers.v().mainGeneration.start();
+    Metrics.v().startPhase(Metrics.CALLBACK_DISCOVERY);
     setupApplication =
         new SetupApplication(commandLineArguments.getManifest(), commandLineArguments.getInput(),
             commandLineArguments.getClasspath());
@@ -153,17 +295,55 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
       packageName = detailedManifest.getPackageName();
     }
 
-    try {
-      callBackMethods =
-          setupApplication.calculateSourcesSinksEntrypoints(new HashSet<AndroidMethod>(),
-              new HashSet<AndroidMethod>(), packageName, entryPointClasses);
-    } catch (IOException e) {
-      logger.error("Could not calculate entry points", e);
-      throw new FatalAnalysisException();
+    CallbackCache callbackCache = null;
+    String callbackCacheKey = null;
+    CallbackCache.Entry cachedCallbacks = null;
+    if (commandLineArguments.getCallbackCache() != null) {
+      callbackCache = new CallbackCache(commandLineArguments.getCallbackCache());
+      try {
+        callbackCacheKey =
+            callbackCache.computeKey(commandLineArguments.getManifest(),
+                commandLineArguments.getInput(), commandLineArguments.getClasspath());
+        cachedCallbacks = callbackCache.load(callbackCacheKey);
+      } catch (IOException e) {
+        logger.warn("Could not compute callback cache key", e);
+      }
+    }
+
+    // The Soot scene can only be reused if callback discovery actually builds it.
+    boolean reuseScene = commandLineArguments.reuseScene() && cachedCallbacks == null;
+    if (reuseScene) {
+      logger.warn("-reusescene is experimental: results may differ from those of a fresh scene");
+    }
+
+    if (cachedCallbacks != null) {
+      ++Timers.v().callbackCacheHits;
+      entryPointClasses = cachedCallbacks.getEntryPointClasses();
+      callBackMethods = cachedCallbacks.getCallbackMethods();
+      setupApplication.setCallbackMethods(entryPointClasses, callBackMethods);
+    } else {
+      if (callbackCache != null) {
+        ++Timers.v().callbackCacheMisses;
+      }
+      setupApplication.setReuseScene(reuseScene);
+      try {
+        callBackMethods =
+            setupApplication.calculateSourcesSinksEntrypoints(new HashSet<AndroidMethod>(),
+                new HashSet<AndroidMethod>(), packageName, entryPointClasses);
+      } catch (IOException e) {
+        logger.error("Could not calculate entry points", e);
+        throw new FatalAnalysisException();
+      }
+      if (callbackCacheKey != null) {
+        callbackCache.store(callbackCacheKey, new CallbackCache.Entry(entryPointClasses,
+            callBackMethods));
+      }
     }
     Timers.v().mainGeneration.end();
+    Metrics.v().endPhase(Metrics.CALLBACK_DISCOVERY);
 
     Timers.v().misc.start();
+    Metrics.v().startPhase(Metrics.INITIALIZATION);
 
     // Application package name is now known.
     ArgumentValueManager.v().registerArgumentValueAnalysis("context",
@@ -180,8 +360,10 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
       }
     }
 
-    // reset Soot:
-    soot.G.reset();
+    if (!reuseScene) {
+      // reset Soot:
+      soot.G.reset();
+    }
 
     Map<SootMethod, Set<String>> entryPointMap =
         commandLineArguments.computeComponents() ? new HashMap<SootMethod, Set<String>>() : null;
@@ -217,26 +399,44 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
 
     Options.v().set_src_prec(Options.src_prec_java);
     Timers.v().misc.end();
+    Metrics.v().endPhase(Metrics.INITIALIZATION);
 
     Timers.v().classLoading.start();
+    Metrics.v().startPhase(Metrics.CLASS_LOADING);
     for (String frameworkClass : frameworkClasses) {
       SootClass c = Scene.v().loadClassAndSupport(frameworkClass);
       Scene.v().forceResolve(frameworkClass, SootClass.BODIES);
       c.setApplicationClass();
     }
 
-    Scene.v().loadNecessaryClasses();
+    if (reuseScene) {
+      // Application classes were loaded during callback discovery. The call graph is rebuilt
+      // from the final dummy main method.
+      Scene.v().releaseCallGraph();
+      Scene.v().releasePointsToAnalysis();
+      Scene.v().releaseReachableMethods();
+      ++Timers.v().skippedSootInitializations;
+    } else {
+      Scene.v().loadNecessaryClasses();
+    }
     Timers.v().classLoading.end();
+    Metrics.v().endPhase(Metrics.CLASS_LOADING);
 
     Timers.v().entryPointMapping.start();
-    Scene.v().setEntryPoints(
-        Collections.singletonList(setupApplication.getEntryPointCreator().createDummyMain()));
+    Metrics.v().startPhase(Metrics.ENTRY_POINT_SETUP);
+    if (reuseScene) {
+      setupApplication.createMainMethod();
+    } else {
+      Scene.v().setEntryPoints(
+          Collections.singletonList(setupApplication.getEntryPointCreator().createDummyMain()));
+    }
     Timers.v().entryPointMapping.end();
+    Metrics.v().endPhase(Metrics.ENTRY_POINT_SETUP);
   }
 
   protected void prepareManifestFile(Ic3CommandLineArguments commandLineArguments) {
-    if (commandLineArguments.getDb() != null
-        || commandLineArguments.getProtobufDestination() != null) {
+    detailedManifest = null;
+    if (commandLineArguments.getDb() != null || commandLineArguments.protobufOutput()) {
       detailedManifest = new ManifestPullParser();
       detailedManifest.loadManifestFile(commandLineArguments.getManifest());
     }
@@ -248,12 +448,21 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
     AnalysisParameters.v().addAnalysisClasses(
         computeAnalysisClasses(commandLineArguments.getInput()));
     AnalysisParameters.v().addAnalysisClasses(frameworkClasses);
+    // Soot class loading, call graph construction and the IDE propagation come next.
+    Metrics.v().startPhase(Metrics.PROPAGATION);
   }
 
   @Override
   protected void handleFatalAnalysisException(Ic3CommandLineArguments commandLineArguments,
       FatalAnalysisException exception) {
     logger.error("Could not process application " + packageName, exception);
+    if (commandLineArguments.getDb() != null && !commandLineArguments.protobufOutput()) {
+      // Leave no partial rows, which the next application in this JVM would otherwise commit.
+      SQLConnection.reset();
+      SQLConnection.closeConnection();
+    }
+    Metrics.v().endAllPhases();
+    writeMetrics(commandLineArguments, "failed");
 
     if (outputDir != null && packageName != null) {
       try {
@@ -274,15 +483,19 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
   @Override
   protected void processResults(Ic3CommandLineArguments commandLineArguments)
       throws FatalAnalysisException {
+    Metrics.v().endPhase(Metrics.PROPAGATION);
+    Metrics.v().startPhase(Metrics.RESULT_PROCESSING);
     System.out.println("\n*****Manifest*****");
     System.out.println(detailedManifest.toString());
 
-    if (commandLineArguments.getProtobufDestination() != null) {
+    if (commandLineArguments.protobufOutput()) {
       ProtobufResultProcessor resultProcessor = new ProtobufResultProcessor();
       try {
         resultProcessor.processResult(packageName, ic3Builder,
             commandLineArguments.getProtobufDestination(), commandLineArguments.binary(),
-            componentNameToBuilderMap, AnalysisParameters.v().getAnalysisClasses().size(), writer);
+            commandLineArguments.streamProtobuf(), commandLineArguments.getResultStore(),
+            commandLineArguments.dumpResults(), componentNameToBuilderMap, AnalysisParameters.v()
+                .getAnalysisClasses().size(), writer);
       } catch (IOException e) {
         logger.error("Could not process analysis results", e);
         throw new FatalAnalysisException();
@@ -290,17 +503,61 @@ public class Ic3Analysis extends Analysis<Ic3CommandLineArguments> {
     } else {
       ResultProcessor resultProcessor = new ResultProcessor();
       try {
-        resultProcessor.processResult(commandLineArguments.getDb() != null, packageName,
-            componentToIdMap, AnalysisParameters.v().getAnalysisClasses().size(), writer);
+        resultProcessor.processResult(commandLineArguments.getDb() != null,
+            commandLineArguments.dumpResults(), packageName, componentToIdMap, fingerprint,
+            AnalysisParameters.v().getAnalysisClasses().size(), writer);
       } catch (IOException | SQLException e) {
-        logger.error("Could not process analysis results", e);
-        throw new FatalAnalysisException();
+        // DbResultSink has rolled back the rows of the application.
+        throw new FatalAnalysisException("Could not process analysis results: " + e);
       }
     }
+    Metrics.v().endPhase(Metrics.RESULT_PROCESSING);
   }
 
   @Override
   protected void finalizeAnalysis(Ic3CommandLineArguments commandLineArguments) {
+    if (logger.isInfoEnabled()) {
+      logger.info("Soot initializations: " + Timers.v().sootInitializations + ", skipped: "
+          + Timers.v().skippedSootInitializations + ", estimated time saved: "
+          + Timers.v().estimateSkippedInitializationTime() + " ms");
+    }
+
+    Metrics.v().endAllPhases();
+    writeMetrics(commandLineArguments, "ok");
+  }
+
+  /**
+   * Writes the metrics report of the analysis, if requested.
+   *
+   * @param commandLineArguments The command line arguments.
+   * @param status The analysis status.
+   */
+  protected void writeMetrics(Ic3CommandLineArguments commandLineArguments, String status) {
+    if (commandLineArguments.getMetrics() == null) {
+      return;
+    }
+
+    Metrics metrics = Metrics.v();
+    metrics.setCounter("reachableMethods", PropagationTimers.v().reachableMethods);
+    metrics.setCounter("reachableStatements", PropagationTimers.v().reachableStatements);
+    metrics.setCounter("pathValues", PropagationTimers.v().pathValues);
+    metrics.setCounter("separatePathValues", PropagationTimers.v().separatePathValues);
+    metrics.setCounter("analysisClasses", AnalysisParameters.v().getAnalysisClasses().size());
+    metrics.setCounter("components", componentNameToBuilderMap != null
+        ? componentNameToBuilderMap.size() : componentToIdMap != null ? componentToIdMap.size()
+            : 0);
+    metrics.setCounter("sootInitializations", Timers.v().sootInitializations);
+    metrics.setCounter("skippedSootInitializations", Timers.v().skippedSootInitializations);
+    metrics.setCounter("callbackCacheHits", Timers.v().callbackCacheHits);
+    metrics.setCounter("callbackCacheMisses", Timers.v().callbackCacheMisses);
+    metrics.setCounter("truncatedSeparateCounts", Timers.v().truncatedSeparateCounts);
+    metrics.setCounter("truncatedManifestData", Timers.v().truncatedManifestData);
+    try {
+      String path = metrics.writeReport(commandLineArguments.getMetrics(), packageName, status);
+      logger.info("Wrote metrics to " + path);
+    } catch (IOException e) {
+      logger.warn("Could not write metrics", e);
+    }
   }
 
   protected void addSceneTransformer(Map<SootMethod, Set<String>> entryPointMap) {
@@ -31,6 +31,7 @@ public class Ic3CommandLineArguments extends CommandLineArguments {
   private static final int DEFAULT_LOCAL_PORT = 3369;
   private static final String DEFAULT_COMPILED_MODEL_PATH = "/res/icc.cmodel";
   private static final String DEFAULT_DB_NAME = "cc";
+  private static final int DEFAULT_BATCH_WORKERS = 1;
 
   private String manifest;
   private String db;
@@ -41,7 +42,26 @@ public class Ic3CommandLineArguments extends CommandLineArguments {
   private String dbName;
   private String protobufDestination;
   private boolean binary;
+  private boolean stream;
+  private String resultStore;
+  private boolean manifestOnly;
+  private String metrics;
+  private boolean dumpResults;
+  private int phaseTimeout;
+  private int heapWatermark;
   private String sample;
+  private String batch;
+  private int batchWorkers = DEFAULT_BATCH_WORKERS;
+  private String batchProgress;
+  private String input;
+  private boolean reuseScene;
+  private String callbackCache;
+  private String componentIndex;
+  private boolean rerun;
+  private boolean resolveLinks;
+  private int linkThreads = Runtime.getRuntime().availableProcessors();
+  private String spool;
+  private boolean loadSpool;
 
   public String getDbName() {
     return dbName != null ? dbName : DEFAULT_DB_NAME;
@@ -116,6 +136,80 @@ public class Ic3CommandLineArguments extends CommandLineArguments {
     return binary;
   }
 
+  /**
+   * Determines if the protobuf output should be streamed as length-delimited records.
+   * 
+   * @return True if the protobuf output should be streamed.
+   */
+  public boolean streamProtobuf() {
+    return stream;
+  }
+
+  /**
+   * Returns the directory of the result store to which protobuf results should be appended.
+   * 
+   * @return The result store directory, if any, otherwise null.
+   */
+  public String getResultStore() {
+    return resultStore;
+  }
+
+  /**
+   * Determines if only the manifest should be analyzed, without loading Soot.
+   * 
+   * @return True if only the manifest should be analyzed.
+   */
+  public boolean manifestOnly() {
+    return manifestOnly;
+  }
+
+  /**
+   * Returns the directory where metrics reports should be written.
+   * 
+   * @return The metrics directory, if any, otherwise null.
+   */
+  public String getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Determines if the analysis results should be printed to the standard output.
+   * 
+   * @return True if the results should be printed.
+   */
+  public boolean dumpResults() {
+    return dumpResults;
+  }
+
+  /**
+   * Returns the maximum duration of each analysis phase.
+   * 
+   * @return The phase timeout in seconds, or 0 if phases are not limited.
+   */
+  public int getPhaseTimeout() {
+    return phaseTimeout;
+  }
+
+  /**
+   * Returns the maximum percentage of the heap that the analysis may use after a garbage
+   * collection.
+   * 
+   * @return The heap watermark in percent, or 0 if heap usage is not limited.
+   */
+  public int getHeapWatermark() {
+    return heapWatermark;
+  }
+
+  /**
+   * Determines if the results should be output as protobufs, either to a destination directory or
+   * to a result store.
+   * 
+   * @return True if the output is a protobuf.
+   */
+  public boolean protobufOutput() {
+    return protobufDestination != null || resultStore != null;
+  }
+
   /**
    * Returns the name of the sample.
    * 
@@ -125,6 +219,127 @@ public class Ic3CommandLineArguments extends CommandLineArguments {
     return sample;
   }
 
+  /**
+   * Returns the list file or directory of applications to analyze in batch mode.
+   * 
+   * @return The batch list file or directory, or null if not in batch mode.
+   */
+  public String getBatch() {
+    return batch;
+  }
+
+  /**
+   * Returns the number of worker processes to use in batch mode.
+   * 
+   * @return The number of batch workers.
+   */
+  public int getBatchWorkers() {
+    return batchWorkers;
+  }
+
+  /**
+   * Returns the file where a batch worker records the applications it has processed.
+   * 
+   * @return The progress file path if this is a batch worker, otherwise null.
+   */
+  public String getBatchProgress() {
+    return batchProgress;
+  }
+
+  /**
+   * Determines if the Soot scene built during callback discovery should be reused for the main
+   * analysis. This is experimental.
+   * 
+   * @return True if the Soot scene should be reused.
+   */
+  public boolean reuseScene() {
+    return reuseScene;
+  }
+
+  /**
+   * Returns the directory where callback discovery results are cached.
+   * 
+   * @return The cache directory, or null if callback discovery results should not be cached.
+   */
+  public String getCallbackCache() {
+    return callbackCache;
+  }
+
+  /**
+   * Determines if the application should be analyzed even if results with the same fingerprint
+   * are already stored.
+   * 
+   * @return True if the application should always be analyzed.
+   */
+  public boolean rerun() {
+    return rerun;
+  }
+
+  /**
+   * Returns the file of the index from intent filter actions and categories to components.
+   * 
+   * @return The index file, or null if the index should not be maintained.
+   */
+  public String getComponentIndex() {
+    return componentIndex;
+  }
+
+  /**
+   * Determines if the links between the intents and the components in the database should be
+   * computed, instead of analyzing an application.
+   * 
+   * @return True if links should be computed.
+   */
+  public boolean resolveLinks() {
+    return resolveLinks;
+  }
+
+  /**
+   * Returns the number of threads used to compute links.
+   * 
+   * @return The number of link resolution threads.
+   */
+  public int getLinkThreads() {
+    return linkThreads;
+  }
+
+  /**
+   * Returns the directory in which exit points and intents are staged before they are bulk loaded
+   * into the database.
+   * 
+   * @return The spool directory, or null if rows should be inserted directly.
+   */
+  public String getSpool() {
+    return spool;
+  }
+
+  /**
+   * Determines if the spooled rows should be loaded into the database, instead of analyzing an
+   * application.
+   * 
+   * @return True if the spool should be loaded.
+   */
+  public boolean loadSpool() {
+    return loadSpool;
+  }
+
+  @Override
+  public String getInput() {
+    return input != null ? input : super.getInput();
+  }
+
+  /**
+   * Sets the application to analyze. This is used in batch mode to analyze several applications
+   * with the same arguments.
+   * 
+   * @param manifest The path to the manifest or .apk file.
+   * @param input The input directory of the application, or null to use the -input argument.
+   */
+  public void setApplication(String manifest, String input) {
+    this.manifest = manifest;
+    this.input = input;
+  }
+
   /**
    * Process the command line arguments after initial parsing. This should be called be actually
    * using the arguments contained in this class.
@@ -164,9 +379,53 @@ public class Ic3CommandLineArguments extends CommandLineArguments {
       protobufDestination = getOptionValue("protobuf");
     }
 
-    computeComponents = hasOption("computecomponents") || db != null || protobufDestination != null;
+    resultStore = getOptionValue("resultstore");
+    manifestOnly = hasOption("manifestonly");
+    metrics = getOptionValue("metrics");
+    dumpResults = !hasOption("nodump");
+    if (hasOption("phasetimeout")) {
+      try {
+        phaseTimeout = ((Number) getParsedOptionValue("phasetimeout")).intValue();
+      } catch (ParseException e) {
+        e.printStackTrace();
+      }
+    }
+    if (hasOption("heapwatermark")) {
+      try {
+        heapWatermark = ((Number) getParsedOptionValue("heapwatermark")).intValue();
+      } catch (ParseException e) {
+        e.printStackTrace();
+      }
+    }
+
+    computeComponents = hasOption("computecomponents") || db != null || protobufOutput();
     binary = hasOption("binary");
+    stream = hasOption("stream");
 
     sample = getOptionValue("sample");
+
+    batch = getOptionValue("batch");
+    if (hasOption("batchworkers")) {
+      try {
+        batchWorkers = ((Number) getParsedOptionValue("batchworkers")).intValue();
+      } catch (ParseException e) {
+        e.printStackTrace();
+      }
+    }
+    batchProgress = getOptionValue("batchprogress");
+    reuseScene = hasOption("reusescene");
+    callbackCache = getOptionValue("callbackcache");
+    componentIndex = getOptionValue("componentindex");
+    rerun = hasOption("rerun");
+    resolveLinks = hasOption("resolvelinks");
+    spool = getOptionValue("spool");
+    loadSpool = hasOption("loadspool");
+    if (getOptionValue("resolvelinks") != null) {
+      try {
+        linkThreads = ((Number) getParsedOptionValue("resolvelinks")).intValue();
+      } catch (ParseException e) {
+        e.printStackTrace();
+      }
+    }
   }
 }
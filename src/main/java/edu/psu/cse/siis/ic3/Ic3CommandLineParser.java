@@ -35,10 +35,12 @@ public class Ic3CommandLineParser extends CommandLineParser<Ic3CommandLineArgume
   @Override
   protected void parseAnalysisSpecificArguments(Options options) {
     options.addOption(Option.builder("apkormanifest")
-        .desc("Path to the manifest file or the .apk of the application.").hasArg()
-        .argName(".apk or manifest").required().build());
-    options.addOption(Option.builder("db").desc("Store entry points to database.").hasArg()
-        .optionalArg(true).argName("DB properties file").build());
+        .desc("Path to the manifest file or the .apk of the application. "
+            + "Required unless -batch is used.").hasArg().argName(".apk or manifest").build());
+    options.addOption(Option.builder("db")
+        .desc("Store entry points to database. The argument is either a MySQL properties file "
+            + "or the JDBC URL of an embedded database (jdbc:sqlite:<file> or jdbc:h2:<file>).")
+        .hasArg().optionalArg(true).argName("DB properties file or URL").build());
     options.addOption(Option.builder("ssh").desc("Use SSH to connect to the database.").hasArg()
         .optionalArg(true).argName("SSH properties file").build());
     options.addOption(Option.builder("localport").desc("Local DB port to connect to.").hasArg()
@@ -52,6 +54,58 @@ public class Ic3CommandLineParser extends CommandLineParser<Ic3CommandLineArgume
     options.addOption("computecomponents", false,
         "Compute which components each exit point belongs to.");
     options.addOption("binary", false, "Output a binary protobuf.");
+    options.addOption("stream", false,
+        "Stream the protobuf output as length-delimited records, one per component.");
+    options.addOption("nodump", false, "Do not print the analysis results to standard output.");
+    options.addOption("manifestonly", false,
+        "Only extract components, intent filters and permissions from the manifest.");
+    options.addOption(Option.builder("metrics")
+        .desc("Directory where a JSON report of per-phase performance metrics is written.")
+        .hasArg().argName("metrics directory").build());
+    options.addOption(Option.builder("phasetimeout")
+        .desc("Maximum duration of each analysis phase, after which partial results are written.")
+        .hasArg().type(Number.class).argName("seconds").build());
+    options.addOption(Option.builder("heapwatermark")
+        .desc("Maximum heap usage after garbage collection, in percent of the maximum heap size, "
+            + "after which partial results are written.").hasArg().type(Number.class)
+        .argName("percent").build());
+    options.addOption(Option.builder("resultstore")
+        .desc("Append protobuf results to an indexed store of segment files.").hasArg()
+        .argName("store directory").build());
+    options.addOption("reusescene", false,
+        "Experimental: reuse the Soot scene built during callback discovery for the main "
+            + "analysis.");
+    options.addOption(Option.builder("callbackcache")
+        .desc("Directory where callback discovery results are cached.").hasArg()
+        .argName("cache directory").build());
+    options.addOption(Option.builder("batch")
+        .desc("Analyze all applications listed in a file or found in a directory.").hasArg()
+        .argName("list file or directory").build());
+    options.addOption(Option.builder("batchworkers")
+        .desc("Number of worker processes to use in batch mode, or of parser threads "
+            + "with -manifestonly.").hasArg().type(Number.class)
+        .argName("worker count").build());
+    options.addOption(Option.builder("batchprogress")
+        .desc("File recording the applications already processed by a batch worker.").hasArg()
+        .argName("progress file").build());
+    options.addOption("rerun", false,
+        "Analyze the application even if results with the same fingerprint are already stored.");
+    options.addOption(Option.builder("componentindex")
+        .desc("File of the index from intent filter actions and categories to components, "
+            + "which is updated as intent filters are written to the database.").hasArg()
+        .argName("index file").build());
+    options.addOption(Option.builder("resolvelinks")
+        .desc("Compute the links between the intents and the components stored in the database "
+            + "instead of analyzing an application. The thread count defaults to the number of "
+            + "processors.").hasArg().optionalArg(true).type(Number.class)
+        .argName("thread count").build());
+    options.addOption(Option.builder("spool")
+        .desc("Stage exit points and intents in spool files, which are bulk loaded into the "
+            + "database with -loadspool or at the end of a batch, instead of inserting them.")
+        .hasArg().argName("spool directory").build());
+    options.addOption("loadspool", false,
+        "Load the rows staged in the -spool directory into the database instead of analyzing "
+            + "an application.");
   }
 
   @Override
@@ -60,9 +114,14 @@ public class Ic3CommandLineParser extends CommandLineParser<Ic3CommandLineArgume
     System.out.println(COPYRIGHT);
     formatter.printHelp("ic3 -input <Android directory> -classpath <classpath> "
         + "-apk <path to application .apk> [-computecomponents] "
-        + "[-db <path to DB properties file>] [-ssh <path to SSH properties file>] "
+        + "[-db <path to DB properties file or JDBC URL>] [-ssh <path to SSH properties file>] "
         + "[-localport <DB local port>] [-modeledtypesonly] [-output <output directory>] "
-        + "[-protobuf <destination path>] [-binary] [-sample <sample name>] "
-        + "[-threadcount <thread count>]", options);
+        + "[-protobuf <destination path>] [-binary] [-stream] [-sample <sample name>] "
+        + "[-resultstore <store directory>] [-manifestonly] [-nodump] "
+        + "[-metrics <metrics directory>] [-phasetimeout <seconds>] [-heapwatermark <percent>] "
+        + "[-threadcount <thread count>] [-batch <list file or directory>] "
+        + "[-batchworkers <worker count>] [-reusescene] "
+        + "[-callbackcache <cache directory>] [-componentindex <index file>] [-rerun] "
+        + "[-resolvelinks [<thread count>]] [-spool <spool directory>] [-loadspool]", options);
   }
 }
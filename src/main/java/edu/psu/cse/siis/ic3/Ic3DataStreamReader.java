@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.google.protobuf.TextFormat;
+
+import edu.psu.cse.siis.ic3.Ic3Data.Application;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component;
+
+/**
+ * Reads analysis results written by {@link Ic3DataStreamWriter}. Components can be read one at a
+ * time, which does not require holding the whole application in memory, and before the writer is
+ * done.
+ *
+ * Running this class prints a streamed result file in protobuf text format.
+ */
+public class Ic3DataStreamReader implements Closeable {
+  private final InputStream inputStream;
+  private final Application header;
+  private long analysisEnd = 0;
+  private boolean done = false;
+
+  /**
+   * Opens a stream and reads its header.
+   *
+   * @param inputStream The stream.
+   * @throws IOException if the header cannot be read.
+   */
+  public Ic3DataStreamReader(InputStream inputStream) throws IOException {
+    this.inputStream = new BufferedInputStream(inputStream);
+    header = Application.parseDelimitedFrom(this.inputStream);
+    if (header == null) {
+      throw new IOException("Missing header record");
+    }
+  }
+
+  /**
+   * Returns the header record, which contains all application fields except the components and
+   * the analysis end time.
+   *
+   * @return The header.
+   */
+  public Application getHeader() {
+    return header;
+  }
+
+  /**
+   * Reads the next component.
+   *
+   * @return The next component, or null if there are no more components.
+   * @throws IOException if a record cannot be read.
+   */
+  public Component nextComponent() throws IOException {
+    while (!done) {
+      Application record = Application.parseDelimitedFrom(inputStream);
+      if (record == null) {
+        done = true;
+      } else if (record.getComponentsCount() > 0) {
+        return record.getComponents(0);
+      } else if (record.hasAnalysisEnd()) {
+        analysisEnd = record.getAnalysisEnd();
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the analysis end time. This is only available once all components were read.
+   *
+   * @return The analysis end time, or 0 if the trailer was not read.
+   */
+  public long getAnalysisEnd() {
+    return analysisEnd;
+  }
+
+  /**
+   * Determines if the trailer was read, which indicates that the writer completed the stream.
+   *
+   * @return True if the stream is complete.
+   */
+  public boolean isComplete() {
+    return analysisEnd != 0;
+  }
+
+  /**
+   * Reads a whole stream into a single application message.
+   *
+   * @param inputStream The stream.
+   * @return The application.
+   * @throws IOException if the stream cannot be read.
+   */
+  public static Application readApplication(InputStream inputStream) throws IOException {
+    try (Ic3DataStreamReader reader = new Ic3DataStreamReader(inputStream)) {
+      Application.Builder builder = reader.getHeader().toBuilder();
+      Component component;
+      while ((component = reader.nextComponent()) != null) {
+        builder.addComponents(component);
+      }
+      if (reader.isComplete()) {
+        builder.setAnalysisEnd(reader.getAnalysisEnd());
+      }
+      return builder.build();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    inputStream.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: Ic3DataStreamReader <stream file>");
+      return;
+    }
+
+    Writer writer = new OutputStreamWriter(System.out);
+    try (Ic3DataStreamReader reader = new Ic3DataStreamReader(new FileInputStream(args[0]))) {
+      TextFormat.print(reader.getHeader(), writer);
+      Component component;
+      while ((component = reader.nextComponent()) != null) {
+        writer.write("components {\n");
+        TextFormat.print(component, writer);
+        writer.write("}\n");
+      }
+      if (reader.isComplete()) {
+        writer.write("analysis_end: " + reader.getAnalysisEnd() + "\n");
+      }
+    }
+    writer.flush();
+  }
+}
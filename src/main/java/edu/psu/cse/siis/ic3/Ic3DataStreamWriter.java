@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import edu.psu.cse.siis.ic3.Ic3Data.Application;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component;
+
+/**
+ * Writes analysis results as a stream of length-delimited {@link Application} records, so that
+ * components can be written as soon as they are complete.
+ *
+ * The first record is a header which contains all application fields except the components and
+ * the analysis end time. Each following record contains a single component. The last record only
+ * contains the analysis end time. Merging all records in order yields the same message as the
+ * non-streaming output. See {@link Ic3DataStreamReader}.
+ */
+public class Ic3DataStreamWriter implements Closeable {
+  private final OutputStream outputStream;
+  private int componentCount = 0;
+
+  public Ic3DataStreamWriter(OutputStream outputStream) {
+    this.outputStream = new BufferedOutputStream(outputStream);
+  }
+
+  /**
+   * Writes the header record. Components and the analysis end time are ignored.
+   *
+   * @param application The application.
+   * @throws IOException if the record cannot be written.
+   */
+  public void writeHeader(Application application) throws IOException {
+    application.toBuilder().clearComponents().clearAnalysisEnd().build()
+        .writeDelimitedTo(outputStream);
+  }
+
+  /**
+   * Writes a component record.
+   *
+   * @param component The component.
+   * @throws IOException if the record cannot be written.
+   */
+  public void writeComponent(Component component) throws IOException {
+    Application.newBuilder().addComponents(component).build().writeDelimitedTo(outputStream);
+    ++componentCount;
+  }
+
+  /**
+   * Writes the trailer record.
+   *
+   * @param analysisEnd The analysis end time.
+   * @throws IOException if the record cannot be written.
+   */
+  public void writeTrailer(long analysisEnd) throws IOException {
+    Application.newBuilder().setAnalysisEnd(analysisEnd).build().writeDelimitedTo(outputStream);
+  }
+
+  /**
+   * Returns the number of components written so far.
+   *
+   * @return The number of components.
+   */
+  public int getComponentCount() {
+    return componentCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    outputStream.close();
+  }
+}
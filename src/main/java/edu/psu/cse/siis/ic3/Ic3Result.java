@@ -18,10 +18,7 @@
  */
 package edu.psu.cse.siis.ic3;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,35 +77,12 @@ public class Ic3Result extends Result {
   }
 
   public void dump() {
-    System.out.println("*****Result*****");
-    List<String> results = new ArrayList<>();
-    boolean outputComponents = entryPointMap != null;
-
+    ResultDumpSink dumpSink = new ResultDumpSink(System.out);
     for (Map.Entry<Unit, Map<Integer, Object>> entry : result.entrySet()) {
       Unit unit = entry.getKey();
-      SootMethod method = AnalysisParameters.v().getIcfg().getMethodOf(unit);
-      String current =
-          method.getDeclaringClass().getName() + "/" + method.getSubSignature() + " : " + unit
-              + "\n";
-
-      if (outputComponents) {
-        Set<String> components = entryPointMap.get(method);
-        if (components != null) {
-          current += "Components: " + components + "\n";
-        } else {
-          current += "Unknown components" + "\n";
-        }
-      }
-
-      for (Map.Entry<Integer, Object> entry2 : entry.getValue().entrySet()) {
-        current += "    " + entry2.getKey() + " : " + entry2.getValue() + "\n";
-      }
-      results.add(current);
-    }
-    Collections.sort(results);
-
-    for (String result : results) {
-      System.out.println(result);
+      dumpSink.addResult(this, unit, AnalysisParameters.v().getIcfg().getMethodOf(unit), null,
+          entry.getValue());
     }
+    dumpSink.finish();
   }
 }
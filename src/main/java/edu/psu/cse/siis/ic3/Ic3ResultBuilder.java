@@ -19,14 +19,20 @@
 package edu.psu.cse.siis.ic3;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
+import soot.Body;
 import soot.MethodOrMethodContext;
+import soot.PhaseOptions;
 import soot.Scene;
 import soot.SootMethod;
 import soot.Unit;
@@ -46,8 +52,39 @@ import edu.psu.cse.siis.coal.arguments.ArgumentValueManager;
 import edu.psu.cse.siis.coal.values.BasePropagationValue;
 import edu.psu.cse.siis.coal.values.PropagationValue;
 
+/**
+ * Builds the analysis results once the IDE problem has been solved.
+ *
+ * Reachable methods are scanned in parallel on a fork/join pool for reachable query sites, using a
+ * {@link QuerySiteIndex} to skip methods without query sites. This only reads method bodies and
+ * builds control flow graphs. The values of the queried arguments are then looked up and composed
+ * on the calling thread, in the order of the scan, since neither the solver nor value composition
+ * are thread-safe. Arguments of non-modeled types are inferred last, also on the calling thread.
+ */
 public class Ic3ResultBuilder implements ResultBuilder {
+  /** The number of methods below which a scan task is not split further. */
+  private static final int SCAN_THRESHOLD = 16;
+
+  private final QuerySiteIndex querySiteIndex;
+  private final int parallelism;
   private Map<SootMethod, Set<String>> entryPointMap;
+  private boolean filterUnreachableCode;
+
+  public Ic3ResultBuilder() {
+    this(new QuerySiteIndex(), Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param querySiteIndex The index used to find query sites.
+   * @param parallelism The number of threads which scan methods. With 1, methods are scanned on
+   *          the calling thread.
+   */
+  Ic3ResultBuilder(QuerySiteIndex querySiteIndex, int parallelism) {
+    this.querySiteIndex = querySiteIndex;
+    this.parallelism = parallelism;
+  }
 
   public void setEntryPointMap(Map<SootMethod, Set<String>> entryPointMap) {
     this.entryPointMap = entryPointMap;
@@ -56,14 +93,14 @@ public class Ic3ResultBuilder implements ResultBuilder {
   @Override
   public Result buildResult(PropagationSolver solver) {
     PropagationTimers.v().resultGeneration.start();
-    Result result = new Ic3Result(entryPointMap);
+    Ic3Result result = new Ic3Result(entryPointMap);
 
     List<MethodOrMethodContext> eps =
         new ArrayList<MethodOrMethodContext>(Scene.v().getEntryPoints());
     ReachableMethods reachableMethods =
         new ReachableMethods(Scene.v().getCallGraph(), eps.iterator(), null);
     reachableMethods.update();
-    long reachableStatements = 0;
+    List<SootMethod> methods = new ArrayList<>();
     for (Iterator<MethodOrMethodContext> iter = reachableMethods.listener(); iter.hasNext();) {
       SootMethod method = iter.next().method();
       if (method.hasActiveBody()
@@ -71,83 +108,255 @@ public class Ic3ResultBuilder implements ResultBuilder {
           && !method.getDeclaringClass().getName().equals("dummyMainClass")
           && !method.getDeclaringClass().getName().startsWith("android.support")
           && !method.getDeclaringClass().getName().startsWith("android.provider")) {
-        ++PropagationTimers.v().reachableMethods;
-        ExceptionalUnitGraph cfg = new ExceptionalUnitGraph(method.getActiveBody());
+        methods.add(method);
+      }
+    }
+    PropagationTimers.v().reachableMethods += methods.size();
+
+    ScanResult scanResult = scan(methods);
+    PropagationTimers.v().reachableStatements += scanResult.reachableStatements;
+
+    Set<PropagationValue> propagationValues =
+        Collections.newSetFromMap(new IdentityHashMap<PropagationValue, Boolean>());
+    List<PropagationValue> orderedValues = new ArrayList<>();
+    List<PendingInference> inferences = new ArrayList<>();
+    for (Stmt querySite : scanResult.querySites) {
+      lookUpQuerySite(querySite, solver, result, propagationValues, orderedValues, inferences);
+    }
+
+    PropagationTimers.v().resultGeneration.end();
+    PropagationTimers.v().valueComposition.start();
+    for (PropagationValue propagationValue : orderedValues) {
+      propagationValue.makeFinalValue(solver);
+    }
+    PropagationTimers.v().valueComposition.end();
+    PropagationTimers.v().resultGeneration.start();
+
+    for (PendingInference inference : inferences) {
+      result.addResult(inference.unit, inference.argument.getArgnum()[0],
+          ArgumentValueManager.v().getArgumentValues(inference.argument, inference.unit));
+    }
+
+    PropagationTimers.v().resultGeneration.end();
+    return result;
+  }
+
+  /**
+   * Finds the reachable query sites of a list of methods. The result does not depend on the
+   * number of threads.
+   *
+   * @param methods The methods to scan.
+   * @return The reachable query sites, in the order of the methods and of their bodies, along
+   *         with the number of reachable statements.
+   */
+  ScanResult scan(List<SootMethod> methods) {
+    filterUnreachableCode = isUnreachableCodeFilteringRequired();
+    if (parallelism <= 1) {
+      ScanResult scanResult = new ScanResult();
+      for (SootMethod method : methods) {
+        scanMethod(method, scanResult);
+      }
+      return scanResult;
+    }
+
+    if (filterUnreachableCode) {
+      // Make sure the throw analysis is initialized before control flow graphs are built
+      // concurrently.
+      Scene.v().getDefaultThrowAnalysis();
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return pool.invoke(new ScanTask(methods, 0, methods.size()));
+    } finally {
+      // Cancels the remaining tasks if the analysis is aborted.
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Finds the query sites of a method which are reachable. The control flow graph of the method is
+   * only built if the method has query sites and if its body may contain unreachable code.
+   *
+   * @param method The method to scan.
+   * @param scanResult The scan result to which the query sites are added.
+   */
+  private void scanMethod(SootMethod method, ScanResult scanResult) {
+    List<Stmt> querySites = querySiteIndex.getQuerySites(method);
+    Body body = method.getActiveBody();
+    Set<Unit> reachableUnits = null;
+    if (querySites.isEmpty() || !filterUnreachableCode) {
+      scanResult.reachableStatements += body.getUnits().size();
+    } else {
+      reachableUnits = findReachableUnits(body);
+      scanResult.reachableStatements += reachableUnits.size();
+    }
+
+    for (Stmt stmt : querySites) {
+      if (reachableUnits == null || reachableUnits.contains(stmt)) {
+        scanResult.querySites.add(stmt);
+      }
+    }
+  }
+
+  /**
+   * Looks up the value of each queried argument of a query site.
+   *
+   * @param stmt The query site.
+   * @param solver The IDE solver.
+   * @param result The result to which the values are added.
+   * @param propagationValues The propagation values found so far, compared by identity.
+   * @param orderedValues The same values, in the order in which they were found, to which the
+   *          values of the query site are added. Their final value is composed later.
+   * @param inferences The list to which the arguments of non-modeled types are added.
+   */
+  private void lookUpQuerySite(Stmt stmt, PropagationSolver solver, Ic3Result result,
+      Set<PropagationValue> propagationValues, List<PropagationValue> orderedValues,
+      List<PendingInference> inferences) {
+    Argument[] arguments = Model.v().getArgumentsForQuery(stmt);
+    boolean foundModeledType = false;
+    for (Argument argument : arguments) {
+      if (Model.v().isModeledType(argument.getType())) {
+        foundModeledType = true;
+        break;
+      }
+    }
 
-        Stack<Unit> stack = new Stack<>();
-        for (Unit unit : cfg.getHeads()) {
-          stack.push(unit);
+    for (Argument argument : arguments) {
+      if (Model.v().isModeledType(argument.getType())) {
+        int argnum = argument.getArgnum()[0];
+        BasePropagationValue basePropagationValue;
+        InvokeExpr invokeExpr = stmt.getInvokeExpr();
+        if (argnum >= 0) {
+          basePropagationValue = solver.resultAt(stmt, invokeExpr.getArg(argnum));
+        } else if (invokeExpr instanceof InstanceInvokeExpr && argnum == -1) {
+          InstanceInvokeExpr instanceInvokeExpr = (InstanceInvokeExpr) invokeExpr;
+          basePropagationValue = solver.resultAt(stmt, instanceInvokeExpr.getBase());
+        } else {
+          throw new RuntimeException("Unexpected argument number " + argnum
+              + " for invoke expression " + invokeExpr);
         }
-        Set<Unit> visited = new HashSet<>();
-
-        while (!stack.empty()) {
-          Unit unit = stack.pop();
-
-          if (visited.contains(unit)) {
-            continue;
-          } else {
-            visited.add(unit);
-          }
-
-          for (Unit successor : cfg.getSuccsOf(unit)) {
-            stack.push(successor);
-          }
-
-          Argument[] arguments = Model.v().getArgumentsForQuery((Stmt) unit);
-          if (arguments != null) {
-            boolean foundModeledType = false;
-            for (Argument argument : arguments) {
-              if (Model.v().isModeledType(argument.getType())) {
-                foundModeledType = true;
-                break;
-              }
-            }
-
-            Stmt stmt = (Stmt) unit;
-            for (Argument argument : arguments) {
-              if (Model.v().isModeledType(argument.getType())) {
-                int argnum = argument.getArgnum()[0];
-                BasePropagationValue basePropagationValue;
-                InvokeExpr invokeExpr = stmt.getInvokeExpr();
-                if (argnum >= 0) {
-                  basePropagationValue = solver.resultAt(unit, invokeExpr.getArg(argnum));
-                } else if (invokeExpr instanceof InstanceInvokeExpr && argnum == -1) {
-                  InstanceInvokeExpr instanceInvokeExpr = (InstanceInvokeExpr) invokeExpr;
-                  basePropagationValue = solver.resultAt(stmt, instanceInvokeExpr.getBase());
-                } else {
-                  throw new RuntimeException("Unexpected argument number " + argnum
-                      + " for invoke expression " + invokeExpr);
-                }
-                if (basePropagationValue instanceof PropagationValue) {
-                  PropagationValue propagationValue = (PropagationValue) basePropagationValue;
-
-                  PropagationTimers.v().resultGeneration.end();
-                  PropagationTimers.v().valueComposition.start();
-                  propagationValue.makeFinalValue(solver);
-                  PropagationTimers.v().valueComposition.end();
-                  PropagationTimers.v().resultGeneration.start();
-
-                  result.addResult(unit, argument.getArgnum()[0], propagationValue);
-                } else {
-                  result.addResult(unit, argument.getArgnum()[0], basePropagationValue);
-                }
-              } else if (foundModeledType || AnalysisParameters.v().inferNonModeledTypes()) {
-                // We infer non-modeled types if one of the arguments of the query is a modeled type
-                // or if the analysis settings tell us to do so.
-                result.addResult(unit, argument.getArgnum()[0], ArgumentValueManager.v()
-                    .getArgumentValues(argument, unit));
-              }
-            }
-          }
+        if (basePropagationValue instanceof PropagationValue
+            && propagationValues.add((PropagationValue) basePropagationValue)) {
+          orderedValues.add((PropagationValue) basePropagationValue);
         }
+        result.addResult(stmt, argnum, basePropagationValue);
+      } else if (foundModeledType || AnalysisParameters.v().inferNonModeledTypes()) {
+        // We infer non-modeled types if one of the arguments of the query is a modeled type
+        // or if the analysis settings tell us to do so.
+        inferences.add(new PendingInference(stmt, argument));
+      }
+    }
+  }
+
+  /**
+   * Finds the statements of a method body that are reachable from its entry points, including
+   * along exceptional edges.
+   *
+   * @param body A method body.
+   * @return The reachable statements.
+   */
+  private Set<Unit> findReachableUnits(Body body) {
+    ExceptionalUnitGraph cfg = new ExceptionalUnitGraph(body);
+
+    Stack<Unit> stack = new Stack<>();
+    for (Unit unit : cfg.getHeads()) {
+      stack.push(unit);
+    }
+    Set<Unit> visited = new HashSet<>();
+
+    while (!stack.empty()) {
+      Unit unit = stack.pop();
 
-        reachableStatements += visited.size();
+      if (visited.contains(unit)) {
+        continue;
+      } else {
+        visited.add(unit);
       }
 
-      PropagationTimers.v().reachableStatements += reachableStatements;
+      for (Unit successor : cfg.getSuccsOf(unit)) {
+        stack.push(successor);
+      }
     }
 
-    PropagationTimers.v().resultGeneration.end();
-    return result;
+    return visited;
+  }
+
+  /**
+   * Determines if method bodies may contain unreachable code. Soot removes unreachable code while
+   * building bodies unless the jb.uce phase is disabled.
+   */
+  private static boolean isUnreachableCodeFilteringRequired() {
+    return !PhaseOptions.getBoolean(PhaseOptions.v().getPhaseOptions("jb.uce"), "enabled");
+  }
+
+  /**
+   * What a scan task found. Counters are kept here rather than in {@link PropagationTimers} and
+   * added once all tasks are done.
+   */
+  static class ScanResult {
+    private long reachableStatements = 0;
+    private final List<Stmt> querySites = new ArrayList<>();
+
+    private void merge(ScanResult other) {
+      reachableStatements += other.reachableStatements;
+      querySites.addAll(other.querySites);
+    }
+
+    long getReachableStatements() {
+      return reachableStatements;
+    }
+
+    List<Stmt> getQuerySites() {
+      return querySites;
+    }
+  }
+
+  /**
+   * An argument of a non-modeled type whose value remains to be inferred.
+   */
+  private static class PendingInference {
+    private final Unit unit;
+    private final Argument argument;
+
+    private PendingInference(Unit unit, Argument argument) {
+      this.unit = unit;
+      this.argument = argument;
+    }
+  }
+
+  /**
+   * Scans a range of methods, splitting it between subtasks if it is large.
+   */
+  private class ScanTask extends RecursiveTask<ScanResult> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<SootMethod> methods;
+    private final int from;
+    private final int to;
+
+    private ScanTask(List<SootMethod> methods, int from, int to) {
+      this.methods = methods;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected ScanResult compute() {
+      if (to - from > SCAN_THRESHOLD) {
+        int middle = (from + to) >>> 1;
+        ScanTask left = new ScanTask(methods, from, middle);
+        left.fork();
+        ScanResult scanResult = new ScanTask(methods, middle, to).compute();
+        ScanResult leftResult = left.join();
+        leftResult.merge(scanResult);
+        return leftResult;
+      }
+
+      ScanResult scanResult = new ScanResult();
+      for (int i = from; i < to; ++i) {
+        scanMethod(methods.get(i), scanResult);
+      }
+      return scanResult;
+    }
   }
 }
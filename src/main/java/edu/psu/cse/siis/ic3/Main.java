@@ -1,9 +1,14 @@
 package edu.psu.cse.siis.ic3;
 
+import java.io.IOException;
+import java.sql.SQLException;
+
+import edu.psu.cse.siis.ic3.db.LinkResolver;
+import edu.psu.cse.siis.ic3.db.SQLConnection;
+import edu.psu.cse.siis.ic3.db.SpoolLoader;
 
 public class Main {
   public static void main(String[] args) {
-    Ic3Analysis analysis = new Ic3Analysis();
     Ic3CommandLineParser parser = new Ic3CommandLineParser();
     Ic3CommandLineArguments commandLineArguments =
         parser.parseCommandLine(args, Ic3CommandLineArguments.class);
@@ -11,6 +16,69 @@ public class Main {
       return;
     }
     commandLineArguments.processCommandLineArguments();
-    analysis.performAnalysis(commandLineArguments);
+    if (commandLineArguments.resolveLinks()) {
+      resolveLinks(commandLineArguments);
+      return;
+    }
+    if (commandLineArguments.loadSpool()) {
+      loadSpool(commandLineArguments);
+      return;
+    }
+    if (commandLineArguments.getBatch() != null) {
+      new BatchAnalysis(commandLineArguments, args).run();
+      return;
+    }
+    if (commandLineArguments.getManifest() == null) {
+      System.err.println("Either -apkormanifest or -batch should be specified.");
+      return;
+    }
+    if (commandLineArguments.manifestOnly()) {
+      new ManifestAnalysis().performAnalysis(commandLineArguments);
+    } else if (commandLineArguments.getPhaseTimeout() > 0
+        || commandLineArguments.getHeapWatermark() > 0) {
+      // An analysis which exceeds its budget halts its JVM, so it runs in a worker process.
+      new BatchAnalysis(commandLineArguments, args).runSingleApplication(commandLineArguments
+          .getManifest());
+      return;
+    } else {
+      new Ic3Analysis().performAnalysis(commandLineArguments);
+    }
+    if (commandLineArguments.getDb() != null) {
+      SQLConnection.shutdown();
+    }
+  }
+
+  private static void resolveLinks(Ic3CommandLineArguments commandLineArguments) {
+    if (commandLineArguments.getDb() == null) {
+      System.err.println("-resolvelinks requires -db.");
+      return;
+    }
+    SQLConnection.init(commandLineArguments.getDbName(), commandLineArguments.getDb(),
+        commandLineArguments.getSsh(), commandLineArguments.getDbLocalPort());
+    try {
+      long linkCount = new LinkResolver(commandLineArguments.getLinkThreads()).resolve();
+      System.out.println("LINKS: " + linkCount);
+    } catch (SQLException e) {
+      e.printStackTrace();
+    } finally {
+      SQLConnection.shutdown();
+    }
+  }
+
+  private static void loadSpool(Ic3CommandLineArguments commandLineArguments) {
+    if (commandLineArguments.getDb() == null || commandLineArguments.getSpool() == null) {
+      System.err.println("-loadspool requires -db and -spool.");
+      return;
+    }
+    SQLConnection.init(commandLineArguments.getDbName(), commandLineArguments.getDb(),
+        commandLineArguments.getSsh(), commandLineArguments.getDbLocalPort());
+    try {
+      int applicationCount = new SpoolLoader(commandLineArguments.getSpool()).load();
+      System.out.println("LOADED: " + applicationCount);
+    } catch (SQLException | IOException e) {
+      e.printStackTrace();
+    } finally {
+      SQLConnection.shutdown();
+    }
   }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Status;
+import edu.psu.cse.siis.ic3.db.SQLConnection;
+import edu.psu.cse.siis.ic3.manifest.ManifestPullParser;
+
+/**
+ * An analysis which only extracts the components, intent filters and permissions declared in the
+ * manifest. Soot, the class path and the COAL model are never loaded, so this produces the same
+ * manifest data as a full analysis for a small fraction of the cost.
+ */
+public class ManifestAnalysis {
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  /**
+   * Extracts the manifest data of the application and writes it to the protobuf or database
+   * output.
+   *
+   * @param commandLineArguments The command line arguments.
+   * @return True if the analysis succeeded.
+   */
+  public boolean performAnalysis(Ic3CommandLineArguments commandLineArguments) {
+    long startTime = System.currentTimeMillis();
+    ManifestPullParser detailedManifest = parseManifest(commandLineArguments.getManifest());
+    if (detailedManifest == null) {
+      return false;
+    }
+
+    Ic3Data.Application.Builder ic3Builder =
+        commandLineArguments.protobufOutput() ? makeApplication(detailedManifest,
+            commandLineArguments.getSample(), startTime / 1000) : null;
+    if (!writeResults(detailedManifest, ic3Builder, commandLineArguments)) {
+      return false;
+    }
+
+    if (logger.isInfoEnabled()) {
+      logger.info("Processed manifest of " + detailedManifest.getPackageName() + " in "
+          + (System.currentTimeMillis() - startTime) + " ms");
+    }
+    return true;
+  }
+
+  /**
+   * Parses a manifest.
+   *
+   * @param manifest The path to the manifest or .apk file.
+   * @return The parsed manifest, or null if it could not be parsed.
+   */
+  public ManifestPullParser parseManifest(String manifest) {
+    ManifestPullParser detailedManifest = new ManifestPullParser();
+    try {
+      detailedManifest.loadManifestFile(manifest);
+    } catch (RuntimeException e) {
+      logger.error("Could not process manifest file " + manifest, e);
+      return null;
+    }
+
+    return detailedManifest;
+  }
+
+  /**
+   * Builds the protobuf representation of a manifest.
+   *
+   * @param detailedManifest The parsed manifest.
+   * @param sample The sample name, or null.
+   * @param startTime The analysis start time, in seconds.
+   * @return The application.
+   */
+  public Ic3Data.Application.Builder makeApplication(ManifestPullParser detailedManifest,
+      String sample, long startTime) {
+    Ic3Data.Application.Builder ic3Builder = Ic3Data.Application.newBuilder();
+    ic3Builder.setAnalysisStart(startTime);
+    if (sample != null) {
+      ic3Builder.setSample(sample);
+    }
+    Map<String, Ic3Data.Application.Component.Builder> componentNameToBuilderMap =
+        detailedManifest.populateProtobuf(ic3Builder);
+    for (Ic3Data.Application.Component.Builder componentBuilder : componentNameToBuilderMap
+        .values()) {
+      ic3Builder.addComponents(componentBuilder);
+    }
+    ic3Builder.setAnalysisEnd(System.currentTimeMillis() / 1000);
+
+    return ic3Builder;
+  }
+
+  /**
+   * Writes the manifest data to the protobuf or database output. If there is no output, the
+   * manifest is printed.
+   *
+   * @param detailedManifest The parsed manifest.
+   * @param ic3Builder The protobuf representation of the manifest, if the output is a protobuf.
+   * @param commandLineArguments The command line arguments.
+   * @return True if the data was written.
+   */
+  public boolean writeResults(ManifestPullParser detailedManifest,
+      Ic3Data.Application.Builder ic3Builder, Ic3CommandLineArguments commandLineArguments) {
+    return writeResults(detailedManifest, ic3Builder, Status.COMPLETE, null, commandLineArguments);
+  }
+
+  /**
+   * Writes the manifest data of an application whose full analysis was aborted, along with the
+   * reason for the abort. No fingerprint is recorded, so the application is analyzed again when
+   * the batch is run again.
+   *
+   * @param detailedManifest The parsed manifest.
+   * @param ic3Builder The protobuf representation of the manifest, if the output is a protobuf.
+   * @param status The reason for the abort.
+   * @param phase The phase during which the analysis was aborted, or null if it is unknown.
+   * @param commandLineArguments The command line arguments.
+   * @return True if the data was written.
+   */
+  public boolean writeResults(ManifestPullParser detailedManifest,
+      Ic3Data.Application.Builder ic3Builder, Status status, String phase,
+      Ic3CommandLineArguments commandLineArguments) {
+    try {
+      if (commandLineArguments.protobufOutput()) {
+        if (status != Status.COMPLETE) {
+          ic3Builder.setStatus(status);
+          if (phase != null) {
+            ic3Builder.setFailedPhase(phase);
+          }
+        }
+        // Streaming is not used here, since there are no exit points.
+        new ProtobufResultProcessor().writeApplication(ic3Builder,
+            commandLineArguments.getProtobufDestination(), commandLineArguments.binary(),
+            commandLineArguments.getResultStore());
+      } else if (commandLineArguments.getDb() != null) {
+        writeToDb(detailedManifest, status, phase, commandLineArguments);
+      } else {
+        System.out.println(detailedManifest.toString());
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.error("Could not write manifest data of " + detailedManifest.getPackageName(), e);
+      return false;
+    }
+
+    return true;
+  }
+
+  private void writeToDb(ManifestPullParser detailedManifest, Status status, String phase,
+      Ic3CommandLineArguments commandLineArguments) {
+    // Forget the application written previously in this JVM, if any.
+    SQLConnection.reset();
+    SQLConnection.init(commandLineArguments.getDbName(), commandLineArguments.getDb(),
+        commandLineArguments.getSsh(), commandLineArguments.getDbLocalPort());
+    if (commandLineArguments.getComponentIndex() != null) {
+      SQLConnection.openComponentIndex(commandLineArguments.getComponentIndex());
+    }
+    try {
+      SQLConnection.beginTransaction();
+      detailedManifest.writeToDb(false);
+      if (status != Status.COMPLETE) {
+        SQLConnection.setStatus(status.name(), phase);
+      }
+      SQLConnection.markComplete();
+      SQLConnection.commitTransaction();
+    } catch (SQLException e) {
+      SQLConnection.reset();
+      throw new RuntimeException(e);
+    } catch (RuntimeException e) {
+      SQLConnection.reset();
+      throw e;
+    } finally {
+      SQLConnection.closeConnection();
+    }
+  }
+}
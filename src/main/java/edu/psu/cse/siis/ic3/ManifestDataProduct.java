@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import edu.psu.cse.siis.ic3.manifest.ManifestData;
+
+/**
+ * The data specifications of a dynamically registered intent filter, as the product of its
+ * possible MIME types, authorities, paths and schemes. The product is kept in factored form and
+ * its elements are only built when they are read. Products larger than a cap are truncated.
+ */
+public class ManifestDataProduct extends AbstractList<ManifestData> {
+  /** The maximum number of data specifications of a single intent filter. */
+  public static final int MAX_SIZE = 4096;
+
+  private final List<String> mimeTypes;
+  private final List<DataAuthority> authorities;
+  private final List<String> paths;
+  private final List<String> schemes;
+  private final int size;
+  private final boolean truncated;
+
+  /**
+   * Constructor.
+   *
+   * @param mimeTypes The possible MIME types.
+   * @param authorities The possible authorities.
+   * @param paths The possible paths.
+   * @param schemes The possible schemes.
+   */
+  public ManifestDataProduct(Collection<String> mimeTypes,
+      Collection<DataAuthority> authorities, Collection<String> paths, Collection<String> schemes) {
+    this.mimeTypes = new ArrayList<>(mimeTypes);
+    this.authorities = new ArrayList<>(authorities);
+    this.paths = new ArrayList<>(paths);
+    this.schemes = new ArrayList<>(schemes);
+
+    long fullSize =
+        (long) this.mimeTypes.size() * this.authorities.size() * this.paths.size()
+            * this.schemes.size();
+    this.truncated = fullSize > MAX_SIZE;
+    this.size = (int) Math.min(fullSize, MAX_SIZE);
+  }
+
+  /**
+   * Determines if the product was truncated to {@link #MAX_SIZE} elements.
+   *
+   * @return True if some data specifications were dropped.
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  @Override
+  public ManifestData get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+
+    // Schemes vary fastest, then paths, authorities and MIME types.
+    String scheme = schemes.get(index % schemes.size());
+    index /= schemes.size();
+    String dataPath = paths.get(index % paths.size());
+    index /= paths.size();
+    DataAuthority dataAuthority = authorities.get(index % authorities.size());
+    index /= authorities.size();
+    String mimeType = mimeTypes.get(index);
+
+    return new ManifestData(scheme, dataAuthority.getHost(), dataAuthority.getPort(), dataPath,
+        mimeType);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.psu.cse.siis.ic3.manifest.ManifestPullParser;
+
+/**
+ * Scans the manifests of a corpus of applications with several threads. Unlike full analyses,
+ * manifest parsing does not rely on global state, so it can run concurrently in a single JVM.
+ *
+ * Parser threads put the parsed manifests into a bounded queue. The calling thread takes them
+ * from the queue and writes them to the output, so that the output is only accessed by one thread
+ * and memory use stays bounded when the output is slower than parsing.
+ */
+public class ManifestScanner {
+  private static final int QUEUE_CAPACITY_PER_THREAD = 16;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Ic3CommandLineArguments commandLineArguments;
+  private final int threadCount;
+  private final ManifestAnalysis manifestAnalysis = new ManifestAnalysis();
+
+  /**
+   * A parsed manifest, ready to be written.
+   */
+  private static class ParsedManifest {
+    private final ManifestPullParser detailedManifest;
+    private final Ic3Data.Application.Builder ic3Builder;
+
+    ParsedManifest(ManifestPullParser detailedManifest, Ic3Data.Application.Builder ic3Builder) {
+      this.detailedManifest = detailedManifest;
+      this.ic3Builder = ic3Builder;
+    }
+  }
+
+  // Put into the queue by each parser thread when it is done. Manifests which could not be parsed
+  // are represented by other instances without a parsed manifest.
+  private static final ParsedManifest END = new ParsedManifest(null, null);
+
+  /**
+   * Constructor.
+   *
+   * @param commandLineArguments The command line arguments, which determine the output.
+   * @param threadCount The number of parser threads.
+   */
+  public ManifestScanner(Ic3CommandLineArguments commandLineArguments, int threadCount) {
+    this.commandLineArguments = commandLineArguments;
+    this.threadCount = Math.max(1, threadCount);
+  }
+
+  /**
+   * Scans the manifests of applications and writes them to the output. This returns once all
+   * manifests are written.
+   *
+   * @param applications The applications, as returned by
+   *          {@link BatchAnalysis#readApplications(String)}. Only the first element of each entry,
+   *          which is the path to the manifest or .apk file, is used.
+   */
+  public void scan(final List<String[]> applications) {
+    long startTime = System.currentTimeMillis();
+    final BlockingQueue<ParsedManifest> queue =
+        new ArrayBlockingQueue<>(threadCount * QUEUE_CAPACITY_PER_THREAD);
+    final AtomicInteger nextApplication = new AtomicInteger();
+
+    List<Thread> threads = new ArrayList<>(threadCount);
+    for (int i = 0; i < threadCount; ++i) {
+      Thread thread = new Thread("manifest-scanner-" + i) {
+        @Override
+        public void run() {
+          try {
+            int index;
+            while ((index = nextApplication.getAndIncrement()) < applications.size()) {
+              String manifest = applications.get(index)[0];
+              ParsedManifest parsedManifest;
+              try {
+                parsedManifest = parse(manifest);
+              } catch (Throwable t) {
+                // Count the application as failed rather than losing the thread and hanging the
+                // writer, which waits for an end marker from every thread.
+                logger.error("Could not parse manifest file " + manifest, t);
+                parsedManifest = new ParsedManifest(null, null);
+              }
+              queue.put(parsedManifest);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            try {
+              queue.put(END);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }
+      };
+      thread.setDaemon(true);
+      threads.add(thread);
+      thread.start();
+    }
+
+    int written = 0;
+    int failed = 0;
+    int runningThreads = threadCount;
+    try {
+      while (runningThreads > 0) {
+        ParsedManifest parsedManifest = queue.take();
+        if (parsedManifest == END) {
+          --runningThreads;
+        } else if (parsedManifest.detailedManifest != null
+            && manifestAnalysis.writeResults(parsedManifest.detailedManifest,
+                parsedManifest.ic3Builder, commandLineArguments)) {
+          ++written;
+        } else {
+          ++failed;
+        }
+      }
+    } catch (InterruptedException e) {
+      logger.warn("Interrupted while scanning manifests");
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      Thread.currentThread().interrupt();
+    }
+
+    if (logger.isInfoEnabled()) {
+      long time = Math.max(1, System.currentTimeMillis() - startTime);
+      logger.info("Scanned " + written + " manifests (" + failed + " failed) in " + time
+          + " ms with " + threadCount + " threads (" + (written * 1000L / time)
+          + " manifests/s)");
+    }
+  }
+
+  private ParsedManifest parse(String manifest) {
+    long startTime = System.currentTimeMillis() / 1000;
+    ManifestPullParser detailedManifest = manifestAnalysis.parseManifest(manifest);
+    if (detailedManifest == null) {
+      return new ParsedManifest(null, null);
+    }
+
+    Ic3Data.Application.Builder ic3Builder = null;
+    if (commandLineArguments.protobufOutput()) {
+      try {
+        ic3Builder =
+            manifestAnalysis.makeApplication(detailedManifest, commandLineArguments.getSample(),
+                startTime);
+      } catch (RuntimeException e) {
+        logger.error("Could not process manifest file " + manifest, e);
+        return new ParsedManifest(null, null);
+      }
+    }
+
+    return new ParsedManifest(detailedManifest, ic3Builder);
+  }
+}
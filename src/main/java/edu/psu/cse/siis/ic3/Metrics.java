@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Structured performance metrics of an analysis. For each phase, this records the wall-clock time,
+ * the CPU time and allocated bytes of the analysis thread, and the CPU time of the whole process
+ * (which includes the solver threads). It also records garbage collections, the peak heap usage
+ * and analysis counters. The metrics can be written as a JSON report, so that runs over a corpus
+ * can be compared.
+ */
+public class Metrics {
+  public static final String SETUP = "setup";
+  public static final String MANIFEST = "manifest";
+  public static final String CALLBACK_DISCOVERY = "callbackDiscovery";
+  public static final String INITIALIZATION = "initialization";
+  public static final String CLASS_LOADING = "classLoading";
+  public static final String ENTRY_POINT_SETUP = "entryPointSetup";
+  public static final String PROPAGATION = "propagation";
+  public static final String RESULT_PROCESSING = "resultProcessing";
+  public static final String TOTAL = "total";
+
+  private static Metrics instance = new Metrics();
+
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private final boolean threadCpuTimeSupported;
+  private final boolean allocatedBytesSupported;
+  private final Map<String, Phase> phases = new LinkedHashMap<>();
+  private final Map<String, Long> counters = new LinkedHashMap<>();
+  private final LinkedList<String> runningPhases = new LinkedList<>();
+  private final long initialGcCount;
+  private final long initialGcTime;
+
+  /**
+   * Measurements of a phase. A phase may be started and ended several times, in which case the
+   * measurements are accumulated.
+   */
+  public class Phase {
+    private long wallTime = 0;
+    private long threadCpuTime = 0;
+    private long processCpuTime = 0;
+    private long allocatedBytes = 0;
+    private int count = 0;
+
+    private long startWallTime;
+    private long startThreadCpuTime;
+    private long startProcessCpuTime;
+    private long startAllocatedBytes;
+    private boolean running = false;
+
+    private void start() {
+      running = true;
+      startWallTime = System.nanoTime();
+      startThreadCpuTime = currentThreadCpuTime();
+      startProcessCpuTime = currentProcessCpuTime();
+      startAllocatedBytes = currentAllocatedBytes();
+    }
+
+    private long getRunningTime() {
+      return running ? System.nanoTime() - startWallTime : 0;
+    }
+
+    private void end() {
+      if (!running) {
+        return;
+      }
+      running = false;
+      wallTime += System.nanoTime() - startWallTime;
+      threadCpuTime += currentThreadCpuTime() - startThreadCpuTime;
+      processCpuTime += currentProcessCpuTime() - startProcessCpuTime;
+      allocatedBytes += currentAllocatedBytes() - startAllocatedBytes;
+      ++count;
+    }
+
+    /**
+     * Returns the wall-clock time spent in the phase.
+     *
+     * @return The time, in nanoseconds.
+     */
+    public long getWallTime() {
+      return wallTime;
+    }
+
+    /**
+     * Returns the CPU time of the analysis thread in the phase.
+     *
+     * @return The time, in nanoseconds, or 0 if the JVM does not measure thread CPU time.
+     */
+    public long getThreadCpuTime() {
+      return threadCpuTime;
+    }
+
+    /**
+     * Returns the CPU time of the process in the phase.
+     *
+     * @return The time, in nanoseconds, or 0 if the JVM does not measure process CPU time.
+     */
+    public long getProcessCpuTime() {
+      return processCpuTime;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the analysis thread in the phase.
+     *
+     * @return The allocated bytes, or 0 if the JVM does not measure allocations.
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    /**
+     * Returns the number of times the phase was run.
+     *
+     * @return The count.
+     */
+    public int getCount() {
+      return count;
+    }
+  }
+
+  private Metrics() {
+    threadCpuTimeSupported =
+        threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+    allocatedBytesSupported =
+        threadBean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled();
+
+    long gcCount = 0;
+    long gcTime = 0;
+    for (GarbageCollectorMXBean garbageCollector : ManagementFactory
+        .getGarbageCollectorMXBeans()) {
+      gcCount += Math.max(0, garbageCollector.getCollectionCount());
+      gcTime += Math.max(0, garbageCollector.getCollectionTime());
+    }
+    initialGcCount = gcCount;
+    initialGcTime = gcTime;
+
+    for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+        memoryPool.resetPeakUsage();
+      }
+    }
+  }
+
+  public static Metrics v() {
+    synchronized (instance) {
+      return instance;
+    }
+  }
+
+  /**
+   * Resets all metrics. Garbage collections and peak heap usage are measured from this point on.
+   */
+  public static void clear() {
+    instance = new Metrics();
+  }
+
+  /**
+   * Starts a phase.
+   *
+   * @param name The phase name.
+   */
+  public synchronized void startPhase(String name) {
+    Phase phase = phases.get(name);
+    if (phase == null) {
+      phase = new Phase();
+      phases.put(name, phase);
+    }
+    phase.start();
+    runningPhases.remove(name);
+    runningPhases.add(name);
+  }
+
+  /**
+   * Ends a phase. This has no effect if the phase is not running.
+   *
+   * @param name The phase name.
+   */
+  public synchronized void endPhase(String name) {
+    Phase phase = phases.get(name);
+    if (phase != null) {
+      phase.end();
+    }
+    runningPhases.remove(name);
+  }
+
+  /**
+   * Ends all running phases, e.g., after an analysis failed.
+   */
+  public synchronized void endAllPhases() {
+    for (Phase phase : phases.values()) {
+      phase.end();
+    }
+    runningPhases.clear();
+  }
+
+  /**
+   * Returns the most recently started phase which is still running, not counting the
+   * {@link #TOTAL} phase.
+   *
+   * @return The phase name, or null if no phase is running.
+   */
+  public synchronized String getCurrentPhase() {
+    Iterator<String> iterator = runningPhases.descendingIterator();
+    while (iterator.hasNext()) {
+      String name = iterator.next();
+      if (!TOTAL.equals(name)) {
+        return name;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the time since a running phase was last started.
+   *
+   * @param name The phase name.
+   * @return The time, in milliseconds, or 0 if the phase is not running.
+   */
+  public synchronized long getRunningTime(String name) {
+    Phase phase = phases.get(name);
+    return phase != null ? phase.getRunningTime() / 1000000 : 0;
+  }
+
+  /**
+   * Gets the measurements of a phase.
+   *
+   * @param name The phase name.
+   * @return The phase, or null if it was never started.
+   */
+  public synchronized Phase getPhase(String name) {
+    return phases.get(name);
+  }
+
+  /**
+   * Sets the value of a counter.
+   *
+   * @param name The counter name.
+   * @param value The value.
+   */
+  public synchronized void setCounter(String name, long value) {
+    counters.put(name, value);
+  }
+
+  /**
+   * Writes the metrics to a JSON file named after the application.
+   *
+   * @param directory The destination directory.
+   * @param application The application name.
+   * @param status The analysis status, e.g., "ok" or "failed".
+   * @return The path to the file.
+   * @throws IOException if the file cannot be written.
+   */
+  public String writeReport(String directory, String application, String status)
+      throws IOException {
+    File parent = new File(directory);
+    if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+      throw new IOException("Could not create metrics directory " + directory);
+    }
+    File file = new File(parent, (application != null ? application : "unknown") + ".json");
+    try (Writer writer = new FileWriter(file)) {
+      writeJson(writer, application, status);
+    }
+
+    return file.getPath();
+  }
+
+  /**
+   * Writes the metrics as a JSON object.
+   *
+   * @param writer The destination writer.
+   * @param application The application name.
+   * @param status The analysis status.
+   * @throws IOException if the metrics cannot be written.
+   */
+  public synchronized void writeJson(Writer writer, String application, String status)
+      throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"application\": ").append(quote(application));
+    json.append(",\n  \"status\": ").append(quote(status));
+    json.append(",\n  \"timestamp\": ").append(System.currentTimeMillis());
+
+    json.append(",\n  \"phases\": {");
+    boolean first = true;
+    for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+      Phase phase = entry.getValue();
+      json.append(first ? "\n" : ",\n").append("    ").append(quote(entry.getKey()));
+      json.append(": {\"wallMs\": ").append(phase.getWallTime() / 1000000);
+      json.append(", \"threadCpuMs\": ").append(phase.getThreadCpuTime() / 1000000);
+      json.append(", \"processCpuMs\": ").append(phase.getProcessCpuTime() / 1000000);
+      json.append(", \"allocatedBytes\": ").append(phase.getAllocatedBytes());
+      json.append(", \"count\": ").append(phase.getCount()).append('}');
+      first = false;
+    }
+    json.append(first ? "}" : "\n  }");
+
+    long gcCount = 0;
+    long gcTime = 0;
+    for (GarbageCollectorMXBean garbageCollector : ManagementFactory
+        .getGarbageCollectorMXBeans()) {
+      gcCount += Math.max(0, garbageCollector.getCollectionCount());
+      gcTime += Math.max(0, garbageCollector.getCollectionTime());
+    }
+    json.append(",\n  \"gc\": {\"collections\": ").append(gcCount - initialGcCount);
+    json.append(", \"timeMs\": ").append(gcTime - initialGcTime).append('}');
+
+    long peakHeap = 0;
+    for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+        peakHeap += memoryPool.getPeakUsage().getUsed();
+      }
+    }
+    json.append(",\n  \"heap\": {\"peakBytes\": ").append(peakHeap);
+    json.append(", \"maxBytes\": ").append(Runtime.getRuntime().maxMemory()).append('}');
+
+    json.append(",\n  \"counters\": {");
+    first = true;
+    for (Map.Entry<String, Long> entry : counters.entrySet()) {
+      json.append(first ? "" : ", ").append(quote(entry.getKey())).append(": ")
+          .append(entry.getValue());
+      first = false;
+    }
+    json.append("}\n}\n");
+
+    writer.write(json.toString());
+  }
+
+  private long currentThreadCpuTime() {
+    return threadCpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : 0;
+  }
+
+  private long currentProcessCpuTime() {
+    OperatingSystemMXBean operatingSystemBean = ManagementFactory.getOperatingSystemMXBean();
+    if (operatingSystemBean instanceof com.sun.management.OperatingSystemMXBean) {
+      return Math.max(0,
+          ((com.sun.management.OperatingSystemMXBean) operatingSystemBean).getProcessCpuTime());
+    }
+    return 0;
+  }
+
+  private long currentAllocatedBytes() {
+    return allocatedBytesSupported ? ((com.sun.management.ThreadMXBean) threadBean)
+        .getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+  }
+
+  private static String quote(String string) {
+    if (string == null) {
+      return "null";
+    }
+
+    StringBuilder quoted = new StringBuilder(string.length() + 2).append('"');
+    for (int i = 0; i < string.length(); ++i) {
+      char c = string.charAt(i);
+      switch (c) {
+        case '"':
+          quoted.append("\\\"");
+          break;
+        case '\\':
+          quoted.append("\\\\");
+          break;
+        case '\n':
+          quoted.append("\\n");
+          break;
+        case '\r':
+          quoted.append("\\r");
+          break;
+        case '\t':
+          quoted.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+
+    return quoted.append('"').toString();
+  }
+}
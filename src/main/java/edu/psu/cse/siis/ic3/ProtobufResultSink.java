@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import soot.SootMethod;
+import soot.Unit;
+import edu.psu.cse.siis.coal.Constants;
+import edu.psu.cse.siis.coal.arguments.Argument;
+import edu.psu.cse.siis.coal.values.BasePropagationValue;
+import edu.psu.cse.siis.coal.values.BottomPropagationValue;
+import edu.psu.cse.siis.coal.values.PathValue;
+import edu.psu.cse.siis.coal.values.PropagationValue;
+import edu.psu.cse.siis.coal.values.TopPropagationValue;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component.ComponentKind;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component.ExitPoint;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component.ExitPoint.Intent;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component.ExitPoint.Uri;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component.Extra;
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Component.Instruction;
+import edu.psu.cse.siis.ic3.Ic3Data.Attribute;
+import edu.psu.cse.siis.ic3.Ic3Data.AttributeKind;
+import edu.psu.cse.siis.ic3.manifest.ManifestComponent;
+import edu.psu.cse.siis.ic3.manifest.ManifestIntentFilter;
+import edu.psu.cse.siis.ic3.manifest.ManifestPullParser;
+
+/**
+ * A result sink that adds exit points, dynamic receivers and component extras to the protobuf
+ * description of an application.
+ *
+ * When streaming, each component is written to the stream as soon as the last query site it
+ * reaches has been processed, and released once it is written. Otherwise components are added to
+ * the application builder at the end.
+ */
+public class ProtobufResultSink implements ResultSink {
+  private final Ic3Data.Application.Builder ic3Builder;
+  private final Map<String, Component.Builder> componentNameToBuilderMap;
+  private final Ic3DataStreamWriter streamWriter;
+  private final Map<String, Set<Extra>> componentToExtrasMap = new HashMap<>();
+  private final Map<String, ManifestComponent> dynamicReceivers = new HashMap<>();
+  private final Set<String> writtenComponents = new HashSet<>();
+
+  /**
+   * Constructor.
+   *
+   * @param ic3Builder The application builder.
+   * @param componentNameToBuilderMap A map from component name to component builder.
+   * @param streamWriter The stream to which components are written, or null if they should be
+   *          added to the application builder.
+   */
+  public ProtobufResultSink(Ic3Data.Application.Builder ic3Builder,
+      Map<String, Component.Builder> componentNameToBuilderMap, Ic3DataStreamWriter streamWriter) {
+    this.ic3Builder = ic3Builder;
+    this.componentNameToBuilderMap = componentNameToBuilderMap;
+    this.streamWriter = streamWriter;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void addResult(Ic3Result result, Unit unit, SootMethod method, Argument[] arguments,
+      Map<Integer, Object> argumentValues) {
+    if (arguments == null) {
+      return;
+    }
+
+    Map<SootMethod, Set<String>> entryPointMap = result.getEntryPointMap();
+    Instruction.Builder instructionBuilder = unitToInstructionBuilder(method, unit);
+    Map<String, Object> valueMap = new HashMap<>(arguments.length);
+    for (Argument argument : arguments) {
+      valueMap.put(argument.getProperty("valueType"),
+          argumentValues.get(argument.getArgnum()[0]));
+    }
+
+    if (valueMap.containsKey("activity")) {
+      insertProtobufExitPoint(instructionBuilder,
+          (BasePropagationValue) valueMap.get("activity"), ComponentKind.ACTIVITY, null, null,
+          entryPointMap.get(method), componentNameToBuilderMap);
+    } else if (valueMap.containsKey("service")) {
+      insertProtobufExitPoint(instructionBuilder,
+          (BasePropagationValue) valueMap.get("service"), ComponentKind.SERVICE, null, null,
+          entryPointMap.get(method), componentNameToBuilderMap);
+    } else if (valueMap.containsKey("receiver")) {
+      insertProtobufExitPoint(instructionBuilder,
+          (BasePropagationValue) valueMap.get("receiver"), ComponentKind.RECEIVER,
+          (Set<String>) valueMap.get("permission"), null, entryPointMap.get(method),
+          componentNameToBuilderMap);
+    } else if (valueMap.containsKey("intentFilter")) {
+      insertDynamicReceiver(dynamicReceivers, (Set<String>) valueMap.get("permission"),
+          (Set<String>) valueMap.get("receiverType"),
+          (BasePropagationValue) valueMap.get("intentFilter"), method, unit);
+    } else if (valueMap.containsKey("provider")) {
+      insertProtobufExitPoint(instructionBuilder,
+          (BasePropagationValue) valueMap.get("provider"), ComponentKind.PROVIDER, null, null,
+          entryPointMap.get(method), componentNameToBuilderMap);
+    } else if (valueMap.containsKey("authority")) {
+      insertProtobufExitPoint(instructionBuilder,
+          ResultValues.getUriValueForAuthorities((Set<String>) valueMap.get("authority")),
+          ComponentKind.PROVIDER, null, null, entryPointMap.get(method),
+          componentNameToBuilderMap);
+    } else if (valueMap.containsKey("pendingIntent")) {
+      BasePropagationValue baseCollectingValue =
+          (BasePropagationValue) valueMap.get("pendingIntent");
+      String targetType =
+          baseCollectingValue instanceof PropagationValue ? (String) ((PropagationValue) baseCollectingValue)
+              .getValuesForField("targetType").iterator().next().getValue()
+              : null;
+      Set<String> permissions = (Set<String>) valueMap.get("permission");
+      if (targetType != null) {
+        insertProtobufExitPoint(instructionBuilder, baseCollectingValue,
+            stringToComponentKind(targetType), permissions, null, entryPointMap.get(method),
+            componentNameToBuilderMap);
+      } else {
+        for (ComponentKind target : Arrays.asList(ComponentKind.ACTIVITY,
+            ComponentKind.RECEIVER, ComponentKind.SERVICE)) {
+          insertProtobufExitPoint(instructionBuilder, baseCollectingValue, target, null, null,
+              entryPointMap.get(method), componentNameToBuilderMap);
+        }
+      }
+    } else if (valueMap.containsKey("componentExtra")) {
+      Set<String> extras = (Set<String>) valueMap.get("componentExtra");
+      if (extras != null) {
+        for (String component : entryPointMap.get(method)) {
+          Set<Extra> existingExtras = componentToExtrasMap.get(component);
+          if (existingExtras == null) {
+            existingExtras = new HashSet<>();
+            componentToExtrasMap.put(component, existingExtras);
+          }
+          for (String extra : extras) {
+            Extra.Builder extraBuilder = Extra.newBuilder();
+            extraBuilder.setExtra(extra);
+            extraBuilder.setInstruction(instructionBuilder);
+            existingExtras.add(extraBuilder.build());
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void finishComponent(String component) throws IOException {
+    if (streamWriter != null) {
+      writeComponent(component);
+    }
+  }
+
+  @Override
+  public void finish() throws IOException {
+    for (Map.Entry<String, Component.Builder> entry : componentNameToBuilderMap.entrySet()) {
+      if (streamWriter != null) {
+        // Components which are not reached by any query site.
+        writeComponent(entry.getKey());
+      } else {
+        addExtras(entry.getKey(), entry.getValue());
+        ic3Builder.addComponents(entry.getValue());
+      }
+    }
+
+    for (ManifestComponent manifestComponent : dynamicReceivers.values()) {
+      Component.Builder componentBuilder =
+          ManifestPullParser.makeProtobufComponentBuilder(manifestComponent,
+              ComponentKind.DYNAMIC_RECEIVER);
+      componentBuilder.setRegistrationInstruction(unitToInstructionBuilder(
+          manifestComponent.getRegistrationMethod(), manifestComponent.getRegistrationUnit()));
+      if (streamWriter != null) {
+        streamWriter.writeComponent(componentBuilder.build());
+      } else {
+        ic3Builder.addComponents(componentBuilder);
+      }
+    }
+  }
+
+  /**
+   * Writes a component to the stream, unless it was already written, and releases its exit
+   * points, which make up most of the result.
+   *
+   * @param component The component name.
+   * @throws IOException if the component cannot be written.
+   */
+  private void writeComponent(String component) throws IOException {
+    if (!writtenComponents.add(component)) {
+      return;
+    }
+    Component.Builder componentBuilder = componentNameToBuilderMap.get(component);
+    if (componentBuilder == null) {
+      return;
+    }
+    addExtras(component, componentBuilder);
+    streamWriter.writeComponent(componentBuilder.build());
+    componentBuilder.clear();
+  }
+
+  private void addExtras(String component, Component.Builder componentBuilder) {
+    Set<Extra> extras = componentToExtrasMap.remove(component);
+    if (extras != null) {
+      componentBuilder.addAllExtras(extras);
+    }
+  }
+
+  private Instruction.Builder unitToInstructionBuilder(SootMethod method, Unit unit) {
+    Instruction.Builder builder = Instruction.newBuilder();
+    builder.setClassName(method.getDeclaringClass().getName());
+    builder.setMethod(method.getSignature());
+    builder.setStatement(unit.toString());
+    builder.setId(UnitIndex.v().getId(unit, method));
+
+    return builder;
+  }
+
+  private void insertProtobufExitPoint(Instruction.Builder instructionBuilder,
+      BasePropagationValue intentValue, ComponentKind componentKind, Set<String> intentPermissions,
+      Integer missingIntents, Set<String> exitPointComponents,
+      Map<String, Component.Builder> componentNameToBuilderMap) {
+    for (String exitPointComponent : exitPointComponents) {
+      ExitPoint.Builder exitPointBuilder = ExitPoint.newBuilder();
+      exitPointBuilder.setInstruction(instructionBuilder).setKind(componentKind);
+      PropagationValue collectingValue = null;
+      if (intentValue == null || intentValue instanceof TopPropagationValue
+          || intentValue instanceof BottomPropagationValue) {
+        missingIntents = 0;
+      } else if (intentValue instanceof PropagationValue) {
+        collectingValue = (PropagationValue) intentValue;
+        if (collectingValue.getPathValues() == null || collectingValue.getPathValues().size() == 0) {
+          missingIntents = 0;
+        }
+      } else {
+        throw new RuntimeException("Unknown CollectingValue type: " + intentValue.getClass());
+      }
+
+      if (missingIntents != null) {
+        exitPointBuilder.setMissing(missingIntents);
+      } else {
+        Set<PathValue> pathValues = collectingValue.getPathValues();
+        if (pathValues != null) {
+          for (PathValue pathValue : pathValues) {
+            if (componentKind.equals(ComponentKind.PROVIDER)) {
+              exitPointBuilder.addUris(makeProtobufUriBuilder(pathValue));
+            } else {
+              if (intentPermissions != null && intentPermissions.size() != 0) {
+                for (String intentPermission : intentPermissions) {
+                  exitPointBuilder.addIntents(makeProtobufIntentBuilder(pathValue).setPermission(
+                      intentPermission));
+                }
+              } else {
+                exitPointBuilder.addIntents(makeProtobufIntentBuilder(pathValue));
+              }
+            }
+          }
+        }
+      }
+
+      Component.Builder componentBuilder = componentNameToBuilderMap.get(exitPointComponent);
+      componentBuilder.addExitPoints(exitPointBuilder);
+    }
+  }
+
+  private Intent.Builder makeProtobufIntentBuilder(PathValue intentValue) {
+    Intent.Builder intentBuilder = Intent.newBuilder();
+
+    insertSingleValuedIntentAttribute(intentValue, "action", AttributeKind.ACTION, intentBuilder);
+
+    Set<String> categories = intentValue.getSetStringFieldValue("categories");
+    if (categories != null) {
+      if (categories.contains(null)) {
+        categories.remove(null);
+        categories.add(Constants.NULL_STRING);
+      }
+      intentBuilder.addAttributes(Attribute.newBuilder().setKind(AttributeKind.CATEGORY)
+          .addAllValue(categories));
+    }
+
+    Set<Integer> flags = intentValue.getSetFieldValue("flags", Integer.class);
+    if (flags != null) {
+      intentBuilder.addAttributes(Attribute.newBuilder().setKind(AttributeKind.FLAG)
+          .addAllIntValue(flags));
+    }
+
+    // String mimeType = intentValue.getSingleStringFieldValue("dataType");
+    // if (mimeType != null) {
+    // String[] typeParts = mimeType.split("/");
+    // String type;
+    // String subtype;
+    // if (typeParts.length == 2) {
+    // type = typeParts[0];
+    // subtype = typeParts[1];
+    // } else {
+    // type = Constants.ANY_STRING;
+    // subtype = Constants.ANY_STRING;
+    // }
+    // intentBuilder
+    // .addAttributes(Attribute.newBuilder().setKind(AttributeKind.TYPE).addValue(type));
+    // intentBuilder.addAttributes(Attribute.newBuilder().setKind(AttributeKind.SUBTYPE)
+    // .addValue(subtype));
+    // }
+    insertSingleValuedIntentAttribute(intentValue, "dataType", AttributeKind.TYPE, intentBuilder);
+
+    Set<String> extras = intentValue.getSetStringFieldValue("extras");
+    if (extras != null) {
+      if (extras.contains(null)) {
+        extras.remove(null);
+        extras.add(Constants.NULL_STRING);
+      }
+      intentBuilder.addAttributes(Attribute.newBuilder().setKind(AttributeKind.EXTRA)
+          .addAllValue(extras));
+    }
+
+    insertSingleValuedIntentAttribute(intentValue, "clazz", AttributeKind.CLASS, intentBuilder);
+    insertSingleValuedIntentAttribute(intentValue, "package", AttributeKind.PACKAGE, intentBuilder);
+    insertSingleValuedIntentAttribute(intentValue, "scheme", AttributeKind.SCHEME, intentBuilder);
+    insertSingleValuedIntentAttribute(intentValue, "ssp", AttributeKind.SSP, intentBuilder);
+    insertSingleValuedIntentAttribute(intentValue, "uri", AttributeKind.URI, intentBuilder);
+    insertSingleValuedIntentAttribute(intentValue, "path", AttributeKind.PATH, intentBuilder);
+    insertSingleValuedIntentAttribute(intentValue, "query", AttributeKind.QUERY, intentBuilder);
+    insertSingleValuedIntentAttribute(intentValue, "authority", AttributeKind.AUTHORITY,
+        intentBuilder);
+
+    return intentBuilder;
+  }
+
+  private void insertSingleValuedIntentAttribute(PathValue pathValue, String attribute,
+      AttributeKind kind, Intent.Builder intentBuilder) {
+    String attributeValue = pathValue.getScalarStringFieldValue(attribute);
+    if (attributeValue != null) {
+      intentBuilder.addAttributes(Attribute.newBuilder().setKind(kind).addValue(attributeValue));
+    }
+  }
+
+  private Uri.Builder makeProtobufUriBuilder(PathValue uriValue) {
+    Uri.Builder uriBuilder = Uri.newBuilder();
+    insertSingleValuedUriAttribute(uriValue, "scheme", AttributeKind.SCHEME, uriBuilder);
+    insertSingleValuedUriAttribute(uriValue, "ssp", AttributeKind.SSP, uriBuilder);
+    insertSingleValuedUriAttribute(uriValue, "uri", AttributeKind.URI, uriBuilder);
+    insertSingleValuedUriAttribute(uriValue, "path", AttributeKind.PATH, uriBuilder);
+    insertSingleValuedUriAttribute(uriValue, "query", AttributeKind.QUERY, uriBuilder);
+    insertSingleValuedUriAttribute(uriValue, "authority", AttributeKind.AUTHORITY, uriBuilder);
+
+    return uriBuilder;
+  }
+
+  private void insertSingleValuedUriAttribute(PathValue pathValue, String attribute,
+      AttributeKind kind, Uri.Builder uriBuilder) {
+    String attributeValue = pathValue.getScalarStringFieldValue(attribute);
+    if (attributeValue != null) {
+      uriBuilder.addAttributes(Attribute.newBuilder().setKind(kind).addValue(attributeValue));
+    }
+  }
+
+  private ComponentKind stringToComponentKind(String componentKind) {
+    switch (componentKind) {
+      case "a":
+        return ComponentKind.ACTIVITY;
+      case "s":
+        return ComponentKind.SERVICE;
+      case "r":
+        return ComponentKind.RECEIVER;
+      default:
+        throw new RuntimeException("Unknown component kind: " + componentKind);
+    }
+  }
+
+  private void insertDynamicReceiver(Map<String, ManifestComponent> dynamicReceivers,
+      Set<String> permissions, Set<String> receiverTypes, BasePropagationValue intentFilters,
+      SootMethod method, Unit unit) {
+    if (permissions == null) {
+      permissions = Collections.singleton(null);
+    }
+
+    for (String receiverType : receiverTypes) {
+      for (String permission : permissions) {
+        insertDynamicReceiverHelper(dynamicReceivers, permission, receiverType, intentFilters,
+            method, unit);
+      }
+    }
+  }
+
+  private void insertDynamicReceiverHelper(Map<String, ManifestComponent> dynamicReceivers,
+      String permission, String receiverType, BasePropagationValue intentFilters,
+      SootMethod method, Unit unit) {
+    Integer missingIntentFilters;
+    Set<ManifestIntentFilter> manifestIntentFilters;
+
+    if (intentFilters == null || intentFilters instanceof TopPropagationValue
+        || intentFilters instanceof BottomPropagationValue) {
+      missingIntentFilters = 0;
+      manifestIntentFilters = null;
+    } else if (intentFilters instanceof PropagationValue) {
+      missingIntentFilters = null;
+      PropagationValue collectingValue = (PropagationValue) intentFilters;
+      manifestIntentFilters = new HashSet<>();
+      for (PathValue branchValue : collectingValue.getPathValues()) {
+        manifestIntentFilters.add(ResultValues.makeIntentFilter(branchValue));
+      }
+    } else {
+      throw new RuntimeException("Unknown intent filter type: " + intentFilters.getClass());
+    }
+
+    ManifestComponent manifestComponent = dynamicReceivers.get(receiverType);
+    if (manifestComponent == null) {
+      manifestComponent =
+          new ManifestComponent(
+              edu.psu.cse.siis.ic3.db.Constants.ComponentShortType.DYNAMIC_RECEIVER, receiverType,
+              true, true, permission, null, missingIntentFilters, method, unit);
+      dynamicReceivers.put(receiverType, manifestComponent);
+    }
+
+    manifestComponent.addIntentFilters(manifestIntentFilters);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+import edu.psu.cse.siis.coal.Model;
+
+/**
+ * An index of the query sites of each method, that is, of the statements that call a method
+ * modeled as a query. Finding query sites only requires a linear pass over the statements of a
+ * method, so methods without query sites can be skipped without building their control flow
+ * graph.
+ *
+ * The index is built lazily and may be accessed concurrently.
+ */
+public class QuerySiteIndex {
+  private final ConcurrentMap<SootMethod, List<Stmt>> querySites = new ConcurrentHashMap<>();
+
+  /**
+   * Gets the query sites of a method, in the order in which they appear in the method body.
+   *
+   * @param method A method with an active body.
+   * @return The query sites of the method.
+   */
+  public List<Stmt> getQuerySites(SootMethod method) {
+    List<Stmt> methodQuerySites = querySites.get(method);
+    if (methodQuerySites == null) {
+      methodQuerySites = findQuerySites(method);
+      querySites.putIfAbsent(method, methodQuerySites);
+    }
+
+    return methodQuerySites;
+  }
+
+  private List<Stmt> findQuerySites(SootMethod method) {
+    List<Stmt> result = null;
+    for (Unit unit : method.getActiveBody().getUnits()) {
+      Stmt stmt = (Stmt) unit;
+      if (stmt.containsInvokeExpr() && isQuerySite(stmt)) {
+        if (result == null) {
+          result = new ArrayList<>();
+        }
+        result.add(stmt);
+      }
+    }
+
+    return result == null ? Collections.<Stmt> emptyList() : result;
+  }
+
+  /**
+   * Determines if a statement calls a method modeled as a query.
+   *
+   * @param stmt A statement which contains an invoke expression.
+   * @return True if the statement is a query site.
+   */
+  protected boolean isQuerySite(Stmt stmt) {
+    return Model.v().getArgumentsForQuery(stmt) != null;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.SootMethod;
+import soot.Unit;
+import edu.psu.cse.siis.coal.arguments.Argument;
+
+/**
+ * A result sink that prints a human-readable description of the results, sorted by method and
+ * statement.
+ */
+public class ResultDumpSink implements ResultSink {
+  private final PrintStream printStream;
+  private final List<String> results = new ArrayList<>();
+
+  public ResultDumpSink(PrintStream printStream) {
+    this.printStream = printStream;
+  }
+
+  @Override
+  public void addResult(Ic3Result result, Unit unit, SootMethod method, Argument[] arguments,
+      Map<Integer, Object> argumentValues) {
+    results.add(describe(unit, method, argumentValues, result.getEntryPointMap()));
+  }
+
+  @Override
+  public void finishComponent(String component) {
+  }
+
+  @Override
+  public void finish() {
+    printStream.println("*****Result*****");
+    Collections.sort(results);
+    for (String result : results) {
+      printStream.println(result);
+    }
+    results.clear();
+  }
+
+  /**
+   * Describes the values found at a query site.
+   *
+   * @param unit The query site.
+   * @param method The method that contains the query site.
+   * @param argumentValues A map from argument number to argument value.
+   * @param entryPointMap A map from method to the components it belongs to, or null if components
+   *          were not computed.
+   * @return The description.
+   */
+  public static String describe(Unit unit, SootMethod method, Map<Integer, Object> argumentValues,
+      Map<SootMethod, Set<String>> entryPointMap) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(method.getDeclaringClass().getName()).append('/')
+        .append(method.getSubSignature()).append(" : ").append(unit).append('\n');
+
+    if (entryPointMap != null) {
+      Set<String> components = entryPointMap.get(method);
+      if (components != null) {
+        builder.append("Components: ").append(components).append('\n');
+      } else {
+        builder.append("Unknown components").append('\n');
+      }
+    }
+
+    for (Map.Entry<Integer, Object> entry : argumentValues.entrySet()) {
+      builder.append("    ").append(entry.getKey()).append(" : ").append(entry.getValue())
+          .append('\n');
+    }
+
+    return builder.toString();
+  }
+}
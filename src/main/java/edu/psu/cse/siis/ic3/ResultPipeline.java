@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+import edu.psu.cse.siis.coal.AnalysisParameters;
+import edu.psu.cse.siis.coal.Model;
+import edu.psu.cse.siis.coal.Result;
+import edu.psu.cse.siis.coal.Results;
+import edu.psu.cse.siis.coal.arguments.Argument;
+
+/**
+ * Visits the analysis results once and hands each of them to a list of sinks. The queried
+ * arguments and the enclosing method of each result are only looked up once for all sinks.
+ *
+ * Query sites are visited grouped by the components whose entry points reach them, and sinks are
+ * told when the last query site of a component was visited. This lets sinks write and release
+ * each component as soon as it is complete, instead of keeping all of them until the end.
+ */
+public class ResultPipeline {
+  private final List<ResultSink> sinks = new ArrayList<>();
+
+  /**
+   * A query site along with the components which reach it.
+   */
+  private static class QuerySite {
+    private final Ic3Result result;
+    private final Unit unit;
+    private final SootMethod method;
+    private final Map<Integer, Object> argumentValues;
+    private final Set<String> components;
+    // The smallest component name, by which query sites are grouped.
+    private final String groupKey;
+
+    QuerySite(Ic3Result result, Unit unit, SootMethod method, Map<Integer, Object> argumentValues,
+        Set<String> components) {
+      this.result = result;
+      this.unit = unit;
+      this.method = method;
+      this.argumentValues = argumentValues;
+      this.components = components != null ? components : Collections.<String> emptySet();
+      this.groupKey = this.components.isEmpty() ? "" : Collections.min(this.components);
+    }
+  }
+
+  /**
+   * Adds a sink to the pipeline. Sinks receive each result in the order in which they were added.
+   *
+   * @param sink The sink.
+   * @return This pipeline.
+   */
+  public ResultPipeline addSink(ResultSink sink) {
+    sinks.add(sink);
+    return this;
+  }
+
+  /**
+   * Sends all analysis results to the sinks, then finishes each sink.
+   *
+   * @throws IOException if a sink cannot write its output.
+   * @throws SQLException if a sink cannot write to the database.
+   */
+  public void run() throws IOException, SQLException {
+    List<QuerySite> querySites = new ArrayList<>();
+    Map<String, Integer> remainingSites = new HashMap<>();
+    for (Result result : Results.getResults()) {
+      Ic3Result ic3Result = (Ic3Result) result;
+      Map<SootMethod, Set<String>> entryPointMap = ic3Result.getEntryPointMap();
+      for (Map.Entry<Unit, Map<Integer, Object>> entry : result.getResults().entrySet()) {
+        SootMethod method = AnalysisParameters.v().getIcfg().getMethodOf(entry.getKey());
+        QuerySite querySite =
+            new QuerySite(ic3Result, entry.getKey(), method, entry.getValue(),
+                entryPointMap != null ? entryPointMap.get(method) : null);
+        querySites.add(querySite);
+        for (String component : querySite.components) {
+          Integer count = remainingSites.get(component);
+          remainingSites.put(component, count == null ? 1 : count + 1);
+        }
+      }
+    }
+    Collections.sort(querySites, new Comparator<QuerySite>() {
+      @Override
+      public int compare(QuerySite querySite1, QuerySite querySite2) {
+        return querySite1.groupKey.compareTo(querySite2.groupKey);
+      }
+    });
+
+    for (QuerySite querySite : querySites) {
+      Argument[] arguments = Model.v().getArgumentsForQuery((Stmt) querySite.unit);
+      for (ResultSink sink : sinks) {
+        sink.addResult(querySite.result, querySite.unit, querySite.method, arguments,
+            querySite.argumentValues);
+      }
+
+      for (String component : querySite.components) {
+        int count = remainingSites.get(component) - 1;
+        remainingSites.put(component, count);
+        if (count == 0) {
+          for (ResultSink sink : sinks) {
+            sink.finishComponent(component);
+          }
+        }
+      }
+    }
+
+    for (ResultSink sink : sinks) {
+      sink.finish();
+    }
+  }
+}
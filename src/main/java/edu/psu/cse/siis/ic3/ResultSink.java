@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+
+import soot.SootMethod;
+import soot.Unit;
+import edu.psu.cse.siis.coal.arguments.Argument;
+
+/**
+ * A consumer of analysis results, such as an output format or a statistics collector. Sinks are
+ * driven by a {@link ResultPipeline}, which visits each result once.
+ */
+public interface ResultSink {
+  /**
+   * Processes the values found at a query site.
+   *
+   * @param result The result that contains the query site.
+   * @param unit The query site.
+   * @param method The method that contains the query site.
+   * @param arguments The queried arguments, or null if the statement is not a query.
+   * @param argumentValues A map from argument number to argument value.
+   * @throws IOException if the result cannot be written.
+   * @throws SQLException if the result cannot be written to the database.
+   */
+  void addResult(Ic3Result result, Unit unit, SootMethod method, Argument[] arguments,
+      Map<Integer, Object> argumentValues) throws IOException, SQLException;
+
+  /**
+   * Called once the last query site reached by a component has been processed. No result
+   * concerning the component is added afterwards.
+   *
+   * @param component The component name.
+   * @throws IOException if the component cannot be written.
+   * @throws SQLException if the component cannot be written to the database.
+   */
+  void finishComponent(String component) throws IOException, SQLException;
+
+  /**
+   * Called after all results have been processed.
+   *
+   * @throws IOException if the output cannot be written.
+   * @throws SQLException if the output cannot be written to the database.
+   */
+  void finish() throws IOException, SQLException;
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Scene;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import edu.psu.cse.siis.coal.Constants;
+import edu.psu.cse.siis.coal.PropagationTimers;
+import edu.psu.cse.siis.coal.arguments.Argument;
+import edu.psu.cse.siis.coal.field.values.FieldValue;
+import edu.psu.cse.siis.coal.field.values.TopFieldValue;
+import edu.psu.cse.siis.coal.values.BottomPropagationValue;
+import edu.psu.cse.siis.coal.values.PathValue;
+import edu.psu.cse.siis.coal.values.PropagationValue;
+import edu.psu.cse.siis.coal.values.TopPropagationValue;
+
+/**
+ * A result sink that computes precision statistics about the analysis results.
+ */
+public class ResultStatistics implements ResultSink {
+  private static final String ENTRY_POINT_INTENT = "<INTENT>";
+  private static final Set<String> NON_LINKING_FIELD_NAMES = new HashSet<>();
+  /** The number of separate values beyond which counting stops for a single value. */
+  private static final long MAX_SEPARATE_COUNT = Integer.MAX_VALUE;
+
+  static {
+    NON_LINKING_FIELD_NAMES.add("extras");
+    NON_LINKING_FIELD_NAMES.add("flags");
+    NON_LINKING_FIELD_NAMES.add("fragment");
+    NON_LINKING_FIELD_NAMES.add("query");
+  }
+
+  private final int[] preciseNonLinking = { 0, 0, 0, 0 };
+  private final int[] preciseLinking = { 0, 0, 0, 0 };
+  private final int[] imprecise = { 0, 0, 0, 0, 0 };
+  private final int[] top = { 0, 0, 0 };
+  private final int[] bottom = { 0, 0, 0 };
+  private final int[] nonexistent = { 0, 0, 0 };
+  private final int[] preciseFieldValueCount = { 0, 0, 0 };
+  private final int[] partiallyPreciseFieldValueCount = { 0, 0, 0 };
+  private final int[] impreciseFieldValueCount = { 0, 0, 0 };
+  private int intentWithData = 0;
+  private int providerArgument = 0;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void addResult(Ic3Result result, Unit unit, SootMethod method, Argument[] arguments,
+      Map<Integer, Object> argnumToValueMap) {
+    Collection<Object> argumentValues = argnumToValueMap.values();
+    boolean top = false;
+    boolean bottom = false;
+    // This is true only if the linking field are precisely known.
+    boolean preciseLinking = true;
+    // This is true only if all fields are precisely known.
+    boolean preciseNonLinking = true;
+    boolean nonexistent = false;
+    boolean intentWithUri = false;
+    boolean entryPointIntent = false;
+
+    int resultIndex = getResultIndex((Stmt) unit);
+
+    for (Object value2 : argumentValues) {
+      if (value2 == null) {
+        nonexistent = true;
+      } else if (value2 instanceof TopPropagationValue) {
+        top = true;
+      } else if (value2 instanceof BottomPropagationValue) {
+        bottom = true;
+      } else if (value2 instanceof PropagationValue) {
+        // System.out.println(value2);
+        Set<PathValue> pathValues = ((PropagationValue) value2).getPathValues();
+        PropagationTimers.v().pathValues += pathValues.size();
+
+        // This keeps track of the distinct values of each field across all paths.
+        Map<String, SeparateFieldValues> separateFieldValues = new HashMap<>();
+
+        for (PathValue branchValue : pathValues) {
+
+          intentWithUri = intentWithUri || isIntentWithUri(branchValue.getFieldMap());
+
+          for (Map.Entry<String, FieldValue> entry : branchValue.getFieldMap().entrySet()) {
+            String fieldName = entry.getKey();
+            FieldValue fieldValue = entry.getValue();
+
+            addSeparateFieldValue(fieldName, fieldValue, separateFieldValues);
+
+            if (fieldValue instanceof TopFieldValue) {
+              if (NON_LINKING_FIELD_NAMES.contains(fieldName)) {
+                preciseNonLinking = false;
+              } else {
+                preciseNonLinking = false;
+                preciseLinking = false;
+              }
+            } else {
+              Object value = fieldValue.getValue();
+              if (value == null) {
+                continue;
+              }
+
+              if (value instanceof Set) {
+                Set<Object> values = (Set<Object>) value;
+
+                if (values.contains(Constants.ANY_STRING) || values.contains(Constants.ANY_CLASS)
+                    || values.contains(Constants.ANY_INT) || values.contains(ENTRY_POINT_INTENT)
+                    || values.contains("top")) {
+                  if (values.contains(ENTRY_POINT_INTENT)) {
+                    entryPointIntent = true;
+                  }
+                  preciseNonLinking = false;
+                  if (!NON_LINKING_FIELD_NAMES.contains(fieldName)) {
+                    preciseLinking = false;
+                  }
+                }
+              } else {
+                if (value.equals(Constants.ANY_STRING) || value.equals(Constants.ANY_CLASS)
+                    || value.equals(Constants.ANY_INT) || value.equals(ENTRY_POINT_INTENT)
+                    || value.equals("top")) {
+                  if (value.equals(ENTRY_POINT_INTENT)) {
+                    entryPointIntent = true;
+                  }
+                  preciseNonLinking = false;
+                  if (!NON_LINKING_FIELD_NAMES.contains(fieldName)) {
+                    preciseLinking = false;
+                  }
+                }
+              }
+            }
+          }
+        }
+
+        // The number of separate values is the size of the product of the distinct values of each
+        // field. Only the count is needed, so the product is never built.
+        long separateCount = 1;
+        for (SeparateFieldValues values : separateFieldValues.values()) {
+          separateCount *= values.size(pathValues.size());
+          if (separateCount > MAX_SEPARATE_COUNT) {
+            separateCount = MAX_SEPARATE_COUNT;
+            ++Timers.v().truncatedSeparateCounts;
+            break;
+          }
+        }
+        PropagationTimers.v().separatePathValues =
+            (int) Math.min(Integer.MAX_VALUE, PropagationTimers.v().separatePathValues
+                + separateCount);
+      }
+    }
+
+    if (intentWithUri) {
+      ++this.intentWithData;
+    }
+
+    if (nonexistent) {
+      if (Scene
+          .v()
+          .getActiveHierarchy()
+          .isClassSubclassOfIncluding(method.getDeclaringClass(),
+              Scene.v().getSootClass("android.content.ContentProvider"))) {
+        ++this.providerArgument;
+      } else {
+        ++this.nonexistent[resultIndex];
+      }
+    } else if (top) {
+      ++this.top[resultIndex];
+    } else if (bottom) {
+      ++this.bottom[resultIndex];
+    } else if (preciseNonLinking) {
+      if (intentWithUri) {
+        ++this.preciseNonLinking[3];
+      } else {
+        ++this.preciseNonLinking[resultIndex];
+      }
+    } else if (preciseLinking) {
+      if (intentWithUri) {
+        ++this.preciseLinking[3];
+      } else {
+        ++this.preciseLinking[resultIndex];
+      }
+    } else {
+      if (entryPointIntent) {
+        ++this.imprecise[4];
+      } else if (intentWithUri) {
+        ++this.imprecise[3];
+      } else {
+        ++this.imprecise[resultIndex];
+      }
+    }
+  }
+
+  @Override
+  public void finishComponent(String component) {
+  }
+
+  @Override
+  public void finish() {
+  }
+
+  /**
+   * Returns the statistics line written with database or text output.
+   *
+   * @param appName The application name.
+   * @param analysisClassesCount The number of analyzed classes.
+   * @return The statistics line.
+   */
+  public String getStatistics(String appName, int analysisClassesCount) {
+    return appName + " " + analysisClassesCount + " " + PropagationTimers.v().reachableMethods + " "
+        + PropagationTimers.v().reachableStatements + " " + preciseNonLinking[0] + " "
+        + preciseNonLinking[3] + " " + preciseNonLinking[1] + " " + preciseNonLinking[2] + " "
+        + preciseLinking[0] + " " + preciseLinking[3] + " " + preciseLinking[1] + " "
+        + preciseLinking[2] + " " + imprecise[0] + " " + imprecise[3] + " " + imprecise[1] + " "
+        + imprecise[2] + " " + bottom[0] + " " + bottom[1] + " " + bottom[2] + " " + top[0] + " "
+        + top[1] + " " + top[2] + " " + nonexistent[0] + " " + nonexistent[1] + " " + nonexistent[2]
+        + " " + providerArgument + " " + imprecise[4] + " " + PropagationTimers.v().pathValues + " "
+        + PropagationTimers.v().separatePathValues + " "
+        + PropagationTimers.v().modelParsing.getTime() + " " + Timers.v().mainGeneration.getTime()
+        + " " + Timers.v().entryPointMapping.getTime() + " " + Timers.v().classLoading.getTime()
+        + " " + PropagationTimers.v().problemGeneration.getTime() + " "
+        + PropagationTimers.v().ideSolution.getTime() + " "
+        + PropagationTimers.v().valueComposition.getTime() + " "
+        + PropagationTimers.v().resultGeneration.getTime() + " "
+        + (PropagationTimers.v().soot.getTime() - PropagationTimers.v().totalTimer.getTime()) + " "
+        + (Timers.v().misc.getTime() + PropagationTimers.v().misc.getTime()) + " "
+        + Timers.v().totalTimer.getTime() + " " + Timers.v().callbackCacheHits + " "
+        + Timers.v().callbackCacheMisses + "\n";
+  }
+
+  /**
+   * Returns the statistics line written with protobuf output.
+   *
+   * @param appName The application name.
+   * @param analysisClassesCount The number of analyzed classes.
+   * @return The statistics line.
+   */
+  public String getProtobufStatistics(String appName, int analysisClassesCount) {
+    return appName + " " + analysisClassesCount + " " + PropagationTimers.v().reachableMethods + " "
+        + preciseNonLinking[0] + " " + preciseNonLinking[3] + " " + preciseNonLinking[1] + " "
+        + preciseNonLinking[2] + " " + preciseLinking[0] + " " + preciseLinking[3] + " "
+        + preciseLinking[1] + " " + preciseLinking[2] + " " + imprecise[0] + " " + imprecise[3]
+        + " " + imprecise[1] + " " + imprecise[2] + " " + bottom[0] + " " + bottom[1] + " "
+        + bottom[2] + " " + top[0] + " " + top[1] + " " + top[2] + " " + nonexistent[0] + " "
+        + nonexistent[1] + " " + nonexistent[2] + " " + providerArgument + " " + imprecise[4] + " "
+        + preciseFieldValueCount[0] + " " + preciseFieldValueCount[1] + " "
+        + preciseFieldValueCount[2] + " " + partiallyPreciseFieldValueCount[0] + " "
+        + partiallyPreciseFieldValueCount[1] + " " + partiallyPreciseFieldValueCount[2] + " "
+        + impreciseFieldValueCount[0] + " " + impreciseFieldValueCount[1] + " "
+        + impreciseFieldValueCount[2] + " " + PropagationTimers.v().modelParsing.getTime() + " "
+        + Timers.v().mainGeneration.getTime() + " " + Timers.v().entryPointMapping.getTime() + " "
+        + Timers.v().classLoading.getTime() + " "
+        + PropagationTimers.v().problemGeneration.getTime() + " "
+        + PropagationTimers.v().ideSolution.getTime() + " "
+        + PropagationTimers.v().valueComposition.getTime() + " "
+        + PropagationTimers.v().resultGeneration.getTime() + " "
+        + (PropagationTimers.v().soot.getTime() - PropagationTimers.v().totalTimer.getTime()) + " "
+        + (Timers.v().misc.getTime() + PropagationTimers.v().misc.getTime()) + " "
+        + Timers.v().totalTimer.getTime() + " " + Timers.v().callbackCacheHits + " "
+        + Timers.v().callbackCacheMisses + "\n";
+  }
+
+  private void addSeparateFieldValue(String fieldName, FieldValue fieldValue,
+      Map<String, SeparateFieldValues> separateFieldValues) {
+    SeparateFieldValues values = separateFieldValues.get(fieldName);
+    if (values == null) {
+      values = new SeparateFieldValues();
+      separateFieldValues.put(fieldName, values);
+    }
+
+    values.add(fieldValue);
+  }
+
+  /**
+   * The distinct values of a field across the paths of a propagation value.
+   */
+  private static class SeparateFieldValues {
+    private final Set<FieldValue> values = new HashSet<>();
+    private int pathCount = 0;
+
+    private void add(FieldValue fieldValue) {
+      values.add(fieldValue);
+      ++pathCount;
+    }
+
+    /**
+     * Returns the number of distinct values of the field. If some path does not define the field,
+     * then the field may also be undefined, which counts as a null value.
+     */
+    private int size(int totalPathCount) {
+      return pathCount < totalPathCount && !values.contains(null) ? values.size() + 1 : values
+          .size();
+    }
+  }
+
+  private boolean isIntentWithUri(Map<String, FieldValue> fieldMap) {
+    Set<String> fields = fieldMap.keySet();
+
+    if (fields.contains("action") || fields.contains("categories")) {
+      if ((fields.contains("uri") && fieldMap.get("uri") != null && fieldMap.get("uri").getValue() != null)
+          || (fields.contains("path") && fieldMap.get("path") != null && fieldMap.get("path")
+              .getValue() != null)
+          || (fields.contains("scheme") && fieldMap.get("scheme") != null && fieldMap.get("scheme")
+              .getValue() != null)
+          || (fields.contains("ssp") && fieldMap.get("ssp") != null && fieldMap.get("ssp")
+              .getValue() != null)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private int getResultIndex(Stmt stmt) {
+    InvokeExpr invokeExpr = stmt.getInvokeExpr();
+    List<Type> types = invokeExpr.getMethod().getParameterTypes();
+
+    for (Type type : types) {
+      if (type.toString().equals("android.content.IntentFilter")) {
+        return 1;
+      } else if (type.toString().equals("android.net.Uri")) {
+        return 2;
+      }
+    }
+
+    return 0;
+  }
+
+  private boolean containsPartialDefinition(Set<Object> values) {
+    for (Object value : values) {
+      if (value instanceof String && ((String) value).contains("(.*)")) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
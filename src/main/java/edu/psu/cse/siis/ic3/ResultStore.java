@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.protobuf.CodedOutputStream;
+
+import edu.psu.cse.siis.ic3.Ic3Data.Application;
+
+/**
+ * An append-only store of analysis results. Instead of writing one file per application,
+ * {@link Application} records are appended to large segment files, and an index maps each
+ * application to the location of its record.
+ *
+ * The store is a directory which contains numbered segment files, an index file and a lock file.
+ * Appends hold an exclusive lock on the lock file, so several batch workers can append to the same
+ * store concurrently. Records are length-delimited, so segments can be scanned without the index.
+ * Segments are memory-mapped for reading.
+ *
+ * The index starts with a header which records the length of the index and the end of the last
+ * record as of the last complete append. An append only takes effect when the header is updated,
+ * after the record and its index entry are written. Readers ignore everything after the recorded
+ * lengths, and the next append truncates it, so a writer which dies in the middle of an append
+ * leaves no trace.
+ */
+public class ResultStore implements Closeable {
+  private static final String SEGMENT_FORMAT = "segment-%05d.dat";
+  private static final String INDEX_FILE = "index";
+  private static final String LOCK_FILE = "lock";
+  // Segments stay below the maximum size of a single mapped buffer.
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+  // The index length (long), the last segment (int) and the end of its last record (long).
+  private static final int HEADER_SIZE = 20;
+
+  // File locks are held by the whole JVM, so appends from the same JVM are serialized separately.
+  private static final Object APPEND_LOCK = new Object();
+
+  private final File directory;
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+  private final Map<Integer, MappedByteBuffer> mappedSegments = new HashMap<>();
+  private long indexPosition = 0;
+
+  /**
+   * The location of an application record in the store.
+   */
+  public static class Entry {
+    private final String name;
+    private final int version;
+    private final String sample;
+    private final int segment;
+    private final long offset;
+    private final int length;
+
+    Entry(String name, int version, String sample, int segment, long offset, int length) {
+      this.name = name;
+      this.version = version;
+      this.sample = sample;
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getVersion() {
+      return version;
+    }
+
+    /**
+     * Returns the sample name of the application.
+     *
+     * @return The sample name, or null if the application was not analyzed as part of a sample.
+     */
+    public String getSample() {
+      return sample;
+    }
+
+    public int getSegment() {
+      return segment;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+  }
+
+  /**
+   * Opens a result store, creating its directory if it does not exist.
+   *
+   * @param directory The store directory.
+   * @throws IOException if the directory cannot be created.
+   */
+  public ResultStore(String directory) throws IOException {
+    this.directory = new File(directory);
+    if (!this.directory.exists() && !this.directory.mkdirs() && !this.directory.exists()) {
+      throw new IOException("Could not create result store directory " + directory);
+    }
+  }
+
+  /**
+   * Appends an application record to the store.
+   *
+   * @param application The application.
+   * @return The location of the record.
+   * @throws IOException if the record cannot be written.
+   */
+  public Entry append(Application application) throws IOException {
+    ByteArrayOutputStream recordStream =
+        new ByteArrayOutputStream(CodedOutputStream.computeRawVarint32Size(application
+            .getSerializedSize()) + application.getSerializedSize());
+    application.writeDelimitedTo(recordStream);
+    byte[] record = recordStream.toByteArray();
+    String sample = application.hasSample() ? application.getSample() : null;
+
+    synchronized (APPEND_LOCK) {
+      try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+          FileLock lock = lockFile.getChannel().lock();
+          RandomAccessFile indexOutput =
+              new RandomAccessFile(new File(directory, INDEX_FILE), "rw")) {
+        long indexLength = HEADER_SIZE;
+        int segment = 0;
+        long offset = 0;
+        if (indexOutput.length() >= HEADER_SIZE) {
+          indexLength = indexOutput.readLong();
+          segment = indexOutput.readInt();
+          offset = indexOutput.readLong();
+        }
+        if (offset > 0 && offset + record.length > MAX_SEGMENT_SIZE) {
+          ++segment;
+          offset = 0;
+        }
+
+        try (RandomAccessFile segmentOutput = new RandomAccessFile(getSegmentFile(segment), "rw")) {
+          // Drop whatever an append which did not complete wrote after the last record.
+          segmentOutput.setLength(offset);
+          segmentOutput.seek(offset);
+          segmentOutput.write(record);
+        }
+
+        Entry entry =
+            new Entry(application.getName(), application.getVersion(), sample, segment, offset,
+                record.length);
+        byte[] encodedEntry = encodeEntry(entry);
+        indexOutput.setLength(indexLength);
+        indexOutput.seek(indexLength);
+        indexOutput.write(encodedEntry);
+
+        // Commit the append.
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(indexLength + encodedEntry.length).putInt(segment)
+            .putLong(offset + record.length);
+        indexOutput.seek(0);
+        indexOutput.write(header.array());
+
+        return entry;
+      }
+    }
+  }
+
+  /**
+   * Returns the entries of all applications in the store. If an application was stored several
+   * times, only its latest entry is returned.
+   *
+   * @return The entries, in the order in which they were first appended.
+   * @throws IOException if the index cannot be read.
+   */
+  public synchronized Collection<Entry> getEntries() throws IOException {
+    refreshIndex();
+    return Collections.unmodifiableCollection(new ArrayList<>(entries.values()));
+  }
+
+  /**
+   * Gets the entry of an application.
+   *
+   * @param name The package name.
+   * @param version The version code.
+   * @param sample The sample name, or null.
+   * @return The latest entry for the application, or null if it is not in the store.
+   * @throws IOException if the index cannot be read.
+   */
+  public synchronized Entry getEntry(String name, int version, String sample) throws IOException {
+    refreshIndex();
+    return entries.get(makeKey(name, version, sample));
+  }
+
+  /**
+   * Reads an application from the store.
+   *
+   * @param name The package name.
+   * @param version The version code.
+   * @param sample The sample name, or null.
+   * @return The application, or null if it is not in the store.
+   * @throws IOException if the store cannot be read.
+   */
+  public Application read(String name, int version, String sample) throws IOException {
+    Entry entry = getEntry(name, version, sample);
+    return entry == null ? null : read(entry);
+  }
+
+  /**
+   * Reads the record at a given location.
+   *
+   * @param entry The location of the record.
+   * @return The application.
+   * @throws IOException if the record cannot be read.
+   */
+  public synchronized Application read(Entry entry) throws IOException {
+    ByteBuffer buffer = mapSegment(entry.getSegment(), entry.getOffset() + entry.getLength());
+    byte[] record = new byte[entry.getLength()];
+    ByteBuffer recordBuffer = buffer.duplicate();
+    recordBuffer.position((int) entry.getOffset());
+    recordBuffer.get(record);
+
+    return Application.parseDelimitedFrom(new ByteArrayInputStream(record));
+  }
+
+  @Override
+  public synchronized void close() {
+    // Mapped buffers are released when they are garbage collected.
+    mappedSegments.clear();
+    entries.clear();
+    indexPosition = 0;
+  }
+
+  private MappedByteBuffer mapSegment(int segment, long minimumSize) throws IOException {
+    MappedByteBuffer buffer = mappedSegments.get(segment);
+    // The last segment may have grown since it was mapped.
+    if (buffer == null || buffer.capacity() < minimumSize) {
+      try (RandomAccessFile segmentFile = new RandomAccessFile(getSegmentFile(segment), "r")) {
+        FileChannel channel = segmentFile.getChannel();
+        if (channel.size() < minimumSize) {
+          throw new IOException("Truncated segment " + getSegmentFile(segment));
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      mappedSegments.put(segment, buffer);
+    }
+
+    return buffer;
+  }
+
+  private void refreshIndex() throws IOException {
+    File indexFile = new File(directory, INDEX_FILE);
+    if (indexFile.length() < HEADER_SIZE) {
+      return;
+    }
+
+    byte[] tail;
+    try (RandomAccessFile indexInput = new RandomAccessFile(indexFile, "r")) {
+      // Only read the entries of complete appends.
+      long indexLength = indexInput.readLong();
+      indexPosition = Math.max(indexPosition, HEADER_SIZE);
+      if (indexLength <= indexPosition) {
+        return;
+      }
+      tail = new byte[(int) (indexLength - indexPosition)];
+      indexInput.seek(indexPosition);
+      indexInput.readFully(tail);
+    }
+
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(tail));
+    while (inputStream.available() > 0) {
+      Entry entry = decodeEntry(inputStream);
+      // Later entries replace earlier ones but keep their position in the iteration order.
+      entries.put(makeKey(entry.getName(), entry.getVersion(), entry.getSample()), entry);
+    }
+    indexPosition += tail.length;
+  }
+
+  private byte[] encodeEntry(Entry entry) throws IOException {
+    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(byteStream);
+    outputStream.writeUTF(entry.getName());
+    outputStream.writeInt(entry.getVersion());
+    outputStream.writeBoolean(entry.getSample() != null);
+    if (entry.getSample() != null) {
+      outputStream.writeUTF(entry.getSample());
+    }
+    outputStream.writeInt(entry.getSegment());
+    outputStream.writeLong(entry.getOffset());
+    outputStream.writeInt(entry.getLength());
+    outputStream.close();
+
+    return byteStream.toByteArray();
+  }
+
+  private Entry decodeEntry(DataInputStream inputStream) throws IOException {
+    String name = inputStream.readUTF();
+    int version = inputStream.readInt();
+    String sample = inputStream.readBoolean() ? inputStream.readUTF() : null;
+    int segment = inputStream.readInt();
+    long offset = inputStream.readLong();
+    int length = inputStream.readInt();
+
+    return new Entry(name, version, sample, segment, offset, length);
+  }
+
+  private File getSegmentFile(int segment) {
+    return new File(directory, String.format(SEGMENT_FORMAT, segment));
+  }
+
+  private String makeKey(String name, int version, String sample) {
+    return name + '\0' + version + '\0' + (sample == null ? "" : sample);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.util.Collections;
+import java.util.Set;
+
+import edu.psu.cse.siis.coal.field.values.FieldValue;
+import edu.psu.cse.siis.coal.field.values.ScalarFieldValue;
+import edu.psu.cse.siis.coal.values.BasePropagationValue;
+import edu.psu.cse.siis.coal.values.PathValue;
+import edu.psu.cse.siis.coal.values.PropagationValue;
+import edu.psu.cse.siis.ic3.manifest.ManifestIntentFilter;
+
+/**
+ * Conversions of analysis values shared by the result sinks.
+ */
+public class ResultValues {
+  private ResultValues() {
+  }
+
+  /**
+   * Makes a dynamically registered intent filter. If its data specifications were capped, the
+   * filter is marked as truncated.
+   *
+   * @param branchValue The intent filter value along a path.
+   * @return The intent filter.
+   */
+  public static ManifestIntentFilter makeIntentFilter(PathValue branchValue) {
+    Integer filterPriority = null;
+    FieldValue priorityFieldValue = branchValue.getFieldValue("priority");
+    if (priorityFieldValue != null) {
+      filterPriority = (Integer) priorityFieldValue.getValue();
+    }
+    ManifestDataProduct data = makeManifestData(branchValue);
+    ManifestIntentFilter intentFilter =
+        new ManifestIntentFilter(branchValue.getSetStringFieldValue("actions"),
+            branchValue.getSetStringFieldValue("categories"), false, data, filterPriority);
+    if (data != null && data.isTruncated()) {
+      ++Timers.v().truncatedManifestData;
+      intentFilter.setDataTruncated(true);
+    }
+
+    return intentFilter;
+  }
+
+  /**
+   * Makes the data specifications of a dynamically registered intent filter. Their number is the
+   * product of the numbers of MIME types, authorities, paths and schemes, so they are built lazily
+   * and capped (see {@link ManifestDataProduct}).
+   *
+   * @param branchValue The intent filter value along a path.
+   * @return The data specifications, or null if the intent filter has no data.
+   */
+  public static ManifestDataProduct makeManifestData(PathValue branchValue) {
+    Set<String> mimeTypes = branchValue.getSetStringFieldValue("dataType");
+    Set<DataAuthority> authorities =
+        branchValue.getSetFieldValue("authorities", DataAuthority.class);
+    Set<String> paths = branchValue.getSetStringFieldValue("paths");
+    Set<String> schemes = branchValue.getSetStringFieldValue("schemes");
+
+    if (mimeTypes == null && authorities == null && paths == null && schemes == null) {
+      return null;
+    }
+
+    if (mimeTypes == null) {
+      mimeTypes = Collections.singleton(null);
+    }
+    if (authorities == null) {
+      authorities = Collections.singleton(new DataAuthority(null, null));
+    }
+    if (paths == null) {
+      paths = Collections.singleton(null);
+    }
+    if (schemes == null) {
+      schemes = Collections.singleton(null);
+    }
+
+    return new ManifestDataProduct(mimeTypes, authorities, paths, schemes);
+  }
+
+  /**
+   * Makes a content URI value for each of a set of content provider authorities.
+   *
+   * @param authorities The authorities.
+   * @return The URI value, or null if the authorities are unknown.
+   */
+  public static BasePropagationValue getUriValueForAuthorities(Set<String> authorities) {
+    if (authorities == null) {
+      return null;
+    }
+
+    PropagationValue collectingValue = new PropagationValue();
+    for (String authority : authorities) {
+      PathValue branchValue = new PathValue();
+      ScalarFieldValue schemeFieldValue = new ScalarFieldValue("content");
+      branchValue.addFieldEntry("scheme", schemeFieldValue);
+      ScalarFieldValue authorityFieldValue = new ScalarFieldValue(authority);
+      branchValue.addFieldEntry("authority", authorityFieldValue);
+      collectingValue.addPathValue(branchValue);
+    }
+
+    return collectingValue;
+  }
+}
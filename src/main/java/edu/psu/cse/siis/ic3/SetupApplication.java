@@ -13,9 +13,11 @@ package edu.psu.cse.siis.ic3;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -29,6 +31,7 @@ import soot.PackManager;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
+import soot.Transform;
 import soot.jimple.infoflow.android.AnalyzeJimpleClass;
 import soot.jimple.infoflow.android.data.AndroidMethod;
 import soot.jimple.infoflow.android.resources.ARSCFileParser;
@@ -39,9 +42,13 @@ import soot.jimple.infoflow.android.resources.LayoutFileParser;
 import soot.jimple.infoflow.data.SootMethodAndClass;
 import soot.jimple.infoflow.entryPointCreators.AndroidEntryPointCreator;
 import soot.options.Options;
+import edu.psu.cse.siis.coal.AnalysisParameters;
 
 public class SetupApplication {
 
+  private static final List<String> CALLBACK_TRANSFORMS = Arrays.asList("wjtp.ajc", "wjtp.lfp");
+  private static final String DUMMY_MAIN_CLASS = "dummyMainClass";
+
   private final Logger logger = LoggerFactory.getLogger(getClass());
 
   private final Map<String, Set<SootMethodAndClass>> callbackMethods =
@@ -57,6 +64,8 @@ public class SetupApplication {
 
   private AndroidEntryPointCreator entryPointCreator;
 
+  private boolean reuseScene = false;
+
   public SetupApplication(String apkFileLocation, String classDirectory, String androidClassPath) {
     this.apkFileLocation = apkFileLocation;
     this.classDirectory = classDirectory;
@@ -74,6 +83,20 @@ public class SetupApplication {
     return entryPointCreator;
   }
 
+  /**
+   * Determines whether the Soot scene should be kept between callback discovery iterations and
+   * after callback discovery. When this is set, Soot is only initialized once, each iteration only
+   * rebuilds the call graph, and the final scene is left in place for the main analysis. Otherwise,
+   * Soot is reset before each iteration and after callback discovery.
+   * 
+   * This is experimental: results have not been shown to match those obtained with a fresh scene.
+   * 
+   * @param reuseScene True if the Soot scene should be reused.
+   */
+  public void setReuseScene(boolean reuseScene) {
+    this.reuseScene = reuseScene;
+  }
+
   /**
    * Prints list of classes containing entry points to stdout
    */
@@ -121,10 +144,23 @@ public class SetupApplication {
         parseLayoutFile ? new LayoutFileParser(this.appPackageName, resParser) : null;
 
     boolean hasChanged = true;
+    boolean sootInitialized = false;
     while (hasChanged) {
       hasChanged = false;
-      soot.G.reset();
-      initializeSoot();
+      if (reuseScene && sootInitialized) {
+        // Keep the loaded classes and only drop what depends on the entry points.
+        Scene.v().releaseCallGraph();
+        Scene.v().releasePointsToAnalysis();
+        Scene.v().releaseReachableMethods();
+        ++Timers.v().skippedSootInitializations;
+      } else {
+        Timers.v().sootInitialization.start();
+        soot.G.reset();
+        initializeSoot();
+        Timers.v().sootInitialization.end();
+        ++Timers.v().sootInitializations;
+        sootInitialized = true;
+      }
       createMainMethod();
 
       if (jimpleClass == null) {
@@ -212,8 +248,13 @@ public class SetupApplication {
 
     logger.info("Entry point calculation done.");
 
-    // Clean up everything we no longer need
-    soot.G.reset();
+    if (reuseScene) {
+      // The scene is handed over to the main analysis. Callback collection should not run again.
+      removeCallbackTransforms();
+    } else {
+      // Clean up everything we no longer need
+      soot.G.reset();
+    }
 
     Map<String, Set<String>> result = new HashMap<>(this.callbackMethods.size());
     for (Map.Entry<String, Set<SootMethodAndClass>> entry : this.callbackMethods.entrySet()) {
@@ -306,11 +347,32 @@ public class SetupApplication {
     methods.add(new AndroidMethod(callbackMethod));
   }
 
+  /**
+   * Removes the callback collection transforms that were added to the wjtp pack during callback
+   * discovery.
+   */
+  private void removeCallbackTransforms() {
+    Iterator<?> it = PackManager.v().getPack("wjtp").iterator();
+    while (it.hasNext()) {
+      Object current = it.next();
+      if (current instanceof Transform
+          && CALLBACK_TRANSFORMS.contains(((Transform) current).getPhaseName())) {
+        it.remove();
+      }
+    }
+  }
+
   /**
    * Creates the main method based on the current callback information, injects it into the Soot
    * scene.
    */
-  private void createMainMethod() {
+  protected void createMainMethod() {
+    if (reuseScene && Scene.v().containsClass(DUMMY_MAIN_CLASS)) {
+      // Drop the dummy main of the previous iteration. Otherwise the entry point creator adds the
+      // new dummy main next to the old one, in the same class.
+      Scene.v().removeClass(Scene.v().getSootClass(DUMMY_MAIN_CLASS));
+    }
+
     // Always update the entry point creator to reflect the newest set
     // of callback methods
     SootMethod entryPoint = createEntryPointCreator().createDummyMain();
@@ -345,6 +407,16 @@ public class SetupApplication {
     // Options.v().set_src_prec(Options.src_prec_apk);
     Options.v().set_process_dir(new ArrayList<>(this.entrypoints));
     // Options.v().set_app(true);
+    if (reuseScene) {
+      // Method bodies are built once and then used by the main analysis, so they should be built
+      // with the same options as in Ic3Analysis.
+      Options.v().setPhaseOption("jb.ulp", "off");
+      Options.v().setPhaseOption("jb.uce", "remove-unreachable-traps:true");
+      if (AnalysisParameters.v().useShimple()) {
+        Options.v().set_via_shimple(true);
+        Options.v().set_whole_shimple(true);
+      }
+    }
     Main.v().autoSetOptions();
 
     Scene.v().loadNecessaryClasses();
@@ -359,6 +431,25 @@ public class SetupApplication {
     // return entryPoint;
   }
 
+  /**
+   * Sets previously computed callback discovery results, instead of calling
+   * {@link #calculateSourcesSinksEntrypoints(Set, Set, String, Set)}. This creates the entry point
+   * creator.
+   * 
+   * @param entryPointClasses The classes containing entry points.
+   * @param callbackMethods A map from class names to callback method signatures.
+   */
+  public void setCallbackMethods(Set<String> entryPointClasses,
+      Map<String, Set<String>> callbackMethods) {
+    this.entrypoints = entryPointClasses;
+    entryPointCreator = new AndroidEntryPointCreator(new ArrayList<String>(entryPointClasses));
+    Map<String, List<String>> callbackMethodSigs = new HashMap<String, List<String>>();
+    for (Map.Entry<String, Set<String>> entry : callbackMethods.entrySet()) {
+      callbackMethodSigs.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+    }
+    entryPointCreator.setCallbackFunctions(callbackMethodSigs);
+  }
+
   public AndroidEntryPointCreator createEntryPointCreator() {
     AndroidEntryPointCreator entryPointCreator =
         new AndroidEntryPointCreator(new ArrayList<String>(this.entrypoints));
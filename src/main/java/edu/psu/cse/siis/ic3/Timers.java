@@ -59,6 +59,20 @@ public class Timers {
 
   public Timer entryPointMapping = new Timer("entryPointMapping");
 
+  public Timer sootInitialization = new Timer("sootInitialization");
+
+  public int sootInitializations = 0;
+
+  public int skippedSootInitializations = 0;
+
+  public int callbackCacheHits = 0;
+
+  public int callbackCacheMisses = 0;
+
+  public int truncatedSeparateCounts = 0;
+
+  public int truncatedManifestData = 0;
+
   public int entryPoints = 0;
 
   public int reachableMethods = 0;
@@ -72,6 +86,10 @@ public class Timers {
     G.v().out.println();
 
     G.v().out.println("    Main generation: " + toTimeString(mainGeneration, totalTime));
+    G.v().out.println(" Soot initialization: " + toTimeString(sootInitialization, totalTime)
+        + " (" + sootInitializations + " runs, " + skippedSootInitializations
+        + " skipped, estimated " + estimateSkippedInitializationTime() / 1000.0 + "s saved)");
+    G.v().out.println("      Class loading: " + toTimeString(classLoading, totalTime));
 
     G.v().out.println();
 
@@ -88,6 +106,20 @@ public class Timers {
     }
   }
 
+  /**
+   * Estimates the time saved by reusing the Soot scene instead of initializing Soot again. This
+   * assumes that each skipped initialization would have taken the average time of the
+   * initializations which did run. It is not a measurement.
+   * 
+   * @return The estimated saved time, in milliseconds.
+   */
+  public long estimateSkippedInitializationTime() {
+    if (sootInitializations == 0) {
+      return 0;
+    }
+    return sootInitialization.getTime() * skippedSootInitializations / sootInitializations;
+  }
+
   private String toTimeString(Timer timer, long totalTime) {
     DecimalFormat format = new DecimalFormat("00.0");
     DecimalFormat percFormat = new DecimalFormat("00.0");
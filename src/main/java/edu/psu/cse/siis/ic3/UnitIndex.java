@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import soot.Body;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * A cache of the position of each statement in the body of its method. Statements are identified
+ * by their position in the output, which would otherwise require walking the method body for
+ * every result. The index of a method is computed the first time one of its statements is looked
+ * up.
+ */
+public class UnitIndex {
+  private static UnitIndex instance = new UnitIndex();
+
+  private final Map<Body, Map<Unit, Integer>> bodyToUnitIds = new HashMap<>();
+
+  private UnitIndex() {
+  }
+
+  public static UnitIndex v() {
+    synchronized (instance) {
+      return instance;
+    }
+  }
+
+  public static void clear() {
+    instance = new UnitIndex();
+  }
+
+  /**
+   * Gets the position of a statement in the body of its method.
+   *
+   * @param unit The statement.
+   * @param method The method that contains the statement.
+   * @return The position of the statement, or -1 if it is not in the active body of the method.
+   */
+  public synchronized int getId(Unit unit, SootMethod method) {
+    Body body = method.getActiveBody();
+    Map<Unit, Integer> unitIds = bodyToUnitIds.get(body);
+    if (unitIds == null) {
+      unitIds = new HashMap<>(body.getUnits().size() * 4 / 3 + 1);
+      int id = 0;
+      for (Unit currentUnit : body.getUnits()) {
+        unitIds.put(currentUnit, id);
+        ++id;
+      }
+      bodyToUnitIds.put(body, unitIds);
+    }
+
+    Integer id = unitIds.get(unit);
+    return id != null ? id : -1;
+  }
+}
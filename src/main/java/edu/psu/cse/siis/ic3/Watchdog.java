@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.psu.cse.siis.ic3.Ic3Data.Application.Status;
+
+/**
+ * Enforces a time budget for each analysis phase and a heap watermark. The phases are the ones
+ * recorded in {@link Metrics}.
+ *
+ * Soot and the IDE solver neither check for interruptions nor leave the global analysis state
+ * consistent when a thread is stopped, so a budget is enforced by halting the JVM. Before that,
+ * the reason for the abort is written to a status file. The process which started the analysis,
+ * usually a {@link BatchAnalysis} driver, then writes the partial results of the application. The
+ * status file is also updated whenever a phase starts, so that the driver can kill an analysis
+ * which is too busy to be stopped by its own watchdog.
+ */
+public class Watchdog extends Thread {
+  /**
+   * The exit status of a JVM which was halted because the analysis exceeded a budget.
+   */
+  public static final int ABORT_EXIT_STATUS = 3;
+
+  private static final long POLL_INTERVAL = 250;
+  private static final String SEPARATOR = "\t";
+  private static final String RUNNING = "RUNNING";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final String manifest;
+  private final File statusFile;
+  private final long phaseTimeout;
+  private final double heapWatermark;
+
+  private boolean finished = false;
+  private String lastPhase = null;
+
+  /**
+   * The content of a status file.
+   */
+  public static class Report {
+    private final String manifest;
+    private final Status status;
+    private final String phase;
+    private final long time;
+
+    private Report(String manifest, Status status, String phase, long time) {
+      this.manifest = manifest;
+      this.status = status;
+      this.phase = phase;
+      this.time = time;
+    }
+
+    /**
+     * Returns the manifest of the application whose analysis wrote the report.
+     *
+     * @return The path to the manifest or .apk file.
+     */
+    public String getManifest() {
+      return manifest;
+    }
+
+    /**
+     * Returns the reason why the analysis was aborted.
+     *
+     * @return The status, or null if the analysis was still running when the report was written.
+     */
+    public Status getStatus() {
+      return status;
+    }
+
+    /**
+     * Returns the phase which was running when the report was written.
+     *
+     * @return The phase name, or null if no phase was running.
+     */
+    public String getPhase() {
+      return phase;
+    }
+
+    /**
+     * Returns the time when the report was written, which is when the phase started for a running
+     * analysis.
+     *
+     * @return The time, in milliseconds since the epoch.
+     */
+    public long getTime() {
+      return time;
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param manifest The manifest of the analyzed application.
+   * @param statusFile The file to which the phases and the abort reason are written, or null.
+   * @param phaseTimeout The maximum duration of each phase, in milliseconds, or 0 for no limit.
+   * @param heapWatermark The maximum fraction of the maximum heap size which may be used after a
+   *          garbage collection, or 0 for no limit.
+   */
+  public Watchdog(String manifest, File statusFile, long phaseTimeout, double heapWatermark) {
+    super("ic3-watchdog");
+    setDaemon(true);
+    this.manifest = manifest;
+    this.statusFile = statusFile;
+    this.phaseTimeout = phaseTimeout;
+    this.heapWatermark = heapWatermark;
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      try {
+        Thread.sleep(POLL_INTERVAL);
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      String phase = Metrics.v().getCurrentPhase();
+      synchronized (this) {
+        if (finished) {
+          return;
+        }
+        if (phase != null && !phase.equals(lastPhase)) {
+          lastPhase = phase;
+          writeReport(null, phase);
+        }
+      }
+
+      if (phaseTimeout > 0 && phase != null && Metrics.v().getRunningTime(phase) > phaseTimeout) {
+        abort(Status.TIMEOUT, phase);
+      }
+
+      if (heapWatermark > 0 && getHeapUsageAfterGc() > heapWatermark) {
+        abort(Status.OUT_OF_MEMORY, phase);
+      }
+    }
+  }
+
+  /**
+   * Stops the watchdog. Once this returns, the analysis will not be aborted by the watchdog.
+   */
+  public synchronized void finish() {
+    finished = true;
+    interrupt();
+    if (statusFile != null) {
+      statusFile.delete();
+    }
+  }
+
+  /**
+   * Aborts the analysis: the reason is written to the status file, then the JVM is halted. This
+   * only returns if the watchdog was already stopped.
+   *
+   * @param status The reason for the abort.
+   * @param phase The phase during which the analysis was aborted, or null if it is unknown.
+   */
+  public synchronized void abort(Status status, String phase) {
+    if (finished) {
+      return;
+    }
+    logger.error("Aborting analysis of " + manifest + ": " + status + " in phase " + phase);
+    writeReport(status, phase);
+    try {
+      onAbort(status, phase);
+    } catch (RuntimeException e) {
+      logger.error("Could not handle aborted analysis", e);
+    }
+    // Shutdown hooks are skipped, since they may touch the inconsistent analysis state.
+    Runtime.getRuntime().halt(ABORT_EXIT_STATUS);
+  }
+
+  /**
+   * Called just before the JVM is halted. This may record information about the aborted analysis
+   * which is only available in this JVM.
+   *
+   * @param status The reason for the abort.
+   * @param phase The phase during which the analysis was aborted, or null if it is unknown.
+   */
+  protected void onAbort(Status status, String phase) {
+  }
+
+  /**
+   * Reads a status file.
+   *
+   * @param statusFile The status file.
+   * @return The report, or null if the file does not exist or cannot be parsed.
+   */
+  public static Report readReport(File statusFile) {
+    long time = statusFile.lastModified();
+    String line;
+    try (BufferedReader reader = new BufferedReader(new FileReader(statusFile))) {
+      line = reader.readLine();
+    } catch (IOException e) {
+      return null;
+    }
+    if (line == null) {
+      return null;
+    }
+
+    String[] fields = line.split(SEPARATOR, -1);
+    if (fields.length != 3) {
+      return null;
+    }
+    Status status = null;
+    if (!RUNNING.equals(fields[1])) {
+      try {
+        status = Status.valueOf(fields[1]);
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+
+    return new Report(fields[0], status, fields[2].isEmpty() ? null : fields[2], time);
+  }
+
+  private void writeReport(Status status, String phase) {
+    if (statusFile == null) {
+      return;
+    }
+
+    // Replace the file in one step, so that a reader never sees a partial report.
+    File temporaryFile = new File(statusFile.getPath() + ".tmp");
+    try (Writer writer = new BufferedWriter(new FileWriter(temporaryFile))) {
+      writer.write(manifest + SEPARATOR + (status != null ? status.name() : RUNNING) + SEPARATOR
+          + (phase != null ? phase : "") + "\n");
+    } catch (IOException e) {
+      logger.error("Could not write status file " + statusFile, e);
+      return;
+    }
+    if (!temporaryFile.renameTo(statusFile)) {
+      logger.error("Could not write status file " + statusFile);
+    }
+  }
+
+  /**
+   * Computes the fraction of the maximum heap size which was used after the last garbage
+   * collection of each heap pool. Unlike the current usage, this does not include garbage.
+   */
+  private double getHeapUsageAfterGc() {
+    long used = 0;
+    for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+        MemoryUsage usage = memoryPool.getCollectionUsage();
+        if (usage != null) {
+          used += usage.getUsed();
+        }
+      }
+    }
+
+    return (double) used / Runtime.getRuntime().maxMemory();
+  }
+}
@@ -18,16 +18,46 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ApplicationTable extends Table {
   private static final String INSERT = "INSERT INTO Applications (app, version) VALUES (?, ?)";
   private static final String FIND = "SELECT id FROM Applications WHERE app = ? AND version %s ?";
+  private static final String FIND_FINGERPRINT =
+      "SELECT id FROM Applications WHERE fingerprint = ?";
+  private static final String SET_FINGERPRINT =
+      "UPDATE Applications SET fingerprint = ? WHERE id = ?";
+  private static final String SET_COMPLETE = "UPDATE Applications SET complete = ? WHERE id = ?";
+  private static final String SET_STATUS =
+      "UPDATE Applications SET status = ?, failed_phase = ? WHERE id = ?";
+  private static final String FIND_INCOMPLETE = "SELECT id FROM Applications WHERE complete = ?";
+  private static final String APP_COMPONENTS = "SELECT Components.id FROM Components "
+      + "JOIN Classes ON Components.class_id = Classes.id WHERE Classes.app_id = ?";
+  private static final String APP_EXIT_POINTS = "SELECT ExitPoints.id FROM ExitPoints "
+      + "JOIN Classes ON ExitPoints.class_id = Classes.id WHERE Classes.app_id = ?";
+  // Most rows of an application are removed through ON DELETE CASCADE foreign keys. These are the
+  // rows which are not, in dependency order. Each statement takes the application identifier.
+  private static final String[] DELETE_DEPENDENTS = new String[] {
+      "DELETE FROM UriData WHERE id IN (SELECT IData.data FROM IData "
+          + "JOIN Intents ON IData.intent_id = Intents.id WHERE Intents.exit_id IN ("
+          + APP_EXIT_POINTS + "))",
+      "DELETE FROM UriData WHERE id IN (SELECT Uris.data FROM Uris WHERE Uris.exit_id IN ("
+          + APP_EXIT_POINTS + "))",
+      "DELETE FROM PAuthorities WHERE provider_id IN (SELECT Providers.id FROM Providers "
+          + "WHERE Providers.component_id IN (" + APP_COMPONENTS + "))",
+      "DELETE FROM Providers WHERE component_id IN (" + APP_COMPONENTS + ")",
+      "DELETE FROM ComponentExtras WHERE component_id IN (" + APP_COMPONENTS + ")",
+      "DELETE FROM Aliases WHERE component_id IN (" + APP_COMPONENTS + ")",
+      "DELETE FROM Aliases WHERE target_id IN (" + APP_COMPONENTS + ")" };
+  private static final String DELETE = "DELETE FROM Applications WHERE id = ?";
 
   public int insert(String app, int version) throws SQLException {
     int id = find(app, version);
-    findStatement.close();
     if (id != NOT_FOUND) {
       return id;
     }
@@ -35,24 +65,19 @@ public class ApplicationTable extends Table {
   }
 
   public int forceInsert(String app, int version) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
     insertStatement.setString(1, app);
     if (version == NOT_FOUND) {
       insertStatement.setNull(2, Types.INTEGER);
     } else {
       insertStatement.setInt(2, version);
     }
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
   }
 
   public int find(String app, int version) throws SQLException {
-    String formatArg = (version == NOT_FOUND) ? "IS" : "=";
-    findStatement = getConnection().prepareStatement(String.format(FIND, formatArg));
+    String formatArg = (version == NOT_FOUND) ? getDialect().getNullSafeEquals() : "=";
+    PreparedStatement findStatement = prepareStatement(String.format(FIND, formatArg));
     findStatement.setString(1, app);
     if (version == NOT_FOUND) {
       findStatement.setNull(2, Types.INTEGER);
@@ -61,4 +86,114 @@ public class ApplicationTable extends Table {
     }
     return processIntFindQuery(findStatement);
   }
+
+  /**
+   * Finds an application which was analyzed with the given fingerprint.
+   *
+   * @param fingerprint The fingerprint digest.
+   * @return The application identifier, or {@link Constants#NOT_FOUND}.
+   * @throws SQLException if the query fails.
+   */
+  public int findByFingerprint(String fingerprint) throws SQLException {
+    PreparedStatement findStatement = prepareStatement(FIND_FINGERPRINT);
+    findStatement.setString(1, fingerprint);
+    return processIntFindQuery(findStatement);
+  }
+
+  /**
+   * Records the fingerprint of a completed analysis.
+   *
+   * @param id The application identifier.
+   * @param fingerprint The fingerprint digest.
+   * @throws SQLException if the application cannot be updated.
+   */
+  public void setFingerprint(int id, String fingerprint) throws SQLException {
+    PreparedStatement updateStatement = prepareStatement(SET_FINGERPRINT);
+    updateStatement.setString(1, fingerprint);
+    updateStatement.setInt(2, id);
+    updateStatement.executeUpdate();
+  }
+
+  /**
+   * Marks the results of an application as completely written. This should be done in the
+   * transaction which writes the last rows of the application.
+   *
+   * @param id The application identifier.
+   * @throws SQLException if the application cannot be updated.
+   */
+  public void setComplete(int id) throws SQLException {
+    PreparedStatement updateStatement = prepareStatement(SET_COMPLETE);
+    updateStatement.setBoolean(1, true);
+    updateStatement.setInt(2, id);
+    updateStatement.executeUpdate();
+  }
+
+  /**
+   * Records how far the analysis of an application went.
+   *
+   * @param id The application identifier.
+   * @param status The analysis status.
+   * @param phase The phase during which the analysis was aborted, or null.
+   * @throws SQLException if the application cannot be updated.
+   */
+  public void setStatus(int id, String status, String phase) throws SQLException {
+    PreparedStatement updateStatement = prepareStatement(SET_STATUS);
+    updateStatement.setString(1, status);
+    if (phase == null) {
+      updateStatement.setNull(2, Types.VARCHAR);
+    } else {
+      updateStatement.setString(2, phase);
+    }
+    updateStatement.setInt(3, id);
+    updateStatement.executeUpdate();
+  }
+
+  /**
+   * Finds the applications whose results were not completely written, for example because the
+   * analysis was interrupted between two transactions.
+   *
+   * @return The identifiers of the incomplete applications.
+   * @throws SQLException if the query fails.
+   */
+  public List<Integer> findIncomplete() throws SQLException {
+    PreparedStatement findStatement = prepareStatement(FIND_INCOMPLETE);
+    findStatement.setBoolean(1, false);
+    List<Integer> result = new ArrayList<Integer>();
+    ResultSet resultSet = findStatement.executeQuery();
+    while (resultSet.next()) {
+      result.add(resultSet.getInt("id"));
+    }
+    resultSet.close();
+    return result;
+  }
+
+  /**
+   * Deletes an application along with all its rows. Strings, such as actions and permissions,
+   * are shared between applications and are kept. The components of the application are removed
+   * from the component index when the transaction is committed.
+   *
+   * @param id The application identifier.
+   * @throws SQLException if the application cannot be deleted.
+   */
+  public void delete(int id) throws SQLException {
+    if (ComponentIndex.v().isOpen()) {
+      PreparedStatement findStatement = prepareStatement(APP_COMPONENTS);
+      findStatement.setInt(1, id);
+      List<Integer> componentIds = new ArrayList<Integer>();
+      ResultSet resultSet = findStatement.executeQuery();
+      while (resultSet.next()) {
+        componentIds.add(resultSet.getInt(1));
+      }
+      resultSet.close();
+      ComponentIndex.v().removeComponents(componentIds);
+    }
+    for (String sql : DELETE_DEPENDENTS) {
+      PreparedStatement deleteStatement = prepareStatement(sql);
+      deleteStatement.setInt(1, id);
+      deleteStatement.executeUpdate();
+    }
+    PreparedStatement deleteStatement = prepareStatement(DELETE);
+    deleteStatement.setInt(1, id);
+    deleteStatement.executeUpdate();
+  }
 }
@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index from action and category identifiers to the exported components which have an intent
+ * filter with that action or category. Component sets are stored as compressed bitmaps.
+ *
+ * The index is updated as intent filters are written and applications are deleted. Changes are
+ * only applied when the transaction which made them is committed. If the index is backed by a
+ * file, it is loaded when it is opened and merged back into the file when it is saved, so that
+ * several processes can share the same file. The file also records which components are indexed.
+ * If they differ from the exported components with intent filters in the database, for example
+ * because another process deleted applications, the index is rebuilt from the database.
+ */
+public class ComponentIndex {
+  private static final int MAGIC = 0x49433349; // "IC3I"
+  private static final int FORMAT_VERSION = 2;
+  private static final String EXPORTED_FILTERS =
+      "FROM IntentFilters JOIN Components ON IntentFilters.component_id = Components.id ";
+  private static final String SELECT_COMPONENTS = "SELECT DISTINCT IntentFilters.component_id "
+      + EXPORTED_FILTERS + "WHERE Components.exported = ?";
+  private static final String SELECT_ACTIONS =
+      "SELECT IntentFilters.component_id, IFActions.action " + EXPORTED_FILTERS
+          + "JOIN IFActions ON IntentFilters.id = IFActions.filter_id "
+          + "WHERE Components.exported = ?";
+  private static final String SELECT_CATEGORIES =
+      "SELECT IntentFilters.component_id, IFCategories.category " + EXPORTED_FILTERS
+          + "JOIN IFCategories ON IntentFilters.id = IFCategories.filter_id "
+          + "WHERE Components.exported = ?";
+
+  private static ComponentIndex instance;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Map<Integer, RoaringBitmap> actionToComponents = new HashMap<>();
+  private final Map<Integer, RoaringBitmap> categoryToComponents = new HashMap<>();
+  // The components with at least one intent filter, including filters without actions.
+  private final RoaringBitmap components = new RoaringBitmap();
+  // The components removed since the index was opened, which must not come back from the file.
+  private final RoaringBitmap removedComponents = new RoaringBitmap();
+  // Transactions are bound to threads.
+  private final ThreadLocal<Map<Integer, RoaringBitmap>> uncommittedActions =
+      new ThreadLocal<Map<Integer, RoaringBitmap>>() {
+        @Override
+        protected Map<Integer, RoaringBitmap> initialValue() {
+          return new HashMap<>();
+        }
+      };
+  private final ThreadLocal<Map<Integer, RoaringBitmap>> uncommittedCategories =
+      new ThreadLocal<Map<Integer, RoaringBitmap>>() {
+        @Override
+        protected Map<Integer, RoaringBitmap> initialValue() {
+          return new HashMap<>();
+        }
+      };
+  private final ThreadLocal<RoaringBitmap> uncommittedComponents =
+      new ThreadLocal<RoaringBitmap>() {
+        @Override
+        protected RoaringBitmap initialValue() {
+          return new RoaringBitmap();
+        }
+      };
+  private final ThreadLocal<RoaringBitmap> uncommittedRemovals = new ThreadLocal<RoaringBitmap>() {
+    @Override
+    protected RoaringBitmap initialValue() {
+      return new RoaringBitmap();
+    }
+  };
+  private volatile String path = null;
+
+  private ComponentIndex() {
+  }
+
+  /**
+   * Returns the singleton instance of the index.
+   *
+   * @return The index.
+   */
+  public static synchronized ComponentIndex v() {
+    if (instance == null) {
+      instance = new ComponentIndex();
+    }
+    return instance;
+  }
+
+  /**
+   * Loads the index from a file. If the file does not exist yet, was written in an older format or
+   * does not agree with the database, the index is built from the intent filters which are already
+   * in the database. Opening the file which is already open does nothing.
+   *
+   * @param path The path to the index file.
+   * @throws IOException if the index file cannot be read.
+   * @throws SQLException if the intent filters cannot be read from the database.
+   */
+  public synchronized void open(String path) throws IOException, SQLException {
+    if (path.equals(this.path)) {
+      return;
+    }
+    clearBitmaps();
+    removedComponents.clear();
+    RoaringBitmap databaseComponents = loadComponents();
+    File file = new File(path);
+    boolean loaded = file.exists() && read(file);
+    if (loaded && !components.equals(databaseComponents)) {
+      logger.warn("Component index " + path + " does not match the database, rebuilding it");
+      loaded = false;
+    }
+    if (!loaded) {
+      clearBitmaps();
+      loadFromDatabase(SELECT_ACTIONS, actionToComponents);
+      loadFromDatabase(SELECT_CATEGORIES, categoryToComponents);
+      components.or(databaseComponents);
+    }
+    this.path = path;
+
+    if (logger.isInfoEnabled()) {
+      logger.info("Opened component index " + path + " with " + actionToComponents.size()
+          + " actions and " + categoryToComponents.size() + " categories");
+    }
+  }
+
+  /**
+   * Merges the index into its file, if it was opened from a file. The file is locked while it is
+   * merged, so that concurrent processes do not lose each other's additions.
+   *
+   * @throws IOException if the index file cannot be written.
+   */
+  public synchronized void save() throws IOException {
+    if (path == null) {
+      return;
+    }
+    File file = new File(path);
+    File parent = file.getAbsoluteFile().getParentFile();
+    try (RandomAccessFile lockFile = new RandomAccessFile(path + ".lock", "rw");
+        FileLock lock = lockFile.getChannel().lock()) {
+      if (file.exists() && read(file)) {
+        // Another process may have added components since the index was opened.
+        remove(removedComponents);
+      }
+
+      File temporaryFile = File.createTempFile(file.getName(), ".tmp", parent);
+      try (DataOutputStream outputStream =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(FORMAT_VERSION);
+        write(outputStream, actionToComponents);
+        write(outputStream, categoryToComponents);
+        components.runOptimize();
+        components.serialize(outputStream);
+      } catch (IOException e) {
+        temporaryFile.delete();
+        throw e;
+      }
+      Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  /**
+   * Determines if the index was opened, in which case it is updated as intent filters are written.
+   *
+   * @return True if the index is open.
+   */
+  public boolean isOpen() {
+    return path != null;
+  }
+
+  /**
+   * Adds an exported component to the index. The component becomes visible to lookups when the
+   * current transaction is committed. This does nothing if the index has not been opened.
+   *
+   * @param componentId The component identifier.
+   * @param actionIds The identifiers of the actions of one of the component's intent filters.
+   * @param categoryIds The identifiers of the categories of the same intent filter.
+   */
+  public void addComponent(int componentId, List<Integer> actionIds, List<Integer> categoryIds) {
+    if (path == null) {
+      return;
+    }
+    uncommittedComponents.get().add(componentId);
+    addToBitmaps(uncommittedActions.get(), actionIds, componentId);
+    addToBitmaps(uncommittedCategories.get(), categoryIds, componentId);
+  }
+
+  /**
+   * Removes deleted components from the index. They disappear from lookups when the current
+   * transaction is committed. This does nothing if the index has not been opened.
+   *
+   * @param componentIds The component identifiers.
+   */
+  public void removeComponents(Collection<Integer> componentIds) {
+    if (path == null) {
+      return;
+    }
+    RoaringBitmap removals = uncommittedRemovals.get();
+    for (int componentId : componentIds) {
+      removals.add(componentId);
+    }
+  }
+
+  /**
+   * Gets the components which have an intent filter with a given action.
+   *
+   * @param actionId The action identifier.
+   * @return The component identifiers. The bitmap may be modified by the caller.
+   */
+  public synchronized RoaringBitmap getComponentsWithAction(int actionId) {
+    return copy(actionToComponents.get(actionId));
+  }
+
+  /**
+   * Gets the components which have an intent filter with a given category.
+   *
+   * @param categoryId The category identifier.
+   * @return The component identifiers. The bitmap may be modified by the caller.
+   */
+  public synchronized RoaringBitmap getComponentsWithCategory(int categoryId) {
+    return copy(categoryToComponents.get(categoryId));
+  }
+
+  /**
+   * Gets the components which have intent filters with an action and with all the given
+   * categories. The action and the categories are not necessarily declared in the same filter.
+   *
+   * @param action The action.
+   * @param categories The categories, or null.
+   * @return The component identifiers. The bitmap may be modified by the caller.
+   * @throws SQLException if the action or category identifiers cannot be found.
+   */
+  public RoaringBitmap findComponents(String action, Set<String> categories) throws SQLException {
+    int actionId = SQLConnection.actionStringTable.find(action);
+    if (actionId == Constants.NOT_FOUND) {
+      return new RoaringBitmap();
+    }
+    RoaringBitmap result = getComponentsWithAction(actionId);
+    if (categories != null) {
+      for (String category : categories) {
+        int categoryId = SQLConnection.categoryStringTable.find(category);
+        if (categoryId == Constants.NOT_FOUND) {
+          return new RoaringBitmap();
+        }
+        result.and(getComponentsWithCategory(categoryId));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Applies the components added and removed in the current transaction. An application which is
+   * analyzed again is deleted before its components are added, so removals are applied first.
+   */
+  void commit() {
+    RoaringBitmap added = uncommittedComponents.get();
+    RoaringBitmap removals = uncommittedRemovals.get();
+    if (added.isEmpty() && removals.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      remove(removals);
+      removedComponents.or(removals);
+      merge(uncommittedActions.get(), actionToComponents);
+      merge(uncommittedCategories.get(), categoryToComponents);
+      components.or(added);
+      // Some databases reuse the identifiers of deleted rows.
+      removedComponents.andNot(added);
+    }
+    rollback();
+  }
+
+  /**
+   * Discards the components added and removed in the current transaction.
+   */
+  void rollback() {
+    uncommittedComponents.get().clear();
+    uncommittedRemovals.get().clear();
+    uncommittedActions.get().clear();
+    uncommittedCategories.get().clear();
+  }
+
+  /**
+   * Clears the index and closes its file without saving it.
+   */
+  public static synchronized void clear() {
+    instance = null;
+  }
+
+  private void clearBitmaps() {
+    actionToComponents.clear();
+    categoryToComponents.clear();
+    components.clear();
+  }
+
+  private void remove(RoaringBitmap componentIds) {
+    if (componentIds.isEmpty()) {
+      return;
+    }
+    for (RoaringBitmap bitmap : actionToComponents.values()) {
+      bitmap.andNot(componentIds);
+    }
+    for (RoaringBitmap bitmap : categoryToComponents.values()) {
+      bitmap.andNot(componentIds);
+    }
+    components.andNot(componentIds);
+  }
+
+  private static RoaringBitmap loadComponents() throws SQLException {
+    PreparedStatement statement = Table.prepareStatement(SELECT_COMPONENTS);
+    statement.setBoolean(1, true);
+    RoaringBitmap result = new RoaringBitmap();
+    ResultSet resultSet = statement.executeQuery();
+    while (resultSet.next()) {
+      result.add(resultSet.getInt(1));
+    }
+    resultSet.close();
+    return result;
+  }
+
+  private static void loadFromDatabase(String query, Map<Integer, RoaringBitmap> index)
+      throws SQLException {
+    PreparedStatement statement = Table.prepareStatement(query);
+    statement.setBoolean(1, true);
+    ResultSet resultSet = statement.executeQuery();
+    while (resultSet.next()) {
+      getBitmap(index, resultSet.getInt(2)).add(resultSet.getInt(1));
+    }
+    resultSet.close();
+    optimize(index);
+  }
+
+  /**
+   * Merges an index file into the index.
+   *
+   * @param file The index file.
+   * @return False if the file was written in an older format, in which case it is ignored.
+   * @throws IOException if the file cannot be read or is not an index file.
+   */
+  private boolean read(File file) throws IOException {
+    try (DataInputStream inputStream =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (inputStream.readInt() != MAGIC) {
+        throw new IOException("Not a component index: " + file);
+      }
+      if (inputStream.readInt() != FORMAT_VERSION) {
+        return false;
+      }
+      read(inputStream, actionToComponents);
+      read(inputStream, categoryToComponents);
+      RoaringBitmap fileComponents = new RoaringBitmap();
+      fileComponents.deserialize(inputStream);
+      components.or(fileComponents);
+      return true;
+    }
+  }
+
+  private void read(DataInputStream inputStream, Map<Integer, RoaringBitmap> index)
+      throws IOException {
+    int count = inputStream.readInt();
+    for (int i = 0; i < count; ++i) {
+      int key = inputStream.readInt();
+      RoaringBitmap bitmap = new RoaringBitmap();
+      bitmap.deserialize(inputStream);
+      getBitmap(index, key).or(bitmap);
+    }
+  }
+
+  private void write(DataOutputStream outputStream, Map<Integer, RoaringBitmap> index)
+      throws IOException {
+    optimize(index);
+    outputStream.writeInt(index.size());
+    for (Map.Entry<Integer, RoaringBitmap> entry : index.entrySet()) {
+      outputStream.writeInt(entry.getKey());
+      entry.getValue().serialize(outputStream);
+    }
+  }
+
+  private static void addToBitmaps(Map<Integer, RoaringBitmap> index, List<Integer> keys,
+      int componentId) {
+    if (keys == null) {
+      return;
+    }
+    for (Integer key : keys) {
+      if (key != null) {
+        getBitmap(index, key).add(componentId);
+      }
+    }
+  }
+
+  private static void merge(Map<Integer, RoaringBitmap> source,
+      Map<Integer, RoaringBitmap> destination) {
+    for (Map.Entry<Integer, RoaringBitmap> entry : source.entrySet()) {
+      getBitmap(destination, entry.getKey()).or(entry.getValue());
+    }
+  }
+
+  private static void optimize(Map<Integer, RoaringBitmap> index) {
+    for (RoaringBitmap bitmap : index.values()) {
+      bitmap.runOptimize();
+    }
+  }
+
+  private static RoaringBitmap getBitmap(Map<Integer, RoaringBitmap> index, int key) {
+    RoaringBitmap bitmap = index.get(key);
+    if (bitmap == null) {
+      bitmap = new RoaringBitmap();
+      index.put(key, bitmap);
+    }
+    return bitmap;
+  }
+
+  private static RoaringBitmap copy(RoaringBitmap bitmap) {
+    return bitmap == null ? new RoaringBitmap() : bitmap.clone();
+  }
+}
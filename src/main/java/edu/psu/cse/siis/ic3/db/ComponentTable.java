@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
 
@@ -45,9 +46,7 @@ public class ComponentTable extends Table {
     if (id != NOT_FOUND) {
       return id;
     }
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
     insertStatement.setInt(1, classId);
     insertStatement.setString(2, type);
     insertStatement.setBoolean(3, exported);
@@ -62,17 +61,15 @@ public class ComponentTable extends Table {
       insertStatement.setInt(5, missingIntentFilters);
     }
 
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
   }
 
   public int find(int classId, String type, boolean exported, int permission,
       Integer missingIntentFilters) throws SQLException {
-    String formatArg1 = (permission == NOT_FOUND) ? "IS" : "=";
-    String formatArg2 = (missingIntentFilters == null) ? "IS" : "=";
-    findStatement = getConnection().prepareStatement(String.format(FIND, formatArg1, formatArg2));
+    String nullSafeEquals = getDialect().getNullSafeEquals();
+    String formatArg1 = (permission == NOT_FOUND) ? nullSafeEquals : "=";
+    String formatArg2 = (missingIntentFilters == null) ? nullSafeEquals : "=";
+    PreparedStatement findStatement = prepareStatement(String.format(FIND, formatArg1, formatArg2));
     findStatement.setInt(1, classId);
     findStatement.setString(2, type);
     findStatement.setBoolean(3, exported);
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A bounded pool of database connections. Connections are opened lazily and kept open when they
+ * are released, so that they can be reused by later applications and by other writer threads.
+ */
+class ConnectionPool {
+  private final Dialect dialect;
+  private final String url;
+  private final Properties properties;
+  private final int maxConnections;
+  private final BlockingQueue<PooledConnection> idleConnections = new LinkedBlockingQueue<>();
+  private final List<PooledConnection> connections = new ArrayList<>();
+
+  ConnectionPool(Dialect dialect, String url, Properties properties, int maxConnections) {
+    this.dialect = dialect;
+    this.url = url;
+    this.properties = properties;
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Gets a connection from the pool. If all connections are in use and the pool is full, this
+   * waits until a connection is released.
+   *
+   * @return A connection.
+   * @throws SQLException if a new connection cannot be opened.
+   */
+  PooledConnection acquire() throws SQLException {
+    while (true) {
+      PooledConnection connection = idleConnections.poll();
+      if (connection == null) {
+        synchronized (this) {
+          if (connections.size() < maxConnections) {
+            connection =
+                new PooledConnection(dialect, dialect.openConnection(url, properties));
+            connections.add(connection);
+            return connection;
+          }
+        }
+        try {
+          connection = idleConnections.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+      }
+
+      if (!connection.isClosed()) {
+        return connection;
+      }
+      synchronized (this) {
+        connections.remove(connection);
+      }
+    }
+  }
+
+  /**
+   * Returns a connection to the pool.
+   *
+   * @param connection The connection.
+   */
+  void release(PooledConnection connection) {
+    connection.discardBatches();
+    idleConnections.offer(connection);
+  }
+
+  /**
+   * Closes all connections.
+   */
+  synchronized void close() {
+    for (PooledConnection connection : connections) {
+      connection.close();
+    }
+    connections.clear();
+    idleConnections.clear();
+  }
+}
@@ -59,7 +59,13 @@ public class DbConnection extends SQLConnection {
       exitPointComponentPairs.add(new Pair<Integer, Integer>(exitPointId, componentToIdMap
           .get(exitPointComponent)));
     }
-    exitPointComponentTable.batchInsert(exitPointComponentPairs);
+    if (spool != null) {
+      for (Pair<Integer, Integer> pair : exitPointComponentPairs) {
+        spool.addRow(SpoolTable.EXIT_POINT_COMPONENTS, pair.getO1(), pair.getO2());
+      }
+    } else {
+      exitPointComponentTable.batchInsert(exitPointComponentPairs);
+    }
 
     Map<PathValue, Integer> pairs = new HashMap<PathValue, Integer>();
 
@@ -97,7 +103,17 @@ public class DbConnection extends SQLConnection {
       Map<String, Integer> componentToIdMap, Set<String> extras) throws SQLException {
     for (String entryPoint : entryPoints) {
       for (String extra : extras) {
-        componentExtraTable.insert(componentToIdMap.get(entryPoint), extra);
+        if (spool != null) {
+          Pair<Integer, String> componentExtra =
+              new Pair<Integer, String>(componentToIdMap.get(entryPoint), extra);
+          // Extras are inserted once per component, as with ComponentExtraTable.insert.
+          if (spooledComponentExtras.get().add(componentExtra)) {
+            spool.addRow(SpoolTable.COMPONENT_EXTRAS, componentExtra.getO1(),
+                extra == null ? edu.psu.cse.siis.coal.Constants.NULL_STRING : extra);
+          }
+        } else {
+          componentExtraTable.insert(componentToIdMap.get(entryPoint), extra);
+        }
       }
     }
   }
@@ -124,9 +140,13 @@ public class DbConnection extends SQLConnection {
     // }
     // }
 
-    int intentId =
-        intentTable.forceInsert(exitPointId,
-            singleIntentValue.getScalarStringFieldValue("clazz") == null, false);
+    boolean implicit = singleIntentValue.getScalarStringFieldValue("clazz") == null;
+    if (spool != null) {
+      int intentId = spool.addRow(SpoolTable.INTENTS, exitPointId, implicit, false);
+      spoolIntentValue(intentId, actionIds, categoryIds, singleIntentValue);
+      return intentId;
+    }
+    int intentId = intentTable.forceInsert(exitPointId, implicit, false);
 
     // for (int actionId : actionIds) {
     // intentActionTable.forceInsert(intentId, actionId);
@@ -136,46 +156,71 @@ public class DbConnection extends SQLConnection {
     // intentCategoryTable.forceInsert(intentId, categoryId);
     // }
     intentCategoryTable.batchForceInsert(intentId, categoryIds);
-    String type = singleIntentValue.getScalarStringFieldValue("dataType");
-    if (type != null) {
-      String[] typeParts = null;
-      if (type.equals(Constants.ANY_STRING)) {
-        typeParts = new String[] { Constants.ANY_STRING, Constants.ANY_STRING };
-      } else {
-        typeParts = type.split("/");
-        if (typeParts.length != 2) {
-          typeParts = null;
-        }
-      }
-      if (typeParts != null) {
-        intentMimeTypeTable.forceInsert(intentId, typeParts[0], typeParts[1]);
-      }
+    String[] typeParts = splitType(singleIntentValue);
+    if (typeParts != null) {
+      intentMimeTypeTable.queueInsert(intentId, typeParts[0], typeParts[1]);
     }
     Set<String> extras = singleIntentValue.getSetStringFieldValue("extras");
     if (extras != null) {
       for (String extra : extras) {
-        intentExtraTable.forceInsert(intentId, extra);
+        intentExtraTable.queueInsert(intentId, extra);
       }
     }
 
     int dataId = insertData(singleIntentValue);
     if (dataId != Constants.NOT_FOUND) {
-      intentDataTable.forceInsert(intentId, dataId);
+      intentDataTable.queueInsert(intentId, dataId);
     }
 
     String clazz = singleIntentValue.getScalarStringFieldValue("clazz");
     if (clazz != null) {
-      intentClassTable.insert(intentId, clazz);
+      intentClassTable.queueInsert(intentId, clazz);
     }
 
     String pkg = singleIntentValue.getScalarStringFieldValue("package");
     if (pkg != null) {
-      intentPackageTable.insert(intentId, pkg);
+      intentPackageTable.queueInsert(intentId, pkg);
     }
 
     return intentId;
   }
 
+  /**
+   * Stages the values of an intent in the spool.
+   */
+  protected static void spoolIntentValue(int intentId, List<Integer> actionIds,
+      List<Integer> categoryIds, PathValue singleIntentValue) throws SQLException {
+    for (int actionId : actionIds) {
+      spool.addRow(SpoolTable.INTENT_ACTIONS, intentId, actionId);
+    }
+    for (int categoryId : categoryIds) {
+      spool.addRow(SpoolTable.INTENT_CATEGORIES, intentId, categoryId);
+    }
+    String[] typeParts = splitType(singleIntentValue);
+    if (typeParts != null) {
+      spool.addRow(SpoolTable.INTENT_MIME_TYPES, intentId, typeParts[0], typeParts[1]);
+    }
+    Set<String> extras = singleIntentValue.getSetStringFieldValue("extras");
+    if (extras != null) {
+      for (String extra : extras) {
+        spool.addRow(SpoolTable.INTENT_EXTRAS, intentId,
+            extra == null ? edu.psu.cse.siis.coal.Constants.NULL_STRING : extra);
+      }
+    }
+    int dataId = insertData(singleIntentValue);
+    if (dataId != Constants.NOT_FOUND) {
+      spool.addRow(SpoolTable.INTENT_DATA, intentId, dataId);
+    }
+    String clazz = singleIntentValue.getScalarStringFieldValue("clazz");
+    if (clazz != null) {
+      spool.addRow(SpoolTable.INTENT_CLASSES, intentId, clazz);
+    }
+    String pkg = singleIntentValue.getScalarStringFieldValue("package");
+    if (pkg != null) {
+      spool.addRow(SpoolTable.INTENT_PACKAGES, intentId, pkg);
+    }
+  }
+
   protected static void insertUriAndValue(int exitPointId, PathValue singleIntentValue)
       throws SQLException {
     if (singleIntentValue instanceof NullPathValue) {
@@ -184,7 +229,24 @@ public class DbConnection extends SQLConnection {
 
     int dataId = insertData(singleIntentValue);
 
-    uriTable.forceInsert(exitPointId, dataId != Constants.NOT_FOUND ? dataId : null);
+    Integer data = dataId != Constants.NOT_FOUND ? dataId : null;
+    if (spool != null) {
+      spool.addRow(SpoolTable.URIS, exitPointId, data);
+    } else {
+      uriTable.queueInsert(exitPointId, data);
+    }
+  }
+
+  protected static String[] splitType(PathValue singleIntentValue) {
+    String type = singleIntentValue.getScalarStringFieldValue("dataType");
+    if (type == null) {
+      return null;
+    }
+    if (type.equals(Constants.ANY_STRING)) {
+      return new String[] { Constants.ANY_STRING, Constants.ANY_STRING };
+    }
+    String[] typeParts = type.split("/");
+    return typeParts.length == 2 ? typeParts : null;
   }
 
   protected static int insertData(PathValue singleIntentValue) throws SQLException {
@@ -194,6 +256,15 @@ public class DbConnection extends SQLConnection {
         || singleIntentValue.containsNonNullFieldValue("path")
         || singleIntentValue.containsNonNullFieldValue("query")
         || singleIntentValue.containsNonNullFieldValue("authority")) {
+      if (spool != null) {
+        return spool.addRow(SpoolTable.URI_DATA,
+            singleIntentValue.getScalarStringFieldValue("scheme"),
+            singleIntentValue.getScalarStringFieldValue("ssp"),
+            singleIntentValue.getScalarStringFieldValue("uri"),
+            singleIntentValue.getScalarStringFieldValue("path"),
+            singleIntentValue.getScalarStringFieldValue("query"),
+            singleIntentValue.getScalarStringFieldValue("authority"));
+      }
       return uriDataTable.forceInsert(singleIntentValue.getScalarStringFieldValue("scheme"),
           singleIntentValue.getScalarStringFieldValue("ssp"),
           singleIntentValue.getScalarStringFieldValue("uri"),
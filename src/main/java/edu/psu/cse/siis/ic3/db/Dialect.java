@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * The differences between the database engines which can store the results. MySQL is used when
+ * the database is given as a properties file. Embedded engines are selected with a JDBC URL, such
+ * as jdbc:sqlite:/path/to/ic3.db or jdbc:h2:/path/to/ic3.
+ */
+public abstract class Dialect {
+  private static final String JDBC_PREFIX = "jdbc:";
+  private static final String SCHEMA_TABLE = "Applications";
+
+  /**
+   * Determines if a database argument is a JDBC URL rather than a properties file.
+   *
+   * @param db The database argument.
+   * @return True if the argument is a JDBC URL.
+   */
+  public static boolean isJdbcUrl(String db) {
+    return db != null && db.startsWith(JDBC_PREFIX);
+  }
+
+  /**
+   * Gets the dialect for a JDBC URL.
+   *
+   * @param url The JDBC URL.
+   * @return The dialect.
+   */
+  public static Dialect forUrl(String url) {
+    if (url.startsWith(JDBC_PREFIX + "sqlite:")) {
+      return new SqliteDialect();
+    } else if (url.startsWith(JDBC_PREFIX + "h2:")) {
+      return new H2Dialect();
+    } else if (url.startsWith(JDBC_PREFIX + "mysql:")) {
+      return new MySqlDialect();
+    }
+    throw new RuntimeException("Unsupported database URL: " + url);
+  }
+
+  /**
+   * Gets the name of the JDBC driver class.
+   *
+   * @return The driver class name.
+   */
+  protected abstract String getDriverClassName();
+
+  /**
+   * Returns the maximum number of connections which may write concurrently.
+   *
+   * @return The maximum number of connections.
+   */
+  public int getMaxConnections() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Determines if getGeneratedKeys returns the identifiers of all rows of a multi-row insert.
+   * Otherwise, rows whose identifiers are needed are inserted one at a time.
+   *
+   * @return True if the keys of multi-row inserts are available.
+   */
+  public boolean supportsMultiRowGeneratedKeys() {
+    return true;
+  }
+
+  /**
+   * Returns the operator which compares a column to a parameter which may be null.
+   *
+   * @return The operator.
+   */
+  public String getNullSafeEquals() {
+    return "IS";
+  }
+
+  /**
+   * Makes a statement which inserts a row, unless a row with the same unique key already exists.
+   * Parallel writers may insert the same shared rows, such as strings or permissions.
+   *
+   * @param table The table.
+   * @param columns The inserted columns.
+   * @param keyColumns The columns of the unique key.
+   * @return The SQL statement.
+   */
+  public String makeInsertIgnore(String table, String[] columns, String[] keyColumns) {
+    return String.format("INSERT IGNORE INTO %s (%s) VALUES (%s)", table, join(columns),
+        makePlaceholders(columns.length));
+  }
+
+  /**
+   * Makes a statement which inserts a string into a string table, unless it is already there.
+   *
+   * @param table The string table.
+   * @return The SQL statement.
+   */
+  public String makeStringUpsert(String table) {
+    // LAST_INSERT_ID(id) makes the identifier of an existing row the generated key.
+    return String.format("INSERT INTO %s (st) VALUES (?) ON DUPLICATE KEY UPDATE id = "
+        + "LAST_INSERT_ID(id)", table);
+  }
+
+  /**
+   * Determines if the statement made by {@link #makeStringUpsert(String)} returns the identifier of
+   * the string when it was already in the table. Otherwise, the string is looked up afterwards.
+   *
+   * @return True if the identifier of existing strings is returned.
+   */
+  public boolean stringUpsertReturnsId() {
+    return true;
+  }
+
+  /**
+   * Determines if an exception was caused by the violation of a unique key, for example when
+   * another writer inserted the same string first.
+   *
+   * @param exception The exception.
+   * @return True if a unique key was violated.
+   */
+  public boolean isDuplicateKey(SQLException exception) {
+    // SQLSTATE class 23 is integrity constraint violation.
+    return exception.getSQLState() != null && exception.getSQLState().startsWith("23");
+  }
+
+  /**
+   * Determines if spool files can be loaded with LOAD DATA LOCAL INFILE. Otherwise, they are
+   * parsed and inserted with batched statements.
+   *
+   * @return True if LOAD DATA is supported.
+   */
+  public boolean supportsLoadData() {
+    return true;
+  }
+
+  /**
+   * Gets statements which prepare a connection for a bulk load. Constraints which are checked
+   * after the load can be disabled.
+   *
+   * @return The statements.
+   */
+  protected String[] getBeginBulkLoadStatements() {
+    return new String[] { "SET foreign_key_checks = 0", "SET unique_checks = 0" };
+  }
+
+  /**
+   * Gets statements which restore a connection after a bulk load.
+   *
+   * @return The statements.
+   */
+  protected String[] getEndBulkLoadStatements() {
+    return new String[] { "SET unique_checks = 1", "SET foreign_key_checks = 1" };
+  }
+
+  /**
+   * Gets the class path resource which contains the schema, or null if the schema is not created
+   * automatically.
+   *
+   * @return The schema resource.
+   */
+  protected String getSchemaResource() {
+    return null;
+  }
+
+  /**
+   * Gets the column definition of auto-incremented primary keys, which replaces AUTO_ID in the
+   * schema.
+   *
+   * @return The column definition.
+   */
+  protected String getAutoIdDefinition() {
+    return "int NOT NULL AUTO_INCREMENT PRIMARY KEY";
+  }
+
+  /**
+   * Gets statements which configure each new connection.
+   *
+   * @return The statements.
+   */
+  protected String[] getConnectionStatements() {
+    return new String[0];
+  }
+
+  /**
+   * Opens a connection, configures it and makes sure that the schema exists.
+   *
+   * @param url The JDBC URL.
+   * @param properties The connection properties.
+   * @return The connection.
+   * @throws SQLException if the connection cannot be opened.
+   */
+  Connection openConnection(String url, Properties properties) throws SQLException {
+    try {
+      Class.forName(getDriverClassName()).newInstance();
+    } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
+      throw new SQLException("Could not load database driver " + getDriverClassName(), e);
+    }
+
+    Connection connection = DriverManager.getConnection(url, properties);
+    try (Statement statement = connection.createStatement()) {
+      for (String sql : getConnectionStatements()) {
+        statement.execute(sql);
+      }
+    }
+    createSchema(connection);
+    return connection;
+  }
+
+  /**
+   * Prepares a statement which returns generated identifiers.
+   *
+   * @param connection The connection.
+   * @param sql The SQL statement.
+   * @param generatedColumns The generated columns.
+   * @return The prepared statement.
+   * @throws SQLException if the statement cannot be prepared.
+   */
+  PreparedStatement prepareStatement(Connection connection, String sql, String[] generatedColumns)
+      throws SQLException {
+    return connection.prepareStatement(sql, generatedColumns);
+  }
+
+  protected static String join(String[] columns) {
+    StringBuilder builder = new StringBuilder();
+    for (String column : columns) {
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+      builder.append(column);
+    }
+    return builder.toString();
+  }
+
+  protected static String makePlaceholders(int count) {
+    StringBuilder builder = new StringBuilder("?");
+    for (int i = 1; i < count; ++i) {
+      builder.append(", ?");
+    }
+    return builder.toString();
+  }
+
+  private void createSchema(Connection connection) throws SQLException {
+    String schemaResource = getSchemaResource();
+    if (schemaResource == null) {
+      return;
+    }
+    try (ResultSet tables = connection.getMetaData().getTables(null, null, null, null)) {
+      while (tables.next()) {
+        if (SCHEMA_TABLE.equalsIgnoreCase(tables.getString("TABLE_NAME"))) {
+          return;
+        }
+      }
+    }
+
+    String schema;
+    try {
+      schema = readResource(schemaResource);
+    } catch (IOException e) {
+      throw new SQLException("Could not read schema " + schemaResource, e);
+    }
+    schema = schema.replace("AUTO_ID", getAutoIdDefinition());
+
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try (Statement statement = connection.createStatement()) {
+      for (String sql : schema.split(";")) {
+        if (!sql.trim().isEmpty()) {
+          statement.execute(sql);
+        }
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+  }
+
+  private String readResource(String resource) throws IOException {
+    InputStream inputStream = Dialect.class.getResourceAsStream(resource);
+    if (inputStream == null) {
+      throw new IOException("Resource not found: " + resource);
+    }
+
+    StringBuilder result = new StringBuilder();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // Comments are removed, since they may contain semicolons.
+        if (!line.trim().startsWith("--")) {
+          result.append(line).append('\n');
+        }
+      }
+    }
+    return result.toString();
+  }
+}
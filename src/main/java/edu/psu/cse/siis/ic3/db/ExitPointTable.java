@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
 
@@ -35,9 +36,7 @@ public class ExitPointTable extends Table {
     // if (id != NOT_FOUND) {
     // return id;
     // }
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
     insertStatement.setInt(1, classId);
     if (method.length() > 512) {
       method = method.substring(0, 512);
@@ -51,10 +50,7 @@ public class ExitPointTable extends Table {
       insertStatement.setInt(5, missingIntents);
     }
 
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
   }
 
   // public int find(int classId, String method, int instruction, String exit_kind)
@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
 
@@ -25,47 +26,58 @@ public class FilterDataTable extends Table {
   private static final String INSERT = "INSERT INTO IFData "
       + "(filter_id, scheme, host, port, path, type, subtype) VALUES (?, ?, ?, ?, ?, ?, ?)";
 
+  FilterDataTable() {
+    insertString = INSERT;
+  }
+
   public int insert(int filterId, String scheme, String host, String port, String path,
       String type, String subtype) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
+    setParameters(insertStatement, filterId, scheme, host, port, path, type, subtype);
+    return executeInsert(insertStatement);
+  }
 
-    insertStatement.setInt(1, filterId);
+  /**
+   * Queues a row without retrieving its identifier. The row is written when batches are flushed.
+   */
+  public void queueInsert(int filterId, String scheme, String host, String port, String path,
+      String type, String subtype) throws SQLException {
+    setParameters(getBatchStatement(), filterId, scheme, host, port, path, type, subtype);
+    addBatch();
+  }
+
+  private void setParameters(PreparedStatement statement, int filterId, String scheme,
+      String host, String port, String path, String type, String subtype) throws SQLException {
+    statement.setInt(1, filterId);
     if (scheme == null) {
-      insertStatement.setNull(2, Types.VARCHAR);
+      statement.setNull(2, Types.VARCHAR);
     } else {
-      insertStatement.setString(2, scheme);
+      statement.setString(2, scheme);
     }
     if (host == null) {
-      insertStatement.setNull(3, Types.VARCHAR);
+      statement.setNull(3, Types.VARCHAR);
     } else {
-      insertStatement.setString(3, host);
+      statement.setString(3, host);
     }
     if (port == null) {
-      insertStatement.setNull(4, Types.VARCHAR);
+      statement.setNull(4, Types.VARCHAR);
     } else {
-      insertStatement.setString(4, port);
+      statement.setString(4, port);
     }
     if (path == null) {
-      insertStatement.setNull(5, Types.INTEGER);
+      statement.setNull(5, Types.INTEGER);
     } else {
-      insertStatement.setString(5, path);
+      statement.setString(5, path);
     }
     if (type == null) {
-      insertStatement.setNull(6, Types.VARCHAR);
+      statement.setNull(6, Types.VARCHAR);
     } else {
-      insertStatement.setString(6, type);
+      statement.setString(6, type);
     }
     if (subtype == null) {
-      insertStatement.setNull(7, Types.VARCHAR);
+      statement.setNull(7, Types.VARCHAR);
     } else {
-      insertStatement.setString(7, subtype);
-    }
-
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
+      statement.setString(7, subtype);
     }
-    return findAutoIncrement();
   }
 }
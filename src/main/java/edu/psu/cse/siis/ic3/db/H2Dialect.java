@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The H2 dialect. The database and its schema are created if they do not exist. When several
+ * processes write to the same database, AUTO_SERVER=TRUE should be added to the URL.
+ */
+public class H2Dialect extends Dialect {
+  private static final String[] CONNECTION_STATEMENTS = new String[] { "SET LOCK_TIMEOUT 600000" };
+
+  @Override
+  protected String getDriverClassName() {
+    return "org.h2.Driver";
+  }
+
+  @Override
+  public boolean supportsMultiRowGeneratedKeys() {
+    return false;
+  }
+
+  @Override
+  public String getNullSafeEquals() {
+    return "IS NOT DISTINCT FROM";
+  }
+
+  @Override
+  public String makeInsertIgnore(String table, String[] columns, String[] keyColumns) {
+    // MERGE updates the other columns of an existing row, so this only ignores the row when all
+    // columns are key columns.
+    return String.format("MERGE INTO %s (%s) KEY (%s) VALUES (%s)", table, join(columns),
+        join(keyColumns), makePlaceholders(columns.length));
+  }
+
+  @Override
+  public String makeStringUpsert(String table) {
+    return makeInsertIgnore(table, new String[] { "st" }, new String[] { "st" });
+  }
+
+  @Override
+  public boolean stringUpsertReturnsId() {
+    return false;
+  }
+
+  @Override
+  public boolean supportsLoadData() {
+    return false;
+  }
+
+  @Override
+  protected String[] getBeginBulkLoadStatements() {
+    return new String[0];
+  }
+
+  @Override
+  protected String[] getEndBulkLoadStatements() {
+    return new String[0];
+  }
+
+  @Override
+  protected String getSchemaResource() {
+    return "/db/schema-embedded";
+  }
+
+  @Override
+  protected String getAutoIdDefinition() {
+    return "INTEGER AUTO_INCREMENT PRIMARY KEY";
+  }
+
+  @Override
+  protected String[] getConnectionStatements() {
+    return CONNECTION_STATEMENTS;
+  }
+
+  @Override
+  PreparedStatement prepareStatement(Connection connection, String sql, String[] generatedColumns)
+      throws SQLException {
+    return connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+  }
+}
@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
@@ -26,8 +27,8 @@ import java.util.List;
 import java.util.Set;
 
 public class IntentFilterTable extends Table {
-  private static final String INSERT = "INSERT INTO IntentFilters (component_id, alias) "
-      + "VALUES (?, ?)";
+  private static final String INSERT =
+      "INSERT INTO IntentFilters (component_id, alias, truncated) VALUES (?, ?, ?)";
   private static final String FIND = "SELECT IntentFilters.id, COUNT(IntentFilters.id) AS cnt "
       + "FROM IntentFilters " + "LEFT JOIN IFActions ON IntentFilters.id = IFActions.filter_id "
       + "LEFT JOIN IFCategories ON IntentFilters.id = IFCategories.filter_id "
@@ -35,19 +36,28 @@ public class IntentFilterTable extends Table {
       + "WHERE component_id = ? AND alias = ?";
 
   public int forceInsert(int componentId, boolean alias) throws SQLException {
+    return forceInsert(componentId, alias, false);
+  }
+
+  /**
+   * Inserts an intent filter.
+   *
+   * @param componentId The component identifier.
+   * @param alias Whether the filter belongs to an activity alias.
+   * @param truncated Whether some data specifications of the filter were dropped.
+   * @return The intent filter identifier.
+   * @throws SQLException if the intent filter cannot be inserted.
+   */
+  public int forceInsert(int componentId, boolean alias, boolean truncated) throws SQLException {
     // int id = find(connection, componentId, actions, categories, mimeTypes);
     // if (id != NOT_FOUND) {
     // return id;
     // }
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
     insertStatement.setInt(1, componentId);
     insertStatement.setBoolean(2, alias);
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    insertStatement.setBoolean(3, truncated);
+    return executeInsert(insertStatement);
   }
 
   public int find(int componentId, List<Integer> actions, List<Integer> categories,
@@ -100,7 +110,7 @@ public class IntentFilterTable extends Table {
       queryBuilder.append(" AND type IS ? AND subtype IS ?");
     }
 
-    findStatement = getConnection().prepareStatement(queryBuilder.toString());
+    PreparedStatement findStatement = getConnection().prepareStatement(queryBuilder.toString());
 
     findStatement.setInt(1, componentId);
 
@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 import edu.psu.cse.siis.coal.Constants;
@@ -46,9 +47,7 @@ public abstract class IntentOrFilterMimeTypeTable extends Table {
   }
 
   public int forceInsert(int intentOrFilterId, String type, String subtype) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(insertString);
-    }
+    PreparedStatement insertStatement = prepareStatement(insertString, AUTOGENERATED_ID);
     if (type == null) {
       type = Constants.NULL_STRING;
     }
@@ -59,16 +58,28 @@ public abstract class IntentOrFilterMimeTypeTable extends Table {
     insertStatement.setInt(1, intentOrFilterId);
     insertStatement.setString(2, type);
     insertStatement.setString(3, subtype);
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
+  }
+
+  /**
+   * Queues a row without retrieving its identifier. The row is written when batches are flushed.
+   *
+   * @param intentOrFilterId The intent or filter identifier.
+   * @param type The MIME type.
+   * @param subtype The MIME subtype.
+   * @throws SQLException if a full batch cannot be written.
+   */
+  public void queueInsert(int intentOrFilterId, String type, String subtype) throws SQLException {
+    PreparedStatement batchStatement = getBatchStatement();
+    batchStatement.setInt(1, intentOrFilterId);
+    batchStatement.setString(2, type == null ? Constants.NULL_STRING : type);
+    batchStatement.setString(3, subtype == null ? Constants.NULL_STRING : subtype);
+    addBatch();
   }
 
   public int find(int intentOrFilterId, String type, String subtype) throws SQLException {
-    if (findStatement == null || findStatement.isClosed()) {
-      findStatement = getConnection().prepareStatement(findString);
-    }
+    flushBatch();
+    PreparedStatement findStatement = prepareStatement(findString);
     if (type == null) {
       type = Constants.NULL_STRING;
     }
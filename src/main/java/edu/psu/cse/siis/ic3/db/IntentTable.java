@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 public class IntentTable extends Table {
@@ -35,16 +36,11 @@ public class IntentTable extends Table {
     // if (id != NOT_FOUND) {
     // return id;
     // }
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
     insertStatement.setInt(1, exitId);
     insertStatement.setBoolean(2, implicit);
     insertStatement.setBoolean(3, alias);
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
   }
 
   // public int find(int exitId, List<Integer> actions, List<Integer> categories, String mimeType,
@@ -0,0 +1,646 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the links between the intents and the components of all the applications in the
+ * database.
+ *
+ * Intents and intent filters are loaded once into memory. Filters are indexed by action and by
+ * category, so that each intent is only compared to the filters of the shortest posting list
+ * among its action and categories. Intents are matched in parallel and the links are written to
+ * the StagedLinks table in bulk, one transaction per chunk of intents. Once all intents are
+ * matched, the staged links replace the contents of the Links table in a single transaction, so
+ * that the previous links remain in place if resolution fails.
+ *
+ * Matching follows the intent resolution rules of Android. Path values of filters are compared
+ * as prefixes, since the database does not record whether they come from a path, a path prefix or
+ * a path pattern.
+ */
+public class LinkResolver extends SQLConnection {
+  private static final String DEFAULT_CATEGORY = "android.intent.category.DEFAULT";
+  private static final int CHUNK_SIZE = 4096;
+
+  private static final String SELECT_COMPONENTS =
+      "SELECT Components.id, Components.kind, Components.exported, Classes.app_id, Classes.class "
+          + "FROM Components JOIN Classes ON Components.class_id = Classes.id";
+  private static final String SELECT_FILTERS = "SELECT id, component_id FROM IntentFilters";
+  private static final String SELECT_FILTER_ACTIONS = "SELECT filter_id, action FROM IFActions";
+  private static final String SELECT_FILTER_CATEGORIES =
+      "SELECT filter_id, category FROM IFCategories";
+  private static final String SELECT_FILTER_DATA =
+      "SELECT filter_id, scheme, host, path, type, subtype FROM IFData";
+  private static final String SELECT_INTENTS =
+      "SELECT Intents.id, Intents.implicit, ExitPoints.exit_kind, Classes.app_id FROM Intents "
+          + "JOIN ExitPoints ON Intents.exit_id = ExitPoints.id "
+          + "JOIN Classes ON ExitPoints.class_id = Classes.id";
+  private static final String SELECT_INTENT_ACTIONS = "SELECT intent_id, action FROM IActions";
+  private static final String SELECT_INTENT_CATEGORIES =
+      "SELECT intent_id, category FROM ICategories";
+  private static final String SELECT_INTENT_MIME_TYPES =
+      "SELECT intent_id, type, subtype FROM IMimeTypes";
+  private static final String SELECT_INTENT_DATA =
+      "SELECT IData.intent_id, UriData.scheme, UriData.authority, UriData.path "
+          + "FROM IData JOIN UriData ON IData.data = UriData.id";
+  private static final String SELECT_INTENT_CLASSES = "SELECT intent_id, class FROM IClasses";
+  private static final String DELETE_LINKS = "DELETE FROM Links";
+  private static final String DELETE_STAGED_LINKS = "DELETE FROM StagedLinks";
+  // Intents and components may have been deleted since the links were staged.
+  private static final String COPY_STAGED_LINKS =
+      "INSERT INTO Links (intent_id, component_id) "
+          + "SELECT StagedLinks.intent_id, StagedLinks.component_id FROM StagedLinks "
+          + "JOIN Intents ON StagedLinks.intent_id = Intents.id "
+          + "JOIN Components ON StagedLinks.component_id = Components.id";
+
+  private static final int[] EMPTY = new int[0];
+
+  private static final Logger logger = LoggerFactory.getLogger(LinkResolver.class);
+
+  private static class Component {
+    private final int id;
+    private final String kind;
+    private final boolean exported;
+    private final int appId;
+
+    Component(int id, String kind, boolean exported, int appId) {
+      this.id = id;
+      this.kind = kind;
+      this.exported = exported;
+      this.appId = appId;
+    }
+  }
+
+  private static class Filter {
+    private final Component component;
+    private int[] actions = EMPTY;
+    private int[] categories = EMPTY;
+    private Set<String> schemes = null;
+    private Set<String> hosts = null;
+    private Set<String> paths = null;
+    private List<String[]> types = null;
+
+    Filter(Component component) {
+      this.component = component;
+    }
+  }
+
+  private static class Intent {
+    private final int id;
+    private final boolean implicit;
+    private final String exitKind;
+    private final int appId;
+    private int action = Constants.NOT_FOUND;
+    private int[] categories = EMPTY;
+    private String type = null;
+    private String subtype = null;
+    private boolean hasData = false;
+    private String scheme = null;
+    private String host = null;
+    private String path = null;
+    private String clazz = null;
+
+    Intent(int id, boolean implicit, String exitKind, int appId) {
+      this.id = id;
+      this.implicit = implicit;
+      this.exitKind = exitKind;
+      this.appId = appId;
+    }
+  }
+
+  private final int threadCount;
+
+  private final Map<Integer, Component> components = new HashMap<>();
+  private final Map<String, List<Component>> classToComponents = new HashMap<>();
+  private final List<Filter> filters = new ArrayList<>();
+  private final Map<Integer, int[]> actionIndex = new HashMap<>();
+  private final Map<Integer, int[]> categoryIndex = new HashMap<>();
+  private int[] filtersWithActions = EMPTY;
+  private final List<Intent> intents = new ArrayList<>();
+
+  private int anyActionId;
+  private int anyCategoryId;
+  private int defaultCategoryId;
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount The number of threads used to match intents.
+   */
+  public LinkResolver(int threadCount) {
+    this.threadCount = Math.max(1, threadCount);
+  }
+
+  /**
+   * Replaces the contents of the Links table with the links of all the intents in the database.
+   *
+   * @return The number of links.
+   * @throws SQLException if the intents and filters cannot be read or the links cannot be written.
+   */
+  public long resolve() throws SQLException {
+    long start = System.nanoTime();
+    anyActionId = actionStringTable.find(Constants.ANY_STRING);
+    anyCategoryId = categoryStringTable.find(Constants.ANY_STRING);
+    defaultCategoryId = categoryStringTable.find(DEFAULT_CATEGORY);
+    loadFilters();
+    loadIntents();
+    if (logger.isInfoEnabled()) {
+      logger.info(String.format("Loaded %d intents and %d filters in %.3f s", intents.size(),
+          filters.size(), (System.nanoTime() - start) / 1e9));
+    }
+
+    // Leftovers from an interrupted run.
+    Table.beginTransaction();
+    Table.prepareStatement(DELETE_STAGED_LINKS).executeUpdate();
+    Table.commitTransaction();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      CompletionService<int[]> completionService = new ExecutorCompletionService<>(executor);
+      int chunkCount = (intents.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      int submittedChunks = 0;
+      // Only keep a few chunks in flight, so that the pending links do not pile up in memory
+      // when writing is slower than matching.
+      for (int writtenChunks = 0; writtenChunks < chunkCount; ++writtenChunks) {
+        while (submittedChunks < chunkCount && submittedChunks - writtenChunks < 2 * threadCount) {
+          final int from = submittedChunks * CHUNK_SIZE;
+          final int to = Math.min(from + CHUNK_SIZE, intents.size());
+          completionService.submit(new Callable<int[]>() {
+            @Override
+            public int[] call() {
+              return matchIntents(from, to);
+            }
+          });
+          ++submittedChunks;
+        }
+
+        int[] links = completionService.take().get();
+        Table.beginTransaction();
+        for (int i = 0; i < links.length; i += 2) {
+          stagedLinkTable.queueInsert(links[i], links[i + 1]);
+        }
+        Table.commitTransaction();
+      }
+    } catch (SQLException | RuntimeException e) {
+      Table.rollbackTransaction();
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while resolving links", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    long linkCount;
+    try {
+      Table.beginTransaction();
+      Table.prepareStatement(DELETE_LINKS).executeUpdate();
+      linkCount = Table.prepareStatement(COPY_STAGED_LINKS).executeUpdate();
+      Table.prepareStatement(DELETE_STAGED_LINKS).executeUpdate();
+      Table.commitTransaction();
+    } catch (SQLException e) {
+      Table.rollbackTransaction();
+      throw e;
+    }
+
+    if (logger.isInfoEnabled()) {
+      logger.info(String.format("Resolved %d links in %.3f s", linkCount,
+          (System.nanoTime() - start) / 1e9));
+    }
+    return linkCount;
+  }
+
+  private void loadFilters() throws SQLException {
+    ResultSet resultSet = Table.prepareStatement(SELECT_COMPONENTS).executeQuery();
+    while (resultSet.next()) {
+      Component component =
+          new Component(resultSet.getInt(1), resultSet.getString(2), resultSet.getBoolean(3),
+              resultSet.getInt(4));
+      components.put(component.id, component);
+      String clazz = resultSet.getString(5);
+      List<Component> classComponents = classToComponents.get(clazz);
+      if (classComponents == null) {
+        classComponents = new ArrayList<>(1);
+        classToComponents.put(clazz, classComponents);
+      }
+      classComponents.add(component);
+    }
+    resultSet.close();
+
+    Map<Integer, Integer> filterIdToIndex = new HashMap<>();
+    resultSet = Table.prepareStatement(SELECT_FILTERS).executeQuery();
+    while (resultSet.next()) {
+      Component component = components.get(resultSet.getInt(2));
+      if (component != null) {
+        filterIdToIndex.put(resultSet.getInt(1), filters.size());
+        filters.add(new Filter(component));
+      }
+    }
+    resultSet.close();
+
+    Map<Integer, List<Integer>> filterActions = loadIntPairs(SELECT_FILTER_ACTIONS);
+    Map<Integer, List<Integer>> actionPostings = new HashMap<>();
+    List<Integer> withActions = new ArrayList<>();
+    for (Map.Entry<Integer, List<Integer>> entry : filterActions.entrySet()) {
+      Integer index = filterIdToIndex.get(entry.getKey());
+      if (index != null) {
+        Filter filter = filters.get(index);
+        filter.actions = toSortedArray(entry.getValue());
+        withActions.add(index);
+        for (int action : filter.actions) {
+          addPosting(actionPostings, action, index);
+        }
+      }
+    }
+    filtersWithActions = toSortedArray(withActions);
+    buildIndex(actionPostings, actionIndex);
+
+    Map<Integer, List<Integer>> filterCategories = loadIntPairs(SELECT_FILTER_CATEGORIES);
+    Map<Integer, List<Integer>> categoryPostings = new HashMap<>();
+    for (Map.Entry<Integer, List<Integer>> entry : filterCategories.entrySet()) {
+      Integer index = filterIdToIndex.get(entry.getKey());
+      if (index != null) {
+        Filter filter = filters.get(index);
+        filter.categories = toSortedArray(entry.getValue());
+        for (int category : filter.categories) {
+          addPosting(categoryPostings, category, index);
+        }
+      }
+    }
+    buildIndex(categoryPostings, categoryIndex);
+
+    resultSet = Table.prepareStatement(SELECT_FILTER_DATA).executeQuery();
+    while (resultSet.next()) {
+      Integer index = filterIdToIndex.get(resultSet.getInt(1));
+      if (index == null) {
+        continue;
+      }
+      Filter filter = filters.get(index);
+      String scheme = resultSet.getString(2);
+      if (scheme != null) {
+        filter.schemes = addString(filter.schemes, scheme);
+      }
+      String host = resultSet.getString(3);
+      if (host != null) {
+        filter.hosts = addString(filter.hosts, host);
+      }
+      String path = resultSet.getString(4);
+      if (path != null) {
+        filter.paths = addString(filter.paths, path);
+      }
+      String type = resultSet.getString(5);
+      String subtype = resultSet.getString(6);
+      if (type != null && subtype != null) {
+        if (filter.types == null) {
+          filter.types = new ArrayList<>(1);
+        }
+        filter.types.add(new String[] { type, subtype });
+      }
+    }
+    resultSet.close();
+  }
+
+  private void loadIntents() throws SQLException {
+    Map<Integer, Intent> idToIntent = new HashMap<>();
+    ResultSet resultSet = Table.prepareStatement(SELECT_INTENTS).executeQuery();
+    while (resultSet.next()) {
+      Intent intent =
+          new Intent(resultSet.getInt(1), resultSet.getBoolean(2), resultSet.getString(3),
+              resultSet.getInt(4));
+      idToIntent.put(intent.id, intent);
+      intents.add(intent);
+    }
+    resultSet.close();
+
+    for (Map.Entry<Integer, List<Integer>> entry : loadIntPairs(SELECT_INTENT_ACTIONS).entrySet()) {
+      Intent intent = idToIntent.get(entry.getKey());
+      if (intent != null) {
+        // Intents have a single action.
+        intent.action = entry.getValue().get(0);
+      }
+    }
+
+    for (Map.Entry<Integer, List<Integer>> entry : loadIntPairs(SELECT_INTENT_CATEGORIES)
+        .entrySet()) {
+      Intent intent = idToIntent.get(entry.getKey());
+      if (intent != null) {
+        intent.categories = toSortedArray(entry.getValue());
+      }
+    }
+
+    resultSet = Table.prepareStatement(SELECT_INTENT_MIME_TYPES).executeQuery();
+    while (resultSet.next()) {
+      Intent intent = idToIntent.get(resultSet.getInt(1));
+      if (intent != null) {
+        intent.type = resultSet.getString(2);
+        intent.subtype = resultSet.getString(3);
+      }
+    }
+    resultSet.close();
+
+    resultSet = Table.prepareStatement(SELECT_INTENT_DATA).executeQuery();
+    while (resultSet.next()) {
+      Intent intent = idToIntent.get(resultSet.getInt(1));
+      if (intent != null) {
+        intent.hasData = true;
+        intent.scheme = resultSet.getString(2);
+        String authority = resultSet.getString(3);
+        if (authority != null && !authority.equals(Constants.ANY_STRING)) {
+          int portStart = authority.lastIndexOf(':');
+          intent.host = portStart == -1 ? authority : authority.substring(0, portStart);
+        } else {
+          intent.host = authority;
+        }
+        intent.path = resultSet.getString(4);
+      }
+    }
+    resultSet.close();
+
+    resultSet = Table.prepareStatement(SELECT_INTENT_CLASSES).executeQuery();
+    while (resultSet.next()) {
+      Intent intent = idToIntent.get(resultSet.getInt(1));
+      if (intent != null) {
+        intent.clazz = resultSet.getString(2);
+      }
+    }
+    resultSet.close();
+  }
+
+  /**
+   * Matches a range of intents against all the components.
+   *
+   * @param from The index of the first intent.
+   * @param to The index after the last intent.
+   * @return The links, as a flat array of intent and component identifier pairs.
+   */
+  private int[] matchIntents(int from, int to) {
+    int[] links = new int[64];
+    int size = 0;
+    Set<Integer> targets = new HashSet<>();
+    for (int i = from; i < to; ++i) {
+      Intent intent = intents.get(i);
+      targets.clear();
+      if (intent.implicit) {
+        matchImplicitIntent(intent, targets);
+      } else {
+        matchExplicitIntent(intent, targets);
+      }
+      for (int componentId : targets) {
+        if (size + 2 > links.length) {
+          links = Arrays.copyOf(links, links.length * 2);
+        }
+        links[size++] = intent.id;
+        links[size++] = componentId;
+      }
+    }
+    return Arrays.copyOf(links, size);
+  }
+
+  private void matchExplicitIntent(Intent intent, Set<Integer> targets) {
+    if (intent.clazz == null) {
+      return;
+    }
+    List<Component> classComponents = classToComponents.get(intent.clazz);
+    if (classComponents == null) {
+      return;
+    }
+    for (Component component : classComponents) {
+      if (canReceive(intent, component)) {
+        targets.add(component.id);
+      }
+    }
+  }
+
+  private void matchImplicitIntent(Intent intent, Set<Integer> targets) {
+    boolean anyAction = intent.action == Constants.NOT_FOUND || intent.action == anyActionId;
+    int[] candidates;
+    if (anyAction) {
+      // Intents without actions match all the filters which have at least one action.
+      candidates = filtersWithActions;
+    } else {
+      candidates = actionIndex.get(intent.action);
+      if (candidates == null) {
+        return;
+      }
+    }
+
+    // Activities only receive implicit intents through filters with the default category.
+    int defaultCategory = Constants.NOT_FOUND;
+    if (Constants.ComponentShortType.ACTIVITY.equals(intent.exitKind)) {
+      if (defaultCategoryId == Constants.NOT_FOUND) {
+        return;
+      }
+      defaultCategory = defaultCategoryId;
+    }
+
+    // Iterate over the shortest posting list. The other constraints are checked on each filter.
+    for (int category : intent.categories) {
+      if (category != anyCategoryId) {
+        candidates = shortestPostings(candidates, category);
+      }
+    }
+    if (defaultCategory != Constants.NOT_FOUND) {
+      candidates = shortestPostings(candidates, defaultCategory);
+    }
+
+    for (int index : candidates) {
+      Filter filter = filters.get(index);
+      if (targets.contains(filter.component.id) || !canReceive(intent, filter.component)) {
+        continue;
+      }
+      if (!anyAction && Arrays.binarySearch(filter.actions, intent.action) < 0) {
+        continue;
+      }
+      if (anyAction && filter.actions.length == 0) {
+        continue;
+      }
+      if (!matchCategories(intent, filter, defaultCategory) || !matchData(intent, filter)) {
+        continue;
+      }
+      targets.add(filter.component.id);
+    }
+  }
+
+  private int[] shortestPostings(int[] candidates, int category) {
+    int[] categoryPostings = categoryIndex.get(category);
+    if (categoryPostings == null) {
+      return EMPTY;
+    }
+    return categoryPostings.length < candidates.length ? categoryPostings : candidates;
+  }
+
+  private boolean canReceive(Intent intent, Component component) {
+    if (!component.exported && component.appId != intent.appId) {
+      return false;
+    }
+    if (Constants.ComponentShortType.RECEIVER.equals(intent.exitKind)) {
+      return Constants.ComponentShortType.RECEIVER.equals(component.kind)
+          || Constants.ComponentShortType.DYNAMIC_RECEIVER.equals(component.kind);
+    }
+    return intent.exitKind.equals(component.kind);
+  }
+
+  private boolean matchCategories(Intent intent, Filter filter, int defaultCategory) {
+    for (int category : intent.categories) {
+      if (category != anyCategoryId && Arrays.binarySearch(filter.categories, category) < 0) {
+        return false;
+      }
+    }
+    return defaultCategory == Constants.NOT_FOUND
+        || Arrays.binarySearch(filter.categories, defaultCategory) >= 0;
+  }
+
+  private boolean matchData(Intent intent, Filter filter) {
+    if (filter.types == null && filter.schemes == null) {
+      return intent.type == null && !intent.hasData;
+    }
+
+    if (filter.schemes != null) {
+      if (!matchString(intent.scheme, filter.schemes)) {
+        return false;
+      }
+      if (filter.hosts != null && !matchHost(intent.host, filter.hosts)) {
+        return false;
+      }
+      if (filter.paths != null && !matchPath(intent.path, filter.paths)) {
+        return false;
+      }
+    } else if (intent.scheme != null && !intent.scheme.equals("")
+        && !intent.scheme.equals("content") && !intent.scheme.equals("file")
+        && !intent.scheme.equals(Constants.ANY_STRING)) {
+      // Filters without schemes only accept content: and file: URIs.
+      return false;
+    }
+
+    if (filter.types == null) {
+      return intent.type == null;
+    }
+    return intent.type != null && matchType(intent.type, intent.subtype, filter.types);
+  }
+
+  private boolean matchString(String value, Set<String> filterValues) {
+    return value != null && (value.equals(Constants.ANY_STRING) || filterValues.contains(value));
+  }
+
+  private boolean matchHost(String host, Set<String> filterHosts) {
+    if (host == null) {
+      return false;
+    }
+    if (host.equals(Constants.ANY_STRING) || filterHosts.contains(host)
+        || filterHosts.contains("*")) {
+      return true;
+    }
+    for (String filterHost : filterHosts) {
+      if (filterHost.startsWith("*") && host.endsWith(filterHost.substring(1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean matchPath(String path, Set<String> filterPaths) {
+    if (path == null) {
+      return false;
+    }
+    if (path.equals(Constants.ANY_STRING)) {
+      return true;
+    }
+    for (String filterPath : filterPaths) {
+      if (path.startsWith(filterPath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean matchType(String type, String subtype, List<String[]> filterTypes) {
+    boolean anyType = type.equals(Constants.ANY_STRING) || type.equals("*");
+    boolean anySubtype = subtype.equals(Constants.ANY_STRING) || subtype.equals("*");
+    for (String[] filterType : filterTypes) {
+      if (filterType[0].equals("*")
+          || ((anyType || filterType[0].equals(type)) && (anySubtype || filterType[1].equals("*")
+              || filterType[1].equals(subtype)))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Map<Integer, List<Integer>> loadIntPairs(String query) throws SQLException {
+    Map<Integer, List<Integer>> result = new HashMap<>();
+    ResultSet resultSet = Table.prepareStatement(query).executeQuery();
+    while (resultSet.next()) {
+      addPosting(result, resultSet.getInt(1), resultSet.getInt(2));
+    }
+    resultSet.close();
+    return result;
+  }
+
+  private static void addPosting(Map<Integer, List<Integer>> postings, int key, int value) {
+    List<Integer> values = postings.get(key);
+    if (values == null) {
+      values = new ArrayList<>(2);
+      postings.put(key, values);
+    }
+    values.add(value);
+  }
+
+  private static void buildIndex(Map<Integer, List<Integer>> postings, Map<Integer, int[]> index) {
+    for (Map.Entry<Integer, List<Integer>> entry : postings.entrySet()) {
+      index.put(entry.getKey(), toSortedArray(entry.getValue()));
+    }
+  }
+
+  private static int[] toSortedArray(List<Integer> values) {
+    int[] result = new int[values.size()];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = values.get(i);
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  private static Set<String> addString(Set<String> strings, String string) {
+    if (strings == null) {
+      strings = new HashSet<>(2);
+    }
+    strings.add(string);
+    return strings;
+  }
+}
@@ -22,7 +22,11 @@ import java.sql.SQLException;
 
 public class LinkTable extends TwoIntTable {
   LinkTable() {
-    super("Links", "intent_id", "component_id");
+    this("Links");
+  }
+
+  LinkTable(String table) {
+    super(table, "intent_id", "component_id");
   }
 
   public int insert(int intentId, int componentId) throws SQLException {
@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 import edu.psu.cse.siis.coal.Constants;
@@ -40,24 +41,32 @@ public abstract class OneIntOneStringTable extends Table {
   }
 
   public int forceInsert(int firstValue, String secondValue) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(insertString);
-    }
+    PreparedStatement insertStatement = prepareStatement(insertString, AUTOGENERATED_ID);
     if (secondValue == null) {
       secondValue = Constants.NULL_STRING;
     }
     insertStatement.setInt(1, firstValue);
     insertStatement.setString(2, secondValue);
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
+  }
+
+  /**
+   * Queues a row without retrieving its identifier. The row is written when batches are flushed.
+   *
+   * @param firstValue The value of the first column.
+   * @param secondValue The value of the second column.
+   * @throws SQLException if a full batch cannot be written.
+   */
+  public void queueInsert(int firstValue, String secondValue) throws SQLException {
+    PreparedStatement batchStatement = getBatchStatement();
+    batchStatement.setInt(1, firstValue);
+    batchStatement.setString(2, secondValue == null ? Constants.NULL_STRING : secondValue);
+    addBatch();
   }
 
   public int find(int firstValue, String secondValue) throws SQLException {
-    if (findStatement == null || findStatement.isClosed()) {
-      findStatement = getConnection().prepareStatement(findString);
-    }
+    flushBatch();
+    PreparedStatement findStatement = prepareStatement(findString);
     findStatement.setInt(1, firstValue);
     findStatement.setString(2, secondValue);
     return processIntFindQuery(findStatement);
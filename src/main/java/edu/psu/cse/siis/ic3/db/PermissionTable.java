@@ -22,14 +22,13 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 public class PermissionTable extends Table {
-  private static final String INSERT = "INSERT INTO Permissions (id, level) VALUES (?, ?)";
+  private static final String TABLE = "Permissions";
+  private static final String[] COLUMNS = new String[] { "id", "level" };
   private static final String FIND = "SELECT id FROM Permissions WHERE id = ? AND level = ?";
   private static final String FIND_SIGNATURE_OR_SYSTEM = "SELECT Permissions.id FROM Permissions "
       + "JOIN PermissionStrings ON Permissions.id  = PermissionStrings.id "
       + "WHERE st = ? AND (level = ? OR level = ?)";
 
-  private PreparedStatement findSignatureOrSystemStatement;
-
   PermissionTable() {
   }
 
@@ -41,22 +40,26 @@ public class PermissionTable extends Table {
     return forceInsert(permissionId, level);
   }
 
+  /**
+   * Inserts a permission level, unless another application already defined the permission with
+   * the same level.
+   *
+   * @param permissionId The permission string identifier.
+   * @param level The protection level.
+   * @return The permission string identifier.
+   * @throws SQLException if the permission cannot be inserted.
+   */
   public int forceInsert(int permissionId, String level) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement =
+        prepareStatement(getDialect().makeInsertIgnore(TABLE, COLUMNS, COLUMNS));
     insertStatement.setInt(1, permissionId);
     insertStatement.setString(2, level);
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
+    insertStatement.executeUpdate();
     return permissionId;
   }
 
   public int find(int permissionId, String level) throws SQLException {
-    if (findStatement == null || findStatement.isClosed()) {
-      findStatement = getConnection().prepareStatement(FIND);
-    }
+    PreparedStatement findStatement = prepareStatement(FIND);
     findStatement.setInt(1, permissionId);
     findStatement.setString(2, level);
     return processIntFindQuery(findStatement);
@@ -72,9 +75,7 @@ public class PermissionTable extends Table {
    * @throws SQLException
    */
   public boolean isSignatureOrSystem(String permission) throws SQLException {
-    if (findSignatureOrSystemStatement == null || findSignatureOrSystemStatement.isClosed()) {
-      findStatement = getConnection().prepareStatement(FIND_SIGNATURE_OR_SYSTEM);
-    }
+    PreparedStatement findStatement = prepareStatement(FIND_SIGNATURE_OR_SYSTEM);
     findStatement.setString(1, permission);
     findStatement.setString(2, Constants.PermissionLevel.SIGNATURE_SHORT);
     findStatement.setString(3, Constants.PermissionLevel.SIGNATURE_OR_SYSTEM_SHORT);
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A database connection along with the prepared statements and the pending batched rows which
+ * belong to it. A pooled connection is only used by one thread at a time.
+ */
+class PooledConnection {
+  private static final int STATEMENT_CACHE_SIZE = 256;
+
+  private final Dialect dialect;
+  private final Connection connection;
+  private final Map<String, PreparedStatement> statements;
+  private final Map<String, Integer> pendingRows = new LinkedHashMap<>();
+  private long writtenRows = 0;
+  private long transactionStart = 0;
+  private boolean failedWrite = false;
+
+  PooledConnection(Dialect dialect, Connection connection) {
+    this.dialect = dialect;
+    this.connection = connection;
+    this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+        if (size() <= STATEMENT_CACHE_SIZE || pendingRows.containsKey(eldest.getKey())) {
+          return false;
+        }
+        closeQuietly(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Gets the underlying connection.
+   *
+   * @return The connection.
+   */
+  Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * Gets a prepared statement from the statement cache, preparing it if necessary.
+   *
+   * @param sql The SQL statement.
+   * @param generatedColumns The names of the generated columns to return, or null.
+   * @return The prepared statement.
+   * @throws SQLException if the statement cannot be prepared.
+   */
+  PreparedStatement prepareStatement(String sql, String[] generatedColumns) throws SQLException {
+    String key = generatedColumns == null ? sql : "\0" + sql;
+    PreparedStatement statement = statements.get(key);
+    if (statement == null || statement.isClosed()) {
+      statement =
+          generatedColumns == null ? connection.prepareStatement(sql) : dialect.prepareStatement(
+              connection, sql, generatedColumns);
+      statements.put(key, statement);
+    }
+    return statement;
+  }
+
+  /**
+   * Queues the row whose parameters were set on a cached statement.
+   *
+   * @param sql The SQL of the statement.
+   * @param maxBatchSize The number of pending rows after which the batch is written.
+   * @throws SQLException if a full batch cannot be written.
+   */
+  void addBatch(String sql, int maxBatchSize) throws SQLException {
+    prepareStatement(sql, null).addBatch();
+    Integer pending = pendingRows.get(sql);
+    int count = pending == null ? 1 : pending + 1;
+    pendingRows.put(sql, count);
+    if (count >= maxBatchSize) {
+      flushBatch(sql);
+    }
+  }
+
+  /**
+   * Writes the rows queued on a statement.
+   *
+   * @param sql The SQL of the statement.
+   * @throws SQLException if the rows cannot be written.
+   */
+  void flushBatch(String sql) throws SQLException {
+    Integer pending = pendingRows.remove(sql);
+    if (pending == null) {
+      return;
+    }
+    executeBatch(statements.get(sql));
+    writtenRows += pending;
+  }
+
+  /**
+   * Writes all queued rows, in the order in which statements were first used.
+   *
+   * @throws SQLException if the rows cannot be written.
+   */
+  void flushBatches() throws SQLException {
+    Iterator<Map.Entry<String, Integer>> iterator = pendingRows.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Integer> entry = iterator.next();
+      executeBatch(statements.get(entry.getKey()));
+      writtenRows += entry.getValue();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Determines if a batch of the current transaction could not be written. Such a transaction is
+   * missing rows and must not be committed, even if later writes succeed.
+   *
+   * @return True if a batch write failed since the transaction was started or rolled back.
+   */
+  boolean hasFailedWrite() {
+    return failedWrite;
+  }
+
+  private void executeBatch(PreparedStatement statement) throws SQLException {
+    try {
+      statement.executeBatch();
+    } catch (SQLException e) {
+      failedWrite = true;
+      throw e;
+    }
+  }
+
+  /**
+   * Discards all queued rows.
+   */
+  void discardBatches() {
+    for (String sql : pendingRows.keySet()) {
+      try {
+        statements.get(sql).clearBatch();
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+    }
+    pendingRows.clear();
+    failedWrite = false;
+  }
+
+  /**
+   * Counts rows which were written outside of batches.
+   *
+   * @param rows The number of rows.
+   */
+  void countWrittenRows(int rows) {
+    writtenRows += rows;
+  }
+
+  /**
+   * Returns the number of rows written since the start of the current transaction.
+   *
+   * @return The number of rows.
+   */
+  long getWrittenRows() {
+    return writtenRows;
+  }
+
+  /**
+   * Returns the start time of the current transaction.
+   *
+   * @return The start time in nanoseconds, as given by {@link System#nanoTime()}.
+   */
+  long getTransactionStart() {
+    return transactionStart;
+  }
+
+  void beginTransaction() throws SQLException {
+    connection.setAutoCommit(false);
+    failedWrite = false;
+    writtenRows = 0;
+    transactionStart = System.nanoTime();
+  }
+
+  boolean isClosed() {
+    try {
+      return connection.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  void close() {
+    discardBatches();
+    for (PreparedStatement statement : statements.values()) {
+      closeQuietly(statement);
+    }
+    statements.clear();
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
 
@@ -28,9 +29,7 @@ public class ProviderTable extends Table {
 
   public int insert(int componentId, boolean grantUriPermissions, String readPermission,
       String writePermission) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
 
     insertStatement.setInt(1, componentId);
     insertStatement.setBoolean(2, grantUriPermissions);
@@ -45,9 +44,6 @@ public class ProviderTable extends Table {
       insertStatement.setString(4, writePermission);
     }
 
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
   }
 }
@@ -18,10 +18,12 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,7 +62,38 @@ public class SQLConnection {
   protected static UriTable uriTable = new UriTable();
   protected static ProviderTable providerTable = new ProviderTable();
   protected static ProviderAuthorityTable providerAuthorityTable = new ProviderAuthorityTable();
-  protected static int appId = Constants.NOT_FOUND;
+  protected static LinkTable linkTable = new LinkTable();
+  protected static LinkTable stagedLinkTable = new LinkTable("StagedLinks");
+  // Exit points and intents are staged in spool files instead of being inserted, if set.
+  protected static Spool spool = null;
+  // The component extras spooled for the current application.
+  protected static final ThreadLocal<Set<Pair<Integer, String>>> spooledComponentExtras =
+      new ThreadLocal<Set<Pair<Integer, String>>>() {
+        @Override
+        protected Set<Pair<Integer, String>> initialValue() {
+          return new HashSet<>();
+        }
+      };
+  // Applies committed intent filters and deletions to the component index.
+  private static final Table.TransactionListener componentIndexListener =
+      new Table.TransactionListener() {
+        @Override
+        public void onCommit() {
+          ComponentIndex.v().commit();
+        }
+
+        @Override
+        public void onRollback() {
+          ComponentIndex.v().rollback();
+        }
+      };
+  // Each writer thread works on its own application.
+  protected static final ThreadLocal<Integer> appId = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return Constants.NOT_FOUND;
+    }
+  };
 
   public static void init(String dbName, String dbPropertiesPath, String sshPropertiesPath,
       int localDbPort) {
@@ -71,12 +104,210 @@ public class SQLConnection {
     Table.closeConnection();
   }
 
+  /**
+   * Closes all database connections. This should be called once all applications are written.
+   */
+  public static void shutdown() {
+    Table.shutdown();
+    if (spool != null) {
+      try {
+        spool.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      spool = null;
+    }
+    try {
+      ComponentIndex.v().save();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Opens the index from actions and categories to components, which is then updated as intent
+   * filters are written and saved when the database is shut down.
+   *
+   * @param path The path to the index file.
+   */
+  public static void openComponentIndex(String path) {
+    try {
+      ComponentIndex.v().open(path);
+      Table.addTransactionListener(componentIndexListener);
+    } catch (IOException | SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Stages the exit points and intents of the applications in a spool directory, from which they
+   * are bulk loaded by a {@link SpoolLoader}. The other rows are still written to the database.
+   * Applications are only marked as complete when their spooled rows are loaded.
+   *
+   * @param root The spool directory.
+   */
+  public static void openSpool(String root) {
+    if (spool != null) {
+      return;
+    }
+    try {
+      spool = Spool.open(root);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Determines if exit points and intents are staged in a spool.
+   *
+   * @return True if a spool was opened.
+   */
+  public static boolean isSpooling() {
+    return spool != null;
+  }
+
+  /**
+   * Commits the spooled rows of the current application. This should be called after the
+   * transaction which writes the other rows of the application is committed.
+   *
+   * @param fingerprint The fingerprint digest, which is recorded when the rows are loaded, or null.
+   * @throws IOException if the rows cannot be written to the spool.
+   */
+  public static void commitSpool(String fingerprint) throws IOException {
+    if (appId.get() == Constants.NOT_FOUND) {
+      throw new RuntimeException("appId has not been set");
+    }
+    spool.commit(appId.get(), fingerprint);
+    spooledComponentExtras.remove();
+  }
+
+  /**
+   * Starts writing the rows of an application in a single transaction.
+   *
+   * @throws SQLException if the transaction cannot be started.
+   */
+  public static void beginTransaction() throws SQLException {
+    Table.beginTransaction();
+  }
+
+  /**
+   * Writes all pending rows of the current application and commits them. If any row cannot be
+   * written, the transaction is rolled back and none of the rows are committed.
+   *
+   * @throws SQLException if the rows cannot be written or committed.
+   */
+  public static void commitTransaction() throws SQLException {
+    Table.commitTransaction();
+  }
+
+  /**
+   * Forgets the current application, so that the next call to
+   * {@link #insert(String, int, List, Set, Map, boolean)} creates a new application entry. This
+   * should be called between applications when several of them are analyzed in the same JVM.
+   */
+  public static void reset() {
+    appId.remove();
+    Table.rollbackTransaction();
+    if (spool != null) {
+      spool.rollback();
+      spooledComponentExtras.remove();
+    }
+  }
+
+  /**
+   * Determines if an application was already completely analyzed with the given fingerprint.
+   *
+   * @param fingerprint The fingerprint digest.
+   * @return True if results with the fingerprint are in the database.
+   */
+  public static boolean hasFingerprint(String fingerprint) {
+    try {
+      return applicationTable.findByFingerprint(fingerprint) != Constants.NOT_FOUND;
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Records the fingerprint of the current application. This should only be called once its
+   * analysis is complete, in the transaction which writes its results.
+   *
+   * @param fingerprint The fingerprint digest.
+   * @throws SQLException if the application cannot be updated.
+   */
+  public static void setFingerprint(String fingerprint) throws SQLException {
+    if (appId.get() == Constants.NOT_FOUND) {
+      throw new RuntimeException("appId has not been set");
+    }
+    applicationTable.setFingerprint(appId.get(), fingerprint);
+  }
+
+  /**
+   * Marks the results of the current application as completely written. This should be called
+   * just before the transaction which writes the last rows of the application is committed.
+   * Applications which are not marked as complete are deleted by
+   * {@link #deleteIncompleteApplications()}.
+   *
+   * @throws SQLException if the application cannot be updated.
+   */
+  public static void markComplete() throws SQLException {
+    if (appId.get() == Constants.NOT_FOUND) {
+      throw new RuntimeException("appId has not been set");
+    }
+    applicationTable.setComplete(appId.get());
+  }
+
+  /**
+   * Records that the analysis of the current application was aborted, in which case only its
+   * manifest data is written. This should be called in the transaction which writes its rows.
+   *
+   * @param status The reason for the abort, as named in the protobuf output.
+   * @param phase The phase during which the analysis was aborted, or null if it is unknown.
+   * @throws SQLException if the application cannot be updated.
+   */
+  public static void setStatus(String status, String phase) throws SQLException {
+    if (appId.get() == Constants.NOT_FOUND) {
+      throw new RuntimeException("appId has not been set");
+    }
+    applicationTable.setStatus(appId.get(), status, phase);
+  }
+
+  /**
+   * Deletes the applications whose results were not completely written, so that they can be
+   * analyzed again. Applications which are being written by other processes are not visible
+   * until their transaction is committed, at which point they are complete.
+   *
+   * @return The number of deleted applications.
+   */
+  public static int deleteIncompleteApplications() {
+    int count = 0;
+    try {
+      for (int incompleteId : applicationTable.findIncomplete()) {
+        Table.beginTransaction();
+        applicationTable.delete(incompleteId);
+        Table.commitTransaction();
+        ++count;
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+      Table.rollbackTransaction();
+    }
+    return count;
+  }
+
   public static Map<String, Integer> insert(String app, int version,
       List<ManifestComponent> intentFilters, Set<String> usesPermissions,
       Map<String, String> permissions, boolean skipEntryPoints) {
     try {
-      if (appId == Constants.NOT_FOUND) {
-        appId = applicationTable.insert(app, version);
+      if (appId.get() == Constants.NOT_FOUND) {
+        // Results from an earlier analysis of the same application are replaced in the same
+        // transaction, so that analyzing an application again never duplicates its rows.
+        int previousId = applicationTable.find(app, version);
+        if (previousId != Constants.NOT_FOUND) {
+          applicationTable.delete(previousId);
+        }
+        appId.set(applicationTable.forceInsert(app, version));
       }
       if (usesPermissions != null && !insertUsesPermissions(usesPermissions)) {
         return null;
@@ -100,9 +331,11 @@ public class SQLConnection {
       return true;
     }
     Set<Integer> permissionIds = permissionStringTable.batchInsert(usesPermissions, null);
+    Set<Pair<Integer, Integer>> rows = new HashSet<>();
     for (int permissionId : permissionIds) {
-      usesPermissionTable.insert(appId, permissionId);
+      rows.add(new Pair<Integer, Integer>(appId.get(), permissionId));
     }
+    usesPermissionTable.batchInsert(rows);
     return true;
   }
 
@@ -129,7 +362,7 @@ public class SQLConnection {
 
   public static Map<String, Integer> insertIntentFilters(List<ManifestComponent> components)
       throws SQLException {
-    if (appId == Constants.NOT_FOUND) {
+    if (appId.get() == Constants.NOT_FOUND) {
       throw new RuntimeException("appId has not been set");
     }
 
@@ -169,7 +402,9 @@ public class SQLConnection {
           // continue;
           // }
 
-          int filterId = intentFilterTable.forceInsert(componentId, intentFilter.isAlias());
+          int filterId =
+              intentFilterTable.forceInsert(componentId, intentFilter.isAlias(),
+                  intentFilter.isDataTruncated());
           // System.out.println("Inserting actions " + actionIds);
           filterActionTable.batchForceInsert(filterId, actionIds);
           // for (int actionId : actionIds) {
@@ -181,6 +416,9 @@ public class SQLConnection {
           // }
 
           insertFilterData(filterId, intentFilter);
+          if (component.isExported()) {
+            ComponentIndex.v().addComponent(componentId, actionIds, categoryIds);
+          }
         }
       }
     }
@@ -233,7 +471,7 @@ public class SQLConnection {
           }
         }
 
-        filterDataTable.insert(filterId, manifestData.getScheme(), manifestData.getHost(),
+        filterDataTable.queueInsert(filterId, manifestData.getScheme(), manifestData.getHost(),
             manifestData.getPort(), manifestData.getPath(), type, subtype);
       }
     }
@@ -363,19 +601,30 @@ public class SQLConnection {
   }
 
   protected static int insertClass(String clazz) throws SQLException {
-    return classTable.insert(appId, clazz);
+    return classTable.insert(appId.get(), clazz);
   }
 
   protected static boolean insertIntentPermission(int exitPointId, String intentPermission)
       throws SQLException {
     int permissionId = permissionStringTable.insert(intentPermission);
-    intentPermissionTable.insert(exitPointId, permissionId);
+    if (spool != null) {
+      spool.addRow(SpoolTable.INTENT_PERMISSIONS, exitPointId, permissionId);
+    } else {
+      intentPermissionTable.queueInsert(exitPointId, permissionId);
+    }
     return true;
   }
 
   protected static int insertExitPoint(String className, String method, int instruction,
       String exit_kind, Integer missingIntentFilters) throws SQLException {
     int classId = insertClass(className);
+    if (spool != null) {
+      if (method.length() > 512) {
+        method = method.substring(0, 512);
+      }
+      return spool.addRow(SpoolTable.EXIT_POINTS, classId, method, instruction, exit_kind,
+          missingIntentFilters);
+    }
     return exitPointTable.insert(classId, method, instruction, exit_kind, missingIntentFilters);
   }
 }
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spool files which stage the exit point and intent rows of applications, so that they can be
+ * bulk loaded into the database later (see {@link SpoolLoader}) instead of being inserted one
+ * statement at a time.
+ *
+ * A spool directory contains one segment per writer. A writer locks the first segment which is not
+ * in use, so concurrent analyses never share a segment. Each segment contains one tab-separated
+ * file per {@link SpoolTable}, in the format of MySQL's LOAD DATA, and a commit log. Row
+ * identifiers are allocated by the segment, starting from 1, and are shifted by the loader to a
+ * range of identifiers which is free in the database.
+ *
+ * The rows of an application are kept in memory until the application is committed. They are then
+ * appended to the table files, followed by a commit record with the new file lengths and the last
+ * allocated identifiers. Anything after the last commit record, such as the rows of an analysis
+ * which was killed while committing, is discarded when the segment is opened again.
+ */
+public class Spool implements Closeable {
+  private static final String LOCK_FILE = "lock";
+  private static final String COMMIT_LOG = "commits.tsv";
+  private static final String TABLE_SUFFIX = ".tsv";
+  private static final String NULL_VALUE = "\\N";
+  private static final String NO_FINGERPRINT = "-";
+
+  private final File directory;
+  private final RandomAccessFile lockFile;
+  private final FileLock lock;
+  private final List<Commit> commits = new ArrayList<>();
+  private final long[] committedLengths = new long[SpoolTable.values().length];
+  private final int[] committedIds = new int[SpoolTable.values().length];
+  private final int[] lastIds = new int[SpoolTable.values().length];
+  private final StringBuilder[] buffers = new StringBuilder[SpoolTable.values().length];
+
+  /**
+   * The state of a segment after an application was committed.
+   */
+  public static class Commit {
+    private final int appId;
+    private final String fingerprint;
+    private final long[] lengths;
+    private final int[] lastIds;
+
+    Commit(int appId, String fingerprint, long[] lengths, int[] lastIds) {
+      this.appId = appId;
+      this.fingerprint = fingerprint;
+      this.lengths = lengths;
+      this.lastIds = lastIds;
+    }
+
+    public int getAppId() {
+      return appId;
+    }
+
+    /**
+     * Returns the fingerprint of the analysis of the application.
+     *
+     * @return The fingerprint digest, or null.
+     */
+    public String getFingerprint() {
+      return fingerprint;
+    }
+
+    /**
+     * Returns the last row identifier allocated in a table when the application was committed.
+     * The rows of the application are the ones after the last identifier of the previous commit.
+     *
+     * @param table The table.
+     * @return The last identifier, or 0 if no rows were allocated.
+     */
+    public int getLastId(SpoolTable table) {
+      return lastIds[table.ordinal()];
+    }
+
+    private String toLine() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(appId).append('\t').append(fingerprint == null ? NO_FINGERPRINT : fingerprint);
+      for (int i = 0; i < lengths.length; ++i) {
+        builder.append('\t').append(lengths[i]).append('\t').append(lastIds[i]);
+      }
+      return builder.append('\n').toString();
+    }
+
+    private static Commit parse(String line) {
+      String[] fields = line.split("\t");
+      int tableCount = SpoolTable.values().length;
+      if (fields.length != 2 + 2 * tableCount) {
+        return null;
+      }
+      long[] lengths = new long[tableCount];
+      int[] lastIds = new int[tableCount];
+      try {
+        for (int i = 0; i < tableCount; ++i) {
+          lengths[i] = Long.parseLong(fields[2 + 2 * i]);
+          lastIds[i] = Integer.parseInt(fields[3 + 2 * i]);
+        }
+        return new Commit(Integer.parseInt(fields[0]),
+            NO_FINGERPRINT.equals(fields[1]) ? null : fields[1], lengths, lastIds);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+
+  private Spool(File directory, RandomAccessFile lockFile, FileLock lock) throws IOException {
+    this.directory = directory;
+    this.lockFile = lockFile;
+    this.lock = lock;
+    recover();
+  }
+
+  /**
+   * Opens the first segment of a spool directory which is not used by another writer.
+   *
+   * @param root The spool directory.
+   * @return The spool segment.
+   * @throws IOException if no segment can be opened.
+   */
+  public static Spool open(String root) throws IOException {
+    for (int segment = 0;; ++segment) {
+      File directory = new File(root, Integer.toString(segment));
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Could not create spool segment " + directory);
+      }
+      Spool spool = tryOpen(directory);
+      if (spool != null) {
+        return spool;
+      }
+    }
+  }
+
+  /**
+   * Opens a spool segment, unless it is used by another writer or loader.
+   *
+   * @param directory The segment directory.
+   * @return The spool segment, or null if the segment is in use.
+   * @throws IOException if the segment cannot be opened.
+   */
+  static Spool tryOpen(File directory) throws IOException {
+    RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    FileLock lock;
+    try {
+      lock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Another spool of this JVM holds the segment.
+      lock = null;
+    }
+    if (lock == null) {
+      lockFile.close();
+      return null;
+    }
+    return new Spool(directory, lockFile, lock);
+  }
+
+  /**
+   * Gets the spool segments of a spool directory.
+   *
+   * @param root The spool directory.
+   * @return The segment directories.
+   */
+  static List<File> getSegments(String root) {
+    File[] files = new File(root).listFiles();
+    if (files == null) {
+      return Collections.emptyList();
+    }
+    List<File> segments = new ArrayList<>();
+    for (File file : files) {
+      if (file.isDirectory()) {
+        segments.add(file);
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Gets the file which contains the committed rows of a table.
+   *
+   * @param table The table.
+   * @return The table file.
+   */
+  public File getTableFile(SpoolTable table) {
+    return new File(directory, table.getTableName() + TABLE_SUFFIX);
+  }
+
+  /**
+   * Returns the applications committed to the segment, in commit order.
+   *
+   * @return The commits.
+   */
+  public synchronized List<Commit> getCommits() {
+    return Collections.unmodifiableList(new ArrayList<>(commits));
+  }
+
+  /**
+   * Adds a row of the current application. The values are given in the order of
+   * {@link SpoolTable#getColumns()}.
+   *
+   * @param table The table.
+   * @param values The column values, which may be null.
+   * @return The identifier allocated to the row.
+   */
+  public synchronized int addRow(SpoolTable table, Object... values) {
+    int index = table.ordinal();
+    int id = ++lastIds[index];
+    if (buffers[index] == null) {
+      buffers[index] = new StringBuilder();
+    }
+    StringBuilder buffer = buffers[index].append(id);
+    for (Object value : values) {
+      buffer.append('\t');
+      if (value == null) {
+        buffer.append(NULL_VALUE);
+      } else if (value instanceof Boolean) {
+        buffer.append((Boolean) value ? '1' : '0');
+      } else {
+        escape(value.toString(), buffer);
+      }
+    }
+    buffer.append('\n');
+    return id;
+  }
+
+  /**
+   * Writes the rows of the current application to the table files and commits them.
+   *
+   * @param appId The identifier of the application in the database.
+   * @param fingerprint The fingerprint of the analysis, or null.
+   * @throws IOException if the rows cannot be written. The rows of the application are then
+   *           discarded.
+   */
+  public synchronized void commit(int appId, String fingerprint) throws IOException {
+    try {
+      long[] lengths = Arrays.copyOf(committedLengths, committedLengths.length);
+      for (SpoolTable table : SpoolTable.values()) {
+        StringBuilder buffer = buffers[table.ordinal()];
+        if (buffer != null && buffer.length() > 0) {
+          lengths[table.ordinal()] =
+              write(getTableFile(table), committedLengths[table.ordinal()], buffer.toString());
+        }
+      }
+      Commit commit = new Commit(appId, fingerprint, lengths, Arrays.copyOf(lastIds,
+          lastIds.length));
+      File commitLog = new File(directory, COMMIT_LOG);
+      write(commitLog, commitLog.length(), commit.toLine());
+
+      commits.add(commit);
+      System.arraycopy(lengths, 0, committedLengths, 0, lengths.length);
+      System.arraycopy(lastIds, 0, committedIds, 0, lastIds.length);
+    } finally {
+      clearBuffers();
+    }
+  }
+
+  /**
+   * Discards the rows of the current application.
+   */
+  public synchronized void rollback() {
+    clearBuffers();
+  }
+
+  /**
+   * Empties the segment once its rows are loaded.
+   *
+   * @throws IOException if the files cannot be truncated.
+   */
+  synchronized void clear() throws IOException {
+    // The commit log is emptied first, so that a partially cleared segment is empty.
+    truncate(new File(directory, COMMIT_LOG), 0);
+    for (SpoolTable table : SpoolTable.values()) {
+      truncate(getTableFile(table), 0);
+    }
+    commits.clear();
+    Arrays.fill(committedLengths, 0);
+    Arrays.fill(committedIds, 0);
+    clearBuffers();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    clearBuffers();
+    lock.release();
+    lockFile.close();
+  }
+
+  /**
+   * Parses a line of a table file.
+   *
+   * @param line The line, without the line terminator.
+   * @return The values of the line, where null values are null.
+   */
+  static String[] parseLine(String line) {
+    String[] fields = line.split("\t", -1);
+    for (int i = 0; i < fields.length; ++i) {
+      fields[i] = NULL_VALUE.equals(fields[i]) ? null : unescape(fields[i]);
+    }
+    return fields;
+  }
+
+  /**
+   * Reads the commit log and discards everything which was written after the last commit.
+   */
+  private void recover() throws IOException {
+    File commitLog = new File(directory, COMMIT_LOG);
+    long validLength = 0;
+    if (commitLog.exists()) {
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(new FileInputStream(commitLog),
+              StandardCharsets.UTF_8))) {
+        long length = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+          // All characters of the log are ASCII.
+          length += line.length() + 1;
+          Commit commit = Commit.parse(line);
+          if (commit == null || length > commitLog.length()) {
+            break;
+          }
+          commits.add(commit);
+          validLength = length;
+        }
+      }
+    }
+    truncate(commitLog, validLength);
+
+    if (!commits.isEmpty()) {
+      Commit lastCommit = commits.get(commits.size() - 1);
+      System.arraycopy(lastCommit.lengths, 0, committedLengths, 0, committedLengths.length);
+      System.arraycopy(lastCommit.lastIds, 0, committedIds, 0, committedIds.length);
+    }
+    for (SpoolTable table : SpoolTable.values()) {
+      truncate(getTableFile(table), committedLengths[table.ordinal()]);
+    }
+    clearBuffers();
+  }
+
+  private void clearBuffers() {
+    System.arraycopy(committedIds, 0, lastIds, 0, lastIds.length);
+    Arrays.fill(buffers, null);
+  }
+
+  /**
+   * Writes data at a position of a file and forces it to the disk. Anything after the position,
+   * such as rows which were written but not committed, is overwritten.
+   *
+   * @return The new length of the file.
+   */
+  private static long write(File file, long position, String data) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      channel.truncate(position);
+      ByteBuffer bytes = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+      while (bytes.hasRemaining()) {
+        channel.write(bytes, position + bytes.position());
+      }
+      channel.force(false);
+      return channel.size();
+    }
+  }
+
+  private static void truncate(File file, long length) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.getChannel().truncate(length);
+    }
+  }
+
+  private static void escape(String value, StringBuilder builder) {
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\0':
+          builder.append("\\0");
+          break;
+        default:
+          builder.append(c);
+      }
+    }
+  }
+
+  private static String unescape(String value) {
+    if (value.indexOf('\\') < 0) {
+      return value;
+    }
+    StringBuilder builder = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      if (c == '\\' && i + 1 < value.length()) {
+        char escaped = value.charAt(++i);
+        switch (escaped) {
+          case 't':
+            builder.append('\t');
+            break;
+          case 'n':
+            builder.append('\n');
+            break;
+          case 'r':
+            builder.append('\r');
+            break;
+          case '0':
+            builder.append('\0');
+            break;
+          default:
+            builder.append(escaped);
+        }
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+}
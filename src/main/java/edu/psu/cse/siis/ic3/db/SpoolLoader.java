@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the rows staged in a spool directory (see {@link Spool}) into the database.
+ *
+ * Each segment is loaded in a single transaction. The identifiers allocated by the segment are
+ * shifted past the largest identifier of each table, which reserves a range of identifiers for the
+ * segment. Rows are then loaded with LOAD DATA LOCAL INFILE, or with batched inserts on embedded
+ * databases, and the foreign keys of the loaded rows are validated before the applications are
+ * marked as complete. Since the ranges are computed from the current contents of the tables, no
+ * other process should write exit points while spools are loaded.
+ *
+ * The rows of an application are skipped if the application is not in the database anymore or if
+ * it is already complete, for example because it was analyzed again or because the segment was
+ * already loaded when the loader was interrupted.
+ */
+public class SpoolLoader extends SQLConnection {
+  private static final String MAX_ID = "SELECT MAX(id) FROM %s";
+  private static final String FIND_INCOMPLETE =
+      "SELECT id FROM Applications WHERE complete = ? AND id IN (?";
+  private static final String DELETE_RANGE = "DELETE FROM %s WHERE id > ? AND id <= ?";
+  private static final String COUNT_MISSING_REFERENCES = "SELECT COUNT(*) FROM %1$s "
+      + "LEFT JOIN %3$s ON %1$s.%2$s = %3$s.id WHERE %1$s.id > ? AND %1$s.id <= ? "
+      + "AND %1$s.%2$s IS NOT NULL AND %3$s.id IS NULL";
+  private static final String LOAD_DATA = "LOAD DATA LOCAL INFILE '%s' INTO TABLE %s "
+      + "CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' "
+      + "LINES TERMINATED BY '\\n' (%s) SET %s";
+  private static final int FIND_CHUNK_SIZE = 512;
+  private static final int BATCH_SIZE = 1024;
+
+  private static final Logger logger = LoggerFactory.getLogger(SpoolLoader.class);
+
+  private final String root;
+
+  /**
+   * Constructor.
+   *
+   * @param root The spool directory.
+   */
+  public SpoolLoader(String root) {
+    this.root = root;
+  }
+
+  /**
+   * Loads all spool segments which are not in use by a writer. Loaded segments are emptied.
+   *
+   * @return The number of loaded applications.
+   * @throws SQLException if a segment cannot be loaded. Its transaction is then rolled back.
+   * @throws IOException if a segment cannot be read.
+   */
+  public int load() throws SQLException, IOException {
+    int applicationCount = 0;
+    for (File directory : Spool.getSegments(root)) {
+      Spool spool = Spool.tryOpen(directory);
+      if (spool == null) {
+        logger.info("Skipping spool segment " + directory + ", which is in use");
+        continue;
+      }
+      try {
+        applicationCount += loadSegment(spool);
+      } finally {
+        spool.close();
+      }
+    }
+    return applicationCount;
+  }
+
+  private int loadSegment(Spool spool) throws SQLException, IOException {
+    List<Spool.Commit> commits = spool.getCommits();
+    if (commits.isEmpty()) {
+      return 0;
+    }
+    long startTime = System.currentTimeMillis();
+    Set<Spool.Commit> loadedCommits = findLoadedCommits(commits);
+    List<List<int[]>> skippedRanges = findSkippedRanges(commits, loadedCommits);
+
+    Connection connection = Table.getConnection();
+    Table.beginTransaction();
+    try {
+      executeAll(connection, Table.getDialect().getBeginBulkLoadStatements());
+      if (!loadedCommits.isEmpty()) {
+        int[] offsets = new int[SpoolTable.values().length];
+        for (SpoolTable table : SpoolTable.values()) {
+          offsets[table.ordinal()] = findMaxId(table);
+        }
+        Spool.Commit lastCommit = commits.get(commits.size() - 1);
+        for (SpoolTable table : SpoolTable.values()) {
+          if (lastCommit.getLastId(table) == 0) {
+            continue;
+          }
+          if (Table.getDialect().supportsLoadData()) {
+            loadData(connection, spool.getTableFile(table), table, offsets);
+          } else {
+            insertRows(connection, spool.getTableFile(table), table, offsets,
+                skippedRanges.get(table.ordinal()));
+          }
+        }
+        if (Table.getDialect().supportsLoadData()) {
+          deleteSkippedRows(skippedRanges, offsets);
+        }
+        for (SpoolTable table : SpoolTable.values()) {
+          validateReferences(table, offsets[table.ordinal()],
+              offsets[table.ordinal()] + lastCommit.getLastId(table));
+        }
+        for (Spool.Commit commit : loadedCommits) {
+          applicationTable.setComplete(commit.getAppId());
+          if (commit.getFingerprint() != null) {
+            applicationTable.setFingerprint(commit.getAppId(), commit.getFingerprint());
+          }
+        }
+      }
+      Table.commitTransaction();
+    } catch (SQLException | IOException | RuntimeException e) {
+      Table.rollbackTransaction();
+      throw e;
+    } finally {
+      executeAll(connection, Table.getDialect().getEndBulkLoadStatements());
+    }
+    spool.clear();
+
+    if (logger.isInfoEnabled()) {
+      logger.info("Loaded " + loadedCommits.size() + " of " + commits.size()
+          + " applications from spool segment " + spool.getDirectory() + " in "
+          + (System.currentTimeMillis() - startTime) + " ms");
+    }
+    return loadedCommits.size();
+  }
+
+  /**
+   * Finds the commits whose rows should be loaded. These are the commits of applications which
+   * are in the database and not complete yet. If an application was committed several times, only
+   * its last commit is loaded, since analyzing it again replaced its earlier rows.
+   */
+  private Set<Spool.Commit> findLoadedCommits(List<Spool.Commit> commits) throws SQLException {
+    Set<Integer> incompleteAppIds = new HashSet<>();
+    for (int start = 0; start < commits.size(); start += FIND_CHUNK_SIZE) {
+      List<Spool.Commit> chunk = commits.subList(start, Math.min(start + FIND_CHUNK_SIZE,
+          commits.size()));
+      StringBuilder queryBuilder = new StringBuilder(FIND_INCOMPLETE);
+      for (int i = 1; i < chunk.size(); ++i) {
+        queryBuilder.append(", ?");
+      }
+      PreparedStatement findStatement = Table.prepareStatement(queryBuilder.append(")").toString());
+      findStatement.setBoolean(1, false);
+      int parameterIndex = 2;
+      for (Spool.Commit commit : chunk) {
+        findStatement.setInt(parameterIndex++, commit.getAppId());
+      }
+      ResultSet resultSet = findStatement.executeQuery();
+      while (resultSet.next()) {
+        incompleteAppIds.add(resultSet.getInt("id"));
+      }
+      resultSet.close();
+    }
+
+    Set<Spool.Commit> result = new HashSet<>();
+    for (int i = commits.size() - 1; i >= 0; --i) {
+      // Removing the application makes its earlier commits skipped.
+      if (incompleteAppIds.remove(commits.get(i).getAppId())) {
+        result.add(commits.get(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Finds the identifiers of the rows which should not be loaded, for each table. The rows of an
+   * application are the rows allocated between its commit and the previous one.
+   *
+   * @return For each table, a list of (first excluded, last included) identifier ranges.
+   */
+  private List<List<int[]>> findSkippedRanges(List<Spool.Commit> commits,
+      Set<Spool.Commit> loadedCommits) {
+    List<List<int[]>> result = new ArrayList<>();
+    for (SpoolTable table : SpoolTable.values()) {
+      List<int[]> ranges = new ArrayList<>();
+      Spool.Commit previousCommit = null;
+      for (Spool.Commit commit : commits) {
+        int firstId = previousCommit == null ? 0 : previousCommit.getLastId(table);
+        int lastId = commit.getLastId(table);
+        if (!loadedCommits.contains(commit) && lastId > firstId) {
+          ranges.add(new int[] { firstId, lastId });
+        }
+        previousCommit = commit;
+      }
+      result.add(ranges);
+    }
+    return result;
+  }
+
+  private int findMaxId(SpoolTable table) throws SQLException {
+    PreparedStatement maxStatement =
+        Table.prepareStatement(String.format(MAX_ID, table.getTableName()));
+    ResultSet resultSet = maxStatement.executeQuery();
+    int maxId = resultSet.next() ? resultSet.getInt(1) : 0;
+    resultSet.close();
+    return maxId;
+  }
+
+  private void loadData(Connection connection, File file, SpoolTable table, int[] offsets)
+      throws SQLException {
+    StringBuilder variables = new StringBuilder("@id");
+    StringBuilder assignments =
+        new StringBuilder("id = @id + ").append(offsets[table.ordinal()]);
+    for (SpoolTable.Column column : table.getColumns()) {
+      variables.append(", @").append(column.getName());
+      assignments.append(", `").append(column.getName()).append("` = @").append(column.getName());
+      SpoolTable referencedTable = column.getReferencedSpoolTable();
+      if (referencedTable != null) {
+        assignments.append(" + ").append(offsets[referencedTable.ordinal()]);
+      }
+    }
+    String path = file.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'");
+    try (Statement statement = connection.createStatement()) {
+      Table.countWrittenRows(statement.executeUpdate(String.format(LOAD_DATA, path,
+          table.getTableName(), variables, assignments)));
+    }
+  }
+
+  private void insertRows(Connection connection, File file, SpoolTable table, int[] offsets,
+      List<int[]> skippedRanges) throws SQLException, IOException {
+    SpoolTable.Column[] columns = table.getColumns();
+    StringBuilder columnNames = new StringBuilder("id");
+    StringBuilder placeholders = new StringBuilder("?");
+    for (SpoolTable.Column column : columns) {
+      columnNames.append(", ").append(column.getName());
+      placeholders.append(", ?");
+    }
+    String sql =
+        String.format("INSERT INTO %s (%s) VALUES (%s)", table.getTableName(), columnNames,
+            placeholders);
+
+    try (PreparedStatement insertStatement = connection.prepareStatement(sql);
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+      int batchRows = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] values = Spool.parseLine(line);
+        int id = Integer.parseInt(values[0]);
+        if (isInRanges(id, skippedRanges)) {
+          continue;
+        }
+        insertStatement.setInt(1, id + offsets[table.ordinal()]);
+        for (int i = 0; i < columns.length; ++i) {
+          setValue(insertStatement, i + 2, columns[i], values[i + 1], offsets);
+        }
+        insertStatement.addBatch();
+        if (++batchRows == BATCH_SIZE) {
+          insertStatement.executeBatch();
+          Table.countWrittenRows(batchRows);
+          batchRows = 0;
+        }
+      }
+      if (batchRows > 0) {
+        insertStatement.executeBatch();
+        Table.countWrittenRows(batchRows);
+      }
+    }
+  }
+
+  private void setValue(PreparedStatement statement, int parameterIndex,
+      SpoolTable.Column column, String value, int[] offsets) throws SQLException {
+    switch (column.getType()) {
+      case INTEGER:
+        if (value == null) {
+          statement.setNull(parameterIndex, Types.INTEGER);
+        } else {
+          SpoolTable referencedTable = column.getReferencedSpoolTable();
+          int offset = referencedTable == null ? 0 : offsets[referencedTable.ordinal()];
+          statement.setInt(parameterIndex, Integer.parseInt(value) + offset);
+        }
+        break;
+      case BOOLEAN:
+        statement.setBoolean(parameterIndex, "1".equals(value));
+        break;
+      default:
+        if (value == null) {
+          statement.setNull(parameterIndex, Types.VARCHAR);
+        } else {
+          statement.setString(parameterIndex, value);
+        }
+    }
+  }
+
+  /**
+   * Deletes the rows which should not have been loaded. Rows which refer to other rows are deleted
+   * first.
+   */
+  private void deleteSkippedRows(List<List<int[]>> skippedRanges, int[] offsets)
+      throws SQLException {
+    SpoolTable[] tables = SpoolTable.values();
+    for (int i = tables.length - 1; i >= 0; --i) {
+      for (int[] range : skippedRanges.get(i)) {
+        PreparedStatement deleteStatement =
+            Table.prepareStatement(String.format(DELETE_RANGE, tables[i].getTableName()));
+        deleteStatement.setInt(1, range[0] + offsets[i]);
+        deleteStatement.setInt(2, range[1] + offsets[i]);
+        deleteStatement.executeUpdate();
+      }
+    }
+  }
+
+  /**
+   * Checks that the foreign keys of the loaded rows of a table refer to existing rows.
+   */
+  private void validateReferences(SpoolTable table, int firstId, int lastId) throws SQLException {
+    if (lastId <= firstId) {
+      return;
+    }
+    for (SpoolTable.Column column : table.getColumns()) {
+      if (column.getReferencedTable() == null) {
+        continue;
+      }
+      PreparedStatement countStatement =
+          Table.prepareStatement(String.format(COUNT_MISSING_REFERENCES, table.getTableName(),
+              column.getName(), column.getReferencedTable()));
+      countStatement.setInt(1, firstId);
+      countStatement.setInt(2, lastId);
+      ResultSet resultSet = countStatement.executeQuery();
+      int missing = resultSet.next() ? resultSet.getInt(1) : 0;
+      resultSet.close();
+      if (missing > 0) {
+        throw new SQLException(missing + " spooled rows of " + table.getTableName() + " refer to "
+            + "missing rows of " + column.getReferencedTable() + " through " + column.getName());
+      }
+    }
+  }
+
+  private static boolean isInRanges(int id, List<int[]> ranges) {
+    for (int[] range : ranges) {
+      if (id > range[0] && id <= range[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void executeAll(Connection connection, String[] statements) throws SQLException {
+    if (statements.length == 0) {
+      return;
+    }
+    try (Statement statement = connection.createStatement()) {
+      for (String sql : statements) {
+        statement.execute(sql);
+      }
+    }
+  }
+}
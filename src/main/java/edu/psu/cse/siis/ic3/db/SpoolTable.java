@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+/**
+ * The tables whose rows can be written to spool files instead of the database (see
+ * {@link Spool}). These are the tables of exit points and intents, which make up most of the rows
+ * of an application. Tables are listed in dependency order: a table only refers to tables which
+ * are listed before it.
+ */
+public enum SpoolTable {
+  URI_DATA("UriData", text("scheme"), text("ssp"), text("uri"), text("path"), text("query"),
+      text("authority")),
+  EXIT_POINTS("ExitPoints", reference("class_id", "Classes"), text("method"),
+      integer("instruction"), text("exit_kind"), integer("missing")),
+  EXIT_POINT_COMPONENTS("ExitPointComponents", reference("exit_id", "ExitPoints"), reference(
+      "component_id", "Components")),
+  INTENT_PERMISSIONS("IntentPermissions", reference("exit_id", "ExitPoints"), reference(
+      "i_permission", "PermissionStrings")),
+  INTENTS("Intents", reference("exit_id", "ExitPoints"), bool("implicit"), bool("alias")),
+  INTENT_ACTIONS("IActions", reference("intent_id", "Intents"), reference("action",
+      "ActionStrings")),
+  INTENT_CATEGORIES("ICategories", reference("intent_id", "Intents"), reference("category",
+      "CategoryStrings")),
+  INTENT_MIME_TYPES("IMimeTypes", reference("intent_id", "Intents"), text("type"),
+      text("subtype")),
+  INTENT_EXTRAS("IExtras", reference("intent_id", "Intents"), text("extra")),
+  INTENT_PACKAGES("IPackages", reference("intent_id", "Intents"), text("package")),
+  INTENT_CLASSES("IClasses", reference("intent_id", "Intents"), text("class")),
+  INTENT_DATA("IData", reference("intent_id", "Intents"), reference("data", "UriData")),
+  URIS("Uris", reference("exit_id", "ExitPoints"), reference("data", "UriData")),
+  COMPONENT_EXTRAS("ComponentExtras", reference("component_id", "Components"), text("extra"));
+
+  /**
+   * The type of the values of a column.
+   */
+  public enum Type {
+    INTEGER, BOOLEAN, TEXT
+  }
+
+  /**
+   * A column of a spooled table, other than the identifier.
+   */
+  public static class Column {
+    private final String name;
+    private final Type type;
+    private final String referencedTable;
+
+    Column(String name, Type type, String referencedTable) {
+      this.name = name;
+      this.type = type;
+      this.referencedTable = referencedTable;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    /**
+     * Returns the table whose identifiers the column contains.
+     *
+     * @return The referenced table, or null if the column is not a foreign key.
+     */
+    public String getReferencedTable() {
+      return referencedTable;
+    }
+
+    /**
+     * Returns the spooled table whose identifiers the column contains. These identifiers are
+     * allocated by the spool and shifted when the rows are loaded.
+     *
+     * @return The referenced spooled table, or null if the column does not refer to one.
+     */
+    public SpoolTable getReferencedSpoolTable() {
+      return referencedTable == null ? null : forName(referencedTable);
+    }
+  }
+
+  private final String tableName;
+  private final Column[] columns;
+
+  private SpoolTable(String tableName, Column... columns) {
+    this.tableName = tableName;
+    this.columns = columns;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  /**
+   * Returns the columns of the table, in the order in which they appear in the spool files. Each
+   * spooled row starts with its identifier, which is not part of the returned columns.
+   *
+   * @return The columns.
+   */
+  public Column[] getColumns() {
+    return columns;
+  }
+
+  /**
+   * Gets the spooled table with a given name.
+   *
+   * @param tableName The table name.
+   * @return The spooled table, or null if the table is not spooled.
+   */
+  public static SpoolTable forName(String tableName) {
+    for (SpoolTable table : values()) {
+      if (table.tableName.equals(tableName)) {
+        return table;
+      }
+    }
+    return null;
+  }
+
+  private static Column integer(String name) {
+    return new Column(name, Type.INTEGER, null);
+  }
+
+  private static Column bool(String name) {
+    return new Column(name, Type.BOOLEAN, null);
+  }
+
+  private static Column text(String name) {
+    return new Column(name, Type.TEXT, null);
+  }
+
+  private static Column reference(String name, String referencedTable) {
+    return new Column(name, Type.INTEGER, referencedTable);
+  }
+}
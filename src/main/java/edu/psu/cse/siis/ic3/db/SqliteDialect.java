@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The SQLite dialect. The database is a single file, which is created along with the schema if it
+ * does not exist. SQLite only allows one writer at a time, so a single connection is used.
+ */
+public class SqliteDialect extends Dialect {
+  private static final String[] CONNECTION_STATEMENTS = new String[] {
+      "PRAGMA journal_mode = WAL", "PRAGMA synchronous = NORMAL", "PRAGMA foreign_keys = ON",
+      "PRAGMA temp_store = MEMORY", "PRAGMA cache_size = -65536",
+      // Batch workers share the database file.
+      "PRAGMA busy_timeout = 600000" };
+
+  @Override
+  protected String getDriverClassName() {
+    return "org.sqlite.JDBC";
+  }
+
+  @Override
+  public int getMaxConnections() {
+    return 1;
+  }
+
+  @Override
+  public boolean supportsMultiRowGeneratedKeys() {
+    // Only the identifier of the last row is returned.
+    return false;
+  }
+
+  @Override
+  public String makeInsertIgnore(String table, String[] columns, String[] keyColumns) {
+    return String.format("INSERT OR IGNORE INTO %s (%s) VALUES (%s)", table, join(columns),
+        makePlaceholders(columns.length));
+  }
+
+  @Override
+  public String makeStringUpsert(String table) {
+    return makeInsertIgnore(table, new String[] { "st" }, new String[] { "st" });
+  }
+
+  @Override
+  public boolean stringUpsertReturnsId() {
+    return false;
+  }
+
+  @Override
+  public boolean isDuplicateKey(SQLException exception) {
+    // The driver does not set the SQL state.
+    return super.isDuplicateKey(exception)
+        || (exception.getMessage() != null && exception.getMessage().contains("UNIQUE"));
+  }
+
+  @Override
+  public boolean supportsLoadData() {
+    return false;
+  }
+
+  @Override
+  protected String[] getBeginBulkLoadStatements() {
+    // Foreign keys cannot be disabled in a transaction, so they are checked as rows are loaded.
+    return new String[0];
+  }
+
+  @Override
+  protected String[] getEndBulkLoadStatements() {
+    return new String[0];
+  }
+
+  @Override
+  protected String getSchemaResource() {
+    return "/db/schema-embedded";
+  }
+
+  @Override
+  protected String getAutoIdDefinition() {
+    return "INTEGER PRIMARY KEY";
+  }
+
+  @Override
+  protected String[] getConnectionStatements() {
+    return CONNECTION_STATEMENTS;
+  }
+
+  @Override
+  PreparedStatement prepareStatement(Connection connection, String sql, String[] generatedColumns)
+      throws SQLException {
+    return connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+  }
+}
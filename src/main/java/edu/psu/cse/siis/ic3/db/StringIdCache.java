@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the identifiers of the strings in a string table. The least recently used
+ * strings are evicted first. Identifiers of strings inserted in the current transaction are only
+ * visible to the thread which inserted them until the transaction is committed, since other
+ * writers must not refer to them before that.
+ */
+class StringIdCache {
+  private final Map<String, Integer> ids;
+  // Transactions are bound to threads.
+  private final ThreadLocal<Map<String, Integer>> uncommitted =
+      new ThreadLocal<Map<String, Integer>>() {
+        @Override
+        protected Map<String, Integer> initialValue() {
+          return new HashMap<>();
+        }
+      };
+
+  StringIdCache(final int capacity) {
+    ids = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Gets the identifier of a string.
+   *
+   * @param string The string.
+   * @return The identifier, or null if the string is not in the cache.
+   */
+  Integer get(String string) {
+    Integer id = uncommitted.get().get(string);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      return ids.get(string);
+    }
+  }
+
+  /**
+   * Adds the identifier of a string which is already committed to the database.
+   *
+   * @param string The string.
+   * @param id The string identifier.
+   */
+  synchronized void put(String string, int id) {
+    ids.put(string, id);
+  }
+
+  /**
+   * Adds the identifier of a string which was inserted in the current transaction. The
+   * identifier is only visible to the current thread until {@link #commit()} is called.
+   *
+   * @param string The string.
+   * @param id The string identifier.
+   */
+  void putUncommitted(String string, int id) {
+    uncommitted.get().put(string, id);
+  }
+
+  /**
+   * Publishes the strings inserted in the current transaction to all threads.
+   */
+  void commit() {
+    Map<String, Integer> committed = uncommitted.get();
+    if (committed.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      ids.putAll(committed);
+    }
+    committed.clear();
+  }
+
+  /**
+   * Forgets the strings inserted in the current transaction.
+   */
+  void rollback() {
+    uncommitted.get().clear();
+  }
+
+  /**
+   * Forgets all the strings, including the ones inserted in the current transaction.
+   */
+  synchronized void clear() {
+    ids.clear();
+    uncommitted.get().clear();
+  }
+
+  /**
+   * Returns the number of cached strings.
+   *
+   * @return The number of cached strings.
+   */
+  synchronized int size() {
+    return ids.size();
+  }
+}
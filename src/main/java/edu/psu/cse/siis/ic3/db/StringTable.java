@@ -21,8 +21,10 @@ package edu.psu.cse.siis.ic3.db;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,12 +35,68 @@ public class StringTable extends Table {
   private static final String FIND = "SELECT id FROM %s WHERE st = ?";
   private static final String BATCH_INSERT = INSERT;
   private static final String BATCH_FIND = "SELECT id, st FROM %s WHERE st IN (?";
+  // Without usage counts, the lowest identifiers are the strings which were seen first. These
+  // are mostly the common framework actions, categories and permissions.
+  private static final String PRELOAD = "SELECT id, st FROM %s ORDER BY id LIMIT ?";
+  private static final int CACHE_CAPACITY = 16384;
+  private static final int PRELOADED_STRINGS = 4096;
+
+  private static final List<StringTable> instances = new ArrayList<>();
+
+  private final String table;
+  private final String preloadString;
+  private final StringIdCache cache = new StringIdCache(CACHE_CAPACITY);
+  private boolean preloaded = false;
 
   StringTable(String table) {
+    this.table = table;
     insertString = String.format(INSERT, table);
     findString = String.format(FIND, table);
     batchInsertString = String.format(BATCH_INSERT, table);
     batchFindString = String.format(BATCH_FIND, table);
+    preloadString = String.format(PRELOAD, table);
+    synchronized (instances) {
+      instances.add(this);
+    }
+  }
+
+  /**
+   * Marks the strings inserted in the current transaction as committed in all string caches.
+   */
+  static void commitCachedIds() {
+    synchronized (instances) {
+      for (StringTable table : instances) {
+        table.cache.commit();
+      }
+    }
+  }
+
+  /**
+   * Evicts the strings inserted in the current transaction from all string caches, since their
+   * identifiers are no longer valid.
+   */
+  static void rollbackCachedIds() {
+    synchronized (instances) {
+      for (StringTable table : instances) {
+        table.cache.rollback();
+      }
+    }
+  }
+
+  /**
+   * Empties all string caches, for example when switching to another database.
+   */
+  static void clearCachedIds() {
+    synchronized (instances) {
+      for (StringTable table : instances) {
+        table.clearCache();
+      }
+    }
+  }
+
+  private synchronized void clearCache() {
+    cache.clear();
+    preloaded = false;
   }
 
   public Map<String, Integer> batchFind(Set<String> strings) throws SQLException {
@@ -46,26 +104,46 @@ public class StringTable extends Table {
     if (strings == null || strings.size() == 0 || (strings.size() == 1 && strings.contains(null))) {
       return result;
     }
-    StringBuilder queryBuilder = new StringBuilder(batchFindString);
-    for (int i = 1; i < strings.size(); ++i) {
-      queryBuilder.append(", ?");
-    }
-    queryBuilder.append(")");
-
-    PreparedStatement batchFindStatement =
-        getConnection().prepareStatement(queryBuilder.toString());
+    preload();
 
-    int parameterIndex = 1;
+    Set<String> missing = new HashSet<String>();
     for (String string : strings) {
-      if (string == null) {
-        string = Constants.NULL_STRING;
+      String key = string == null ? Constants.NULL_STRING : string;
+      Integer id = cache.get(key);
+      if (id != null) {
+        result.put(key, id);
+      } else {
+        missing.add(key);
       }
-      batchFindStatement.setString(parameterIndex++, string);
+    }
+    if (missing.size() == 0) {
+      return result;
     }
 
-    ResultSet resultSet = batchFindStatement.executeQuery();
-    while (resultSet.next()) {
-      result.put(resultSet.getString("st"), resultSet.getInt("id"));
+    List<String> missingList = new ArrayList<String>(missing);
+    for (int start = 0; start < missingList.size(); start += MAX_PLACEHOLDER_BUCKET) {
+      List<String> chunk =
+          missingList.subList(start, Math.min(start + MAX_PLACEHOLDER_BUCKET, missingList.size()));
+      int placeholders = placeholderBucket(chunk.size());
+      PreparedStatement batchFindStatement = prepareStatement(makeBatchFindQuery(placeholders));
+
+      int parameterIndex = 1;
+      for (String string : chunk) {
+        batchFindStatement.setString(parameterIndex++, string);
+      }
+      // Pad the unused placeholders, which does not change the result.
+      while (parameterIndex <= placeholders) {
+        batchFindStatement.setString(parameterIndex++, chunk.get(0));
+      }
+
+      ResultSet resultSet = batchFindStatement.executeQuery();
+      while (resultSet.next()) {
+        String string = resultSet.getString("st");
+        int id = resultSet.getInt("id");
+        result.put(string, id);
+        cacheId(string, id);
+      }
+      resultSet.close();
     }
     return result;
   }
@@ -91,24 +169,46 @@ public class StringTable extends Table {
       return result;
     }
 
-    StringBuilder queryBuilder = new StringBuilder(batchInsertString);
-    for (int i = 1; i < toBeInserted.size(); ++i) {
-      queryBuilder.append(", (?)");
+    List<String> inserted = new ArrayList<String>(toBeInserted.size());
+    for (String string : toBeInserted) {
+      inserted.add(string == null ? Constants.NULL_STRING : string);
     }
 
-    PreparedStatement batchInsertStatement =
-        getConnection().prepareStatement(queryBuilder.toString(), AUTOGENERATED_ID);
-    int parameterIndex = 1;
-    for (String string : toBeInserted) {
-      if (string == null) {
-        string = Constants.NULL_STRING;
+    int start = 0;
+    for (int chunkSize : insertChunkSizes(inserted.size())) {
+      List<String> chunk = inserted.subList(start, start + chunkSize);
+      start += chunkSize;
+      PreparedStatement batchInsertStatement =
+          prepareStatement(makeBatchInsertQuery(chunkSize), AUTOGENERATED_ID);
+      int parameterIndex = 1;
+      for (String string : chunk) {
+        batchInsertStatement.setString(parameterIndex++, string);
+      }
+      try {
+        countWrittenRows(batchInsertStatement.executeUpdate());
+      } catch (SQLException e) {
+        if (!getDialect().isDuplicateKey(e)) {
+          throw e;
+        }
+        // Another writer inserted some of the strings since they were looked up.
+        for (String string : chunk) {
+          result.add(forceInsert(string));
+        }
+        continue;
+      }
+      ResultSet resultSet = batchInsertStatement.getGeneratedKeys();
+      List<Integer> ids = new ArrayList<Integer>(chunkSize);
+      while (resultSet.next()) {
+        ids.add(resultSet.getInt(1));
+      }
+      resultSet.close();
+      result.addAll(ids);
+      // Generated keys are returned in the order of the inserted rows.
+      if (ids.size() == chunkSize) {
+        for (int i = 0; i < chunkSize; ++i) {
+          cache.putUncommitted(chunk.get(i), ids.get(i));
+        }
       }
-      batchInsertStatement.setString(parameterIndex++, string);
-    }
-    batchInsertStatement.executeUpdate();
-    ResultSet resultSet = batchInsertStatement.getGeneratedKeys();
-    while (resultSet.next()) {
-      result.add(resultSet.getInt(1));
     }
     // System.out.println("TEST3");
     return result;
@@ -125,28 +225,104 @@ public class StringTable extends Table {
     return forceInsert(st);
   }
 
+  /**
+   * Inserts a string without looking it up first. If another writer already inserted the string,
+   * the identifier of the existing row is returned.
+   *
+   * @param st The string.
+   * @return The string identifier.
+   * @throws SQLException if the string cannot be inserted.
+   */
   public int forceInsert(String st) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(insertString);
-    }
+    PreparedStatement insertStatement =
+        prepareStatement(getDialect().makeStringUpsert(table), AUTOGENERATED_ID);
     if (st == null) {
       st = Constants.NULL_STRING;
     }
     insertStatement.setString(1, st);
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
+    int id = executeInsert(insertStatement);
+    if (id == NOT_FOUND || !getDialect().stringUpsertReturnsId()) {
+      // Generated keys are not reliable when the row was not inserted.
+      PreparedStatement findStatement = prepareStatement(findString);
+      findStatement.setString(1, st);
+      id = processIntFindQuery(findStatement);
+    }
+    if (id != NOT_FOUND) {
+      cache.putUncommitted(st, id);
     }
-    return findAutoIncrement();
+    return id;
   }
 
   public int find(String st) throws SQLException {
-    if (findStatement == null || findStatement.isClosed()) {
-      findStatement = getConnection().prepareStatement(findString);
-    }
     if (st == null) {
       st = Constants.NULL_STRING;
     }
+    preload();
+    Integer cachedId = cache.get(st);
+    if (cachedId != null) {
+      return cachedId;
+    }
+
+    PreparedStatement findStatement = prepareStatement(findString);
     findStatement.setString(1, st);
-    return processIntFindQuery(findStatement);
+    int id = processIntFindQuery(findStatement);
+    if (id != NOT_FOUND) {
+      cacheId(st, id);
+    }
+    return id;
+  }
+
+  /**
+   * Loads the identifiers of the most common strings into the cache, the first time the table is
+   * used.
+   *
+   * @throws SQLException if the strings cannot be loaded.
+   */
+  private synchronized void preload() throws SQLException {
+    if (preloaded) {
+      return;
+    }
+    preloaded = true;
+
+    PreparedStatement preloadStatement = prepareStatement(preloadString);
+    preloadStatement.setInt(1, PRELOADED_STRINGS);
+    ResultSet resultSet = preloadStatement.executeQuery();
+    while (resultSet.next()) {
+      cacheId(resultSet.getString("st"), resultSet.getInt("id"));
+    }
+    resultSet.close();
+  }
+
+  /**
+   * Caches the identifier of a string which was read from the database. In a transaction, the
+   * string may have been inserted by the transaction itself, so the identifier is only published
+   * when the transaction is committed.
+   *
+   * @param string The string.
+   * @param id The string identifier.
+   * @throws SQLException if the state of the connection cannot be read.
+   */
+  private void cacheId(String string, int id) throws SQLException {
+    if (inTransaction()) {
+      cache.putUncommitted(string, id);
+    } else {
+      cache.put(string, id);
+    }
+  }
+
+  private String makeBatchFindQuery(int placeholders) {
+    StringBuilder queryBuilder = new StringBuilder(batchFindString);
+    for (int i = 1; i < placeholders; ++i) {
+      queryBuilder.append(", ?");
+    }
+    return queryBuilder.append(")").toString();
+  }
+
+  private String makeBatchInsertQuery(int rows) {
+    StringBuilder queryBuilder = new StringBuilder(batchInsertString);
+    for (int i = 1; i < rows; ++i) {
+      queryBuilder.append(", (?)");
+    }
+    return queryBuilder.toString();
   }
 }
@@ -21,25 +21,61 @@ package edu.psu.cse.siis.ic3.db;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 
 public abstract class Table {
-  private static final String SELECT_LAST_INSERT_ID = "SELECT LAST_INSERT_ID()";
+  /**
+   * Follows the transactions written through this class, for example to keep derived data in step
+   * with the database. Listeners are called on the thread which ends the transaction.
+   */
+  public interface TransactionListener {
+    /**
+     * Called after the transaction of the current thread is committed.
+     */
+    void onCommit();
+
+    /**
+     * Called when the transaction of the current thread is rolled back or cannot be committed.
+     */
+    void onRollback();
+  }
+
   private static final int MYSQL_PORT = 3306;
+  // Lets the MySQL driver send each JDBC batch as a single multi-row INSERT.
+  private static final String URL_PARAMETERS = "?rewriteBatchedStatements=true";
+  private static final int MAX_BATCH_SIZE = 1000;
+  private static final int MAX_CONNECTIONS = 8;
+  private static final Logger logger = LoggerFactory.getLogger(Table.class);
   protected static final String ID = "id";
   protected static final String[] AUTOGENERATED_ID = new String[] { ID };
+  /**
+   * The largest number of values in a batch find or multi-row insert. Statements with a variable
+   * number of placeholders are only prepared for powers of two up to this size, so that they can
+   * be cached.
+   */
+  protected static final int MAX_PLACEHOLDER_BUCKET = 256;
 
   private static String url = null;
+  private static Dialect dialect = null;
   private static Session session = null;
-  private static Connection connection = null;
+  private static ConnectionPool connectionPool = null;
+  private static final ThreadLocal<PooledConnection> currentConnection = new ThreadLocal<>();
+  private static final CopyOnWriteArrayList<TransactionListener> transactionListeners =
+      new CopyOnWriteArrayList<>();
 
   private static String sshPropertiesPath;
   private static String dbPropertiesPath;
@@ -51,38 +87,325 @@ public abstract class Table {
   protected String findString;
   protected String batchInsertString;
   protected String batchFindString;
-  protected PreparedStatement insertStatement = null;
-  protected PreparedStatement findStatement = null;
-  private PreparedStatement selectLastInsertId = null;
 
-  public static void init(String dbName, String dbPropertiesPath, String sshPropertiesPath,
+  /**
+   * Initializes the database parameters.
+   *
+   * @param dbName The MySQL database name.
+   * @param db The path to the MySQL properties file, or the JDBC URL of an embedded database.
+   * @param sshPropertiesPath The path to the SSH properties file, or null.
+   * @param localPort The local port of the SSH tunnel.
+   */
+  public static synchronized void init(String dbName, String db, String sshPropertiesPath,
       int localPort) {
+    String newUrl;
+    Dialect newDialect;
+    String newPropertiesPath;
+    if (Dialect.isJdbcUrl(db)) {
+      newUrl = db;
+      newDialect = Dialect.forUrl(db);
+      newPropertiesPath = null;
+      // Embedded databases are local.
+      sshPropertiesPath = null;
+    } else {
+      newUrl =
+          sshPropertiesPath != null ? "jdbc:mysql://localhost:" + localPort + "/" + dbName
+              : "jdbc:mysql://localhost/" + dbName;
+      newUrl += URL_PARAMETERS;
+      newDialect = new MySqlDialect();
+      newPropertiesPath = db;
+    }
+    if (url != null
+        && (!newUrl.equals(url) || !Objects.equals(newPropertiesPath, dbPropertiesPath))) {
+      if (connectionPool != null) {
+        shutdown();
+      }
+      // Cached string identifiers belong to the previous database.
+      StringTable.clearCachedIds();
+    }
+
     Table.sshPropertiesPath = sshPropertiesPath;
-    Table.dbPropertiesPath = dbPropertiesPath;
+    Table.dbPropertiesPath = newPropertiesPath;
     Table.localPort = localPort;
-    url =
-        sshPropertiesPath != null ? "jdbc:mysql://localhost:" + localPort + "/" + dbName
-            : "jdbc:mysql://localhost/" + dbName;
+    url = newUrl;
+    dialect = newDialect;
+  }
+
+  /**
+   * Gets the dialect of the database.
+   *
+   * @return The dialect.
+   */
+  protected static Dialect getDialect() {
+    return dialect;
   }
 
+  /**
+   * Gets the database connection of the current thread.
+   *
+   * @return The connection, or null if no connection could be made.
+   */
   public static Connection getConnection() {
-    connect();
-    return connection;
+    try {
+      return currentConnection().getConnection();
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
   }
 
-  public static void closeConnection() {
+  /**
+   * Starts the transaction in which the rows of an application are written. Until
+   * {@link #commitTransaction()} is called, rows queued with {@link #addBatch()} are only sent to
+   * the database when a batch fills up or when a table which has pending rows is queried.
+   * Transactions are bound to the current thread.
+   *
+   * @throws SQLException if the transaction cannot be started.
+   */
+  public static void beginTransaction() throws SQLException {
+    currentConnection().beginTransaction();
+  }
+
+  /**
+   * Writes all pending rows and commits the current transaction, if any. If a row of the
+   * transaction cannot be written, now or in an earlier batch, the whole transaction is rolled
+   * back, so that an application is never committed with some of its rows missing.
+   *
+   * @throws SQLException if the rows cannot be written or the transaction cannot be committed.
+   */
+  public static void commitTransaction() throws SQLException {
+    PooledConnection pooledConnection = currentConnection.get();
+    if (pooledConnection == null) {
+      return;
+    }
+    Connection connection;
+    try {
+      if (pooledConnection.hasFailedWrite()) {
+        throw new SQLException("Some rows of the transaction could not be written");
+      }
+      pooledConnection.flushBatches();
+      if (pooledConnection.isClosed()) {
+        notifyRollback();
+        return;
+      }
+      connection = pooledConnection.getConnection();
+      if (connection.getAutoCommit()) {
+        notifyCommit();
+        return;
+      }
+      connection.commit();
+      connection.setAutoCommit(true);
+    } catch (SQLException e) {
+      rollbackTransaction();
+      throw e;
+    }
+    notifyCommit();
+
+    if (logger.isInfoEnabled()) {
+      long writtenRows = pooledConnection.getWrittenRows();
+      long elapsed = Math.max(System.nanoTime() - pooledConnection.getTransactionStart(), 1);
+      logger.info(String.format("Wrote %d rows in %.3f s (%.0f rows/s)", writtenRows,
+          elapsed / 1e9, writtenRows * 1e9 / elapsed));
+    }
+  }
+
+  /**
+   * Registers a listener which is notified when transactions are committed or rolled back.
+   * Registering the same listener twice does nothing.
+   *
+   * @param listener The listener.
+   */
+  public static void addTransactionListener(TransactionListener listener) {
+    transactionListeners.addIfAbsent(listener);
+  }
+
+  /**
+   * Unregisters a transaction listener.
+   *
+   * @param listener The listener.
+   */
+  public static void removeTransactionListener(TransactionListener listener) {
+    transactionListeners.remove(listener);
+  }
+
+  private static void notifyCommit() {
+    StringTable.commitCachedIds();
+    for (TransactionListener listener : transactionListeners) {
+      listener.onCommit();
+    }
+  }
+
+  private static void notifyRollback() {
+    StringTable.rollbackCachedIds();
+    for (TransactionListener listener : transactionListeners) {
+      listener.onRollback();
+    }
+  }
+
+  /**
+   * Determines if the current thread is in a transaction. Rows read in a transaction may have been
+   * written by the transaction itself, in which case they disappear if it is rolled back.
+   *
+   * @return True if a transaction was started and not committed or rolled back yet.
+   * @throws SQLException if the state of the connection cannot be read.
+   */
+  protected static boolean inTransaction() throws SQLException {
+    PooledConnection pooledConnection = currentConnection.get();
+    return pooledConnection != null && !pooledConnection.isClosed()
+        && !pooledConnection.getConnection().getAutoCommit();
+  }
+
+  /**
+   * Sends all rows queued by the current thread to the database.
+   *
+   * @throws SQLException if the rows cannot be written.
+   */
+  public static void flushBatches() throws SQLException {
+    PooledConnection pooledConnection = currentConnection.get();
+    if (pooledConnection != null) {
+      pooledConnection.flushBatches();
+    }
+  }
+
+  /**
+   * Discards all pending rows and rolls back the current transaction, if any. This is used when
+   * the analysis of an application fails, so that no partial results are written.
+   */
+  public static void rollbackTransaction() {
+    notifyRollback();
+    PooledConnection pooledConnection = currentConnection.get();
+    if (pooledConnection == null) {
+      return;
+    }
+    pooledConnection.discardBatches();
     try {
-      if (connection != null && !connection.isClosed()) {
-        connection.close();
+      Connection connection = pooledConnection.getConnection();
+      if (!connection.isClosed() && !connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
       }
     } catch (SQLException e) {
       e.printStackTrace();
     }
+  }
+
+  /**
+   * Commits the current transaction and returns the connection of the current thread to the
+   * pool. The connection stays open, so that it can be reused. If the transaction cannot be
+   * committed, it is rolled back.
+   */
+  public static void closeConnection() {
+    PooledConnection pooledConnection = currentConnection.get();
+    if (pooledConnection == null) {
+      return;
+    }
+    try {
+      // A failed commit has already rolled back the transaction.
+      commitTransaction();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    currentConnection.remove();
+    connectionPool.release(pooledConnection);
+  }
+
+  /**
+   * Closes all pooled connections and the SSH tunnel. This should be called once there is
+   * nothing left to write.
+   */
+  public static synchronized void shutdown() {
+    closeConnection();
+    if (connectionPool != null) {
+      connectionPool.close();
+      connectionPool = null;
+    }
     if (session != null && session.isConnected()) {
       session.disconnect();
     }
   }
 
+  private static PooledConnection currentConnection() throws SQLException {
+    PooledConnection pooledConnection = currentConnection.get();
+    if (pooledConnection != null && !pooledConnection.isClosed()) {
+      return pooledConnection;
+    }
+
+    ConnectionPool pool = connect();
+    if (pool == null) {
+      throw new SQLException("Could not connect to the database");
+    }
+    pooledConnection = pool.acquire();
+    currentConnection.set(pooledConnection);
+    return pooledConnection;
+  }
+
+  /**
+   * Gets a cached prepared statement on the connection of the current thread.
+   *
+   * @param sql The SQL statement.
+   * @return The prepared statement.
+   * @throws SQLException if the statement cannot be prepared.
+   */
+  protected static PreparedStatement prepareStatement(String sql) throws SQLException {
+    return currentConnection().prepareStatement(sql, null);
+  }
+
+  /**
+   * Gets a cached prepared statement on the connection of the current thread.
+   *
+   * @param sql The SQL statement.
+   * @param generatedColumns The names of the generated columns to return.
+   * @return The prepared statement.
+   * @throws SQLException if the statement cannot be prepared.
+   */
+  protected static PreparedStatement prepareStatement(String sql, String[] generatedColumns)
+      throws SQLException {
+    return currentConnection().prepareStatement(sql, generatedColumns);
+  }
+
+  /**
+   * Returns the number of placeholders for which a statement should be prepared in order to bind
+   * a given number of values. Batch finds pad the remaining placeholders with a repeated value.
+   *
+   * @param count The number of values, at most {@link #MAX_PLACEHOLDER_BUCKET}.
+   * @return The smallest power of two which is greater than or equal to the number of values.
+   */
+  protected static int placeholderBucket(int count) {
+    int bucket = 1;
+    while (bucket < count) {
+      bucket <<= 1;
+    }
+    return bucket;
+  }
+
+  /**
+   * Splits a number of rows into chunks whose sizes are powers of two, so that multi-row inserts
+   * only use a small set of statements. If the database does not return the identifiers of all
+   * the rows of a multi-row insert, each chunk has a single row.
+   *
+   * @param count The number of rows.
+   * @return The chunk sizes, from the largest to the smallest.
+   */
+  protected static List<Integer> insertChunkSizes(int count) {
+    List<Integer> chunkSizes = new ArrayList<>();
+    if (!dialect.supportsMultiRowGeneratedKeys()) {
+      for (int i = 0; i < count; ++i) {
+        chunkSizes.add(1);
+      }
+      return chunkSizes;
+    }
+    while (count >= MAX_PLACEHOLDER_BUCKET) {
+      chunkSizes.add(MAX_PLACEHOLDER_BUCKET);
+      count -= MAX_PLACEHOLDER_BUCKET;
+    }
+    for (int bucket = MAX_PLACEHOLDER_BUCKET >> 1; bucket > 0; bucket >>= 1) {
+      if ((count & bucket) != 0) {
+        chunkSizes.add(bucket);
+      }
+    }
+    return chunkSizes;
+  }
+
   private static void makeSshTunnel() throws IOException, NumberFormatException, JSchException {
     if (session != null && session.isConnected()) {
       return;
@@ -106,7 +429,7 @@ public abstract class Table {
     session.setPortForwardingL(localPort, host, MYSQL_PORT);
   }
 
-  private static void connect() {
+  private static synchronized ConnectionPool connect() {
     if (url == null) {
       throw new RuntimeException(
           "Method init() should be called first to initialize database connection");
@@ -117,60 +440,101 @@ public abstract class Table {
         makeSshTunnel();
       } catch (NumberFormatException | IOException | JSchException e) {
         e.printStackTrace();
-        return;
+        return null;
       }
     }
 
-    try {
-      if (connection != null && !connection.isClosed()) {
-        return;
-      }
-    } catch (SQLException e2) {
-      e2.printStackTrace();
+    if (connectionPool != null) {
+      return connectionPool;
     }
 
     Properties properties = new Properties();
 
     try {
-      if (dbPropertiesPath.startsWith("/db/")) {
+      if (dbPropertiesPath == null) {
+        // Embedded databases do not need credentials.
+      } else if (dbPropertiesPath.startsWith("/db/")) {
         properties.load(SQLConnection.class.getResourceAsStream(dbPropertiesPath));
       } else {
         properties.load(new FileReader(dbPropertiesPath));
       }
     } catch (IOException e1) {
       e1.printStackTrace();
-      return;
+      return null;
     }
 
-    try {
-      Class.forName("com.mysql.jdbc.Driver").newInstance();
-    } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-      e.printStackTrace();
-      return;
-    }
-
-    try {
-      connection = DriverManager.getConnection(url, properties);
-    } catch (SQLException e) {
-      e.printStackTrace();
-      return;
-    }
+    connectionPool =
+        new ConnectionPool(dialect, url, properties, Math.min(MAX_CONNECTIONS,
+            dialect.getMaxConnections()));
+    return connectionPool;
   }
 
-  protected int findAutoIncrement() throws SQLException {
-    connect();
-    if (selectLastInsertId == null || selectLastInsertId.isClosed()) {
-      selectLastInsertId = connection.prepareStatement(SELECT_LAST_INSERT_ID);
+  /**
+   * Executes an insert statement which was prepared with {@link #AUTOGENERATED_ID} and returns the
+   * generated identifier, which avoids a separate SELECT LAST_INSERT_ID() round trip.
+   *
+   * @param statement The insert statement.
+   * @return The identifier of the new row, or NOT_FOUND if no row was inserted.
+   * @throws SQLException if the insertion fails.
+   */
+  protected int executeInsert(PreparedStatement statement) throws SQLException {
+    if (statement.executeUpdate() == 0) {
+      return NOT_FOUND;
     }
-    ResultSet resultSet = selectLastInsertId.executeQuery();
-    int autoinc;
+    countWrittenRows(1);
+    ResultSet resultSet = statement.getGeneratedKeys();
+    int id;
     if (resultSet.next()) {
-      autoinc = resultSet.getInt("LAST_INSERT_ID()");
+      id = resultSet.getInt(1);
     } else {
-      autoinc = NOT_FOUND;
+      id = NOT_FOUND;
     }
     resultSet.close();
-    return autoinc;
+    return id;
+  }
+
+  /**
+   * Counts rows which were written with a multi-row insert.
+   *
+   * @param rows The number of rows.
+   * @throws SQLException if there is no connection.
+   */
+  protected static void countWrittenRows(int rows) throws SQLException {
+    currentConnection().countWrittenRows(rows);
+  }
+
+  /**
+   * Gets the statement used to queue rows for this table. Parameters should be set on the
+   * statement, after which {@link #addBatch()} should be called.
+   *
+   * @return The batch insert statement.
+   * @throws SQLException if the statement cannot be prepared.
+   */
+  protected PreparedStatement getBatchStatement() throws SQLException {
+    return prepareStatement(insertString);
+  }
+
+  /**
+   * Queues the row whose parameters were set on the batch statement. This should only be used for
+   * rows whose identifier is not needed.
+   *
+   * @throws SQLException if a full batch cannot be written.
+   */
+  protected void addBatch() throws SQLException {
+    currentConnection().addBatch(insertString, MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Sends the rows of this table queued by the current thread to the database. This should be
+   * called before querying the table.
+   *
+   * @throws SQLException if the rows cannot be written.
+   */
+  protected void flushBatch() throws SQLException {
+    PooledConnection pooledConnection = currentConnection.get();
+    if (pooledConnection != null) {
+      pooledConnection.flushBatch(insertString);
+    }
   }
 
   protected int processIntFindQuery(PreparedStatement statement) throws SQLException {
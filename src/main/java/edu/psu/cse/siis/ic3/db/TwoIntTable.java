@@ -22,6 +22,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -56,24 +57,28 @@ public abstract class TwoIntTable extends Table {
     if (values == null || values.size() == 0) {
       return found;
     }
-    StringBuilder queryBuilder = new StringBuilder(batchFindString);
-    for (int i = 0; i < values.size(); ++i) {
-      queryBuilder.append(batchFindPattern);
-    }
-    PreparedStatement batchFindStatement =
-        getConnection().prepareStatement(queryBuilder.toString());
-    int parameterIndex = 1;
-    for (Pair<Integer, Integer> value : values) {
-      batchFindStatement.setInt(parameterIndex++, value.getO1());
-      batchFindStatement.setInt(parameterIndex++, value.getO2());
-    }
+    flushBatch();
+    List<Pair<Integer, Integer>> valueList = new ArrayList<Pair<Integer, Integer>>(values);
+    for (int start = 0; start < valueList.size(); start += MAX_PLACEHOLDER_BUCKET) {
+      List<Pair<Integer, Integer>> chunk =
+          valueList.subList(start, Math.min(start + MAX_PLACEHOLDER_BUCKET, valueList.size()));
+      int placeholders = placeholderBucket(chunk.size());
+      PreparedStatement batchFindStatement = prepareStatement(makeBatchFindQuery(placeholders));
+      int parameterIndex = 1;
+      for (int i = 0; i < placeholders; ++i) {
+        // Pad the unused placeholders with the first value, which does not change the result.
+        Pair<Integer, Integer> value = chunk.get(i < chunk.size() ? i : 0);
+        batchFindStatement.setInt(parameterIndex++, value.getO1());
+        batchFindStatement.setInt(parameterIndex++, value.getO2());
+      }
 
-    ResultSet resultSet = batchFindStatement.executeQuery();
-    while (resultSet.next()) {
-      found
-          .put(
-              new Pair<Integer, Integer>(resultSet.getInt(firstColumn), resultSet
-                  .getInt(secondColumn)), resultSet.getInt(ID));
+      ResultSet resultSet = batchFindStatement.executeQuery();
+      while (resultSet.next()) {
+        found.put(
+            new Pair<Integer, Integer>(resultSet.getInt(firstColumn), resultSet
+                .getInt(secondColumn)), resultSet.getInt(ID));
+      }
+      resultSet.close();
     }
     return found;
   }
@@ -92,24 +97,24 @@ public abstract class TwoIntTable extends Table {
   public Set<Integer> batchForceInsert(Set<Pair<Integer, Integer>> values) throws SQLException {
     Set<Integer> result = new HashSet<Integer>();
 
-    if (values.size() > 0) {
-      StringBuilder queryBuilder = new StringBuilder(batchInsertString);
-      for (int i = 1; i < values.size(); ++i) {
-        queryBuilder.append(batchInsertPattern);
-      }
+    List<Pair<Integer, Integer>> valueList = new ArrayList<Pair<Integer, Integer>>(values);
+    int start = 0;
+    for (int chunkSize : insertChunkSizes(valueList.size())) {
       PreparedStatement batchInsertStatement =
-          getConnection().prepareStatement(queryBuilder.toString(), AUTOGENERATED_ID);
+          prepareStatement(makeBatchInsertQuery(chunkSize), AUTOGENERATED_ID);
       int parameterIndex = 1;
-      for (Pair<Integer, Integer> value : values) {
+      for (Pair<Integer, Integer> value : valueList.subList(start, start + chunkSize)) {
         batchInsertStatement.setInt(parameterIndex++, value.getO1());
         batchInsertStatement.setInt(parameterIndex++, value.getO2());
       }
+      start += chunkSize;
 
-      batchInsertStatement.executeUpdate();
+      countWrittenRows(batchInsertStatement.executeUpdate());
       ResultSet resultSet = batchInsertStatement.getGeneratedKeys();
       while (resultSet.next()) {
         result.add(resultSet.getInt(1));
       }
+      resultSet.close();
     }
 
     return result;
@@ -137,9 +142,7 @@ public abstract class TwoIntTable extends Table {
   }
 
   public int forceInsert(Integer firstValue, Integer secondValue) throws SQLException {
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(insertString);
-    }
+    PreparedStatement insertStatement = prepareStatement(insertString, AUTOGENERATED_ID);
     if (firstValue != null) {
       insertStatement.setInt(1, firstValue);
     } else {
@@ -150,16 +153,34 @@ public abstract class TwoIntTable extends Table {
     } else {
       insertStatement.setNull(2, Types.INTEGER);
     }
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
+    return executeInsert(insertStatement);
+  }
+
+  /**
+   * Queues a row without retrieving its identifier. The row is written when batches are flushed.
+   *
+   * @param firstValue The value of the first column.
+   * @param secondValue The value of the second column.
+   * @throws SQLException if a full batch cannot be written.
+   */
+  public void queueInsert(Integer firstValue, Integer secondValue) throws SQLException {
+    PreparedStatement batchStatement = getBatchStatement();
+    if (firstValue != null) {
+      batchStatement.setInt(1, firstValue);
+    } else {
+      batchStatement.setNull(1, Types.INTEGER);
+    }
+    if (secondValue != null) {
+      batchStatement.setInt(2, secondValue);
+    } else {
+      batchStatement.setNull(2, Types.INTEGER);
     }
-    return findAutoIncrement();
+    addBatch();
   }
 
   public int find(Integer firstValue, Integer secondValue) throws SQLException {
-    if (findStatement == null || findStatement.isClosed()) {
-      findStatement = getConnection().prepareStatement(findString);
-    }
+    flushBatch();
+    PreparedStatement findStatement = prepareStatement(findString);
     if (firstValue != null) {
       findStatement.setInt(1, firstValue);
     } else {
@@ -172,4 +193,20 @@ public abstract class TwoIntTable extends Table {
     }
     return processIntFindQuery(findStatement);
   }
+
+  private String makeBatchFindQuery(int placeholders) {
+    StringBuilder queryBuilder = new StringBuilder(batchFindString);
+    for (int i = 0; i < placeholders; ++i) {
+      queryBuilder.append(batchFindPattern);
+    }
+    return queryBuilder.toString();
+  }
+
+  private String makeBatchInsertQuery(int rows) {
+    StringBuilder queryBuilder = new StringBuilder(batchInsertString);
+    for (int i = 1; i < rows; ++i) {
+      queryBuilder.append(batchInsertPattern);
+    }
+    return queryBuilder.toString();
+  }
 }
@@ -18,6 +18,7 @@
  */
 package edu.psu.cse.siis.ic3.db;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
 
@@ -31,9 +32,7 @@ public class UriDataTable extends Table {
     // if (id != NOT_FOUND) {
     // return id;
     // }
-    if (insertStatement == null || insertStatement.isClosed()) {
-      insertStatement = getConnection().prepareStatement(INSERT);
-    }
+    PreparedStatement insertStatement = prepareStatement(INSERT, AUTOGENERATED_ID);
     if (scheme == null) {
       insertStatement.setNull(1, Types.VARCHAR);
     } else {
@@ -65,9 +64,6 @@ public class UriDataTable extends Table {
       insertStatement.setString(6, authority);
     }
 
-    if (insertStatement.executeUpdate() == 0) {
-      return NOT_FOUND;
-    }
-    return findAutoIncrement();
+    return executeInsert(insertStatement);
   }
 }
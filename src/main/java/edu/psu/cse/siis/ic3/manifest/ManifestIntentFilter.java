@@ -31,6 +31,7 @@ public class ManifestIntentFilter {
   private Set<String> actions = null;
   private Set<String> categories = null;
   private List<ManifestData> data = null;
+  private boolean dataTruncated = false;
 
   public ManifestIntentFilter(boolean alias, Integer priority) {
     this.alias = alias;
@@ -111,6 +112,23 @@ public class ManifestIntentFilter {
     this.data.add(manifestData);
   }
 
+  /**
+   * Determines if some data specifications of the intent filter were dropped, which happens when
+   * a dynamically registered filter has too many possible data specifications.
+   *
+   * @return True if the data specifications are incomplete.
+   */
+  public boolean isDataTruncated() {
+    return dataTruncated;
+  }
+
+  /**
+   * @param dataTruncated whether some data specifications were dropped
+   */
+  public void setDataTruncated(boolean dataTruncated) {
+    this.dataTruncated = dataTruncated;
+  }
+
   /**
    * Specifies whether an intent filter corresponds to an activity which can be used as an app's
    * entry point. We do not necessarily consider applications which appear in the launcher.
@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -29,8 +30,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -97,7 +96,26 @@ public class ManifestPullParser {
       Constants.PermissionLevel.DANGEROUS_SHORT, Constants.PermissionLevel.SIGNATURE_SHORT,
       Constants.PermissionLevel.SIGNATURE_OR_SYSTEM_SHORT };
 
-  private static Map<String, Integer> tagDepthMap = null;
+  // Shared by all parsers, which may run concurrently, so it is never modified after
+  // initialization.
+  private static final Map<String, Integer> tagDepthMap;
+
+  static {
+    Map<String, Integer> depths = new HashMap<String, Integer>();
+    depths.put(MANIFEST, 0);
+    depths.put(USES_PERMISSION, 1);
+    depths.put(PERMISSION, 1);
+    depths.put(APPLICATION, 1);
+    depths.put(ACTIVITY, 2);
+    depths.put(SERVICE, 2);
+    depths.put(RECEIVER, 2);
+    depths.put(INTENT_FILTER, 3);
+    depths.put(ACTION, 4);
+    depths.put(CATEGORY, 4);
+    depths.put(DATA, 4);
+
+    tagDepthMap = Collections.unmodifiableMap(depths);
+  }
 
   // map a content provider to one or more authorities
   // private final Map<String, Set<String>> providersAuthorities = new HashMap<String,
@@ -168,6 +186,10 @@ public class ManifestPullParser {
     return packageName;
   }
 
+  public int getVersion() {
+    return version;
+  }
+
   public Set<String> getEntryPointClasses() {
     return entryPointClasses;
   }
@@ -192,19 +214,27 @@ public class ManifestPullParser {
 
   private void handleBinaryManifestFile(String apk) {
     try {
-      ZipFile archive = new ZipFile(apk);
-      ZipEntry manifestEntry = archive.getEntry(MANIFEST_FILE_NAME);
-      if (manifestEntry == null) {
-        archive.close();
+      ByteBuffer manifestBuffer = ZipEntryBuffers.read(apk, MANIFEST_FILE_NAME);
+      if (manifestBuffer == null) {
         throw new RuntimeException("No manifest file found in apk");
       }
-      loadClassesFromBinaryManifest(archive.getInputStream(manifestEntry));
-      archive.close();
+      loadClassesFromBinaryManifest(manifestBuffer);
     } catch (IOException e) {
       throw new RuntimeException("Error while processing apk " + apk + ": " + e);
     }
   }
 
+  protected void loadClassesFromBinaryManifest(ByteBuffer manifestBuffer) {
+    AXmlResourceParser aXmlResourceParser = new AXmlResourceParser();
+    aXmlResourceParser.open(manifestBuffer);
+    try {
+      parse(aXmlResourceParser);
+    } catch (XmlPullParserException | IOException e) {
+      e.printStackTrace();
+      throw new RuntimeException("Could not parse manifest file.");
+    }
+  }
+
   protected void loadClassesFromBinaryManifest(InputStream manifestIS) {
     AXmlResourceParser aXmlResourceParser = new AXmlResourceParser();
     aXmlResourceParser.open(manifestIS);
@@ -238,8 +268,6 @@ public class ManifestPullParser {
    * @throws XmlPullParserException
    */
   public void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
-    initializeTagDepthMap();
-
     int depth = 0;
     int eventType = 0;
     eventType = parser.next();
@@ -398,6 +426,9 @@ public class ManifestPullParser {
           }
         }
 
+        if (filter.isDataTruncated()) {
+          filterBuilder.setTruncated(true);
+        }
         componentBuilder.addIntentFilters(filterBuilder);
       }
     }
@@ -498,25 +529,6 @@ public class ManifestPullParser {
     return true;
   }
 
-  private void initializeTagDepthMap() {
-    if (tagDepthMap == null) {
-      tagDepthMap = new HashMap<String, Integer>();
-      tagDepthMap.put(MANIFEST, 0);
-      tagDepthMap.put(USES_PERMISSION, 1);
-      tagDepthMap.put(PERMISSION, 1);
-      tagDepthMap.put(APPLICATION, 1);
-      tagDepthMap.put(ACTIVITY, 2);
-      tagDepthMap.put(SERVICE, 2);
-      tagDepthMap.put(RECEIVER, 2);
-      tagDepthMap.put(INTENT_FILTER, 3);
-      tagDepthMap.put(ACTION, 4);
-      tagDepthMap.put(CATEGORY, 4);
-      tagDepthMap.put(DATA, 4);
-
-      tagDepthMap = Collections.unmodifiableMap(tagDepthMap);
-    }
-  }
-
   private boolean handleStartTag(XmlPullParser parser, int depth) {
     if (skipToEndTag != null) {
       return true;
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.manifest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads archive entries into buffers. Entries which are stored without compression are
+ * memory-mapped directly from the archive, using the central directory to locate them. Other
+ * entries are inflated into a single buffer.
+ */
+public class ZipEntryBuffers {
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int STORED = 0;
+  // Zip64 archives use this value for sizes and offsets which are stored elsewhere.
+  private static final long ZIP64_MARKER = 0xffffffffL;
+  // The declared size of a compressed entry is not checked against its data, so the buffer only
+  // grows past this size as data is actually inflated.
+  private static final int MAX_INITIAL_INFLATE_SIZE = 1 << 20;
+  private static final int DEFAULT_INFLATE_SIZE = 8192;
+  private static final int MAX_ENTRY_SIZE = Integer.MAX_VALUE - 8;
+
+  private ZipEntryBuffers() {
+  }
+
+  /**
+   * Reads an archive entry.
+   * 
+   * @param archive The path to the archive.
+   * @param entryName The name of the entry.
+   * @return A little-endian buffer containing the entry data, or null if the entry does not exist.
+   * @throws IOException if the archive cannot be read.
+   */
+  public static ByteBuffer read(String archive, String entryName) throws IOException {
+    ByteBuffer buffer = mapStoredEntry(archive, entryName);
+    if (buffer == null) {
+      buffer = inflateEntry(archive, entryName);
+    }
+
+    return buffer == null ? null : buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Maps an uncompressed entry.
+   * 
+   * @return The entry data, or null if the entry is compressed, missing or cannot be located.
+   */
+  private static ByteBuffer mapStoredEntry(String archive, String entryName) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+      FileChannel channel = file.getChannel();
+      long fileSize = channel.size();
+      if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+        return null;
+      }
+
+      // The end of central directory record is followed by a comment of at most 64 KiB.
+      long tailStart = Math.max(0, fileSize - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+      ByteBuffer tail =
+          channel.map(FileChannel.MapMode.READ_ONLY, tailStart, fileSize - tailStart).order(
+              ByteOrder.LITTLE_ENDIAN);
+      int endOfCentralDirectory = -1;
+      for (int i = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; --i) {
+        if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          endOfCentralDirectory = i;
+          break;
+        }
+      }
+      if (endOfCentralDirectory == -1) {
+        return null;
+      }
+
+      long centralDirectorySize = tail.getInt(endOfCentralDirectory + 12) & ZIP64_MARKER;
+      long centralDirectoryOffset = tail.getInt(endOfCentralDirectory + 16) & ZIP64_MARKER;
+      if (centralDirectoryOffset == ZIP64_MARKER
+          || centralDirectoryOffset + centralDirectorySize > fileSize) {
+        return null;
+      }
+
+      ByteBuffer centralDirectory =
+          channel.map(FileChannel.MapMode.READ_ONLY, centralDirectoryOffset, centralDirectorySize)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+      int position = 0;
+      while (position + CENTRAL_DIRECTORY_HEADER_SIZE <= centralDirectory.limit()
+          && centralDirectory.getInt(position) == CENTRAL_DIRECTORY_SIGNATURE) {
+        int method = centralDirectory.getShort(position + 10) & 0xffff;
+        long compressedSize = centralDirectory.getInt(position + 20) & ZIP64_MARKER;
+        long size = centralDirectory.getInt(position + 24) & ZIP64_MARKER;
+        int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+        int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+        int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+        long localHeaderOffset = centralDirectory.getInt(position + 42) & ZIP64_MARKER;
+
+        if (nameMatches(centralDirectory, position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength,
+            name)) {
+          if (method != STORED || size != compressedSize || size == ZIP64_MARKER
+              || localHeaderOffset == ZIP64_MARKER) {
+            return null;
+          }
+          return mapLocalEntry(channel, localHeaderOffset, size);
+        }
+
+        position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+    }
+
+    return null;
+  }
+
+  private static ByteBuffer mapLocalEntry(FileChannel channel, long localHeaderOffset, long size)
+      throws IOException {
+    if (localHeaderOffset + LOCAL_HEADER_SIZE > channel.size()) {
+      return null;
+    }
+    ByteBuffer localHeader =
+        channel.map(FileChannel.MapMode.READ_ONLY, localHeaderOffset, LOCAL_HEADER_SIZE).order(
+            ByteOrder.LITTLE_ENDIAN);
+    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      return null;
+    }
+
+    // The local extra field may differ from the one in the central directory.
+    int nameLength = localHeader.getShort(26) & 0xffff;
+    int extraLength = localHeader.getShort(28) & 0xffff;
+    long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    if (dataOffset + size > channel.size()) {
+      return null;
+    }
+
+    return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, size);
+  }
+
+  private static boolean nameMatches(ByteBuffer buffer, int offset, int length, byte[] name) {
+    if (length != name.length || offset + length > buffer.limit()) {
+      return false;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (buffer.get(offset + i) != name[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static ByteBuffer inflateEntry(String archive, String entryName) throws IOException {
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      ZipEntry entry = zipFile.getEntry(entryName);
+      if (entry == null) {
+        return null;
+      }
+
+      long declaredSize = entry.getSize();
+      byte[] data =
+          new byte[declaredSize > 0 ? (int) Math.min(declaredSize, MAX_INITIAL_INFLATE_SIZE)
+              : DEFAULT_INFLATE_SIZE];
+      int length = 0;
+      try (InputStream inputStream = zipFile.getInputStream(entry)) {
+        int count;
+        while ((count = inputStream.read(data, length, data.length - length)) != -1) {
+          length += count;
+          if (length == data.length) {
+            int next = inputStream.read();
+            if (next == -1) {
+              break;
+            }
+            if (data.length == MAX_ENTRY_SIZE) {
+              throw new IOException("Entry " + entryName + " in " + archive + " is too large");
+            }
+            byte[] larger = new byte[(int) Math.min(2L * data.length, MAX_ENTRY_SIZE)];
+            System.arraycopy(data, 0, larger, 0, length);
+            data = larger;
+            data[length++] = (byte) next;
+          }
+        }
+      }
+
+      return ByteBuffer.wrap(data, 0, length).slice();
+    }
+  }
+}
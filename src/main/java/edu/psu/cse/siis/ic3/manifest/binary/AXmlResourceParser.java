@@ -18,6 +18,7 @@ package edu.psu.cse.siis.ic3.manifest.binary;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -66,6 +67,18 @@ public class AXmlResourceParser implements XmlPullParser {
     }
   }
 
+  /**
+   * Opens a binary XML file held in a buffer, such as a memory-mapped region of an archive. Chunks
+   * are decoded in place and string data is not copied. Reading starts at the current position of
+   * the buffer.
+   */
+  public void open(ByteBuffer buffer) {
+    close();
+    if (buffer != null) {
+      m_reader = new ExtDataInput(buffer);
+    }
+  }
+
   public void close() {
     if (!m_operational) {
       return;
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.manifest.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A little-endian {@link DataInput} which reads directly from a {@link ByteBuffer}, such as a
+ * memory-mapped file region. Unlike {@link LEDataInputStream}, values are decoded in place without
+ * going through a stream, and sub-regions can be sliced without copying them.
+ */
+public final class ByteBufferDataInput implements DataInput {
+  private final ByteBuffer buffer;
+
+  /**
+   * Constructor. Reading starts at the current position of the buffer. The buffer itself is not
+   * modified.
+   * 
+   * @param buffer The buffer to read from.
+   */
+  public ByteBufferDataInput(ByteBuffer buffer) {
+    this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Reads an array of ints in bulk.
+   * 
+   * @param length The number of ints to read.
+   * @return The ints.
+   * @throws IOException if the buffer does not contain enough data.
+   */
+  public int[] readIntArray(int length) throws IOException {
+    checkRemaining(length * 4L);
+    int[] array = new int[length];
+    buffer.asIntBuffer().get(array);
+    buffer.position(buffer.position() + length * 4);
+    return array;
+  }
+
+  /**
+   * Returns a little-endian view of the next bytes and skips them. The data is not copied.
+   * 
+   * @param length The number of bytes.
+   * @return A view of the bytes, positioned at 0.
+   * @throws IOException if the buffer does not contain enough data.
+   */
+  public ByteBuffer readSlice(int length) throws IOException {
+    checkRemaining(length);
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Override
+  public void readFully(byte[] b) throws IOException {
+    readFully(b, 0, b.length);
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) throws IOException {
+    checkRemaining(len);
+    buffer.get(b, off, len);
+  }
+
+  @Override
+  public int skipBytes(int n) {
+    int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+    buffer.position(buffer.position() + skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException {
+    return readByte() != 0;
+  }
+
+  @Override
+  public byte readByte() throws IOException {
+    try {
+      return buffer.get();
+    } catch (BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public int readUnsignedByte() throws IOException {
+    return readByte() & 0xff;
+  }
+
+  @Override
+  public short readShort() throws IOException {
+    try {
+      return buffer.getShort();
+    } catch (BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public int readUnsignedShort() throws IOException {
+    return readShort() & 0xffff;
+  }
+
+  @Override
+  public char readChar() throws IOException {
+    return (char) readShort();
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    try {
+      return buffer.getInt();
+    } catch (BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    try {
+      return buffer.getLong();
+    } catch (BufferUnderflowException e) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public float readFloat() throws IOException {
+    return Float.intBitsToFloat(readInt());
+  }
+
+  @Override
+  public double readDouble() throws IOException {
+    return Double.longBitsToDouble(readLong());
+  }
+
+  /**
+   * Reads a line of 8-bit characters, as {@link java.io.DataInputStream#readLine()} does.
+   */
+  @Override
+  public String readLine() throws IOException {
+    if (!buffer.hasRemaining()) {
+      return null;
+    }
+
+    StringBuilder line = new StringBuilder();
+    while (buffer.hasRemaining()) {
+      char c = (char) (buffer.get() & 0xff);
+      if (c == '\n') {
+        break;
+      } else if (c == '\r') {
+        if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+          buffer.get();
+        }
+        break;
+      }
+      line.append(c);
+    }
+
+    return line.toString();
+  }
+
+  /**
+   * Reads a string in modified UTF-8 format. As in {@link LEDataInputStream}, the length prefix is
+   * big-endian.
+   */
+  @Override
+  public String readUTF() throws IOException {
+    int length = (readUnsignedByte() << 8) | readUnsignedByte();
+    byte[] bytes = new byte[length + 2];
+    bytes[0] = (byte) (length >> 8);
+    bytes[1] = (byte) length;
+    readFully(bytes, 2, length);
+    return DataInputStream.readUTF(new DataInputStream(new ByteArrayInputStream(bytes)));
+  }
+
+  private void checkRemaining(long length) throws EOFException {
+    if (length > buffer.remaining()) {
+      throw new EOFException();
+    }
+  }
+}
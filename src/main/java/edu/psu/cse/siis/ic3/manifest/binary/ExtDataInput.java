@@ -20,6 +20,8 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * @author Ryszard Wi??????niewski <brut.alll@gmail.com>
@@ -33,7 +35,14 @@ public class ExtDataInput extends DataInputDelegate {
     super(delegate);
   }
 
+  public ExtDataInput(ByteBuffer buffer) {
+    this((DataInput) new ByteBufferDataInput(buffer));
+  }
+
   public int[] readIntArray(int length) throws IOException {
+    if (mDelegate instanceof ByteBufferDataInput) {
+      return ((ByteBufferDataInput) mDelegate).readIntArray(length);
+    }
     int[] array = new int[length];
     for (int i = 0; i < length; i++) {
       array[i] = readInt();
@@ -41,6 +50,19 @@ public class ExtDataInput extends DataInputDelegate {
     return array;
   }
 
+  /**
+   * Reads the next bytes as a little-endian buffer. When reading from a buffer, this returns a view
+   * of the underlying data instead of a copy.
+   */
+  public ByteBuffer readBuffer(int length) throws IOException {
+    if (mDelegate instanceof ByteBufferDataInput) {
+      return ((ByteBufferDataInput) mDelegate).readSlice(length);
+    }
+    byte[] bytes = new byte[length];
+    readFully(bytes);
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
   public void skipInt() throws IOException {
     skipBytes(4);
   }
@@ -21,6 +21,8 @@ import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,6 +52,7 @@ public class StringBlock {
     StringBlock block = new StringBlock();
     block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
     block.m_stringOffsets = reader.readIntArray(stringCount);
+    block.m_decodedStrings = new String[stringCount];
     block.m_stringOwns = new int[stringCount];
     for (int i = 0; i < stringCount; i++) {
       block.m_stringOwns[i] = -1;
@@ -62,8 +65,9 @@ public class StringBlock {
       if ((size % 4) != 0) {
         throw new IOException("String data size is not multiple of 4 (" + size + ").");
       }
-      block.m_strings = new byte[size];
-      reader.readFully(block.m_strings);
+      // The string data is not copied when reading from a buffer. Strings are only decoded when
+      // they are requested.
+      block.m_strings = reader.readBuffer(size);
     }
     if (stylesOffset != 0) {
       int size = (chunkSize - stylesOffset);
@@ -84,12 +88,18 @@ public class StringBlock {
   }
 
   /**
-   * Returns raw string (without any styling information) at specified index.
+   * Returns raw string (without any styling information) at specified index. Strings are decoded
+   * on first access and cached, since the parser requests the same names and values repeatedly.
    */
   public String getString(int index) {
     if (index < 0 || m_stringOffsets == null || index >= m_stringOffsets.length) {
       return null;
     }
+    String string = m_decodedStrings[index];
+    if (string != null) {
+      return string;
+    }
+
     int offset = m_stringOffsets[index];
     int length;
 
@@ -97,12 +107,14 @@ public class StringBlock {
       length = getShort(m_strings, offset) * 2;
       offset += 2;
     } else {
-      offset += getVarint(m_strings, offset)[1];
-      int[] varint = getVarint(m_strings, offset);
-      offset += varint[1];
-      length = varint[0];
+      // Skip the length in characters, then read the length in bytes.
+      offset += getVarintSize(m_strings, offset);
+      length = getVarint(m_strings, offset);
+      offset += getVarintSize(m_strings, offset);
     }
-    return decodeString(offset, length);
+    string = decodeString(offset, length);
+    m_decodedStrings[index] = string;
+    return string;
   }
 
   /**
@@ -201,30 +213,24 @@ public class StringBlock {
   }
 
   /**
-   * Finds index of the string. Returns -1 if the string was not found.
+   * Finds index of the string. Returns -1 if the string was not found. If the string appears
+   * several times, the lowest index is returned.
    */
   public int find(String string) {
-    if (string == null) {
+    if (string == null || m_stringOffsets == null) {
       return -1;
     }
-    for (int i = 0; i != m_stringOffsets.length; ++i) {
-      int offset = m_stringOffsets[i];
-      int length = getShort(m_strings, offset);
-      if (length != string.length()) {
-        continue;
-      }
-      int j = 0;
-      for (; j != length; ++j) {
-        offset += 2;
-        if (string.charAt(j) != getShort(m_strings, offset)) {
-          break;
+    if (m_stringIndexes == null) {
+      m_stringIndexes = new HashMap<>(m_stringOffsets.length * 2);
+      for (int i = m_stringOffsets.length - 1; i >= 0; --i) {
+        String candidate = getString(i);
+        if (candidate != null) {
+          m_stringIndexes.put(candidate, i);
         }
       }
-      if (j == length) {
-        return i;
-      }
     }
-    return -1;
+    Integer index = m_stringIndexes.get(string);
+    return index != null ? index : -1;
   }
 
   // /////////////////////////////////////////// implementation
@@ -265,31 +271,74 @@ public class StringBlock {
   }
 
   private String decodeString(int offset, int length) {
+    String string = m_isUTF8 ? decodeAscii(offset, length) : decodeUtf16(offset, length);
+    if (string != null) {
+      return string;
+    }
+
+    ByteBuffer bytes = m_strings.duplicate();
+    bytes.limit(offset + length).position(offset);
     try {
-      return (m_isUTF8 ? UTF8_DECODER : UTF16LE_DECODER).decode(
-          ByteBuffer.wrap(m_strings, offset, length)).toString();
+      return (m_isUTF8 ? UTF8_DECODER : UTF16LE_DECODER).get().decode(bytes).toString();
     } catch (CharacterCodingException ex) {
       LOGGER.log(Level.WARNING, null, ex);
       return null;
     }
   }
 
-  private static final int getShort(byte[] array, int offset) {
-    return (array[offset + 1] & 0xff) << 8 | array[offset] & 0xff;
+  /**
+   * Decodes a UTF-8 string which only contains ASCII characters, which is the case of almost all
+   * manifest strings.
+   * 
+   * @return The string, or null if the string contains non-ASCII characters.
+   */
+  private String decodeAscii(int offset, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; ++i) {
+      byte b = m_strings.get(offset + i);
+      if (b < 0) {
+        return null;
+      }
+      chars[i] = (char) b;
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Decodes a UTF-16 string by copying its code units.
+   * 
+   * @return The string, or null if the string contains surrogates, which are left to the decoder
+   *         for validation.
+   */
+  private String decodeUtf16(int offset, int length) {
+    char[] chars = new char[length / 2];
+    for (int i = 0; i < chars.length; ++i) {
+      char c = (char) getShort(m_strings, offset + 2 * i);
+      if (Character.isSurrogate(c)) {
+        return null;
+      }
+      chars[i] = c;
+    }
+    return new String(chars);
   }
 
-  private static final int[] getVarint(byte[] array, int offset) {
-    int val = array[offset];
-    boolean more = (val & 0x80) != 0;
-    val &= 0x7f;
+  private static final int getShort(ByteBuffer buffer, int offset) {
+    return buffer.getShort(offset) & 0xffff;
+  }
 
-    if (!more) {
-      return new int[] { val, 1 };
+  private static final int getVarint(ByteBuffer buffer, int offset) {
+    int val = buffer.get(offset);
+    if ((val & 0x80) == 0) {
+      return val;
     } else {
-      return new int[] { val << 8 | array[offset + 1] & 0xff, 2 };
+      return (val & 0x7f) << 8 | buffer.get(offset + 1) & 0xff;
     }
   }
 
+  private static final int getVarintSize(ByteBuffer buffer, int offset) {
+    return (buffer.get(offset) & 0x80) == 0 ? 1 : 2;
+  }
+
   public boolean touch(int index, int own) {
     if (index < 0 || m_stringOwns == null || index >= m_stringOwns.length) {
       return false;
@@ -305,13 +354,28 @@ public class StringBlock {
   }
 
   private int[] m_stringOffsets;
-  private byte[] m_strings;
+  private ByteBuffer m_strings;
+  private String[] m_decodedStrings;
+  private Map<String, Integer> m_stringIndexes;
   private int[] m_styleOffsets;
   private int[] m_styles;
   private boolean m_isUTF8;
   private int[] m_stringOwns;
-  private static final CharsetDecoder UTF16LE_DECODER = Charset.forName("UTF-16LE").newDecoder();
-  private static final CharsetDecoder UTF8_DECODER = Charset.forName("UTF-8").newDecoder();
+  // Decoders are stateful, and manifests may be parsed by several threads.
+  private static final ThreadLocal<CharsetDecoder> UTF16LE_DECODER =
+      new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+          return Charset.forName("UTF-16LE").newDecoder();
+        }
+      };
+  private static final ThreadLocal<CharsetDecoder> UTF8_DECODER =
+      new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+          return Charset.forName("UTF-8").newDecoder();
+        }
+      };
   private static final Logger LOGGER = Logger.getLogger(StringBlock.class.getName());
   private static final int CHUNK_TYPE = 0x001C0001;
   private static final int UTF8_FLAG = 0x00000100;
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import soot.G;
+import soot.IntType;
+import soot.Modifier;
+import soot.PhaseOptions;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.UnitPatchingChain;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.Stmt;
+import soot.options.Options;
+
+public class Ic3ResultBuilderTest {
+  private static final int METHOD_COUNT = 200;
+  private static final String[] EXCEPTIONS = { "AbstractMethodError", "ArithmeticException",
+      "ArrayIndexOutOfBoundsException", "ArrayStoreException", "ClassCastException",
+      "ClassCircularityError", "ClassFormatError", "Error", "Exception",
+      "ExceptionInInitializerError", "IllegalAccessError", "IllegalMonitorStateException",
+      "IncompatibleClassChangeError", "IndexOutOfBoundsException", "InstantiationError",
+      "InternalError", "LinkageError", "NegativeArraySizeException", "NoClassDefFoundError",
+      "NoSuchFieldError", "NoSuchMethodError", "NullPointerException", "OutOfMemoryError",
+      "RuntimeException", "StackOverflowError", "ThreadDeath", "UnknownError",
+      "UnsatisfiedLinkError", "VerifyError", "VirtualMachineError" };
+
+  private SootMethodRef queryRef;
+  private SootMethodRef otherRef;
+  private List<SootMethod> methods;
+  private List<Stmt> reachableQuerySites;
+
+  @Before
+  public void setUp() {
+    G.reset();
+    Options.v().set_allow_phantom_refs(true);
+    // The throw analysis only needs the names of the exceptions of the Java runtime.
+    SootClass object = addPhantomClass("java.lang.Object", null);
+    SootClass throwable = addPhantomClass("java.lang.Throwable", object);
+    for (String exception : EXCEPTIONS) {
+      addPhantomClass("java.lang." + exception, throwable);
+    }
+    // Keep unreachable statements, so that control flow graphs are built during the scan.
+    PhaseOptions.v().setPhaseOption("jb.uce", "enabled:false");
+
+    SootClass api = addPhantomClass("fixture.Api", object);
+    queryRef =
+        Scene.v().makeMethodRef(api, "query", Collections.<Type> singletonList(IntType.v()),
+            VoidType.v(), true);
+    otherRef =
+        Scene.v().makeMethodRef(api, "other", Collections.<Type> singletonList(IntType.v()),
+            VoidType.v(), true);
+
+    SootClass app = new SootClass("fixture.App", Modifier.PUBLIC);
+    app.setSuperclass(object);
+    Scene.v().addClass(app);
+    app.setApplicationClass();
+    methods = new ArrayList<>();
+    reachableQuerySites = new ArrayList<>();
+    for (int i = 0; i < METHOD_COUNT; ++i) {
+      methods.add(makeMethod(app, i));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    G.reset();
+  }
+
+  @Test
+  public void scansSameQuerySitesSeriallyAndInParallel() {
+    Ic3ResultBuilder.ScanResult serial = new Ic3ResultBuilder(new FixtureIndex(), 1).scan(methods);
+    Ic3ResultBuilder.ScanResult parallel =
+        new Ic3ResultBuilder(new FixtureIndex(), 4).scan(methods);
+
+    assertEquals(reachableQuerySites, serial.getQuerySites());
+    assertEquals(serial.getQuerySites(), parallel.getQuerySites());
+    assertEquals(serial.getReachableStatements(), parallel.getReachableStatements());
+  }
+
+  @Test
+  public void countsOnlyReachableStatementsOfMethodsWithQuerySites() {
+    Ic3ResultBuilder.ScanResult scanResult =
+        new Ic3ResultBuilder(new FixtureIndex(), 4).scan(methods);
+
+    long expected = 0;
+    for (int i = 0; i < METHOD_COUNT; ++i) {
+      // All statements of methods without query sites are counted, since their control flow
+      // graph is not built. Methods with query sites have one unreachable statement.
+      expected += i % 3 == 0 ? 4 : 3;
+    }
+    assertEquals(expected, scanResult.getReachableStatements());
+  }
+
+  /**
+   * Makes a method with four statements which calls fixture.Api.other(i), then
+   * fixture.Api.query(i) unless i is a multiple of 3, and returns. Methods with a query site also
+   * call query(-i) after returning.
+   */
+  private SootMethod makeMethod(SootClass app, int i) {
+    SootMethod method =
+        new SootMethod("m" + i, Collections.<Type> emptyList(), VoidType.v(), Modifier.PUBLIC
+            | Modifier.STATIC);
+    app.addMethod(method);
+    JimpleBody body = Jimple.v().newBody(method);
+    method.setActiveBody(body);
+    UnitPatchingChain units = body.getUnits();
+    units.add(invoke(otherRef, i));
+    if (i % 3 == 0) {
+      units.add(Jimple.v().newNopStmt());
+      units.add(Jimple.v().newNopStmt());
+      units.add(Jimple.v().newReturnVoidStmt());
+    } else {
+      Stmt querySite = invoke(queryRef, i);
+      units.add(querySite);
+      reachableQuerySites.add(querySite);
+      units.add(Jimple.v().newReturnVoidStmt());
+      units.add(invoke(queryRef, -i));
+    }
+    return method;
+  }
+
+  private static SootClass addPhantomClass(String name, SootClass superclass) {
+    SootClass sootClass = new SootClass(name, Modifier.PUBLIC);
+    if (superclass != null) {
+      sootClass.setSuperclass(superclass);
+    }
+    Scene.v().addClass(sootClass);
+    sootClass.setPhantomClass();
+    return sootClass;
+  }
+
+  private static Stmt invoke(SootMethodRef methodRef, int argument) {
+    return Jimple.v().newInvokeStmt(
+        Jimple.v().newStaticInvokeExpr(methodRef, IntConstant.v(argument)));
+  }
+
+  private static class FixtureIndex extends QuerySiteIndex {
+    @Override
+    protected boolean isQuerySite(Stmt stmt) {
+      return stmt.getInvokeExpr().getMethodRef().name().equals("query");
+    }
+  }
+}
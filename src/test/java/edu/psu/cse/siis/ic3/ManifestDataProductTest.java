@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.psu.cse.siis.ic3.manifest.ManifestData;
+
+public class ManifestDataProductTest {
+  @Test
+  public void enumeratesTheFullProductInOrder() {
+    List<String> mimeTypes = Arrays.asList("text/plain", null);
+    List<DataAuthority> authorities =
+        Arrays.asList(new DataAuthority("a.com", "80"), new DataAuthority("b.com", null));
+    List<String> paths = Arrays.asList("/x", "/y", "/z");
+    List<String> schemes = Arrays.asList("http", "https");
+    ManifestDataProduct product =
+        new ManifestDataProduct(mimeTypes, authorities, paths, schemes);
+
+    assertFalse(product.isTruncated());
+    assertEquals(24, product.size());
+    int index = 0;
+    for (String mimeType : mimeTypes) {
+      for (DataAuthority authority : authorities) {
+        for (String path : paths) {
+          for (String scheme : schemes) {
+            assertData(mimeType, authority, path, scheme, product.get(index++));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void truncatesLargeProducts() {
+    ManifestDataProduct product = makeLargeProduct();
+
+    assertTrue(product.isTruncated());
+    assertEquals(ManifestDataProduct.MAX_SIZE, product.size());
+    // 4095 is 4 * 1000 + 0 * 100 + 9 * 10 + 5.
+    assertData("4", new DataAuthority("host0", null), "9", "5",
+        product.get(ManifestDataProduct.MAX_SIZE - 1));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void rejectsIndicesPastTheCap() {
+    makeLargeProduct().get(ManifestDataProduct.MAX_SIZE);
+  }
+
+  @Test
+  public void emptyFactorMakesAnEmptyProduct() {
+    ManifestDataProduct product =
+        new ManifestDataProduct(Collections.<String> emptyList(),
+            Collections.singletonList(new DataAuthority(null, null)),
+            Collections.<String> singletonList(null), Collections.singletonList("http"));
+
+    assertFalse(product.isTruncated());
+    assertEquals(0, product.size());
+  }
+
+  /**
+   * Makes a product of 10 values in each factor.
+   */
+  private ManifestDataProduct makeLargeProduct() {
+    List<String> values = new ArrayList<>();
+    List<DataAuthority> authorities = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      values.add(Integer.toString(i));
+      authorities.add(new DataAuthority("host" + i, null));
+    }
+    return new ManifestDataProduct(values, authorities, values, values);
+  }
+
+  private void assertData(String mimeType, DataAuthority authority, String path, String scheme,
+      ManifestData data) {
+    assertEquals(mimeType, data.getMimeType());
+    assertEquals(authority.getHost(), data.getHost());
+    assertEquals(authority.getPort(), data.getPort());
+    assertEquals(path, data.getPath());
+    assertEquals(scheme, data.getScheme());
+  }
+}
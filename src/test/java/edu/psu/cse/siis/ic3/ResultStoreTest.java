@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.psu.cse.siis.ic3.Ic3Data.Application;
+
+public class ResultStoreTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void readsAppendedApplications() throws IOException {
+    String directory = temporaryFolder.getRoot().getPath();
+    try (ResultStore store = new ResultStore(directory)) {
+      store.append(makeApplication("a.b", 1, null, 10));
+      store.append(makeApplication("c.d", 2, "sample", 20));
+
+      assertEquals(10, store.read("a.b", 1, null).getAnalysisStart());
+      assertEquals(20, store.read("c.d", 2, "sample").getAnalysisStart());
+      assertNull(store.read("c.d", 2, null));
+      assertNull(store.read("a.b", 2, null));
+    }
+  }
+
+  @Test
+  public void latestEntryReplacesEarlierOnes() throws IOException {
+    String directory = temporaryFolder.getRoot().getPath();
+    try (ResultStore store = new ResultStore(directory)) {
+      store.append(makeApplication("a.b", 1, null, 10));
+      store.append(makeApplication("c.d", 1, null, 20));
+      store.append(makeApplication("a.b", 1, null, 30));
+
+      assertEquals(30, store.read("a.b", 1, null).getAnalysisStart());
+      List<String> names = new ArrayList<>();
+      for (ResultStore.Entry entry : store.getEntries()) {
+        names.add(entry.getName());
+      }
+      assertEquals(2, names.size());
+      assertEquals("a.b", names.get(0));
+      assertEquals("c.d", names.get(1));
+    }
+  }
+
+  @Test
+  public void seesEntriesAppendedByOtherWriters() throws IOException {
+    String directory = temporaryFolder.getRoot().getPath();
+    try (ResultStore reader = new ResultStore(directory);
+        ResultStore writer = new ResultStore(directory)) {
+      writer.append(makeApplication("a.b", 1, null, 10));
+      assertEquals(1, reader.getEntries().size());
+      writer.append(makeApplication("c.d", 1, null, 20));
+      assertEquals(20, reader.read("c.d", 1, null).getAnalysisStart());
+    }
+  }
+
+  @Test
+  public void ignoresAndTruncatesIncompleteAppends() throws IOException {
+    File directory = temporaryFolder.getRoot();
+    try (ResultStore store = new ResultStore(directory.getPath())) {
+      store.append(makeApplication("a.b", 1, null, 10));
+    }
+
+    // A writer died after writing part of a record and part of an index entry.
+    appendGarbage(new File(directory, "segment-00000.dat"), 37);
+    appendGarbage(new File(directory, "index"), 11);
+
+    try (ResultStore store = new ResultStore(directory.getPath())) {
+      assertEquals(1, store.getEntries().size());
+
+      ResultStore.Entry entry = store.append(makeApplication("c.d", 1, null, 20));
+      assertEquals(store.getEntry("a.b", 1, null).getLength(), entry.getOffset());
+    }
+
+    try (ResultStore store = new ResultStore(directory.getPath())) {
+      assertEquals(2, store.getEntries().size());
+      assertEquals(10, store.read("a.b", 1, null).getAnalysisStart());
+      assertEquals(20, store.read("c.d", 1, null).getAnalysisStart());
+    }
+  }
+
+  private Application makeApplication(String name, int version, String sample,
+      long analysisStart) {
+    Application.Builder builder =
+        Application.newBuilder().setName(name).setVersion(version)
+            .setAnalysisStart(analysisStart);
+    if (sample != null) {
+      builder.setSample(sample);
+    }
+    return builder.build();
+  }
+
+  private void appendGarbage(File file, int length) throws IOException {
+    try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+      output.seek(output.length());
+      for (int i = 0; i < length; ++i) {
+        output.write(0x5a);
+      }
+    }
+  }
+}
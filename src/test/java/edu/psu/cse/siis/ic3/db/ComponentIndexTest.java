@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.roaringbitmap.RoaringBitmap;
+
+import edu.psu.cse.siis.ic3.manifest.ManifestComponent;
+import edu.psu.cse.siis.ic3.manifest.ManifestIntentFilter;
+
+public class ComponentIndexTest {
+  private static final String ACTION = "android.intent.action.VIEW";
+
+  private static int databaseCount = 0;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private String url;
+  private String indexPath;
+
+  @Before
+  public void setUp() throws IOException {
+    url = "jdbc:h2:mem:index" + databaseCount++ + ";DB_CLOSE_DELAY=-1";
+    indexPath = temporaryFolder.getRoot().getPath() + "/components.idx";
+    SQLConnection.init(null, url, null, 0);
+  }
+
+  @After
+  public void tearDown() {
+    SQLConnection.shutdown();
+    ComponentIndex.clear();
+  }
+
+  @Test
+  public void indexesOnlyExportedComponents() throws SQLException {
+    SQLConnection.openComponentIndex(indexPath);
+    List<Integer> componentIds = insertApplication("a.b", true, false);
+
+    assertEquals(RoaringBitmap.bitmapOf(componentIds.get(0)), findComponents());
+  }
+
+  @Test
+  public void removesComponentsOfDeletedApplications() throws SQLException {
+    SQLConnection.openComponentIndex(indexPath);
+    insertApplication("a.b", true);
+    insertApplication("c.d", true);
+    // Analyzing an application again replaces its earlier results.
+    List<Integer> componentIds = insertApplication("a.b", true);
+
+    RoaringBitmap components = findComponents();
+    assertEquals(2, components.getCardinality());
+    assertEquals(true, components.contains(componentIds.get(0)));
+  }
+
+  @Test
+  public void rollsBackAdditions() throws SQLException {
+    SQLConnection.openComponentIndex(indexPath);
+    SQLConnection.beginTransaction();
+    SQLConnection.insert("a.b", 1, makeComponents(true), null, null, false);
+    SQLConnection.reset();
+
+    assertEquals(new RoaringBitmap(), findComponents());
+  }
+
+  @Test
+  public void savesAndReloadsIndex() throws SQLException {
+    SQLConnection.openComponentIndex(indexPath);
+    List<Integer> componentIds = insertApplication("a.b", true);
+    reopen();
+
+    assertEquals(RoaringBitmap.bitmapOf(componentIds.get(0)), findComponents());
+  }
+
+  @Test
+  public void rebuildsIndexWhichDisagreesWithDatabase() throws SQLException {
+    SQLConnection.openComponentIndex(indexPath);
+    insertApplication("a.b", true);
+    SQLConnection.shutdown();
+    ComponentIndex.clear();
+
+    // Another process replaces the application without updating the index file.
+    SQLConnection.init(null, url, null, 0);
+    List<Integer> componentIds = insertApplication("a.b", true);
+    reopen();
+
+    assertEquals(RoaringBitmap.bitmapOf(componentIds.get(0)), findComponents());
+  }
+
+  private void reopen() {
+    SQLConnection.shutdown();
+    ComponentIndex.clear();
+    SQLConnection.init(null, url, null, 0);
+    SQLConnection.openComponentIndex(indexPath);
+  }
+
+  private static RoaringBitmap findComponents() throws SQLException {
+    return ComponentIndex.v().findComponents(ACTION, null);
+  }
+
+  private static List<Integer> insertApplication(String app, boolean... exported)
+      throws SQLException {
+    SQLConnection.beginTransaction();
+    List<ManifestComponent> components = makeComponents(exported);
+    List<Integer> result = new ArrayList<>();
+    for (Integer componentId : SQLConnection.insert(app, 1, components, null, null, false)
+        .values()) {
+      result.add(componentId);
+    }
+    Collections.sort(result);
+    SQLConnection.markComplete();
+    SQLConnection.commitTransaction();
+    SQLConnection.reset();
+    return result;
+  }
+
+  private static List<ManifestComponent> makeComponents(boolean... exported) {
+    List<ManifestComponent> components = new ArrayList<>();
+    for (int i = 0; i < exported.length; ++i) {
+      ManifestComponent component =
+          new ManifestComponent(Constants.ComponentShortType.ACTIVITY, "Activity" + i,
+              exported[i], true, null, null, null, null, null);
+      ManifestIntentFilter intentFilter = new ManifestIntentFilter(false, null);
+      intentFilter.addAction(ACTION);
+      component.addIntentFilters(Collections.singleton(intentFilter));
+      components.add(component);
+    }
+    return components;
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LinkResolverTest {
+  private static int databaseCount = 0;
+
+  private Statement statement;
+
+  @Before
+  public void setUp() throws SQLException {
+    SQLConnection.init(null, "jdbc:h2:mem:links" + databaseCount++ + ";DB_CLOSE_DELAY=-1", null,
+        0);
+    statement = Table.getConnection().createStatement();
+    execute("INSERT INTO Applications (app, version) VALUES ('sender', 1)",
+        "INSERT INTO Applications (app, version) VALUES ('receiver', 1)",
+        "INSERT INTO Classes (app_id, class) VALUES (1, 'sender.Main')",
+        "INSERT INTO Classes (app_id, class) VALUES (2, 'receiver.View')",
+        "INSERT INTO Classes (app_id, class) VALUES (2, 'receiver.Private')",
+        "INSERT INTO Classes (app_id, class) VALUES (2, 'receiver.Boot')",
+        "INSERT INTO Classes (app_id, class) VALUES (1, 'sender.Internal')",
+        // 1: exported activity, 2: private activity, 3: exported receiver,
+        // 4: private activity in the sending application.
+        "INSERT INTO Components (class_id, kind, exported) VALUES (2, 'a', true)",
+        "INSERT INTO Components (class_id, kind, exported) VALUES (3, 'a', false)",
+        "INSERT INTO Components (class_id, kind, exported) VALUES (4, 'r', true)",
+        "INSERT INTO Components (class_id, kind, exported) VALUES (5, 'a', false)",
+        "INSERT INTO ActionStrings (st) VALUES ('android.intent.action.VIEW')",
+        "INSERT INTO ActionStrings (st) VALUES ('android.intent.action.BOOT_COMPLETED')",
+        "INSERT INTO CategoryStrings (st) VALUES ('android.intent.category.DEFAULT')",
+        "INSERT INTO CategoryStrings (st) VALUES ('android.intent.category.BROWSABLE')",
+        "INSERT INTO ExitPoints (class_id, method, instruction, exit_kind) "
+            + "VALUES (1, 'm', 1, 'a')",
+        "INSERT INTO ExitPoints (class_id, method, instruction, exit_kind) "
+            + "VALUES (1, 'm', 2, 'r')");
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    statement.close();
+    SQLConnection.shutdown();
+  }
+
+  @Test
+  public void linksExplicitIntentsToAccessibleComponents() throws SQLException {
+    addExplicitIntent(1, "receiver.View");
+    addExplicitIntent(1, "receiver.Private");
+    addExplicitIntent(1, "sender.Internal");
+    addExplicitIntent(2, "receiver.View");
+
+    assertEquals(2, new LinkResolver(1).resolve());
+    // Private components only receive intents from their own application, and the kind of the
+    // exit point must match the kind of the component.
+    assertLinks("1->1", "3->4");
+  }
+
+  @Test
+  public void implicitActivityIntentsRequireDefaultCategory() throws SQLException {
+    addFilter(1, new int[] { 1 }, new int[] { 1 });
+    addFilter(2, new int[] { 1 }, new int[] {});
+    addFilter(4, new int[] { 1 }, new int[] { 1 });
+    addImplicitIntent(1, 1, new int[] {});
+
+    new LinkResolver(1).resolve();
+    assertLinks("1->1", "1->4");
+  }
+
+  @Test
+  public void intentCategoriesMustAllBeInFilter() throws SQLException {
+    addFilter(1, new int[] { 1 }, new int[] { 1, 2 });
+    addImplicitIntent(1, 1, new int[] { 2 });
+    addImplicitIntent(1, 1, new int[] { 1, 2 });
+    addImplicitIntent(1, 2, new int[] {});
+
+    new LinkResolver(2).resolve();
+    assertLinks("1->1", "2->1");
+  }
+
+  @Test
+  public void receiverIntentsMatchReceiverFilters() throws SQLException {
+    addFilter(1, new int[] { 2 }, new int[] { 1 });
+    addFilter(3, new int[] { 2 }, new int[] {});
+    addImplicitIntent(2, 2, new int[] {});
+
+    new LinkResolver(1).resolve();
+    assertLinks("1->3");
+  }
+
+  @Test
+  public void matchesDataSchemeHostAndPath() throws SQLException {
+    addFilter(1, new int[] { 1 }, new int[] { 1 });
+    execute("INSERT INTO IFData (filter_id, scheme, host, path) "
+        + "VALUES (1, 'http', '*.example.com', '/docs')");
+    addImplicitIntent(1, 1, new int[] {});
+    addIntentData(1, "http", "www.example.com:80", "/docs/index.html");
+    addImplicitIntent(1, 1, new int[] {});
+    addIntentData(2, "http", "www.example.org", "/docs");
+    addImplicitIntent(1, 1, new int[] {});
+    addIntentData(3, "https", "www.example.com", "/docs");
+    addImplicitIntent(1, 1, new int[] {});
+    addIntentData(4, "http", "www.example.com", "/blog");
+    // Intents without data do not match filters with data.
+    addImplicitIntent(1, 1, new int[] {});
+
+    new LinkResolver(1).resolve();
+    assertLinks("1->1");
+  }
+
+  @Test
+  public void matchesMimeTypes() throws SQLException {
+    addFilter(1, new int[] { 1 }, new int[] { 1 });
+    execute("INSERT INTO IFData (filter_id, type, subtype) VALUES (1, 'image', '*')");
+    addImplicitIntent(1, 1, new int[] {});
+    execute("INSERT INTO IMimeTypes (intent_id, type, subtype) VALUES (1, 'image', 'png')");
+    addImplicitIntent(1, 1, new int[] {});
+    execute("INSERT INTO IMimeTypes (intent_id, type, subtype) VALUES (2, 'text', 'plain')");
+    addImplicitIntent(1, 1, new int[] {});
+
+    new LinkResolver(1).resolve();
+    assertLinks("1->1");
+  }
+
+  @Test
+  public void replacesPreviousLinks() throws SQLException {
+    addExplicitIntent(1, "receiver.View");
+    new LinkResolver(1).resolve();
+    execute("DELETE FROM IClasses",
+        "INSERT INTO IClasses (intent_id, class) VALUES (1, 'sender.Internal')",
+        // Left over by an interrupted run.
+        "INSERT INTO StagedLinks (intent_id, component_id) VALUES (1, 3)");
+
+    assertEquals(1, new LinkResolver(1).resolve());
+    assertLinks("1->4");
+    assertEquals(0, count("SELECT COUNT(*) FROM StagedLinks"));
+  }
+
+  @Test
+  public void keepsPreviousLinksWhenResolutionFails() throws SQLException {
+    addExplicitIntent(1, "receiver.View");
+    new LinkResolver(1).resolve();
+    execute("DROP TABLE StagedLinks");
+
+    addExplicitIntent(1, "sender.Internal");
+    try {
+      new LinkResolver(1).resolve();
+      fail("Links resolved without the staging table");
+    } catch (SQLException e) {
+      // Expected.
+    }
+    assertLinks("1->1");
+  }
+
+  private void addExplicitIntent(int exitId, String clazz) throws SQLException {
+    int intentId = insertIntent(exitId, false);
+    execute("INSERT INTO IClasses (intent_id, class) VALUES (" + intentId + ", '" + clazz + "')");
+  }
+
+  private void addImplicitIntent(int exitId, int action, int[] categories) throws SQLException {
+    int intentId = insertIntent(exitId, true);
+    execute("INSERT INTO IActions (intent_id, action) VALUES (" + intentId + ", " + action + ")");
+    for (int category : categories) {
+      execute("INSERT INTO ICategories (intent_id, category) VALUES (" + intentId + ", "
+          + category + ")");
+    }
+  }
+
+  private void addIntentData(int intentId, String scheme, String authority, String path)
+      throws SQLException {
+    execute("INSERT INTO UriData (scheme, authority, path) VALUES ('" + scheme + "', '"
+        + authority + "', '" + path + "')");
+    int dataId = count("SELECT MAX(id) FROM UriData");
+    execute("INSERT INTO IData (intent_id, data) VALUES (" + intentId + ", " + dataId + ")");
+  }
+
+  private void addFilter(int componentId, int[] actions, int[] categories) throws SQLException {
+    execute("INSERT INTO IntentFilters (component_id, alias) VALUES (" + componentId + ", false)");
+    int filterId = count("SELECT MAX(id) FROM IntentFilters");
+    for (int action : actions) {
+      execute("INSERT INTO IFActions (filter_id, action) VALUES (" + filterId + ", " + action
+          + ")");
+    }
+    for (int category : categories) {
+      execute("INSERT INTO IFCategories (filter_id, category) VALUES (" + filterId + ", "
+          + category + ")");
+    }
+  }
+
+  private int insertIntent(int exitId, boolean implicit) throws SQLException {
+    execute("INSERT INTO Intents (exit_id, implicit, alias) VALUES (" + exitId + ", " + implicit
+        + ", false)");
+    return count("SELECT MAX(id) FROM Intents");
+  }
+
+  private void assertLinks(String... expected) throws SQLException {
+    List<String> links = new ArrayList<>();
+    ResultSet resultSet = statement
+        .executeQuery("SELECT intent_id, component_id FROM Links ORDER BY intent_id, component_id");
+    while (resultSet.next()) {
+      links.add(resultSet.getInt(1) + "->" + resultSet.getInt(2));
+    }
+    resultSet.close();
+    assertEquals(Arrays.asList(expected), links);
+  }
+
+  private int count(String query) throws SQLException {
+    ResultSet resultSet = statement.executeQuery(query);
+    resultSet.next();
+    int result = resultSet.getInt(1);
+    resultSet.close();
+    return result;
+  }
+
+  private void execute(String... updates) throws SQLException {
+    for (String update : updates) {
+      statement.executeUpdate(update);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.psu.cse.siis.ic3.manifest.ManifestComponent;
+
+public class SpoolLoaderTest {
+  private static int databaseCount = 0;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private String root;
+
+  @Before
+  public void setUp() throws SQLException {
+    root = temporaryFolder.getRoot().getPath();
+    SQLConnection.init(null, "jdbc:h2:mem:spool" + databaseCount++ + ";DB_CLOSE_DELAY=-1", null,
+        0);
+    // Rows which are already in the database, so that spooled identifiers must be shifted.
+    beginApplication("direct");
+    SQLConnection.insertExitPoint("direct.Main", "m", 1, "a", null);
+    SQLConnection.insertExitPoint("direct.Main", "m", 2, "a", null);
+    SQLConnection.markComplete();
+    SQLConnection.commitTransaction();
+  }
+
+  @After
+  public void tearDown() {
+    SQLConnection.reset();
+    SQLConnection.shutdown();
+  }
+
+  @Test
+  public void shiftsSpooledIdentifiers() throws SQLException, IOException {
+    SQLConnection.openSpool(root);
+    spoolApplication("first", "fp1", true);
+    spoolApplication("second", "fp2", true);
+    closeSpool();
+
+    assertEquals(2, new SpoolLoader(root).load());
+    assertEquals(Arrays.asList("1 m", "2 m", "3 first.m\ttab\\", "4 second.m\ttab\\"),
+        query("SELECT id, method FROM ExitPoints ORDER BY id"));
+    // References to spooled rows are shifted, references to other rows are kept.
+    assertEquals(Arrays.asList("1 3 first.Main", "2 4 second.Main"),
+        query("SELECT Intents.id, Intents.exit_id, Classes.class FROM Intents "
+            + "JOIN ExitPoints ON Intents.exit_id = ExitPoints.id "
+            + "JOIN Classes ON ExitPoints.class_id = Classes.id ORDER BY Intents.id"));
+    assertEquals(Arrays.asList("1 act", "2 act"),
+        query("SELECT IActions.intent_id, ActionStrings.st FROM IActions "
+            + "JOIN ActionStrings ON IActions.action = ActionStrings.id ORDER BY IActions.id"));
+    assertEquals(Arrays.asList("1 http", "2 http"), query("SELECT IData.intent_id, UriData.scheme "
+        + "FROM IData JOIN UriData ON IData.data = UriData.id ORDER BY IData.id"));
+    assertEquals(Arrays.asList("direct TRUE null", "first TRUE fp1", "second TRUE fp2"),
+        query("SELECT app, complete, fingerprint FROM Applications ORDER BY id"));
+  }
+
+  @Test
+  public void skipsRowsOfReplacedAndUncommittedApplications() throws SQLException, IOException {
+    SQLConnection.openSpool(root);
+    spoolApplication("first", null, true);
+    // Analyzing the application again replaces its earlier rows.
+    spoolApplication("first", null, true);
+    spoolApplication("second", null, false);
+    closeSpool();
+
+    assertEquals(1, new SpoolLoader(root).load());
+    assertEquals(Arrays.asList("1 m", "2 m", "4 first.m\ttab\\"),
+        query("SELECT id, method FROM ExitPoints ORDER BY id"));
+    assertEquals(Arrays.asList("2 4"), query("SELECT id, exit_id FROM Intents"));
+    assertEquals(Arrays.asList("direct TRUE", "first TRUE"),
+        query("SELECT app, complete FROM Applications ORDER BY id"));
+  }
+
+  @Test
+  public void continuesAfterLoadedIdentifiers() throws SQLException, IOException {
+    SQLConnection.openSpool(root);
+    spoolApplication("first", null, true);
+    closeSpool();
+    assertEquals(1, new SpoolLoader(root).load());
+    // Loaded segments are emptied.
+    assertEquals(0, new SpoolLoader(root).load());
+
+    beginApplication("after");
+    assertEquals(4, SQLConnection.insertExitPoint("after.Main", "m", 1, "a", null));
+    SQLConnection.markComplete();
+    SQLConnection.commitTransaction();
+  }
+
+  private static void beginApplication(String app) throws SQLException {
+    SQLConnection.reset();
+    SQLConnection.beginTransaction();
+    SQLConnection.insert(app, 1, Collections.<ManifestComponent> emptyList(), null, null, true);
+  }
+
+  private static void spoolApplication(String app, String fingerprint, boolean commit)
+      throws SQLException, IOException {
+    beginApplication(app);
+    int componentId = SQLConnection.insertComponent(app + ".Main", "a", true, null, null);
+    int exitId = SQLConnection.insertExitPoint(app + ".Main", app + ".m\ttab\\", 1, "a", null);
+    SQLConnection.spool.addRow(SpoolTable.EXIT_POINT_COMPONENTS, exitId, componentId);
+    int intentId = SQLConnection.spool.addRow(SpoolTable.INTENTS, exitId, true, false);
+    SQLConnection.spool.addRow(SpoolTable.INTENT_ACTIONS, intentId,
+        SQLConnection.actionStringTable.insert("act"));
+    int dataId =
+        SQLConnection.spool.addRow(SpoolTable.URI_DATA, "http", null, null, "/p", null, "h");
+    SQLConnection.spool.addRow(SpoolTable.INTENT_DATA, intentId, dataId);
+    if (commit) {
+      SQLConnection.commitTransaction();
+      SQLConnection.commitSpool(fingerprint);
+    }
+    SQLConnection.reset();
+  }
+
+  private static void closeSpool() throws IOException {
+    SQLConnection.spool.close();
+    SQLConnection.spool = null;
+  }
+
+  private static List<String> query(String query) throws SQLException {
+    List<String> result = new ArrayList<>();
+    try (Statement statement = Table.getConnection().createStatement();
+        ResultSet resultSet = statement.executeQuery(query)) {
+      int columnCount = resultSet.getMetaData().getColumnCount();
+      while (resultSet.next()) {
+        StringBuilder row = new StringBuilder();
+        for (int i = 1; i <= columnCount; ++i) {
+          if (i > 1) {
+            row.append(' ');
+          }
+          row.append(resultSet.getString(i));
+        }
+        result.add(row.toString());
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpoolTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void escapesSpecialCharacters() throws IOException {
+    String method = "m\tx\\y\nz\r\0end";
+    try (Spool spool = Spool.open(temporaryFolder.getRoot().getPath())) {
+      spool.addRow(SpoolTable.EXIT_POINTS, 7, method, 3, "a", null);
+      spool.commit(1, null);
+
+      List<String> lines = readLines(spool.getTableFile(SpoolTable.EXIT_POINTS));
+      assertEquals(1, lines.size());
+      assertEquals("1\t7\tm\\tx\\\\y\\nz\\r\\0end\t3\ta\t\\N", lines.get(0));
+      assertArrayEquals(new String[] { "1", "7", method, "3", "a", null },
+          Spool.parseLine(lines.get(0)));
+    }
+  }
+
+  @Test
+  public void writesBooleansAsDigits() throws IOException {
+    try (Spool spool = Spool.open(temporaryFolder.getRoot().getPath())) {
+      spool.addRow(SpoolTable.INTENTS, 1, true, false);
+      spool.commit(1, null);
+
+      assertEquals("1\t1\t1\t0", readLines(spool.getTableFile(SpoolTable.INTENTS)).get(0));
+    }
+  }
+
+  @Test
+  public void keepsBackslashesWhichDoNotEscape() {
+    assertArrayEquals(new String[] { "a\\", "\\N\\" }, Spool.parseLine("a\\\t\\\\N\\"));
+    assertNull(Spool.parseLine("\\N")[0]);
+  }
+
+  @Test
+  public void discardsRowsAfterLastCommit() throws IOException {
+    String root = temporaryFolder.getRoot().getPath();
+    File tableFile;
+    try (Spool spool = Spool.open(root)) {
+      spool.addRow(SpoolTable.EXIT_POINTS, 1, "m", 1, "a", null);
+      spool.commit(1, "fingerprint");
+      // Rolled back rows are never written and do not use identifiers.
+      spool.addRow(SpoolTable.EXIT_POINTS, 1, "m", 2, "a", null);
+      spool.rollback();
+      tableFile = spool.getTableFile(SpoolTable.EXIT_POINTS);
+    }
+    // A writer which was killed while committing.
+    try (FileWriter writer = new FileWriter(tableFile, true)) {
+      writer.write("2\t1\tm\t3\ta\t\\N\n3\tgar");
+    }
+    try (FileWriter writer = new FileWriter(new File(tableFile.getParentFile(), "commits.tsv"),
+        true)) {
+      writer.write("2\t-\t1");
+    }
+
+    try (Spool spool = Spool.open(root)) {
+      assertEquals(1, readLines(tableFile).size());
+      List<Spool.Commit> commits = spool.getCommits();
+      assertEquals(1, commits.size());
+      assertEquals(1, commits.get(0).getAppId());
+      assertEquals("fingerprint", commits.get(0).getFingerprint());
+      assertEquals(1, commits.get(0).getLastId(SpoolTable.EXIT_POINTS));
+      assertEquals(0, commits.get(0).getLastId(SpoolTable.INTENTS));
+      assertEquals(2, spool.addRow(SpoolTable.EXIT_POINTS, 1, "m", 4, "a", null));
+    }
+  }
+
+  private static List<String> readLines(File file) throws IOException {
+    return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+  }
+}
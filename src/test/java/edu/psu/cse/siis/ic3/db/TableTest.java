@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Pennsylvania State University and the University of Wisconsin
+ * Systems and Internet Infrastructure Security Laboratory
+ *
+ * Author: Damien Octeau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.psu.cse.siis.ic3.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.psu.cse.siis.ic3.manifest.ManifestComponent;
+
+public class TableTest {
+  private static int databaseCount = 0;
+
+  @Before
+  public void setUp() {
+    SQLConnection.init(null, "jdbc:h2:mem:table" + databaseCount++ + ";DB_CLOSE_DELAY=-1", null,
+        0);
+  }
+
+  @After
+  public void tearDown() {
+    SQLConnection.reset();
+    SQLConnection.shutdown();
+  }
+
+  @Test
+  public void rollsBackTransactionWhoseBatchCannotBeWritten() throws SQLException {
+    beginApplication();
+    // The link refers to an intent and a component which do not exist.
+    new LinkTable().queueInsert(100, 100);
+    try {
+      SQLConnection.commitTransaction();
+      fail("The transaction was committed");
+    } catch (SQLException e) {
+      // Expected.
+    }
+    SQLConnection.closeConnection();
+
+    assertEquals(0, countApplications());
+  }
+
+  @Test
+  public void doesNotCommitAfterEarlierBatchFailure() throws SQLException {
+    beginApplication();
+    new LinkTable().queueInsert(100, 100);
+    try {
+      Table.flushBatches();
+      fail("The batch was written");
+    } catch (SQLException e) {
+      // Ignored by the caller, which goes on writing rows.
+    }
+    SQLConnection.markComplete();
+    try {
+      SQLConnection.commitTransaction();
+      fail("The transaction was committed");
+    } catch (SQLException e) {
+      // Expected.
+    }
+    SQLConnection.closeConnection();
+
+    assertEquals(0, countApplications());
+  }
+
+  @Test
+  public void commitsTransactionAfterRollback() throws SQLException {
+    beginApplication();
+    new LinkTable().queueInsert(100, 100);
+    try {
+      SQLConnection.commitTransaction();
+      fail("The transaction was committed");
+    } catch (SQLException e) {
+      // Expected.
+    }
+
+    beginApplication();
+    SQLConnection.markComplete();
+    SQLConnection.commitTransaction();
+    SQLConnection.closeConnection();
+
+    assertEquals(1, countApplications());
+  }
+
+  private static void beginApplication() throws SQLException {
+    SQLConnection.reset();
+    SQLConnection.beginTransaction();
+    SQLConnection.insert("app", 1, Collections.<ManifestComponent> emptyList(), null, null, true);
+  }
+
+  private static int countApplications() throws SQLException {
+    try (Statement statement = Table.getConnection().createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM Applications")) {
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+}